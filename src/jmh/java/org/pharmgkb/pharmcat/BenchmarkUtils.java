@@ -0,0 +1,55 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.haplotype.SampleAllele;
+
+
+/**
+ * Helpers for loading the data benchmarks run against.
+ * <p>
+ * The VCF files are the multi-sample files bundled with the tests.
+ */
+public class BenchmarkUtils {
+  public static final String SAMPLES_100 = "100samples.vcf.bgz";
+  public static final String MULTISAMPLE = "multisample.vcf.bgz";
+
+
+  private BenchmarkUtils() {
+  }
+
+
+  public static Path getVcfFile(String name) {
+    return PathUtils.getPathToResource("org/pharmgkb/pharmcat/" + name);
+  }
+
+  /**
+   * Reads all samples in the VCF file in a single pass.
+   */
+  public static VcfFile readSamples(DefinitionReader definitionReader, String name)
+      throws IOException, ReportableException {
+    VcfFile vcfFile = new VcfFile(getVcfFile(name));
+    vcfFile.readSamples(definitionReader, vcfFile.getSamples(), false);
+    return vcfFile;
+  }
+
+  /**
+   * Gets the sample alleles for every sample in the VCF file, keyed by sample ID.
+   */
+  public static Map<String, SortedMap<String, SampleAllele>> readAlleleMaps(DefinitionReader definitionReader,
+      String name) throws IOException, ReportableException {
+    VcfFile vcfFile = readSamples(definitionReader, name);
+    List<String> samples = vcfFile.getSamples();
+    Map<String, SortedMap<String, SampleAllele>> alleleMaps = new LinkedHashMap<>();
+    for (String sampleId : samples) {
+      alleleMaps.put(sampleId, vcfFile.getReader(definitionReader, sampleId, false).getAlleleMap());
+    }
+    return alleleMaps;
+  }
+}
@@ -0,0 +1,113 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pharmgkb.pharmcat.BenchmarkUtils;
+import org.pharmgkb.pharmcat.ReportableException;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+
+
+/**
+ * Benchmarks {@link MatchData#comparePermutations()} and {@link DiplotypeMatcher#compute} for a gene, over all the
+ * samples in a VCF file.
+ * <p>
+ * The bundled VCF files are unphased, which is the worst case.  Use {@code phasing=phased} to see how the same
+ * genotypes do when phased.  {@link #computeCombinations} follows the combination path that DPYD and research mode
+ * use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiplotypeMatcherBenchmark {
+  @Param({"CYP2B6", "CYP2C19", "CYP2C9", "CYP3A5", "DPYD", "NUDT15", "SLCO1B1", "TPMT", "UGT1A1"})
+  public String gene;
+  @Param({"unphased", "phased"})
+  public String phasing;
+  @Param({BenchmarkUtils.SAMPLES_100})
+  public String vcf;
+  private GeneMatcherIndex m_index;
+  private Map<String, SortedMap<String, SampleAllele>> m_alleleMaps;
+
+
+  @Setup
+  public void setup() throws IOException, ReportableException {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    m_index = definitionReader.getMatcherIndex(gene);
+    m_alleleMaps = BenchmarkUtils.readAlleleMaps(definitionReader, vcf);
+    if (phasing.equals("phased")) {
+      m_alleleMaps.replaceAll((sampleId, alleleMap) -> phase(alleleMap));
+    }
+  }
+
+  private static SortedMap<String, SampleAllele> phase(SortedMap<String, SampleAllele> alleleMap) {
+    SortedMap<String, SampleAllele> phased = new TreeMap<>(alleleMap.comparator());
+    for (Map.Entry<String, SampleAllele> entry : alleleMap.entrySet()) {
+      SampleAllele sa = entry.getValue();
+      phased.put(entry.getKey(), new SampleAllele(sa.getChromosome(), sa.getPosition(), sa.getAllele1(),
+          sa.getAllele2(), true, true, sa.getVcfAlleles(), sa.getUndocumentedVariations(),
+          sa.isTreatUndocumentedVariationsAsReference()));
+    }
+    return phased;
+  }
+
+  /**
+   * Builds {@link MatchData} the same way {@link NamedAlleleMatcher} does.
+   */
+  private MatchData initialize(String sampleId, SortedMap<String, SampleAllele> alleleMap, boolean assumeReference,
+      boolean findCombinations) {
+    MatchData data = m_index.initializeCallData(sampleId, alleleMap, assumeReference, findCombinations);
+    if (data.getNumSampleAlleles() > 0) {
+      data.generateSamplePermutations();
+    }
+    return data;
+  }
+
+
+  @Benchmark
+  public void comparePermutations(Blackhole blackhole) {
+    for (Map.Entry<String, SortedMap<String, SampleAllele>> entry : m_alleleMaps.entrySet()) {
+      MatchData data = initialize(entry.getKey(), entry.getValue(), true, false);
+      if (data.getNumSampleAlleles() > 0) {
+        blackhole.consume(data.comparePermutations());
+      }
+    }
+  }
+
+  @Benchmark
+  public void compute(Blackhole blackhole) {
+    for (Map.Entry<String, SortedMap<String, SampleAllele>> entry : m_alleleMaps.entrySet()) {
+      MatchData data = initialize(entry.getKey(), entry.getValue(), true, false);
+      if (data.getNumSampleAlleles() > 0) {
+        blackhole.consume(new DiplotypeMatcher(data).compute(false, true));
+      }
+    }
+  }
+
+  @Benchmark
+  public void computeCombinations(Blackhole blackhole) {
+    for (Map.Entry<String, SortedMap<String, SampleAllele>> entry : m_alleleMaps.entrySet()) {
+      MatchData data = initialize(entry.getKey(), entry.getValue(), false, true);
+      if (data.getNumSampleAlleles() > 0) {
+        blackhole.consume(new DiplotypeMatcher(data).compute(true, false));
+      }
+    }
+  }
+}
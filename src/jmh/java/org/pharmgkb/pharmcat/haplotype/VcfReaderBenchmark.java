@@ -0,0 +1,66 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharmgkb.pharmcat.BenchmarkUtils;
+import org.pharmgkb.pharmcat.ReportableException;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+
+
+/**
+ * Benchmarks reading VCF files with {@link VcfReader}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VcfReaderBenchmark {
+  @Param({BenchmarkUtils.SAMPLES_100, BenchmarkUtils.MULTISAMPLE})
+  public String vcf;
+  private DefinitionReader m_definitionReader;
+  private Path m_vcfFile;
+  private List<String> m_samples;
+
+
+  @Setup
+  public void setup() throws IOException, ReportableException {
+    m_definitionReader = DefinitionReader.defaultReader();
+    m_vcfFile = BenchmarkUtils.getVcfFile(vcf);
+    m_samples = new VcfFile(m_vcfFile).getSamples();
+  }
+
+
+  /**
+   * Reads every sample in a single pass, the way {@code BatchPharmCAT} does.
+   */
+  @Benchmark
+  public VcfFile readAllSamples() throws IOException, ReportableException {
+    VcfFile vcfFile = new VcfFile(m_vcfFile);
+    vcfFile.readSamples(m_definitionReader, m_samples, false);
+    return vcfFile;
+  }
+
+  /**
+   * Reads a single sample, the way a single sample run does.
+   */
+  @Benchmark
+  public VcfReader readOneSample() throws IOException, ReportableException {
+    return new VcfFile(m_vcfFile).getReader(m_definitionReader, m_samples.get(0), false);
+  }
+}
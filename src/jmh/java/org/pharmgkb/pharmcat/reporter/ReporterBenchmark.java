@@ -0,0 +1,116 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pharmgkb.pharmcat.BenchmarkUtils;
+import org.pharmgkb.pharmcat.Env;
+import org.pharmgkb.pharmcat.ReportableException;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.haplotype.NamedAlleleMatcher;
+import org.pharmgkb.pharmcat.haplotype.model.Result;
+import org.pharmgkb.pharmcat.phenotype.Phenotyper;
+import org.pharmgkb.pharmcat.reporter.format.HtmlFormat;
+import org.pharmgkb.pharmcat.reporter.format.JsonFormat;
+
+
+/**
+ * Benchmarks the stages after the named allele matcher: {@link Phenotyper} construction, {@link ReportContext}
+ * construction, and rendering with {@link HtmlFormat} and {@link JsonFormat}.
+ * <p>
+ * Each operation runs every sample in the VCF file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReporterBenchmark {
+  @Param({BenchmarkUtils.SAMPLES_100, BenchmarkUtils.MULTISAMPLE})
+  public String vcf;
+  private Env m_env;
+  private final List<Result> m_matcherResults = new ArrayList<>();
+  private final List<ReportContext> m_reportContexts = new ArrayList<>();
+
+
+  @Setup
+  public void setup() throws IOException, ReportableException {
+    m_env = new Env();
+    VcfFile vcfFile = BenchmarkUtils.readSamples(m_env.getDefinitionReader(), vcf);
+    for (String sampleId : vcfFile.getSamples()) {
+      Result result = new NamedAlleleMatcher(m_env, m_env.getDefinitionReader(), false, true, false)
+          .call(vcfFile, sampleId);
+      m_matcherResults.add(result);
+      m_reportContexts.add(new ReportContext(m_env, newPhenotyper(result).getGeneReports(), sampleId));
+    }
+  }
+
+  private Phenotyper newPhenotyper(Result result) {
+    return new Phenotyper(m_env, result.getGeneCalls(), new ArrayList<>(), result.getVcfWarnings());
+  }
+
+
+  /**
+   * {@link ReportContext} adds messages to the gene reports it is given, so each invocation needs new ones.
+   */
+  @State(Scope.Thread)
+  public static class Phenotypes {
+    private final List<Phenotyper> m_phenotypers = new ArrayList<>();
+
+    @Setup(Level.Invocation)
+    public void setup(ReporterBenchmark benchmark) {
+      m_phenotypers.clear();
+      for (Result result : benchmark.m_matcherResults) {
+        m_phenotypers.add(benchmark.newPhenotyper(result));
+      }
+    }
+  }
+
+
+  @Benchmark
+  public void phenotyper(Blackhole blackhole) {
+    for (Result result : m_matcherResults) {
+      blackhole.consume(newPhenotyper(result));
+    }
+  }
+
+  @Benchmark
+  public void reportContext(Phenotypes phenotypes, Blackhole blackhole) throws IOException {
+    for (Phenotyper phenotyper : phenotypes.m_phenotypers) {
+      blackhole.consume(new ReportContext(m_env, phenotyper.getGeneReports(), "benchmark"));
+    }
+  }
+
+  @Benchmark
+  public void htmlFormat() throws IOException {
+    for (ReportContext reportContext : m_reportContexts) {
+      new HtmlFormat(null, m_env, true)
+          .write(reportContext, Writer.nullWriter());
+    }
+  }
+
+  @Benchmark
+  public void jsonFormat() throws IOException {
+    for (ReportContext reportContext : m_reportContexts) {
+      new JsonFormat(null, m_env)
+          .compact(true)
+          .write(reportContext, Writer.nullWriter());
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.haplotype.ResultSerializer;
+import org.pharmgkb.pharmcat.haplotype.model.Result;
+import org.pharmgkb.pharmcat.phenotype.Phenotyper;
+
+
+/**
+ * Benchmarks reading the named allele matcher and phenotyper results from JSON against reading them from the binary
+ * format written by {@link DataSerializer#toBinary(Object, Path)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataSerializerBenchmark {
+  private final ResultSerializer m_resultSerializer = new ResultSerializer();
+  private Path m_tmpDir;
+  private Path m_matchJson;
+  private Path m_matchBin;
+  private Path m_phenotyperJson;
+  private Path m_phenotyperBin;
+
+
+  @Setup
+  public void setup() throws IOException {
+    m_matchJson = PathUtils.getPathToResource("org/pharmgkb/pharmcat/Sample_1.match.json");
+    m_phenotyperJson = PathUtils.getPathToResource("org/pharmgkb/pharmcat/reporter/phenotyper_output.json");
+
+    m_tmpDir = Files.createTempDirectory("pharmcat-benchmark");
+    m_matchBin = m_tmpDir.resolve("match" + DataSerializer.BINARY_EXTENSION);
+    m_resultSerializer.toBinary(m_resultSerializer.fromJson(m_matchJson), m_matchBin);
+    m_phenotyperBin = m_tmpDir.resolve("phenotyper" + DataSerializer.BINARY_EXTENSION);
+    Phenotyper.read(m_phenotyperJson).writeBinary(m_phenotyperBin);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(m_matchBin);
+    Files.deleteIfExists(m_phenotyperBin);
+    Files.deleteIfExists(m_tmpDir);
+  }
+
+
+  @Benchmark
+  public Result matchFromJson() throws IOException {
+    return m_resultSerializer.fromJson(m_matchJson);
+  }
+
+  @Benchmark
+  public Result matchFromBinary() throws IOException {
+    return m_resultSerializer.fromBinary(m_matchBin);
+  }
+
+  @Benchmark
+  public Phenotyper phenotyperFromJson() throws IOException {
+    return Phenotyper.read(m_phenotyperJson);
+  }
+
+  @Benchmark
+  public Phenotyper phenotyperFromBinary() throws IOException {
+    return Phenotyper.read(m_phenotyperBin);
+  }
+}
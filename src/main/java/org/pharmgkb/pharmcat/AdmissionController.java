@@ -0,0 +1,338 @@
+package org.pharmgkb.pharmcat;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.google.common.base.Preconditions;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Decides how many batch tasks can run at once, based on how much memory they are expected to need and how much heap
+ * is actually in use.
+ * <p>
+ * Each task comes with an estimate of how many bytes it will need.  A task is only admitted if the estimates of all
+ * the tasks in flight fit in the heap budget (a fraction of the max heap, less what was in use before any tasks
+ * started), and there are fewer tasks in flight than the current concurrency limit.  A task is always admitted if
+ * nothing else is running, so a batch can never stall.
+ * <p>
+ * The concurrency limit starts at an initial value and can move anywhere between 1 and the max number of processes.
+ * After garbage collection this checks how much heap is still in use:
+ * <ul>
+ *   <li>if it is above the high water mark after a collection of the old generation, the concurrency limit is
+ *   halved</li>
+ *   <li>if it is below the low water mark and the limit is holding tasks back, the limit goes up by 1 (up to the max
+ *   number of processes)</li>
+ * </ul>
+ * Heap in use after a young collection still includes any garbage in the old generation, so it is only used to raise
+ * the limit (if it is low, the live data must be too).  Collections of the old generation are also used to compare
+ * the heap actually used by the tasks in flight against their estimates and scale future estimates to match, so that
+ * poor estimates do not lead to under- or over-use of memory.
+ * <p>
+ * Some collectors (e.g. G1) report mixed collections, which also clean up part of the old generation, the same way
+ * as young collections.  So besides major and full collections, any collection that shrinks the old generation counts
+ * as a collection of the old generation.
+ */
+public class AdmissionController implements NotificationListener, AutoCloseable {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  /** Fraction of max heap that tasks can be budgeted to use. */
+  private static final double sf_budgetFraction = 0.8;
+  /** Fraction of max heap in use after GC above which concurrency is cut. */
+  static final double HIGH_WATER_MARK = 0.85;
+  /** Fraction of max heap in use after GC below which concurrency can grow. */
+  static final double LOW_WATER_MARK = 0.6;
+  private static final double sf_minCostScale = 0.25;
+  private static final double sf_maxCostScale = 4;
+  private final int m_maxProcesses;
+  private final long m_maxHeap;
+  private long m_baseline;
+  private int m_limit;
+  private int m_inFlight;
+  private long m_reserved;
+  private double m_costScale = 1;
+  private int m_minLimit;
+  private int m_numThrottles;
+  private int m_numExpansions;
+  private final List<NotificationEmitter> m_emitters = new ArrayList<>();
+  private final Set<String> m_heapPools = new HashSet<>();
+  private final Set<String> m_oldGenPools = new HashSet<>();
+
+
+  /**
+   * Constructor for use in a running JVM.  Monitors garbage collection.
+   *
+   * @param initialLimit the number of tasks to start out allowing in flight
+   * @param maxProcesses the maximum number of tasks to have in flight
+   */
+  public AdmissionController(int initialLimit, int maxProcesses) {
+    this(initialLimit, maxProcesses, maxHeap(), ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        m_heapPools.add(pool.getName());
+        if (isOldGenPool(pool.getName())) {
+          m_oldGenPools.add(pool.getName());
+        }
+      }
+    }
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (gc instanceof NotificationEmitter emitter) {
+        emitter.addNotificationListener(this, null, null);
+        m_emitters.add(emitter);
+      }
+    }
+  }
+
+  /**
+   * Constructor.  Does not monitor garbage collection; call {@link #onHeapUsage(long, boolean)} instead.
+   *
+   * @param maxProcesses the maximum number of tasks to have in flight
+   * @param maxHeap the max heap size, in bytes
+   * @param baseline the heap in use before any tasks are run, in bytes
+   */
+  AdmissionController(int maxProcesses, long maxHeap, long baseline) {
+    this(maxProcesses, maxProcesses, maxHeap, baseline);
+  }
+
+  /**
+   * Constructor.  Does not monitor garbage collection; call {@link #onHeapUsage(long, boolean)} instead.
+   *
+   * @param initialLimit the number of tasks to start out allowing in flight
+   * @param maxProcesses the maximum number of tasks to have in flight
+   * @param maxHeap the max heap size, in bytes
+   * @param baseline the heap in use before any tasks are run, in bytes
+   */
+  AdmissionController(int initialLimit, int maxProcesses, long maxHeap, long baseline) {
+    Preconditions.checkArgument(initialLimit > 0, "Must allow at least 1 process");
+    Preconditions.checkArgument(maxProcesses >= initialLimit, "Max processes cannot be less than the initial limit");
+    Preconditions.checkArgument(maxHeap > 0, "Max heap must be greater than 0");
+    m_maxProcesses = maxProcesses;
+    m_maxHeap = maxHeap;
+    m_baseline = baseline;
+    m_limit = initialLimit;
+    m_minLimit = initialLimit;
+  }
+
+  private static long maxHeap() {
+    MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    long max = memoryBean.getHeapMemoryUsage().getMax();
+    return max > 0 ? max : Runtime.getRuntime().maxMemory();
+  }
+
+
+  /**
+   * Gets the number of bytes tasks can be budgeted to use.
+   */
+  private long getBudget() {
+    return Math.max(0, (long)(m_maxHeap * sf_budgetFraction) - m_baseline);
+  }
+
+  private boolean canAdmit(long cost) {
+    if (m_inFlight == 0) {
+      return true;
+    }
+    return m_inFlight < m_limit && (m_reserved + cost) * m_costScale <= getBudget();
+  }
+
+  /**
+   * Tries to admit a task.  If admitted, {@link #release(long)} must be called with the same cost when it finishes.
+   *
+   * @param cost the estimated number of bytes the task needs
+   * @return true if the task can be run now
+   */
+  public synchronized boolean tryAdmit(long cost) {
+    if (!canAdmit(cost)) {
+      return false;
+    }
+    m_inFlight += 1;
+    m_reserved += cost;
+    return true;
+  }
+
+  /**
+   * Waits until a task can be admitted.  {@link #release(long)} must be called with the same cost when it finishes.
+   *
+   * @param cost the estimated number of bytes the task needs
+   */
+  public synchronized void admit(long cost) throws InterruptedException {
+    while (!canAdmit(cost)) {
+      wait();
+    }
+    m_inFlight += 1;
+    m_reserved += cost;
+  }
+
+  /**
+   * Releases a task that was admitted by {@link #tryAdmit(long)} or {@link #admit(long)}.
+   */
+  public synchronized void release(long cost) {
+    Preconditions.checkState(m_inFlight > 0, "No tasks in flight");
+    m_inFlight -= 1;
+    m_reserved -= cost;
+    notifyAll();
+  }
+
+
+  /**
+   * Adjusts limits based on how much heap is in use after an old generation or full garbage collection.
+   */
+  void onHeapUsage(long usedAfterGc) {
+    onHeapUsage(usedAfterGc, true);
+  }
+
+  /**
+   * Adjusts limits based on how much heap is in use after garbage collection.
+   *
+   * @param complete true if this collected the old generation, false if it was a young collection
+   */
+  synchronized void onHeapUsage(long usedAfterGc, boolean complete) {
+    double usage = usedAfterGc / (double)m_maxHeap;
+    if (!complete) {
+      if (usage < LOW_WATER_MARK) {
+        expand(usage);
+      }
+      notifyAll();
+      return;
+    }
+
+    if (m_inFlight == 0 || usedAfterGc < m_baseline) {
+      m_baseline = usedAfterGc;
+    }
+    if (m_inFlight > 0 && m_reserved > 0) {
+      // calibrate estimates against what tasks actually use
+      double ratio = Math.max(0, usedAfterGc - m_baseline) / (double)m_reserved;
+      ratio = Math.min(sf_maxCostScale, Math.max(sf_minCostScale, ratio));
+      m_costScale = (m_costScale * 0.8) + (ratio * 0.2);
+    }
+
+    if (usage > HIGH_WATER_MARK) {
+      int newLimit = Math.max(1, Math.min(m_limit, m_inFlight) / 2);
+      if (newLimit < m_limit) {
+        sf_logger.info("Heap at {}% after GC, cutting concurrency from {} to {}", Math.round(usage * 100), m_limit,
+            newLimit);
+        m_limit = newLimit;
+        m_minLimit = Math.min(m_minLimit, newLimit);
+        m_numThrottles += 1;
+      }
+    } else if (usage < LOW_WATER_MARK) {
+      expand(usage);
+    }
+    // cost scale or limit may have changed
+    notifyAll();
+  }
+
+  private void expand(double usage) {
+    if (m_inFlight >= m_limit && m_limit < m_maxProcesses) {
+      m_limit += 1;
+      m_numExpansions += 1;
+      sf_logger.info("Heap at {}% after GC, raising concurrency to {}", Math.round(usage * 100), m_limit);
+    }
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+      return;
+    }
+    GarbageCollectionNotificationInfo info =
+        GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+    long used = 0;
+    for (Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+      if (m_heapPools.contains(entry.getKey())) {
+        used += entry.getValue().getUsed();
+      }
+    }
+    onHeapUsage(used, collectedOldGen(info.getGcAction(), info.getGcInfo().getMemoryUsageBeforeGc(),
+        info.getGcInfo().getMemoryUsageAfterGc(), m_oldGenPools));
+  }
+
+  /**
+   * Checks if a memory pool holds the old generation, going by the names the HotSpot collectors use.
+   */
+  static boolean isOldGenPool(String name) {
+    return !name.contains("Eden") && !name.contains("Survivor") && !name.contains("Young");
+  }
+
+  /**
+   * Checks if a garbage collection cleaned up the old generation.  Major collections always do.  Minor collections
+   * only do if they are mixed collections, in which case the old generation shrinks (a young collection only ever
+   * promotes objects into it).
+   *
+   * @param gcAction the action reported by the collector (e.g. "end of minor GC")
+   * @param oldGenPools the names of the memory pools that hold the old generation
+   */
+  static boolean collectedOldGen(String gcAction, Map<String, MemoryUsage> beforeGc, Map<String, MemoryUsage> afterGc,
+      Set<String> oldGenPools) {
+    if (!"end of minor GC".equals(gcAction)) {
+      return true;
+    }
+    long before = 0;
+    long after = 0;
+    for (String pool : oldGenPools) {
+      MemoryUsage beforeUsage = beforeGc.get(pool);
+      MemoryUsage afterUsage = afterGc.get(pool);
+      if (beforeUsage != null && afterUsage != null) {
+        before += beforeUsage.getUsed();
+        after += afterUsage.getUsed();
+      }
+    }
+    return after < before;
+  }
+
+
+  /**
+   * Gets the current concurrency limit.
+   */
+  public synchronized int getLimit() {
+    return m_limit;
+  }
+
+  public synchronized int getInFlight() {
+    return m_inFlight;
+  }
+
+  /**
+   * Gets the factor that cost estimates are currently multiplied by.
+   */
+  public synchronized double getCostScale() {
+    return m_costScale;
+  }
+
+
+  @Override
+  public void close() {
+    for (NotificationEmitter emitter : m_emitters) {
+      try {
+        emitter.removeNotificationListener(this);
+      } catch (Exception ex) {
+        // ignore
+      }
+    }
+    m_emitters.clear();
+  }
+
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.ROOT,
+        "Admission controller: concurrency limit %d (lowest %d, max %d), %d throttles, %d expansions, " +
+            "cost estimates scaled by %.2f", m_limit, m_minLimit, m_maxProcesses, m_numThrottles, m_numExpansions,
+        m_costScale);
+  }
+}
@@ -36,6 +36,7 @@ public class BaseConfig {
   boolean findCombinations;
   boolean callCyp2d6;
   boolean matcherHtml;
+  boolean matcherConcurrentGenes;
   boolean runPhenotyper = true;
   boolean runReporter = true;
   String reporterTitle;
@@ -46,6 +47,9 @@ public class BaseConfig {
   Path outputDir;
   String baseFilename;
   boolean deleteIntermediateFiles;
+  boolean compactJson;
+  boolean gzipJson;
+  boolean saveBinary;
   SortedSet<String> samples = new TreeSet<>();
 
 
@@ -115,6 +119,7 @@ public class BaseConfig {
         }
       }
       matcherHtml = cliHelper.hasOption("matcherHtml");
+      matcherConcurrentGenes = cliHelper.hasOption("mcg");
     }
 
     if (runReporter) {
@@ -148,6 +153,9 @@ public class BaseConfig {
     }
     baseFilename = cliHelper.getValue("bf");
     deleteIntermediateFiles = cliHelper.hasOption("del");
+    compactJson = cliHelper.hasOption("jc");
+    gzipJson = cliHelper.hasOption("jz");
+    saveBinary = cliHelper.hasOption("bin");
   }
 
 
@@ -163,6 +171,8 @@ public static String getBaseFilename(Path inputFile) {
     if (filename.endsWith(".vcf")) {
       // because .vcf might come in as .vcf.bgz or .vcf.gz
       filename = FilenameUtils.getBaseName(filename);
+    } else if (inputFile.getFileName().toString().endsWith(".json.gz")) {
+      filename = FilenameUtils.getBaseName(filename);
     }
     if (filename.endsWith(VCF_PREPROCESSED_SUFFIX)) {
       filename = filename.substring(0, filename.length() - VCF_PREPROCESSED_SUFFIX.length());
@@ -5,16 +5,16 @@
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import org.apache.commons.io.FileUtils;
@@ -23,6 +23,8 @@
 import org.pharmgkb.common.util.CliHelper;
 import org.pharmgkb.common.util.TimeUtils;
 import org.pharmgkb.pharmcat.util.CliUtils;
+import org.pharmgkb.pharmcat.util.DataSerializer;
+import org.pharmgkb.pharmcat.util.Metrics;
 
 /**
  * Command-line tool to run PharmCAT in batch mode.
@@ -32,8 +34,27 @@
 public class BatchPharmCAT {
   private static final int sf_procsPerGb = 16;
   private static final long sf_bytesPerProcess = (1024 / sf_procsPerGb) * 1024 * 1024;
+  /** Number of pipelines to keep queued up for each process. */
+  private static final int sf_queuedPerProcess = 2;
+  /**
+   * Number of samples to read from a multi-sample VCF file in a single pass.  Each chunk means another pass through
+   * the file, but only a chunk's worth of samples is held in memory at a time.
+   */
+  private static final int sf_preloadChunkSize = 1000;
+  /** Estimated memory needed by any task. */
+  private static final long sf_baseBytesPerTask = 8 * 1024 * 1024;
+  /** Estimated memory needed per byte of JSON input (which is read into memory all at once). */
+  private static final int sf_bytesPerInputByte = 4;
+  /** Estimated memory needed per byte of gzipped JSON input. */
+  private static final int sf_bytesPerGzipInputByte = 20;
+  /** Estimated memory needed per permutation of a gene's unphased heterozygous positions. */
+  private static final long sf_bytesPerPermutation = 1024;
+  /** Cap on the number of unphased heterozygous positions to count towards a gene's permutations. */
+  private static final int sf_maxHetsPerGene = 20;
   private final BaseConfig m_config;
   private final boolean m_verbose;
+  /** Directory the {@link RunManifest} lives in, or null if there should not be one. */
+  private final @Nullable Path m_manifestDir;
   private final Map<String, VcfFile> m_vcfFilesToProcess = new TreeMap<>();
   private final Map<String, Path> m_matchFilesToProcess = new TreeMap<>();
   private final Map<String, Path> m_outsideCallFilesToProcess = new TreeMap<>();
@@ -55,6 +76,7 @@ public static void main(String[] args) {
           .addOption("mp", "matcher-preprocessed-only", "Only consider preprocessed VCFs")
           .addOption("ma", "matcher-all-results", "Return all possible diplotypes, not just top hits")
           .addOption("matcherHtml", "matcher-save-html", "Save named allele matcher results as HTML")
+          .addOption("mc", "matcher-cache-size", "Reuse diplotype calls for up to this many distinct genotypes", false, "num")
 
           // phenotyper args
           .addOption("phenotyper", "phenotyper", "Run phenotyper independently")
@@ -69,9 +91,17 @@ public static void main(String[] args) {
           .addOption("o", "output-dir", "Directory to output to (optional, default is input file directory)", false, "directory")
           .addOption("bf", "base-filename", "The base name (without file extensions) used for output files, will default to base filename of input if not specified", false, "name")
           .addOption("del", "delete-intermediate-files", "Delete intermediate output files")
+          .addOption("jc", "json-compact", "Write JSON output files without pretty printing")
+          .addOption("jz", "json-gzip", "Gzip JSON output files")
+          .addOption("bin", "save-binary", "Also save matcher and phenotyper results in a binary format that is faster to read back in")
           // controls
           .addOption("cp", "max-concurrent-processes", "Maximum number of processes to use", false, "num")
+          .addOption("fc", "fixed-concurrency", "Always run the maximum number of processes instead of adapting to memory use")
+          .addOption("r", "resume", "Keep a run manifest in the input directory so an interrupted run can be resumed (always done with -o)")
+          .addOption("nr", "no-resume", "Process all samples, even if the run manifest says they have already been done")
           .addOption("def", "definitions-dir", "Directory containing named allele definitions (JSON files)", false, "dir")
+          .addOption("metrics", "metrics-file", "Save timing metrics to file (Prometheus text format if file ends with .prom or .txt, otherwise JSON)", false, "file")
+          .addOption("jfr", "metrics-jfr", "Emit timing metrics as JFR events")
           .addOption("research", "research-mode", "Comma-separated list of research features to enable: [cyp2d6, combinations]", false, "type");
       if (!cliHelper.parse(args)) {
         PharmCAT.failIfNotTest();
@@ -101,6 +131,16 @@ public static void main(String[] args) {
       if (maxProcesses < 1) {
         maxProcesses = 1;
       }
+      int matcherCacheSize = 0;
+      if (cliHelper.hasOption("mc")) {
+        try {
+          matcherCacheSize = cliHelper.getIntValue("mc");
+        } catch (NumberFormatException ex) {
+          System.out.println("\"" + cliHelper.getValue("mc") + "\" is not an integer.");
+          PharmCAT.failIfNotTest();
+          return;
+        }
+      }
 
       Path inputDir = null;
       if (cliHelper.hasOption("i")) {
@@ -119,9 +159,20 @@ public static void main(String[] args) {
         return;
       }
 
-      BatchPharmCAT pcat = new BatchPharmCAT(config, inputDir, vcfFile, cliHelper.hasOption("mp"),
+      Path metricsFile = null;
+      if (cliHelper.hasOption("metrics")) {
+        metricsFile = cliHelper.getPath("metrics");
+      }
+
+      // only write a manifest next to the input files if asked to
+      Path manifestDir = config.outputDir;
+      if (manifestDir == null && cliHelper.hasOption("r")) {
+        manifestDir = inputDir;
+      }
+      BatchPharmCAT pcat = new BatchPharmCAT(config, inputDir, vcfFile, manifestDir, cliHelper.hasOption("mp"),
           cliHelper.isVerbose());
-      pcat.execute(maxProcesses);
+      pcat.execute(maxProcesses, !cliHelper.hasOption("fc"), !cliHelper.hasOption("nr"), matcherCacheSize, metricsFile,
+          cliHelper.hasOption("jfr"));
 
     } catch (CliHelper.InvalidPathException | ReportableException ex) {
       System.out.println(ex.getMessage());
@@ -134,10 +185,11 @@ public static void main(String[] args) {
   }
 
 
-  private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile, boolean preprocessedVcfOnly,
-      boolean verbose) throws IOException, ReportableException {
+  private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile, @Nullable Path manifestDir,
+      boolean preprocessedVcfOnly, boolean verbose) throws IOException, ReportableException {
     m_config = config;
     m_verbose = verbose;
+    m_manifestDir = manifestDir;
 
     for (File f : Objects.requireNonNull(inputDir.toFile().listFiles())) {
       Path file = f.toPath();
@@ -154,17 +206,19 @@ private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile,
           }
           m_vcfFilesToProcess.put(basename, new VcfFile(file));
         }
-      } else if (name.endsWith(BaseConfig.MATCHER_SUFFIX + ".json")) {
+      } else if (name.endsWith(BaseConfig.MATCHER_SUFFIX + ".json") ||
+          name.endsWith(BaseConfig.MATCHER_SUFFIX + ".json.gz")) {
         if (config.runPhenotyper) {
-          m_matchFilesToProcess.put(basename, file);
+          m_matchFilesToProcess.put(basename, preferBinary(file));
         }
       } else if (name.endsWith(BaseConfig.OUTSIDE_SUFFIX + ".tsv")) {
         if (config.runPhenotyper) {
           m_outsideCallFilesToProcess.put(basename, file);
         }
-      } else if (name.endsWith(BaseConfig.PHENOTYPER_SUFFIX + ".json")) {
+      } else if (name.endsWith(BaseConfig.PHENOTYPER_SUFFIX + ".json") ||
+          name.endsWith(BaseConfig.PHENOTYPER_SUFFIX + ".json.gz")) {
         if (config.runReporter) {
-          m_phenotypeFilesToProcess.put(basename, file);
+          m_phenotypeFilesToProcess.put(basename, preferBinary(file));
         }
       }
     }
@@ -208,8 +262,34 @@ private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile,
   }
 
 
-  private void execute(int maxProcesses) throws ExecutionException, InterruptedException, IOException,
-      ReportableException {
+  /**
+   * Gets the binary version of a matcher/phenotyper JSON file if there is one that can be read and that is at least as
+   * new as the JSON file, otherwise returns the JSON file.
+   */
+  private static Path preferBinary(Path jsonFile) throws IOException {
+    String filename = jsonFile.getFileName().toString();
+    filename = filename.substring(0, filename.toLowerCase().lastIndexOf(".json"));
+    Path binaryFile = jsonFile.resolveSibling(filename + DataSerializer.BINARY_EXTENSION);
+    if (DataSerializer.isReadableBinaryFile(binaryFile) &&
+        Files.getLastModifiedTime(binaryFile).compareTo(Files.getLastModifiedTime(jsonFile)) >= 0) {
+      return binaryFile;
+    }
+    return jsonFile;
+  }
+
+
+  /**
+   * Runs PharmCAT on all inputs.
+   *
+   * @param adaptiveConcurrency true if the number of processes to run at once should adapt to memory use
+   * @param resume true if samples that the {@link RunManifest} says have already been done should be skipped
+   * @param matcherCacheSize max number of genotypes to cache diplotype calls for (0 to disable)
+   * @param metricsFile file to save timing metrics to (optional)
+   * @param emitJfrEvents true if timing metrics should be emitted as JFR events
+   */
+  private void execute(int maxProcesses, boolean adaptiveConcurrency, boolean resume, int matcherCacheSize,
+      @Nullable Path metricsFile, boolean emitJfrEvents)
+      throws InterruptedException, IOException, ReportableException {
 
     List<Builder> taskBuilders = new ArrayList<>();
     System.out.println("Checking files...");
@@ -262,20 +342,53 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
       }
     }
 
+    RunManifest manifest = null;
+    if (m_manifestDir != null) {
+      try {
+        manifest = new RunManifest(m_manifestDir, CliUtils.getVersion(), RunManifest.buildSignature(m_config));
+      } catch (IOException ex) {
+        System.out.println(AnsiConsole.styleWarning("Warning: unable to read run manifest in " + m_manifestDir +
+            ", so this run cannot be resumed (" + ex.getMessage() + ")"));
+      }
+    }
+    if (manifest != null && resume) {
+      int numSkipped = 0;
+      int numResumed = 0;
+      List<Builder> toRun = new ArrayList<>();
+      for (Builder builder : taskBuilders) {
+        RunManifest.Resume resumeFrom = manifest.check(builder.getKey(), builder.getInputs());
+        if (resumeFrom.skip()) {
+          numSkipped += 1;
+          continue;
+        }
+        if (builder.resume(resumeFrom)) {
+          numResumed += 1;
+        }
+        toRun.add(builder);
+      }
+      taskBuilders = toRun;
+      if (numSkipped > 0 || numResumed > 0) {
+        System.out.println("* Skipping " + numSkipped + " sample" + (numSkipped == 1 ? "" : "s") +
+            " already done and resuming " + numResumed + " partially done sample" + (numResumed == 1 ? "" : "s") +
+            " (per " + manifest.getFile() + ", use -nr to process everything)");
+      }
+    }
     if (taskBuilders.size() > 1) {
       System.out.println();
       System.out.println("Queueing up " + taskBuilders.size() + " samples to process...");
     }
     Env env = new Env(m_config.definitionDir);
-    List<Pipeline> tasks = new ArrayList<>();
-    int taskIdx = 0;
-    for (Builder builder : taskBuilders) {
-      taskIdx += 1;
-      Pipeline pipeline = builder.build(env, taskIdx, taskBuilders.size());
-      tasks.add(pipeline);
+    if (matcherCacheSize > 0) {
+      env.enableDiplotypeMatchCache(matcherCacheSize);
     }
-
-    int processes = Math.min(tasks.size(), maxProcesses);
+    Metrics metrics = null;
+    if (metricsFile != null || emitJfrEvents || m_verbose) {
+      metrics = env.enableMetrics(emitJfrEvents);
+    }
+    int numTasks = taskBuilders.size();
+    int processes = Math.min(numTasks, maxProcesses);
+    // with adaptive concurrency, start with what should fit in memory and let the admission controller go from there
+    int initialLimit = processes;
     if (processes > 1) {
       System.out.println();
       System.out.println("Running PharmCAT in batch mode with a maximum of " + processes + " processes.");
@@ -300,30 +413,150 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
         long recCp = Math.max(1, maxMem / sf_bytesPerProcess);
         System.out.println("Or running with " + recCp + " process" + (recCp == 1L ? "" : "es") +
             " max (using -cp " + recCp + ")");
+        if (adaptiveConcurrency) {
+          initialLimit = (int)recCp;
+          System.out.println("Starting with " + initialLimit + " process" + (initialLimit == 1 ? "" : "es") +
+              ", and running more as memory allows.");
+        }
       }
     }
 
     Stopwatch stopwatch = Stopwatch.createStarted();
-    ExecutorService executor = Executors.newWorkStealingPool(processes);
-    List<Future<PipelineResult>> futures = executor.invokeAll(tasks);
-    executor.shutdown();
-
-    // must iterate through in case of errors
-    for (Future<PipelineResult> future : futures) {
-      PipelineResult rez = future.get();
-      if (rez.getStatus() == PipelineResult.Status.FAILURE) {
-        String msg = rez.getBasename();
-        if (rez.getSampleId() != null) {
-          msg = rez.getSampleId() + " in " + rez.getBasename();
-        }
-        System.out.println("FAILED " + msg + ".vcf.  See " + rez.getBasename() + ".ERROR.txt file for details.");
+    // pipelines are only built when there is room for them in the queue, and builders are dropped once used
+    BatchScheduler scheduler = new BatchScheduler(Math.max(1, processes), Math.max(1, processes) * sf_queuedPerProcess);
+    List<Builder> builders = taskBuilders;
+    RunManifest finalManifest = manifest;
+    VcfPreloader preloader = new VcfPreloader(env, metrics, builders,
+        Math.max(sf_preloadChunkSize, scheduler.getMaxInFlight()));
+    AdmissionController admissionController = null;
+    if (adaptiveConcurrency && processes > 1) {
+      admissionController = new AdmissionController(initialLimit, processes);
+      scheduler.admissionController(admissionController, (idx) -> {
+        preloader.preload(builders.get(idx));
+        return builders.get(idx).estimateCost();
+      });
+    }
+    try {
+      scheduler.run(numTasks,
+          (idx) -> {
+            Builder builder = builders.set(idx, null);
+            preloader.preload(builder);
+            return builder.buildTask(env, idx + 1, numTasks, finalManifest);
+          },
+          (rez) -> {
+            if (rez.getError() != null) {
+              System.out.println("FAILED " + rez.getBasename() + ": " + rez.getError());
+              if (m_verbose) {
+                rez.getError().printStackTrace(System.out);
+              }
+            } else if (rez.getStatus() == PipelineResult.Status.FAILURE) {
+              String msg = rez.getBasename();
+              if (rez.getSampleId() != null) {
+                msg = rez.getSampleId() + " in " + rez.getBasename();
+              }
+              System.out.println("FAILED " + msg + ".vcf.  See " + rez.getBasename() + ".ERROR.txt file for details.");
+            }
+          });
+    } finally {
+      if (admissionController != null) {
+        admissionController.close();
+      }
+      if (manifest != null) {
+        manifest.close();
       }
     }
 
     System.out.println();
     System.out.println("Done.");
+    if (numTasks > 1) {
+      System.out.println(scheduler.getDone() + " processed, " + scheduler.getFailed() + " failed.");
+    }
+    if (manifest != null && manifest.isDisabled()) {
+      System.out.println(AnsiConsole.styleWarning("Warning: unable to write to " + manifest.getFile() +
+          ", so this run cannot be resumed from it.  See pharmcat.log for details."));
+    }
     if (m_verbose) {
       System.out.println("Elapsed time: " + TimeUtils.humanReadablePreciseDuration(stopwatch.elapsed()));
+      if (env.getDiplotypeMatchCache() != null) {
+        System.out.println(env.getDiplotypeMatchCache());
+      }
+      System.out.println(env.getHaplotypeCache());
+      if (admissionController != null) {
+        System.out.println(admissionController);
+      }
+      if (metrics != null) {
+        System.out.println(metrics);
+      }
+    }
+    if (metrics != null && metricsFile != null) {
+      metrics.write(metricsFile);
+      System.out.println("Saved metrics to " + metricsFile);
+    }
+  }
+
+
+  /**
+   * Reads samples from multi-sample VCF files a chunk at a time, just before their tasks are needed, instead of reading
+   * every sample up front.
+   */
+  private class VcfPreloader {
+    private final Env m_env;
+    private final @Nullable Metrics m_metrics;
+    private final int m_chunkSize;
+    /** Samples yet to be read, in the order their tasks will run. */
+    private final Map<VcfFile, Deque<String>> m_pendingSamples = new HashMap<>();
+
+
+    VcfPreloader(Env env, @Nullable Metrics metrics, List<Builder> builders, int chunkSize) {
+      m_env = env;
+      m_metrics = metrics;
+      m_chunkSize = chunkSize;
+      for (Builder builder : builders) {
+        if (builder.m_runMatcher && builder.m_sampleId != null) {
+          m_pendingSamples.computeIfAbsent(builder.m_vcfFile, (f) -> new ArrayDeque<>())
+              .add(builder.m_sampleId);
+        }
+      }
+      // only worth reading ahead if there are multiple samples to read
+      m_pendingSamples.values().removeIf((samples) -> samples.size() < 2);
+    }
+
+
+    /**
+     * Makes sure the sample for this task has been read, reading it along with the next chunk of samples from the same
+     * VCF file if necessary.
+     */
+    void preload(Builder builder) {
+      if (!builder.m_runMatcher || builder.m_sampleId == null) {
+        return;
+      }
+      Deque<String> pending = m_pendingSamples.get(builder.m_vcfFile);
+      // tasks run in order, so the next sample to read will always be at the head
+      if (pending == null || !builder.m_sampleId.equals(pending.peekFirst())) {
+        return;
+      }
+      List<String> samples = new ArrayList<>();
+      while (samples.size() < m_chunkSize && !pending.isEmpty()) {
+        samples.add(pending.removeFirst());
+      }
+      if (pending.isEmpty()) {
+        m_pendingSamples.remove(builder.m_vcfFile);
+      }
+
+      System.out.println("Reading " + samples.size() + " samples from " +
+          builder.m_vcfFile.getFile().getFileName() + "...");
+      long start = System.nanoTime();
+      try {
+        builder.m_vcfFile.readSamples(m_env.getDefinitionReader(), samples, m_config.findCombinations);
+      } catch (IOException | RuntimeException ex) {
+        // each sample will be read on its own instead, which will report the error (e.g. a malformed line) as a failure
+        // of just that sample instead of taking down the whole batch
+        System.out.println(AnsiConsole.styleWarning("Warning: unable to read samples from " +
+            builder.m_vcfFile.getFile().getFileName() + " in a single pass (" + ex.getMessage() + ")"));
+      }
+      if (m_metrics != null) {
+        m_metrics.recordStage(start, "vcfPreload");
+      }
     }
   }
 
@@ -339,6 +572,9 @@ public class Builder {
     private boolean m_runReporter;
     private Path m_riFile;
     private boolean m_singleSample;
+    /** Basename of output files from the run being resumed, if any. */
+    private String m_resumeBasename;
+    private String m_inputs;
 
 
     public Builder fromMatcher(String baseFilename, VcfFile file, @Nullable String sampleId, boolean singleSample) {
@@ -385,6 +621,109 @@ public Builder fromReporter(String baseFilename) {
     }
 
 
+    /**
+     * Gets the key that identifies this task in the {@link RunManifest}.
+     */
+    String getKey() {
+      if (m_sampleId != null) {
+        return m_baseFilename + ":" + m_sampleId;
+      }
+      return m_baseFilename;
+    }
+
+    /**
+     * Gets the fingerprint of this task's input files.
+     */
+    String getInputs() {
+      if (m_inputs == null) {
+        List<Path> files = new ArrayList<>();
+        if (m_vcfFile != null) {
+          files.add(m_vcfFile.getFile());
+        }
+        for (Path file : new Path[] { m_piFile, m_poFile, m_riFile }) {
+          if (file != null) {
+            files.add(file);
+          }
+        }
+        m_inputs = RunManifest.fingerprint(files);
+      }
+      return m_inputs;
+    }
+
+    /**
+     * Skips the stages that a previous run has already saved the output of.
+     *
+     * @return true if this task will resume from a previous run's output
+     */
+    boolean resume(RunManifest.Resume resume) throws IOException {
+      if (resume.resumeStage() == null || resume.resumeFile() == null) {
+        return false;
+      }
+      // make sure fingerprint is based on original inputs
+      getInputs();
+      switch (resume.resumeStage()) {
+        case RunManifest.STAGE_MATCHER -> {
+          if (!m_runMatcher || !m_runPhenotyper) {
+            return false;
+          }
+          m_runMatcher = false;
+          m_vcfFile = null;
+          m_piFile = preferBinary(resume.resumeFile());
+        }
+        case RunManifest.STAGE_PHENOTYPER -> {
+          if (!m_runPhenotyper || !m_runReporter) {
+            return false;
+          }
+          m_runMatcher = false;
+          m_vcfFile = null;
+          m_runPhenotyper = false;
+          m_piFile = null;
+          m_poFile = null;
+          m_riFile = preferBinary(resume.resumeFile());
+        }
+        default -> {
+          return false;
+        }
+      }
+      m_resumeBasename = resume.basename();
+      m_singleSample = true;
+      return true;
+    }
+
+
+    /**
+     * Estimates how many bytes of memory running this task will take.
+     * <p>
+     * JSON inputs are read into memory all at once, so they count by file size.  For VCF samples that have already
+     * been read, each gene counts by the number of permutations of its unphased heterozygous positions.  Otherwise, it
+     * falls back to a typical sample's needs.
+     */
+    long estimateCost() {
+      long cost = sf_baseBytesPerTask;
+      for (Path file : new Path[] { m_piFile, m_poFile, m_riFile }) {
+        if (file != null) {
+          try {
+            cost += Files.size(file) *
+                (file.toString().endsWith(".gz") ? sf_bytesPerGzipInputByte : sf_bytesPerInputByte);
+          } catch (IOException ex) {
+            // will be reported when the pipeline runs
+          }
+        }
+      }
+      if (m_runMatcher) {
+        Map<String, Integer> hets = m_sampleId == null ? null : m_vcfFile.countUnphasedHets(m_sampleId);
+        if (hets == null) {
+          cost += sf_bytesPerProcess;
+        } else {
+          for (int numHets : hets.values()) {
+            cost += (1L << Math.min(numHets, sf_maxHetsPerGene)) * sf_bytesPerPermutation;
+          }
+        }
+      }
+      return cost;
+    }
+
+
     /**
      * Builds {@link Pipeline}.
      */
@@ -394,14 +733,43 @@ public Pipeline build(Env env, int index, int totalTasks) throws ReportableExcep
       return new Pipeline(env,
           m_runMatcher, m_vcfFile, m_sampleId, m_singleSample,
           m_config.topCandidateOnly, m_config.callCyp2d6, m_config.findCombinations, m_config.matcherHtml,
+          m_config.matcherConcurrentGenes,
           m_runPhenotyper, m_piFile, m_poFile,
           m_runReporter, m_riFile, m_config.reporterTitle,
           m_config.reporterSources, m_config.reporterCompact, m_config.reporterJson, m_config.reporterHtml,
-          m_config.outputDir, m_config.baseFilename, m_config.deleteIntermediateFiles,
+          m_config.outputDir, (m_resumeBasename != null ? m_resumeBasename : m_config.baseFilename),
+          m_config.deleteIntermediateFiles, m_config.compactJson,
+          m_config.gzipJson, m_config.saveBinary,
           mode, (index + "/" + totalTasks), m_verbose);
     }
 
 
+    /**
+     * Builds {@link Pipeline} that records its progress in the {@link RunManifest}, if there is one.
+     */
+    Callable<PipelineResult> buildTask(Env env, int index, int totalTasks, @Nullable RunManifest manifest)
+        throws ReportableException {
+      if (manifest == null) {
+        return build(env, index, totalTasks);
+      }
+      String key = getKey();
+      String inputs = getInputs();
+      Pipeline pipeline = build(env, index, totalTasks);
+      List<Path> outputs = new ArrayList<>();
+      pipeline.setCheckpointListener((stage, file) -> {
+        outputs.add(file);
+        if (!stage.equals(RunManifest.STAGE_REPORTER)) {
+          manifest.recordStage(key, inputs, pipeline.getBasename(), stage, file);
+        }
+      });
+      return () -> {
+        PipelineResult result = pipeline.call();
+        manifest.recordDone(key, inputs, result.getStatus(), outputs);
+        return result;
+      };
+    }
+
+
     private void findPhenotyperFiles(String basename) {
       if (!m_config.runPhenotyper) {
         return;
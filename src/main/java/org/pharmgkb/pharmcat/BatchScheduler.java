@@ -0,0 +1,254 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+import com.google.common.base.Preconditions;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * Runs batch {@link Pipeline}s as a stream instead of all at once.
+ * <p>
+ * Tasks are only built when there is room for them: at most {@code maxProcesses} are running and at most
+ * {@code queueSize} more are waiting to run.  Results are handled as soon as each task finishes, and a progress line
+ * (done, failed, rate and ETA) is printed periodically if there is more than 1 task.  This keeps memory use flat no
+ * matter how many samples there are.
+ * <p>
+ * A task that throws an exception does not stop the batch.  It is counted as failed and passed on to the result
+ * handler as a {@link PipelineResult} with {@link PipelineResult#getError() the exception}.
+ * <p>
+ * If an {@link AdmissionController} is provided, it also has to admit each task before it starts running, based on an
+ * estimate of how much memory the task will need.  Admission only gates running tasks: built tasks still fill the
+ * queue, and wait for admission on a worker thread once they reach the front of it.
+ */
+public class BatchScheduler {
+  private static final Duration sf_defaultProgressInterval = Duration.ofSeconds(10);
+  private final int m_maxProcesses;
+  private final int m_queueSize;
+  private Duration m_progressInterval = sf_defaultProgressInterval;
+  private PrintStream m_out = System.out;
+  private @Nullable AdmissionController m_admissionController;
+  private @Nullable IntToLongFunction m_costEstimator;
+  private int m_done;
+  private int m_failed;
+
+
+  /**
+   * Builds the task at the given index.
+   */
+  @FunctionalInterface
+  public interface TaskFactory {
+    Callable<PipelineResult> build(int index) throws ReportableException;
+  }
+
+
+  /**
+   * Constructor.
+   *
+   * @param maxProcesses the maximum number of tasks to run at the same time
+   * @param queueSize the maximum number of built tasks waiting to run
+   */
+  public BatchScheduler(int maxProcesses, int queueSize) {
+    Preconditions.checkArgument(maxProcesses > 0, "Must allow at least 1 process");
+    Preconditions.checkArgument(queueSize >= 0, "Queue size cannot be negative");
+    m_maxProcesses = maxProcesses;
+    m_queueSize = queueSize;
+  }
+
+
+  /**
+   * Sets how often to print the progress line.
+   */
+  public BatchScheduler progressInterval(Duration interval) {
+    Preconditions.checkNotNull(interval);
+    m_progressInterval = interval;
+    return this;
+  }
+
+  /**
+   * Sets where to print the progress line.
+   */
+  public BatchScheduler progressTo(PrintStream out) {
+    Preconditions.checkNotNull(out);
+    m_out = out;
+    return this;
+  }
+
+
+  /**
+   * Gets the maximum number of tasks that will have been built but not finished at any one time.
+   */
+  public int getMaxInFlight() {
+    return m_maxProcesses + m_queueSize;
+  }
+
+
+  /**
+   * Only run tasks once the {@link AdmissionController} admits them.
+   *
+   * @param costEstimator estimates the number of bytes the task at the given index needs
+   */
+  public BatchScheduler admissionController(AdmissionController controller, IntToLongFunction costEstimator) {
+    Preconditions.checkNotNull(controller);
+    Preconditions.checkNotNull(costEstimator);
+    m_admissionController = controller;
+    m_costEstimator = costEstimator;
+    return this;
+  }
+
+
+  /**
+   * Runs all tasks.
+   *
+   * @param numTasks the total number of tasks
+   * @param factory builds each task, just before it is submitted
+   * @param resultHandler called with each result, as soon as the task finishes
+   */
+  public void run(int numTasks, TaskFactory factory, Consumer<PipelineResult> resultHandler)
+      throws ReportableException, InterruptedException {
+
+    m_done = 0;
+    m_failed = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numTasks, m_maxProcesses)));
+    CompletionService<PipelineResult> completionService = new ExecutorCompletionService<>(executor);
+    int maxInFlight = getMaxInFlight();
+    long startTime = System.nanoTime();
+    long lastProgress = startTime;
+    // index of each task, to identify tasks that die with an exception
+    Map<Future<PipelineResult>, Integer> indexes = new HashMap<>();
+    try {
+      int nextTask = 0;
+      int inFlight = 0;
+      while (nextTask < numTasks || inFlight > 0) {
+        while (nextTask < numTasks && inFlight < maxInFlight) {
+          Callable<PipelineResult> task;
+          if (m_admissionController != null) {
+            //noinspection ConstantConditions
+            task = admitted(m_admissionController, Math.max(0, m_costEstimator.applyAsLong(nextTask)),
+                factory.build(nextTask));
+          } else {
+            task = factory.build(nextTask);
+          }
+          indexes.put(completionService.submit(task), nextTask);
+          nextTask += 1;
+          inFlight += 1;
+        }
+
+        Future<PipelineResult> future = completionService.poll(m_progressInterval.toMillis(), TimeUnit.MILLISECONDS);
+        if (future != null) {
+          inFlight -= 1;
+          int index = indexes.remove(future);
+          PipelineResult result;
+          try {
+            result = future.get();
+          } catch (ExecutionException ex) {
+            result = new PipelineResult("task " + (index + 1), ex.getCause() != null ? ex.getCause() : ex);
+          }
+          m_done += 1;
+          if (result.getStatus() == PipelineResult.Status.FAILURE) {
+            m_failed += 1;
+          }
+          resultHandler.accept(result);
+        }
+
+        long now = System.nanoTime();
+        if (numTasks > 1 &&
+            (now - lastProgress >= m_progressInterval.toNanos() || (m_done == numTasks && future != null))) {
+          m_out.println(formatProgress(m_done, m_failed, numTasks, Duration.ofNanos(now - startTime)));
+          lastProgress = now;
+        }
+      }
+      executor.shutdown();
+    } finally {
+      // only has running tasks to stop if something went wrong
+      executor.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Wraps a task so that it waits for the {@link AdmissionController} to admit it before running.
+   */
+  private static Callable<PipelineResult> admitted(AdmissionController controller, long cost,
+      Callable<PipelineResult> task) {
+    return () -> {
+      controller.admit(cost);
+      try {
+        return task.call();
+      } finally {
+        controller.release(cost);
+      }
+    };
+  }
+
+
+  /**
+   * Gets the number of tasks that have finished in the last call to {@link #run}.
+   */
+  public int getDone() {
+    return m_done;
+  }
+
+  /**
+   * Gets the number of tasks that failed in the last call to {@link #run}.
+   */
+  public int getFailed() {
+    return m_failed;
+  }
+
+
+  /**
+   * Builds the progress line.
+   */
+  static String formatProgress(int done, int failed, int total, Duration elapsed) {
+    StringBuilder builder = new StringBuilder("Progress: ")
+        .append(done)
+        .append("/")
+        .append(total)
+        .append(" done");
+    if (total > 0) {
+      builder.append(String.format(Locale.ROOT, " (%.1f%%)", done * 100.0 / total));
+    }
+    builder.append(", ")
+        .append(failed)
+        .append(" failed");
+    double seconds = elapsed.toNanos() / 1_000_000_000.0;
+    if (done > 0 && seconds > 0) {
+      double rate = done / seconds;
+      builder.append(String.format(Locale.ROOT, ", %.2f/s", rate));
+      if (done < total) {
+        builder.append(", ETA ")
+            .append(formatDuration(Duration.ofSeconds((long)Math.ceil((total - done) / rate))));
+      }
+    }
+    builder.append(", elapsed ")
+        .append(formatDuration(elapsed));
+    return builder.toString();
+  }
+
+  static String formatDuration(Duration duration) {
+    long hours = duration.toHours();
+    int minutes = duration.toMinutesPart();
+    int seconds = duration.toSecondsPart();
+    if (hours > 0) {
+      return String.format(Locale.ROOT, "%dh %02dm %02ds", hours, minutes, seconds);
+    }
+    if (minutes > 0) {
+      return String.format(Locale.ROOT, "%dm %02ds", minutes, seconds);
+    }
+    return seconds + "s";
+  }
+}
@@ -2,18 +2,21 @@
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import com.github.jknack.handlebars.Template;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.haplotype.DiplotypeMatchCache;
 import org.pharmgkb.pharmcat.phenotype.PhenotypeMap;
 import org.pharmgkb.pharmcat.phenotype.model.GenePhenotype;
+import org.pharmgkb.pharmcat.reporter.HaplotypeCache;
 import org.pharmgkb.pharmcat.reporter.MessageHelper;
 import org.pharmgkb.pharmcat.reporter.PgkbGuidelineCollection;
 import org.pharmgkb.pharmcat.reporter.caller.Cyp2d6CopyNumberCaller;
+import org.pharmgkb.pharmcat.reporter.format.HtmlFormat;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.MessageAnnotation;
 import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
+import org.pharmgkb.pharmcat.util.Metrics;
 
 
 /**
@@ -26,7 +29,10 @@ public class Env {
   private final PhenotypeMap m_phenotypeMap;
   private final PgkbGuidelineCollection m_drugs;
   private MessageHelper m_messageHelper;
-  private final Map<DataSource, Map<String, Map<String, Haplotype>>> m_haplotypeCache = new HashMap<>();
+  private final HaplotypeCache m_haplotypeCache = new HaplotypeCache(this::newHaplotype);
+  private @Nullable DiplotypeMatchCache m_diplotypeMatchCache;
+  private @Nullable Metrics m_metrics;
+  private @Nullable Template m_reportTemplate;
 
 
   public Env() throws IOException, ReportableException {
@@ -55,6 +61,39 @@ public DefinitionReader getDefinitionReader() {
     return m_definitionReader;
   }
 
+  /**
+   * Enables caching of diplotype calls for samples with the same genotypes.
+   *
+   * @param maxSize the maximum number of genotypes to cache
+   */
+  public void enableDiplotypeMatchCache(int maxSize) {
+    m_diplotypeMatchCache = new DiplotypeMatchCache(maxSize);
+  }
+
+  /**
+   * Gets the {@link DiplotypeMatchCache} for use with {@link #getDefinitionReader()}, if enabled.
+   */
+  public @Nullable DiplotypeMatchCache getDiplotypeMatchCache() {
+    return m_diplotypeMatchCache;
+  }
+
+  /**
+   * Enables collecting {@link Metrics} for all pipelines using this {@link Env}.
+   *
+   * @param emitJfrEvents true if recorded latencies should also be emitted as JFR events
+   */
+  public Metrics enableMetrics(boolean emitJfrEvents) {
+    m_metrics = new Metrics(emitJfrEvents);
+    return m_metrics;
+  }
+
+  /**
+   * Gets the {@link Metrics} registry, if enabled.
+   */
+  public @Nullable Metrics getMetrics() {
+    return m_metrics;
+  }
+
   public String getReferenceAllele(String gene) {
     return m_definitionReader.getReferenceAlleleMap().get(gene);
   }
@@ -75,7 +114,7 @@ public PgkbGuidelineCollection getDrugs() {
 
 
   public boolean hasGene(DataSource source, String gene) {
-    return m_drugs.getGenesUsedInSource(source).contains(gene);
+    return m_drugs.isGeneUsedInSource(source, gene);
   }
 
   /**
@@ -99,7 +138,7 @@ public boolean isActivityScoreGene(String gene) {
   }
 
 
-  public MessageHelper getMessageHelper() {
+  public synchronized MessageHelper getMessageHelper() {
     if (m_messageHelper == null) {
       try {
         m_messageHelper = new MessageHelper();
@@ -115,21 +154,39 @@ public MessageAnnotation getMessage(String key) {
   }
 
 
+  /**
+   * Gets the compiled Handlebars template for HTML reports.
+   * <p>
+   * Compiling the template is expensive, so it is only done once.  Compiled templates are thread-safe and can be shared
+   * by all reports.
+   */
+  public synchronized Template getReportTemplate() throws IOException {
+    if (m_reportTemplate == null) {
+      m_reportTemplate = HtmlFormat.compileTemplate();
+    }
+    return m_reportTemplate;
+  }
+
+
   /**
    * Make or retrieve a cached {@link Haplotype} object that corresponds to the given allele name.
    */
-  public synchronized Haplotype makeHaplotype(String gene, String name, DataSource source) {
-    return m_haplotypeCache.computeIfAbsent(source, (s) -> new HashMap<>())
-        .computeIfAbsent(gene, (g) -> new HashMap<>())
-        .computeIfAbsent(name, (n) -> {
-          Haplotype haplotype = new Haplotype(gene, name);
-          GenePhenotype gp = getPhenotype(gene, source);
-          if (gp != null) {
-            haplotype.setFunction(gp.getHaplotypeFunction(name));
-            haplotype.setActivityValue(gp.getHaplotypeActivity(name));
-          }
-          haplotype.setReference(name.equals(getReferenceAllele(gene)));
-          return haplotype;
-        });
+  public Haplotype makeHaplotype(String gene, String name, DataSource source) {
+    return m_haplotypeCache.get(gene, name, source);
+  }
+
+  private Haplotype newHaplotype(String gene, String name, DataSource source) {
+    Haplotype haplotype = new Haplotype(gene, name);
+    GenePhenotype gp = getPhenotype(gene, source);
+    if (gp != null) {
+      haplotype.setFunction(gp.getHaplotypeFunction(name));
+      haplotype.setActivityValue(gp.getHaplotypeActivity(name));
+    }
+    haplotype.setReference(name.equals(getReferenceAllele(gene)));
+    return haplotype;
+  }
+
+  public HaplotypeCache getHaplotypeCache() {
+    return m_haplotypeCache;
   }
 }
@@ -33,6 +33,7 @@ public static void main(String[] args) {
           .addOption("vcf", "matcher-vcf", "Input VCF file for named allele matcher", false, "file")
           .addOption("ma", "matcher-all-results", "Return all possible diplotypes, not just top hits")
           .addOption("matcherHtml", "matcher-save-html", "Save named allele matcher results as HTML")
+          .addOption("mcg", "matcher-concurrent-genes", "Call genes concurrently (faster for a single sample)")
 
           // phenotyper args
           .addOption("phenotyper", "phenotyper", "Run phenotyper independently")
@@ -51,6 +52,9 @@ public static void main(String[] args) {
           .addOption("o", "output-dir", "Directory to output to (optional, default is input file directory)", false, "directory")
           .addOption("bf", "base-filename", "The base name (without file extensions) used for output files, will default to base filename of input if not specified", false, "name")
           .addOption("del", "delete-intermediate-files", "Delete intermediate output files")
+          .addOption("jc", "json-compact", "Write JSON output files without pretty printing")
+          .addOption("jz", "json-gzip", "Gzip JSON output files")
+          .addOption("bin", "save-binary", "Also save matcher and phenotyper results in a binary format that is faster to read back in")
           // controls
           .addOption("def", "definitions-dir", "Directory containing named allele definitions (JSON files)", false, "dir")
           .addOption("research", "research-mode", "Comma-separated list of research features to enable: [cyp2d6, combinations]", false, "type");
@@ -158,10 +162,12 @@ Please specify a VCF file (-vcf)"""
           Pipeline pipeline = new Pipeline(env,
               config.runMatcher, vcfFile, sampleId, singleSample,
               config.topCandidateOnly, config.callCyp2d6, config.findCombinations, config.matcherHtml,
+              config.matcherConcurrentGenes,
               config.runPhenotyper, phenotyperInputFile, phenotyperOutsideCallsFile,
               config.runReporter, reporterInputFile, config.reporterTitle,
               config.reporterSources, config.reporterCompact, config.reporterJson, config.reporterHtml,
-              config.outputDir, config.baseFilename, config.deleteIntermediateFiles,
+              config.outputDir, config.baseFilename, config.deleteIntermediateFiles, config.compactJson, config.gzipJson,
+              config.saveBinary,
               Pipeline.Mode.CLI, null, cliHelper.isVerbose());
           if (pipeline.call().getStatus() == PipelineResult.Status.NOOP) {
             failIfNotTest();
@@ -182,10 +188,12 @@ Please specify a VCF file (-vcf)"""
         Pipeline pipeline = new Pipeline(env,
             false, null, null, true,
             config.topCandidateOnly, config.callCyp2d6, config.findCombinations, config.matcherHtml,
+            config.matcherConcurrentGenes,
             config.runPhenotyper, phenotyperInputFile, phenotyperOutsideCallsFile,
             config.runReporter, reporterInputFile, config.reporterTitle,
             config.reporterSources, config.reporterCompact, config.reporterJson, config.reporterHtml,
-            config.outputDir, config.baseFilename, config.deleteIntermediateFiles,
+            config.outputDir, config.baseFilename, config.deleteIntermediateFiles, config.compactJson, config.gzipJson,
+            config.saveBinary,
             Pipeline.Mode.CLI, null, cliHelper.isVerbose());
         if (pipeline.call().getStatus() == PipelineResult.Status.NOOP) {
           cliHelper.printHelp();
@@ -0,0 +1,537 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.common.util.CliHelper;
+import org.pharmgkb.pharmcat.haplotype.NamedAlleleMatcher;
+import org.pharmgkb.pharmcat.haplotype.model.GeneCall;
+import org.pharmgkb.pharmcat.haplotype.model.Result;
+import org.pharmgkb.pharmcat.phenotype.OutsideCallParser;
+import org.pharmgkb.pharmcat.phenotype.Phenotyper;
+import org.pharmgkb.pharmcat.phenotype.model.OutsideCall;
+import org.pharmgkb.pharmcat.reporter.BadOutsideCallException;
+import org.pharmgkb.pharmcat.reporter.ReportContext;
+import org.pharmgkb.pharmcat.reporter.format.HtmlFormat;
+import org.pharmgkb.pharmcat.reporter.format.JsonFormat;
+import org.pharmgkb.pharmcat.reporter.model.DataSource;
+import org.pharmgkb.pharmcat.util.CliUtils;
+import org.pharmgkb.pharmcat.util.DataSerializer;
+
+
+/**
+ * Runs PharmCAT as a long-running local HTTP server.
+ * <p>
+ * Loading definitions, phenotypes, guidelines and messages takes longer than running most samples, so this keeps a
+ * single {@link Env} warm and runs each request through the PharmCAT modules in memory.
+ * <p>
+ * Endpoints:
+ * <dl>
+ *   <dt>{@code POST /report}</dt>
+ *   <dd>Runs PharmCAT and responds with the report.  The body is either a JSON object (with
+ *   {@code Content-Type: application/json}, see {@link ReportRequest}) or a VCF file (optionally gzipped), in which case
+ *   the other options are taken from the query string ({@code sampleId}, {@code title}, {@code sources} and
+ *   {@code format}).  The report is HTML unless {@code format} is {@code json}.  How long each step took is returned in
+ *   the {@code Server-Timing} header.  Each warning about outside calls that were dropped or cannot be used is
+ *   returned in a separate {@code X-PharmCAT-Warning} header.</dd>
+ *   <dt>{@code GET /status}</dt>
+ *   <dd>Responds with a JSON summary of the server's state.</dd>
+ * </dl>
+ * Only {@code maxConcurrent} requests are run at the same time.  Other requests wait for up to the queue timeout and
+ * then get a 503.  Request bodies are only read once a request gets its turn to run, so waiting requests do not take
+ * up memory, and requests whose {@code Content-Length} is over the limit are rejected before they are queued.
+ */
+public class PharmCATServer {
+  public static final int DEFAULT_PORT = 8089;
+  public static final String REPORT_PATH = "/report";
+  public static final String STATUS_PATH = "/status";
+  private static final String sf_jsonContentType = "application/json; charset=UTF-8";
+  private static final String sf_htmlContentType = "text/html; charset=UTF-8";
+  private static final long sf_maxRequestBytes = 256L * 1024 * 1024;
+  private static final Splitter sf_commaSplitter = Splitter.on(",").trimResults().omitEmptyStrings();
+  private static final Splitter sf_paramSplitter = Splitter.on("&").omitEmptyStrings();
+  private final Env m_env;
+  private final HttpServer m_server;
+  private final ExecutorService m_executor;
+  private final int m_maxConcurrent;
+  private final Semaphore m_permits;
+  private long m_queueTimeoutMs = TimeUnit.SECONDS.toMillis(30);
+  private boolean m_topCandidateOnly = true;
+  private boolean m_findCombinations;
+  private boolean m_callCyp2d6;
+  private boolean m_reporterCompact = true;
+  private final long m_startTime = System.currentTimeMillis();
+  private final AtomicLong m_completed = new AtomicLong();
+  private final AtomicLong m_failed = new AtomicLong();
+  private final AtomicLong m_rejected = new AtomicLong();
+
+
+  public static void main(String[] args) {
+    try {
+      CliHelper cliHelper = new CliHelper(MethodHandles.lookup().lookupClass())
+          .addVersion("PharmCAT " + CliUtils.getVersion())
+          .addOption("p", "port", "Port to listen on (defaults to " + DEFAULT_PORT + ")", false, "port")
+          .addOption("host", "host", "Address to listen on (defaults to 127.0.0.1)", false, "address")
+          .addOption("cp", "max-concurrent-processes", "Maximum number of requests to run at the same time", false, "num")
+          .addOption("qt", "queue-timeout", "Seconds a request can wait to be run before it is rejected (defaults to 30)", false, "seconds")
+          // named allele matcher args
+          .addOption("ma", "matcher-all-results", "Return all possible diplotypes, not just top hits")
+          .addOption("mc", "matcher-cache-size", "Reuse diplotype calls for up to this many distinct genotypes", false, "num")
+          // reporter args
+          .addOption("re", "reporter-extended", "Output extended report")
+          // controls
+          .addOption("def", "definitions-dir", "Directory containing named allele definitions (JSON files)", false, "dir")
+          .addOption("research", "research-mode", "Comma-separated list of research features to enable: [cyp2d6, combinations]", false, "type");
+      if (!cliHelper.parse(args)) {
+        PharmCAT.failIfNotTest();
+        return;
+      }
+
+      BaseConfig config = new BaseConfig(cliHelper);
+      int port = cliHelper.hasOption("p") ? cliHelper.getIntValue("p") : DEFAULT_PORT;
+      String host = cliHelper.hasOption("host") ? cliHelper.getValue("host") : "127.0.0.1";
+      int maxConcurrent = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+      if (cliHelper.hasOption("cp")) {
+        maxConcurrent = cliHelper.getIntValue("cp");
+      }
+
+      System.out.println("Loading PharmCAT data...");
+      Env env = new Env(config.definitionDir);
+      if (cliHelper.hasOption("mc")) {
+        env.enableDiplotypeMatchCache(cliHelper.getIntValue("mc"));
+      }
+      env.getMessageHelper();
+      env.getReportTemplate();
+
+      PharmCATServer server = new PharmCATServer(env, new InetSocketAddress(host, port), maxConcurrent)
+          .matcherOptions(config.topCandidateOnly, config.findCombinations, config.callCyp2d6)
+          .reporterCompact(config.reporterCompact);
+      if (cliHelper.hasOption("qt")) {
+        server.queueTimeout(cliHelper.getIntValue("qt"), TimeUnit.SECONDS);
+      }
+      server.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+      System.out.println("PharmCAT server listening on http://" + host + ":" + server.getPort() + REPORT_PATH +
+          " (max " + maxConcurrent + " concurrent requests)");
+
+    } catch (NumberFormatException ex) {
+      System.out.println("Invalid number: " + ex.getMessage());
+      PharmCAT.failIfNotTest();
+    } catch (CliHelper.InvalidPathException | ReportableException ex) {
+      System.out.println(ex.getMessage());
+      PharmCAT.failIfNotTest();
+    } catch (Exception ex) {
+      //noinspection CallToPrintStackTrace
+      ex.printStackTrace();
+      PharmCAT.failIfNotTest();
+    }
+  }
+
+
+  /**
+   * Constructor.  Call {@link #start()} to start accepting requests.
+   *
+   * @param address the address to listen on (use port 0 to pick any free port)
+   * @param maxConcurrent the maximum number of requests to run at the same time
+   */
+  public PharmCATServer(Env env, InetSocketAddress address, int maxConcurrent) throws IOException {
+    Preconditions.checkNotNull(env);
+    Preconditions.checkArgument(maxConcurrent > 0, "Max concurrent requests must be greater than 0");
+    m_env = env;
+    m_maxConcurrent = maxConcurrent;
+    m_permits = new Semaphore(maxConcurrent, true);
+    m_server = HttpServer.create(address, 0);
+    m_server.createContext(REPORT_PATH, this::handleReport);
+    m_server.createContext(STATUS_PATH, this::handleStatus);
+    // threads beyond maxConcurrent only wait for a permit or answer status requests
+    m_executor = Executors.newCachedThreadPool();
+    m_server.setExecutor(m_executor);
+  }
+
+
+  /**
+   * Sets how long a request can wait for one of the {@code maxConcurrent} slots before it is rejected.
+   */
+  public PharmCATServer queueTimeout(long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(timeout >= 0, "Timeout cannot be negative");
+    m_queueTimeoutMs = unit.toMillis(timeout);
+    return this;
+  }
+
+  public PharmCATServer matcherOptions(boolean topCandidateOnly, boolean findCombinations, boolean callCyp2d6) {
+    m_topCandidateOnly = topCandidateOnly;
+    m_findCombinations = findCombinations;
+    m_callCyp2d6 = callCyp2d6;
+    return this;
+  }
+
+  public PharmCATServer reporterCompact(boolean compact) {
+    m_reporterCompact = compact;
+    return this;
+  }
+
+
+  public void start() {
+    m_server.start();
+  }
+
+  /**
+   * Stops accepting requests, giving requests that are running a few seconds to finish.
+   */
+  public void stop() {
+    m_server.stop(5);
+    m_executor.shutdown();
+  }
+
+  /**
+   * Gets the port the server is listening on.
+   */
+  public int getPort() {
+    return m_server.getAddress().getPort();
+  }
+
+
+  /**
+   * JSON body for {@code POST /report}.
+   */
+  static class ReportRequest {
+    /** VCF file contents. */
+    @Expose
+    @SerializedName("vcf")
+    String vcf;
+    /** Sample to run, if the VCF file has more than one. */
+    @Expose
+    @SerializedName("sampleId")
+    String sampleId;
+    /** Outside call file contents. */
+    @Expose
+    @SerializedName("outsideCalls")
+    String outsideCalls;
+    @Expose
+    @SerializedName("title")
+    String title;
+    /** Sources to limit report to (CPIC, DPWG). */
+    @Expose
+    @SerializedName("sources")
+    List<String> sources;
+    /** Either {@code html} (default) or {@code json}. */
+    @Expose
+    @SerializedName("format")
+    String format;
+  }
+
+  /**
+   * A parsed {@code POST /report} request.
+   */
+  private record Job(byte @Nullable [] vcf, @Nullable String sampleId, @Nullable String outsideCalls,
+      @Nullable String title, @Nullable List<DataSource> sources, boolean json) {
+  }
+
+  /**
+   * Response body, with how long each step took (in nanoseconds).
+   */
+  private record Response(byte[] body, String contentType, Map<String, Long> timings, List<String> warnings) {
+  }
+
+
+  private void handleReport(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    try {
+      if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        sendError(exchange, 405, "Use POST");
+        return;
+      }
+      String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+      if (contentLength != null) {
+        try {
+          if (Long.parseLong(contentLength.trim()) > sf_maxRequestBytes) {
+            sendError(exchange, 413, tooLargeMessage());
+            return;
+          }
+        } catch (NumberFormatException ex) {
+          sendError(exchange, 400, "Invalid Content-Length");
+          return;
+        }
+      }
+
+      // wait for a turn before reading the body, so that only running requests are held in memory
+      if (!m_permits.tryAcquire(m_queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+        m_rejected.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", "5");
+        sendError(exchange, 503, "Too many concurrent requests");
+        return;
+      }
+      long queueTime = System.nanoTime() - start;
+      Response response;
+      try {
+        Job job;
+        try {
+          job = parseJob(exchange);
+        } catch (ReportableException | JsonParseException ex) {
+          sendError(exchange, 400, ex.getMessage());
+          return;
+        } catch (RequestTooLargeException ex) {
+          sendError(exchange, 413, ex.getMessage());
+          return;
+        }
+        response = run(job);
+      } catch (ReportableException | BadOutsideCallException | ParseException ex) {
+        m_failed.incrementAndGet();
+        sendError(exchange, 400, ex.getMessage());
+        return;
+      } finally {
+        m_permits.release();
+      }
+      m_completed.incrementAndGet();
+
+      Map<String, Long> timings = new LinkedHashMap<>();
+      timings.put("queue", queueTime);
+      timings.putAll(response.timings());
+      timings.put("total", System.nanoTime() - start);
+      exchange.getResponseHeaders().set("Server-Timing", toServerTiming(timings));
+      for (String warning : response.warnings()) {
+        exchange.getResponseHeaders().add("X-PharmCAT-Warning", warning);
+      }
+      send(exchange, 200, response.contentType(), response.body());
+
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      sendError(exchange, 503, "Server is shutting down");
+    } catch (Exception ex) {
+      m_failed.incrementAndGet();
+      //noinspection CallToPrintStackTrace
+      ex.printStackTrace();
+      sendError(exchange, 500, ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage());
+    } finally {
+      exchange.close();
+    }
+  }
+
+
+  private Job parseJob(HttpExchange exchange) throws IOException, ReportableException {
+    byte[] body = readBody(exchange);
+    String contentType = StringUtils.stripToEmpty(exchange.getRequestHeaders().getFirst("Content-Type"));
+    if (contentType.startsWith("application/json")) {
+      ReportRequest request = DataSerializer.GSON.fromJson(new String(body, StandardCharsets.UTF_8),
+          ReportRequest.class);
+      if (request == null) {
+        throw new ReportableException("Missing request");
+      }
+      return newJob(request.vcf == null ? null : request.vcf.getBytes(StandardCharsets.UTF_8), request.sampleId,
+          request.outsideCalls, request.title, request.sources, request.format);
+    }
+
+    Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+    return newJob(body, params.get("sampleId"), null, params.get("title"),
+        params.containsKey("sources") ? sf_commaSplitter.splitToList(params.get("sources")) : null,
+        params.get("format"));
+  }
+
+  private static Job newJob(byte @Nullable [] vcf, @Nullable String sampleId, @Nullable String outsideCalls,
+      @Nullable String title, @Nullable List<String> sources, @Nullable String format) throws ReportableException {
+    if (vcf != null && vcf.length == 0) {
+      vcf = null;
+    }
+    if (vcf == null && StringUtils.isBlank(outsideCalls)) {
+      throw new ReportableException("Missing VCF and/or outside calls");
+    }
+    List<DataSource> dataSources = null;
+    if (sources != null && !sources.isEmpty()) {
+      dataSources = new ArrayList<>();
+      for (String src : sources) {
+        try {
+          dataSources.add(DataSource.valueOf(src.toUpperCase()));
+        } catch (IllegalArgumentException ex) {
+          throw new ReportableException("Unknown source: " + src);
+        }
+      }
+    }
+    boolean json = false;
+    if (format != null) {
+      if (format.equalsIgnoreCase("json")) {
+        json = true;
+      } else if (!format.equalsIgnoreCase("html")) {
+        throw new ReportableException("Unknown format: " + format);
+      }
+    }
+    return new Job(vcf, StringUtils.stripToNull(sampleId), outsideCalls, StringUtils.stripToNull(title), dataSources,
+        json);
+  }
+
+  private static Map<String, String> parseQuery(@Nullable String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query != null) {
+      for (String param : sf_paramSplitter.split(query)) {
+        int idx = param.indexOf('=');
+        String key = idx == -1 ? param : param.substring(0, idx);
+        String value = idx == -1 ? "" : param.substring(idx + 1);
+        params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+      }
+    }
+    return params;
+  }
+
+  private static byte[] readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = exchange.getRequestBody()) {
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        if (body.size() + count > sf_maxRequestBytes) {
+          throw new RequestTooLargeException(tooLargeMessage());
+        }
+        body.write(buffer, 0, count);
+      }
+    }
+    return body.toByteArray();
+  }
+
+  private static String tooLargeMessage() {
+    return "Request is larger than " + FileUtils.byteCountToDisplaySize(sf_maxRequestBytes);
+  }
+
+
+  /**
+   * Runs the PharmCAT modules on the job.
+   */
+  private Response run(Job job) throws IOException, ReportableException {
+    Map<String, Long> timings = new LinkedHashMap<>();
+    List<GeneCall> calls = new ArrayList<>();
+    Map<String, Collection<String>> warnings = new HashMap<>();
+
+    if (job.vcf() != null) {
+      long start = System.nanoTime();
+      // VCF reading works off of files, so this is the one thing that has to go to disk
+      Path tmpDir = Files.createTempDirectory("pharmcat");
+      try {
+        boolean gzipped = job.vcf().length > 2 && job.vcf()[0] == (byte)0x1f && job.vcf()[1] == (byte)0x8b;
+        Path vcfFile = tmpDir.resolve(gzipped ? "input.vcf.gz" : "input.vcf");
+        Files.write(vcfFile, job.vcf());
+        NamedAlleleMatcher namedAlleleMatcher = new NamedAlleleMatcher(m_env, m_env.getDefinitionReader(),
+            m_findCombinations, m_topCandidateOnly, m_callCyp2d6)
+            .useDiplotypeMatchCache(m_env.getDiplotypeMatchCache());
+        Result matcherResult = namedAlleleMatcher.call(new VcfFile(vcfFile, false), job.sampleId());
+        calls = matcherResult.getGeneCalls();
+        warnings.putAll(matcherResult.getVcfWarnings());
+      } finally {
+        FileUtils.deleteQuietly(tmpDir.toFile());
+      }
+      timings.put("matcher", System.nanoTime() - start);
+    }
+
+    long start = System.nanoTime();
+    List<OutsideCall> outsideCalls = new ArrayList<>();
+    List<String> outsideCallWarnings = new ArrayList<>();
+    if (job.outsideCalls() != null) {
+      outsideCalls = Pipeline.filterOutsideCalls(m_env, OutsideCallParser.parse(job.outsideCalls()),
+          outsideCallWarnings);
+    }
+    Phenotyper phenotyper = new Phenotyper(m_env, calls, outsideCalls, warnings);
+    timings.put("phenotyper", System.nanoTime() - start);
+
+    start = System.nanoTime();
+    ReportContext reportContext = new ReportContext(m_env, phenotyper.getGeneReports(), job.title());
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+      if (job.json()) {
+        new JsonFormat(null, m_env)
+            .write(reportContext, writer);
+      } else {
+        new HtmlFormat(null, m_env, false)
+            .sources(job.sources())
+            .compact(m_reporterCompact)
+            .write(reportContext, writer);
+      }
+    }
+    timings.put("reporter", System.nanoTime() - start);
+    return new Response(body.toByteArray(), job.json() ? sf_jsonContentType : sf_htmlContentType, timings,
+        outsideCallWarnings);
+  }
+
+
+  private void handleStatus(HttpExchange exchange) throws IOException {
+    try {
+      Map<String, Object> status = new LinkedHashMap<>();
+      status.put("version", CliUtils.getVersion());
+      status.put("uptimeSeconds", (System.currentTimeMillis() - m_startTime) / 1000);
+      status.put("maxConcurrent", m_maxConcurrent);
+      status.put("running", m_maxConcurrent - m_permits.availablePermits());
+      status.put("waiting", m_permits.getQueueLength());
+      status.put("completed", m_completed.get());
+      status.put("failed", m_failed.get());
+      status.put("rejected", m_rejected.get());
+      send(exchange, 200, sf_jsonContentType, DataSerializer.GSON.toJson(status).getBytes(StandardCharsets.UTF_8));
+    } finally {
+      exchange.close();
+    }
+  }
+
+
+  /**
+   * Formats timings (in nanoseconds) as a {@code Server-Timing} header (which uses milliseconds).
+   */
+  static String toServerTiming(Map<String, Long> timings) {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, Long> entry : timings.entrySet()) {
+      if (!builder.isEmpty()) {
+        builder.append(", ");
+      }
+      builder.append(entry.getKey())
+          .append(";dur=")
+          .append(String.format(Locale.ROOT, "%.1f", entry.getValue() / 1_000_000.0));
+    }
+    return builder.toString();
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    Map<String, Object> error = Map.of("error", message == null ? "Unknown error" : message);
+    send(exchange, status, sf_jsonContentType, DataSerializer.GSON.toJson(error).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+
+  private static class RequestTooLargeException extends IOException {
+    RequestTooLargeException(String message) {
+      super(message);
+    }
+  }
+}
@@ -24,6 +24,8 @@
 import org.pharmgkb.pharmcat.reporter.format.HtmlFormat;
 import org.pharmgkb.pharmcat.reporter.format.JsonFormat;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
+import org.pharmgkb.pharmcat.util.DataSerializer;
+import org.pharmgkb.pharmcat.util.Metrics;
 
 
 /**
@@ -43,15 +45,33 @@ public enum Mode {
      */
     TEST
   }
+
+  /**
+   * Gets notified whenever {@link Pipeline} saves an output file.
+   */
+  @FunctionalInterface
+  public interface CheckpointListener {
+    /**
+     * Called after an output file has been saved.
+     *
+     * @param stage the stage the file comes from (one of {@link RunManifest#STAGE_MATCHER},
+     * {@link RunManifest#STAGE_PHENOTYPER} or {@link RunManifest#STAGE_REPORTER})
+     */
+    void saved(String stage, Path file);
+  }
+
   private final Env m_env;
+  private final @Nullable Metrics m_metrics;
   private final boolean m_runMatcher;
   private VcfFile m_vcfFile;
   private String m_sampleId;
   private boolean m_topCandidateOnly = true;
   private boolean m_findCombinations;
   private boolean m_callCyp2d6;
+  private boolean m_matcherConcurrentGenes;
   private Path m_matcherJsonFile;
   private Path m_matcherHtmlFile;
+  private Path m_matcherBinaryFile;
   /** True if VCF file only contains a single sample. */
   private final boolean m_singleSample;
 
@@ -59,6 +79,7 @@ public enum Mode {
   private Path m_phenotyperInputFile;
   private Path m_phenotyperOutsideCallsFile;
   private Path m_phenotyperJsonFile;
+  private Path m_phenotyperBinaryFile;
 
   private final boolean m_runReporter;
   private Path m_reporterInputFile;
@@ -70,23 +91,29 @@ public enum Mode {
   private ReportContext m_reportContext;
 
   private final boolean m_deleteIntermediateFiles;
+  private final boolean m_compactJson;
   private final Mode m_mode;
   private final boolean m_verbose;
   private Path m_baseDir;
   private String m_basename;
   private String m_displayName;
   private final String m_displayCount;
+  private @Nullable CheckpointListener m_checkpointListener;
 
 
   public Pipeline(Env env,
       boolean runMatcher, @Nullable VcfFile vcfFile, @Nullable String sampleId, boolean singleSample,
       boolean topCandidateOnly, boolean callCyp2d6, boolean findCombinations, boolean matcherHtml,
+      boolean matcherConcurrentGenes,
       boolean runPhenotyper, @Nullable Path phenotyperInputFile, @Nullable Path phenotyperOutsideCallsFile,
       boolean runReporter, @Nullable Path reporterInputFile, @Nullable String reporterTitle,
       @Nullable List<DataSource> reporterSources, boolean reporterCompact, boolean reporterJson, boolean reporterHtml,
       @Nullable Path outputDir, @Nullable String baseFilename, boolean deleteIntermediateFiles,
+      boolean compactJson, boolean gzipJson, boolean saveBinary,
       Mode mode, @Nullable String displayCount, boolean verbose) throws ReportableException {
     m_env = env;
+    m_metrics = env.getMetrics();
+    String jsonExtension = gzipJson ? ".json.gz" : ".json";
 
     m_runMatcher = runMatcher;
     m_baseDir = outputDir;
@@ -97,13 +124,18 @@ public Pipeline(Env env,
       if (m_baseDir == null) {
         m_baseDir = m_vcfFile.getFile().getParent();
       }
-      m_matcherJsonFile = m_baseDir.resolve(m_basename + BaseConfig.MATCHER_SUFFIX + ".json");
+      m_matcherJsonFile = m_baseDir.resolve(m_basename + BaseConfig.MATCHER_SUFFIX + jsonExtension);
       m_topCandidateOnly = topCandidateOnly;
       m_callCyp2d6 = callCyp2d6;
       m_findCombinations = findCombinations;
+      m_matcherConcurrentGenes = matcherConcurrentGenes;
       if (matcherHtml) {
         m_matcherHtmlFile = m_baseDir.resolve(m_basename + BaseConfig.MATCHER_SUFFIX + ".html");
       }
+      if (saveBinary) {
+        m_matcherBinaryFile = m_baseDir.resolve(m_basename + BaseConfig.MATCHER_SUFFIX +
+            DataSerializer.BINARY_EXTENSION);
+      }
     }
 
     m_runPhenotyper = runPhenotyper;
@@ -123,7 +155,11 @@ public Pipeline(Env env,
       if (m_baseDir == null) {
         m_baseDir = inputFile.getParent();
       }
-      m_phenotyperJsonFile = m_baseDir.resolve(m_basename + BaseConfig.PHENOTYPER_SUFFIX + ".json");
+      m_phenotyperJsonFile = m_baseDir.resolve(m_basename + BaseConfig.PHENOTYPER_SUFFIX + jsonExtension);
+      if (saveBinary) {
+        m_phenotyperBinaryFile = m_baseDir.resolve(m_basename + BaseConfig.PHENOTYPER_SUFFIX +
+            DataSerializer.BINARY_EXTENSION);
+      }
     }
 
     m_runReporter = runReporter;
@@ -144,7 +180,7 @@ public Pipeline(Env env,
         m_reporterHtmlFile = m_baseDir.resolve(m_basename + BaseConfig.REPORTER_SUFFIX + ".html");
       }
       if (reporterJson) {
-        m_reporterJsonFile = m_baseDir.resolve(m_basename + BaseConfig.REPORTER_SUFFIX + ".json");
+        m_reporterJsonFile = m_baseDir.resolve(m_basename + BaseConfig.REPORTER_SUFFIX + jsonExtension);
       }
       m_reporterTitle = reporterTitle;
       if (m_reporterTitle == null) {
@@ -154,6 +190,7 @@ public Pipeline(Env env,
       m_reporterCompact = reporterCompact;
     }
     m_deleteIntermediateFiles = deleteIntermediateFiles;
+    m_compactJson = compactJson;
     m_mode = mode;
     m_verbose = verbose;
     m_singleSample = singleSample;
@@ -171,6 +208,13 @@ public String getBasename() {
     return m_basename;
   }
 
+  /**
+   * Sets the listener to notify when output files are saved.
+   */
+  public void setCheckpointListener(@Nullable CheckpointListener listener) {
+    m_checkpointListener = listener;
+  }
+
   private void generateBasename(String baseFilename, Path inputFile, String sampleId, boolean singleSample) {
     if (m_baseDir == null) {
       m_baseDir = inputFile.getParent();
@@ -221,16 +265,24 @@ public PipelineResult call() throws IOException {
       System.out.println(builder);
     }
 
+    long pipelineStart = System.nanoTime();
     try {
       List<String> output = new ArrayList<>();
       org.pharmgkb.pharmcat.haplotype.model.Result matcherResult = null;
       if (m_runMatcher) {
+        long start = System.nanoTime();
         NamedAlleleMatcher namedAlleleMatcher = new NamedAlleleMatcher(m_env, m_env.getDefinitionReader(),
-            m_findCombinations, m_topCandidateOnly, m_callCyp2d6);
+            m_findCombinations, m_topCandidateOnly, m_callCyp2d6)
+            .useDiplotypeMatchCache(m_env.getDiplotypeMatchCache())
+            .useMetrics(m_metrics);
+        if (m_matcherConcurrentGenes) {
+          namedAlleleMatcher.callGenesConcurrently();
+        }
         if (!batchDisplayMode) {
           namedAlleleMatcher.printWarnings();
         }
         matcherResult = namedAlleleMatcher.call(m_vcfFile, m_sampleId);
+        recordStage(start, "matcher");
 
         if (matcherResult.getVcfWarnings() != null &&
             !matcherResult.getVcfWarnings().isEmpty()) {
@@ -255,7 +307,15 @@ public PipelineResult call() throws IOException {
               output.add("Saving named allele matcher HTML results to " + m_matcherHtmlFile);
             }
           }
-          namedAlleleMatcher.saveResults(matcherResult, m_matcherJsonFile, m_matcherHtmlFile);
+          start = System.nanoTime();
+          namedAlleleMatcher.saveResults(matcherResult, m_matcherJsonFile, m_matcherHtmlFile, m_compactJson);
+          recordStage(start, "matcherJson");
+          if (m_matcherBinaryFile != null) {
+            start = System.nanoTime();
+            new ResultSerializer().toBinary(matcherResult, m_matcherBinaryFile);
+            recordStage(start, "matcherBinary");
+          }
+          checkpoint(RunManifest.STAGE_MATCHER, m_matcherJsonFile);
         }
 
         didSomething = true;
@@ -263,14 +323,18 @@ public PipelineResult call() throws IOException {
 
       Phenotyper phenotyper = null;
       if (m_runPhenotyper) {
+        long start = System.nanoTime();
         List<GeneCall> calls;
         Map<String, Collection<String>> warnings = new HashMap<>();
         if (matcherResult != null) {
           calls = matcherResult.getGeneCalls();
           warnings.putAll(matcherResult.getVcfWarnings());
         } else if (m_phenotyperInputFile != null) {
-          org.pharmgkb.pharmcat.haplotype.model.Result deserializedMatcherResult = new ResultSerializer()
-              .fromJson(m_phenotyperInputFile);
+          ResultSerializer resultSerializer = new ResultSerializer();
+          org.pharmgkb.pharmcat.haplotype.model.Result deserializedMatcherResult =
+              DataSerializer.isBinaryFile(m_phenotyperInputFile)
+                  ? resultSerializer.fromBinary(m_phenotyperInputFile)
+                  : resultSerializer.fromJson(m_phenotyperInputFile);
           calls = deserializedMatcherResult.getGeneCalls();
           warnings.putAll(deserializedMatcherResult.getVcfWarnings());
         } else {
@@ -279,54 +343,65 @@ public PipelineResult call() throws IOException {
 
         List<OutsideCall> outsideCalls = new ArrayList<>();
         if (m_phenotyperOutsideCallsFile != null) {
-          for (OutsideCall call : OutsideCallParser.parse(m_phenotyperOutsideCallsFile)) {
-            if (!m_env.hasGene(call.getGene())) {
-              String msg = "Discarded outside call for " + call.getGene() + " because it is not supported by PharmCAT.";
-              output.add(AnsiConsole.styleWarning(msg));
-              continue;
-            }
-            if (!m_env.isActivityScoreGene(call.getGene())) {
-              if (call.getDiplotype() == null && call.getPhenotype() == null) {
-                String msg = call.getGene() + " is not an activity score gene but has outside call with only an " +
-                    "activity score.  PharmCAT will not be able to provide any recommendations based on this gene.";
-                output.add(AnsiConsole.styleWarning(msg));
-              }
-            }
-            outsideCalls.add(call);
+          List<String> outsideCallWarnings = new ArrayList<>();
+          outsideCalls = filterOutsideCalls(m_env, OutsideCallParser.parse(m_phenotyperOutsideCallsFile),
+              outsideCallWarnings);
+          for (String msg : outsideCallWarnings) {
+            output.add(AnsiConsole.styleWarning(msg));
           }
         }
 
         phenotyper = new Phenotyper(m_env, calls, outsideCalls, warnings);
+        recordStage(start, "phenotyper");
         if (!m_deleteIntermediateFiles || !m_runReporter) {
           if (!batchDisplayMode) {
             output.add("Saving phenotyper JSON results to " + m_phenotyperJsonFile);
           }
-          phenotyper.write(m_phenotyperJsonFile);
+          start = System.nanoTime();
+          phenotyper.write(m_phenotyperJsonFile, m_compactJson);
+          recordStage(start, "phenotyperJson");
+          if (m_phenotyperBinaryFile != null) {
+            start = System.nanoTime();
+            phenotyper.writeBinary(m_phenotyperBinaryFile);
+            recordStage(start, "phenotyperBinary");
+          }
+          checkpoint(RunManifest.STAGE_PHENOTYPER, m_phenotyperJsonFile);
         }
         didSomething = true;
       }
 
       if (m_runReporter) {
+        long start = System.nanoTime();
         if (phenotyper == null) {
           Path inputFile = m_phenotyperJsonFile != null ? m_phenotyperJsonFile : m_reporterInputFile;
           phenotyper = Phenotyper.read(inputFile);
+          recordStage(start, "phenotyperRead");
+          start = System.nanoTime();
         }
         m_reportContext = new ReportContext(m_env, phenotyper.getGeneReports(), m_reporterTitle);
+        recordStage(start, "reportContext");
         if (m_reporterHtmlFile != null) {
           if (!batchDisplayMode) {
             output.add("Saving reporter HTML results to " + m_reporterHtmlFile);
           }
+          start = System.nanoTime();
           new HtmlFormat(m_reporterHtmlFile, m_env, m_mode == Mode.TEST)
               .sources(m_reporterSources)
               .compact(m_reporterCompact)
               .write(m_reportContext);
+          recordStage(start, "reporterHtml");
+          checkpoint(RunManifest.STAGE_REPORTER, m_reporterHtmlFile);
         }
         if (m_reporterJsonFile != null) {
           if (!batchDisplayMode) {
             output.add("Saving reporter JSON results to " + m_reporterJsonFile);
           }
+          start = System.nanoTime();
           new JsonFormat(m_reporterJsonFile, m_env)
+              .compact(m_compactJson)
               .write(m_reportContext);
+          recordStage(start, "reporterJson");
+          checkpoint(RunManifest.STAGE_REPORTER, m_reporterJsonFile);
         }
         didSomething = true;
       }
@@ -336,10 +411,17 @@ public PipelineResult call() throws IOException {
         if (m_matcherJsonFile != null) {
           Files.deleteIfExists(m_matcherJsonFile);
         }
+        if (m_matcherBinaryFile != null) {
+          Files.deleteIfExists(m_matcherBinaryFile);
+        }
         if (m_phenotyperJsonFile != null) {
           Files.deleteIfExists(m_phenotyperJsonFile);
         }
+        if (m_phenotyperBinaryFile != null) {
+          Files.deleteIfExists(m_phenotyperBinaryFile);
+        }
       }
+      recordStage(pipelineStart, "total");
 
       StringBuilder builder = new StringBuilder();
       if (batchDisplayMode) {
@@ -385,6 +467,44 @@ public ReportContext getReportContext() {
   }
 
 
+  /**
+   * Drops outside calls that PharmCAT cannot use.
+   *
+   * @param warnings gets a message for each call that is dropped or will not lead to any recommendations
+   * @return the outside calls to pass on to the {@link Phenotyper}
+   */
+  static List<OutsideCall> filterOutsideCalls(Env env, List<OutsideCall> calls, List<String> warnings) {
+    List<OutsideCall> outsideCalls = new ArrayList<>();
+    for (OutsideCall call : calls) {
+      if (!env.hasGene(call.getGene())) {
+        warnings.add("Discarded outside call for " + call.getGene() + " because it is not supported by PharmCAT.");
+        continue;
+      }
+      if (!env.isActivityScoreGene(call.getGene())) {
+        if (call.getDiplotype() == null && call.getPhenotype() == null) {
+          warnings.add(call.getGene() + " is not an activity score gene but has outside call with only an " +
+              "activity score.  PharmCAT will not be able to provide any recommendations based on this gene.");
+        }
+      }
+      outsideCalls.add(call);
+    }
+    return outsideCalls;
+  }
+
+
+  private void recordStage(long start, String stage) {
+    if (m_metrics != null) {
+      m_metrics.recordStage(start, stage);
+    }
+  }
+
+  private void checkpoint(String stage, Path file) {
+    if (m_checkpointListener != null) {
+      m_checkpointListener.saved(stage, file);
+    }
+  }
+
+
   private String getInputDescription() {
     StringBuilder builder = new StringBuilder();
     if (m_vcfFile != null) {
@@ -17,12 +17,24 @@ public enum Status {
   private final Status m_status;
   private final String m_sampleId;
   private final String m_basename;
+  private final @Nullable Throwable m_error;
 
 
   public PipelineResult(Status status, String basename, @Nullable String sampleId) {
     m_status = status;
     m_basename = basename;
     m_sampleId = sampleId;
+    m_error = null;
+  }
+
+  /**
+   * Constructor for a task that died with an exception instead of returning a result.
+   */
+  public PipelineResult(String basename, Throwable error) {
+    m_status = Status.FAILURE;
+    m_basename = basename;
+    m_sampleId = null;
+    m_error = error;
   }
 
 
@@ -39,4 +51,12 @@ public String getBasename() {
   public @Nullable String getSampleId() {
     return m_sampleId;
   }
+
+
+  /**
+   * Gets the exception the task died with, if any.
+   */
+  public @Nullable Throwable getError() {
+    return m_error;
+  }
 }
@@ -0,0 +1,363 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append-only journal of what a batch run has done, so that a batch that dies part way through can pick up where it
+ * left off.
+ * <p>
+ * Each line is a JSON object recording either an intermediate output that was saved for a task (a "stage" entry) or
+ * that a task has finished (a "done" entry).  Every entry includes the PharmCAT version, a signature of the options
+ * that affect output, and fingerprints of the task's input files.  Entries only count if these all match the current
+ * run, so changing inputs, options or PharmCAT versions will cause tasks to be run again.
+ * <p>
+ * When a batch is restarted:
+ * <ul>
+ *   <li>tasks that finished successfully (and whose outputs are all still there) are skipped</li>
+ *   <li>tasks that failed are run again</li>
+ *   <li>tasks that did not finish resume from their latest intermediate output that is still there</li>
+ * </ul>
+ * <p>
+ * The manifest is only a convenience, so it never causes a task to fail.  If it cannot be written to (e.g. the
+ * directory is read-only or the disk is full), the error is logged and nothing more is recorded for the rest of the
+ * run.
+ */
+public class RunManifest implements AutoCloseable {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  public static final String FILENAME = "pharmcat_batch.manifest.jsonl";
+  public static final String STAGE_MATCHER = "matcher";
+  public static final String STAGE_PHENOTYPER = "phenotyper";
+  public static final String STAGE_REPORTER = "reporter";
+  private static final String TYPE_STAGE = "stage";
+  private static final String TYPE_DONE = "done";
+  private static final Gson sf_gson = new GsonBuilder()
+      .disableHtmlEscaping()
+      .excludeFieldsWithoutExposeAnnotation()
+      .create();
+  private final Path m_file;
+  private final String m_version;
+  private final String m_signature;
+  /** Latest "done" entry for each task. */
+  private final Map<String, Entry> m_done = new HashMap<>();
+  /** Latest "stage" entry for each task, by stage. */
+  private final Map<String, Map<String, Entry>> m_stages = new HashMap<>();
+  private @Nullable BufferedWriter m_writer;
+  /** Set after the first write error, so that one bad directory does not fail or slow down every task. */
+  private boolean m_disabled;
+
+
+  /**
+   * What to do with a task.
+   *
+   * @param skip true if the task has already been done
+   * @param resumeStage the stage whose output the task can resume from, if any
+   * @param resumeFile the output to resume from, if any
+   * @param basename the basename used for the task's output files, if resuming
+   */
+  public record Resume(boolean skip, @Nullable String resumeStage, @Nullable Path resumeFile,
+      @Nullable String basename) {
+    static final Resume RUN = new Resume(false, null, null, null);
+    static final Resume SKIP = new Resume(true, null, null, null);
+  }
+
+
+  /**
+   * Opens the manifest in the given directory, reading any entries that are already there.
+   *
+   * @param version the PharmCAT version
+   * @param signature signature of the options that affect output (see {@link #buildSignature(BaseConfig)})
+   */
+  public RunManifest(Path dir, String version, String signature) throws IOException {
+    Preconditions.checkArgument(Files.isDirectory(dir), "Not a directory: " + dir);
+    m_file = dir.resolve(FILENAME);
+    m_version = version;
+    m_signature = signature;
+    if (Files.exists(m_file)) {
+      read();
+    }
+  }
+
+  private void read() throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(m_file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        Entry entry;
+        try {
+          entry = sf_gson.fromJson(line, Entry.class);
+        } catch (JsonParseException ex) {
+          // most likely the last line, if the run died while it was being written
+          continue;
+        }
+        if (entry == null || entry.key == null || !m_version.equals(entry.version) ||
+            !m_signature.equals(entry.signature)) {
+          continue;
+        }
+        if (TYPE_DONE.equals(entry.type)) {
+          m_done.put(entry.key, entry);
+        } else if (TYPE_STAGE.equals(entry.type) && entry.stage != null) {
+          m_stages.computeIfAbsent(entry.key, k -> new HashMap<>())
+              .put(entry.stage, entry);
+        }
+      }
+    }
+  }
+
+
+  public Path getFile() {
+    return m_file;
+  }
+
+
+  /**
+   * Builds a signature of the options that affect the output of a batch run.
+   */
+  public static String buildSignature(BaseConfig config) throws IOException {
+    StringBuilder builder = new StringBuilder()
+        .append("matcher=").append(config.runMatcher)
+        .append("|phenotyper=").append(config.runPhenotyper)
+        .append("|reporter=").append(config.runReporter)
+        .append("|topCandidateOnly=").append(config.topCandidateOnly)
+        .append("|combinations=").append(config.findCombinations)
+        .append("|cyp2d6=").append(config.callCyp2d6)
+        .append("|title=").append(config.reporterTitle)
+        .append("|compact=").append(config.reporterCompact)
+        .append("|sources=").append(config.reporterSources)
+        .append("|reporterJson=").append(config.reporterJson)
+        .append("|reporterHtml=").append(config.reporterHtml)
+        .append("|outputDir=").append(config.outputDir)
+        .append("|baseFilename=").append(config.baseFilename)
+        .append("|compactJson=").append(config.compactJson)
+        .append("|gzipJson=").append(config.gzipJson);
+    if (config.definitionDir != null) {
+      builder.append("|definitions=");
+      try (Stream<Path> files = Files.list(config.definitionDir)) {
+        for (Path file : files.sorted().toList()) {
+          builder.append(file.getFileName())
+              .append(":")
+              .append(fingerprint(file))
+              .append(",");
+        }
+      }
+    }
+    return Hashing.sha256().hashString(builder, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Gets a fingerprint for a file.  This uses size and last modified time instead of hashing contents because VCF
+   * files can be very large.
+   *
+   * @return the fingerprint, or null if the file does not exist
+   */
+  public static @Nullable String fingerprint(@Nullable Path file) {
+    if (file == null || !Files.exists(file)) {
+      return null;
+    }
+    try {
+      return Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Gets a fingerprint for all the input files to a task.
+   */
+  public static String fingerprint(Collection<Path> inputFiles) {
+    StringBuilder builder = new StringBuilder();
+    for (Path file : inputFiles) {
+      builder.append(file.toAbsolutePath())
+          .append("=")
+          .append(fingerprint(file))
+          .append(";");
+    }
+    return builder.toString();
+  }
+
+
+  /**
+   * Works out what to do with a task, based on what previous runs did.
+   *
+   * @param key the task's unique key
+   * @param inputs fingerprint of the task's inputs (see {@link #fingerprint(Collection)})
+   */
+  public Resume check(String key, String inputs) {
+    Entry done = m_done.get(key);
+    if (done != null && inputs.equals(done.inputs)) {
+      if (done.status == PipelineResult.Status.FAILURE) {
+        // try again from scratch, in case the intermediate output was the problem
+        return Resume.RUN;
+      }
+      if (done.outputs == null || done.outputs.stream().allMatch(f -> Files.exists(Path.of(f)))) {
+        return Resume.SKIP;
+      }
+    }
+    Map<String, Entry> stages = m_stages.get(key);
+    if (stages == null) {
+      return Resume.RUN;
+    }
+    for (String stage : new String[] { STAGE_PHENOTYPER, STAGE_MATCHER }) {
+      Entry entry = stages.get(stage);
+      if (entry != null && inputs.equals(entry.inputs) && entry.file != null) {
+        Path file = Path.of(entry.file);
+        String fingerprint = fingerprint(file);
+        if (fingerprint != null && fingerprint.equals(entry.fingerprint)) {
+          return new Resume(false, stage, file, entry.basename);
+        }
+      }
+    }
+    return Resume.RUN;
+  }
+
+
+  /**
+   * Records that a task has saved an intermediate or final output.
+   */
+  public void recordStage(String key, String inputs, String basename, String stage, Path file) {
+    Entry entry = new Entry(TYPE_STAGE, key, inputs, m_version, m_signature);
+    entry.basename = basename;
+    entry.stage = stage;
+    entry.file = file.toAbsolutePath().toString();
+    entry.fingerprint = fingerprint(file);
+    write(entry);
+  }
+
+  /**
+   * Records that a task is done.
+   *
+   * @param outputs the output files that should exist for the task to count as done
+   */
+  public void recordDone(String key, String inputs, PipelineResult.Status status, Collection<Path> outputs) {
+    Entry entry = new Entry(TYPE_DONE, key, inputs, m_version, m_signature);
+    entry.status = status;
+    List<String> files = new ArrayList<>();
+    for (Path file : outputs) {
+      if (Files.exists(file)) {
+        files.add(file.toAbsolutePath().toString());
+      }
+    }
+    entry.outputs = files;
+    write(entry);
+  }
+
+  private synchronized void write(Entry entry) {
+    if (m_disabled) {
+      return;
+    }
+    try {
+      if (m_writer == null) {
+        m_writer = Files.newBufferedWriter(m_file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+      }
+      m_writer.write(sf_gson.toJson(entry));
+      m_writer.newLine();
+      // flush every entry so that as little as possible is lost if the run dies
+      m_writer.flush();
+    } catch (IOException ex) {
+      sf_logger.warn("Error writing to {}, will not record any more progress in it", m_file, ex);
+      m_disabled = true;
+      if (m_writer != null) {
+        try {
+          m_writer.close();
+        } catch (IOException closeEx) {
+          // ignore
+        }
+        m_writer = null;
+      }
+    }
+  }
+
+
+  /**
+   * Checks if recording has been stopped because of a write error.
+   */
+  public synchronized boolean isDisabled() {
+    return m_disabled;
+  }
+
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (m_writer != null) {
+      m_writer.close();
+      m_writer = null;
+    }
+  }
+
+
+  private static class Entry {
+    @Expose
+    @SerializedName("type")
+    String type;
+    @Expose
+    @SerializedName("key")
+    String key;
+    @Expose
+    @SerializedName("time")
+    String time;
+    @Expose
+    @SerializedName("version")
+    String version;
+    @Expose
+    @SerializedName("signature")
+    String signature;
+    @Expose
+    @SerializedName("inputs")
+    String inputs;
+    @Expose
+    @SerializedName("basename")
+    String basename;
+    @Expose
+    @SerializedName("stage")
+    String stage;
+    @Expose
+    @SerializedName("file")
+    String file;
+    @Expose
+    @SerializedName("fingerprint")
+    String fingerprint;
+    @Expose
+    @SerializedName("status")
+    PipelineResult.Status status;
+    @Expose
+    @SerializedName("outputs")
+    List<String> outputs;
+
+
+    Entry(String type, String key, String inputs, String version, String signature) {
+      this.type = type;
+      this.key = key;
+      this.inputs = inputs;
+      this.version = version;
+      this.signature = signature;
+      time = Instant.now().toString();
+    }
+  }
+}
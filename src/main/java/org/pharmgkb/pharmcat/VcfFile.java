@@ -1,32 +1,60 @@
 package org.pharmgkb.pharmcat;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
 import org.pharmgkb.pharmcat.haplotype.VcfReader;
 import org.pharmgkb.pharmcat.haplotype.VcfSampleReader;
+import org.pharmgkb.pharmcat.util.BgzfInputStream;
+import org.pharmgkb.pharmcat.util.BgzfReader;
+import org.pharmgkb.pharmcat.util.ByteBufferInputStream;
+import org.pharmgkb.pharmcat.util.TabixIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * This class supports working with VCF files.
- * If file size is less than 20% of max available memory, it will be read into memory.
+ * By default, the file is memory-mapped once and every read works off a read-only view of the same mapping.  The
+ * mapping lives in the OS page cache, not on the heap, so this is done regardless of file size.
+ * <p>
+ * If the file is BGZF-compressed and has a tabix ({@code .tbi}) or CSI ({@code .csi}) index, only the blocks covering
+ * PharmCAT's positions of interest will be read.  Otherwise, BGZF-compressed files are inflated in parallel (see
+ * {@link BgzfInputStream}).
  *
  * @author Mark Woon
  */
 public class VcfFile {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private final Path m_vcfFile;
   private final boolean m_isGzipped;
-  private final boolean m_readIntoMemory;
-  private byte[] m_data;
+  private final boolean m_isBgzf;
+  private final boolean m_memoryMapped;
+  private @Nullable List<MappedByteBuffer> m_mappedData;
+  private final @Nullable Path m_indexFile;
+  private @Nullable TabixIndex m_index;
+  private boolean m_indexUnusable;
   private List<String> m_samples = new ArrayList<>();
+  /** Sample data read in a single pass via {@link #readSamples}. */
+  private final Map<String, VcfReader> m_sampleReaders = new ConcurrentHashMap<>();
+  private DefinitionReader m_sampleReadersDefinitionReader;
+  private boolean m_sampleReadersFindCombinations;
 
 
   public VcfFile(Path vcfFile) throws ReportableException, IOException {
@@ -35,46 +63,125 @@ public VcfFile(Path vcfFile) throws ReportableException, IOException {
     }
     m_vcfFile = vcfFile;
     m_isGzipped = isGzippedVcfFile(vcfFile);
-    long maxMem = Runtime.getRuntime().maxMemory();
-    m_readIntoMemory = Files.size(vcfFile) < (maxMem / 5);
+    m_isBgzf = m_isGzipped && BgzfReader.isBgzf(vcfFile);
+    m_indexFile = m_isBgzf ? TabixIndex.findIndex(vcfFile) : null;
+    // indexed files only read the regions they need
+    m_memoryMapped = m_indexFile == null;
   }
 
-  public VcfFile(Path vcfFile, boolean readIntoMemory) throws ReportableException, IOException {
+  /**
+   * Constructor.
+   *
+   * @param memoryMap true if file should be memory-mapped, false if it should be streamed from disk
+   */
+  public VcfFile(Path vcfFile, boolean memoryMap) throws ReportableException, IOException {
     if (!isVcfFile(vcfFile)) {
       throw new ReportableException(vcfFile + " is not a VCF file");
     }
     m_vcfFile = vcfFile;
     m_isGzipped = isGzippedVcfFile(vcfFile);
-    m_readIntoMemory = readIntoMemory;
+    m_isBgzf = m_isGzipped && BgzfReader.isBgzf(vcfFile);
+    m_indexFile = m_isBgzf ? TabixIndex.findIndex(vcfFile) : null;
+    m_memoryMapped = memoryMap;
   }
 
 
-  private BufferedReader open() throws IOException {
-    if (m_readIntoMemory) {
-      if (m_data == null) {
-        m_data = Files.readAllBytes(m_vcfFile);
+  /**
+   * Opens the VCF file.
+   * If the file is indexed and {@code definitionReader} is specified, only the header and the parts of the file
+   * covering positions of interest will be read.
+   */
+  private BufferedReader open(@Nullable DefinitionReader definitionReader) throws IOException {
+    TabixIndex index = definitionReader != null && m_indexFile != null ? getIndex(m_indexFile) : null;
+    if (index != null) {
+      BgzfReader bgzfReader = new BgzfReader(m_vcfFile);
+      try {
+        return new BufferedReader(new InputStreamReader(bgzfReader.openRegions(findChunks(index, definitionReader)),
+            StandardCharsets.UTF_8));
+      } catch (IOException ex) {
+        bgzfReader.close();
+        throw ex;
       }
+    }
+    if (m_memoryMapped) {
+      InputStream in = new ByteBufferInputStream(getMappedData());
       if (m_isGzipped) {
-        return new BufferedReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(m_data))));
+        return new BufferedReader(new InputStreamReader(decompress(in)));
       }
-      return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(m_data)));
+      return new BufferedReader(new InputStreamReader(in));
 
     } else {
       if (m_isGzipped) {
-        return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(m_vcfFile))));
+        return new BufferedReader(new InputStreamReader(decompress(Files.newInputStream(m_vcfFile))));
       }
       return Files.newBufferedReader(m_vcfFile);
     }
   }
 
 
+  /**
+   * Gets the memory-mapped file, mapping it on first use.
+   */
+  private synchronized List<MappedByteBuffer> getMappedData() throws IOException {
+    if (m_mappedData == null) {
+      m_mappedData = ByteBufferInputStream.map(m_vcfFile);
+    }
+    return m_mappedData;
+  }
+
+
+  private InputStream decompress(InputStream in) throws IOException {
+    if (m_isBgzf) {
+      return new BgzfInputStream(in);
+    }
+    return new GZIPInputStream(in);
+  }
+
+
+  /**
+   * Gets the index, or null if it cannot be used (in which case the whole file will be read).
+   */
+  private synchronized @Nullable TabixIndex getIndex(Path indexFile) {
+    if (m_index == null && !m_indexUnusable) {
+      try {
+        m_index = TabixIndex.read(indexFile);
+      } catch (IOException ex) {
+        sf_logger.warn("Cannot use index {}: {}", indexFile, ex.getMessage());
+        m_indexUnusable = true;
+      }
+    }
+    return m_index;
+  }
+
+  /**
+   * Finds the chunks of the VCF file that cover the positions of interest, grouped by contig.
+   */
+  private static List<long[]> findChunks(TabixIndex index, DefinitionReader definitionReader) {
+    Map<String, List<VariantLocus>> locationsByChr = new HashMap<>();
+    for (VariantLocus vl : definitionReader.getLocationsOfInterest().values()) {
+      locationsByChr.computeIfAbsent(vl.getChromosome(), c -> new ArrayList<>())
+          .add(vl);
+    }
+    List<long[]> chunks = new ArrayList<>();
+    for (String chr : locationsByChr.keySet()) {
+      if (!index.hasContig(chr)) {
+        continue;
+      }
+      for (VariantLocus vl : locationsByChr.get(chr)) {
+        chunks.addAll(index.getChunks(chr, vl.getPosition(), vl.getPosition()));
+      }
+    }
+    return TabixIndex.mergeChunks(chunks);
+  }
+
+
   public Path getFile() {
     return m_vcfFile;
   }
 
   public List<String> getSamples() throws IOException {
     if (m_samples.size() == 0) {
-      try (BufferedReader reader = open()) {
+      try (BufferedReader reader = open(null)) {
         VcfSampleReader vcfSampleReader = new VcfSampleReader(reader);
         m_samples = vcfSampleReader.getSamples();
       }
@@ -83,9 +190,46 @@ public List<String> getSamples() throws IOException {
   }
 
 
+  /**
+   * Reads data for the specified samples in a single pass through the VCF file.
+   * Subsequent calls to {@link #getReader} for any of these samples will use this data instead of re-reading the file.
+   * Data for each sample is released once it has been retrieved.
+   */
+  public void readSamples(DefinitionReader definitionReader, Collection<String> sampleIds, boolean findCombinations)
+      throws IOException {
+    try (BufferedReader reader = open(definitionReader)) {
+      m_sampleReaders.putAll(VcfReader.readSamples(definitionReader, reader, sampleIds, findCombinations));
+    }
+    m_sampleReadersDefinitionReader = definitionReader;
+    m_sampleReadersFindCombinations = findCombinations;
+  }
+
+
+  /**
+   * Counts the unphased heterozygous positions in each gene for a sample whose data has already been read by
+   * {@link #readSamples}.  This works off the sample's packed genotype data and does not unpack or release it.
+   *
+   * @return map of gene to number of unphased heterozygous positions, or null if the sample's data has not been read
+   */
+  public @Nullable Map<String, Integer> countUnphasedHets(String sampleId) {
+    VcfReader vcfReader = m_sampleReaders.get(sampleId);
+    if (vcfReader == null) {
+      return null;
+    }
+    return vcfReader.countUnphased(m_sampleReadersDefinitionReader.getLocationsByGene());
+  }
+
+
   public VcfReader getReader(DefinitionReader definitionReader, @Nullable String sampleId, boolean findCombinations)
       throws IOException {
-    try (BufferedReader reader = open()) {
+    if (sampleId != null && definitionReader == m_sampleReadersDefinitionReader &&
+        findCombinations == m_sampleReadersFindCombinations) {
+      VcfReader vcfReader = m_sampleReaders.remove(sampleId);
+      if (vcfReader != null) {
+        return vcfReader;
+      }
+    }
+    try (BufferedReader reader = open(definitionReader)) {
       return new VcfReader(definitionReader, reader, sampleId, findCombinations);
     }
   }
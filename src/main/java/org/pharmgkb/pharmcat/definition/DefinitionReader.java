@@ -12,6 +12,8 @@
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
@@ -20,6 +22,7 @@
 import org.pharmgkb.pharmcat.definition.model.DefinitionFile;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
 import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.GeneMatcherIndex;
 import org.pharmgkb.pharmcat.util.DataManager;
 import org.pharmgkb.pharmcat.util.DataSerializer;
 
@@ -39,6 +42,7 @@ public class DefinitionReader {
   private ImmutableMap<String, VariantLocus> m_locationsOfInterest;
   /** Map of {@code <chr:position>} Strings to gene */
   private ImmutableMap<String, String> m_locationsByGene;
+  private final Map<String, GeneMatcherIndex> m_matcherIndexes = new ConcurrentHashMap<>();
 
 
   public DefinitionReader() throws IOException {
@@ -148,6 +152,25 @@ public SortedSet<NamedAllele> getHaplotypes(String gene) {
   }
 
 
+  /**
+   * Gets the {@link GeneMatcherIndex} for the specified gene, building it on first use.
+   */
+  public GeneMatcherIndex getMatcherIndex(String gene) {
+    Preconditions.checkArgument(m_definitionFiles.containsKey(gene));
+    return getMatcherIndex(gene, dr -> GeneMatcherIndex.build(dr, gene));
+  }
+
+  /**
+   * Gets a {@link GeneMatcherIndex} that is not the default for a gene, building it on first use.
+   *
+   * @param key unique key for the index
+   * @param builder builds the index if it has not been built yet
+   */
+  public GeneMatcherIndex getMatcherIndex(String key, Function<DefinitionReader, GeneMatcherIndex> builder) {
+    return m_matcherIndexes.computeIfAbsent(key, k -> builder.apply(this));
+  }
+
+
   public ReferenceAlleleMap getReferenceAlleleMap() {
     if (m_referenceAlleleMap == null) {
       m_referenceAlleleMap = new ReferenceAlleleMap(this);
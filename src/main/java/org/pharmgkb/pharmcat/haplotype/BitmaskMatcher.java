@@ -0,0 +1,142 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.common.base.Preconditions;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+
+/**
+ * Matches sample sequences (as generated by {@link CombinationUtil#generatePermutations(List)}) against
+ * {@link NamedAllele}s using per-position bitmasks instead of regular expressions.
+ * <p>
+ * Every distinct sample allele seen at a position is assigned a bit.  Each sequence is encoded once as the bit for each
+ * position, and each {@link NamedAllele} is encoded as the set of bits it accepts at each position (IUPAC ambiguity
+ * codes and missing alleles accept multiple bits).  Checking a sequence against a {@link NamedAllele} is then a series
+ * of AND operations.
+ * <p>
+ * Results are the same as matching against {@link NamedAllele#getPermutations()}.
+ */
+public class BitmaskMatcher {
+  private final VariantLocus[] m_positions;
+  private final Map<Long, Integer> m_positionIndex = new HashMap<>();
+  /** Bit assigned to each sample allele, per position. */
+  private final List<Map<String, Integer>> m_alleleBits = new ArrayList<>();
+  /** Encoded sequences, keyed to original sequence. */
+  private final Map<String, long[]> m_sequences = new LinkedHashMap<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param positions the positions the sequences cover
+   * @param sequences the sample sequences to match against
+   */
+  public BitmaskMatcher(VariantLocus[] positions, Collection<String> sequences) {
+    Preconditions.checkNotNull(positions);
+    Preconditions.checkNotNull(sequences);
+    m_positions = positions;
+    for (int x = 0; x < positions.length; x += 1) {
+      m_positionIndex.put(positions[x].getPosition(), x);
+      m_alleleBits.add(new HashMap<>());
+    }
+    for (String seq : sequences) {
+      m_sequences.put(seq, encode(seq));
+    }
+  }
+
+
+  /**
+   * Encodes sequence as the bit for each position.
+   */
+  private long[] encode(String seq) {
+    long[] bits = new long[m_positions.length];
+    int numPositions = 0;
+    int start = 0;
+    while (start < seq.length()) {
+      int colon = seq.indexOf(':', start);
+      int end = seq.indexOf(';', colon);
+      Preconditions.checkArgument(colon != -1 && end != -1, "Invalid sequence: %s", seq);
+      Integer idx = m_positionIndex.get(Long.parseLong(seq, start, colon, 10));
+      Preconditions.checkArgument(idx != null, "Sequence has unexpected position: %s", seq);
+      Map<String, Integer> alleleBits = m_alleleBits.get(idx);
+      int bit = alleleBits.computeIfAbsent(seq.substring(colon + 1, end), a -> alleleBits.size());
+      Preconditions.checkState(bit < Long.SIZE, "Too many alleles at position %s", m_positions[idx]);
+      bits[idx] = 1L << bit;
+      numPositions += 1;
+      start = end + 1;
+    }
+    Preconditions.checkArgument(numPositions == m_positions.length, "Sequence does not cover all positions: %s", seq);
+    return bits;
+  }
+
+
+  /**
+   * Encodes {@link NamedAllele} as the bits it accepts for each position.
+   */
+  private long[] encode(NamedAllele haplotype) {
+    long[] mask = new long[m_positions.length];
+    for (int x = 0; x < m_positions.length; x += 1) {
+      String allele = haplotype.getAllele(m_positions[x]);
+      if (allele == null) {
+        mask[x] = -1L;
+        continue;
+      }
+      for (Map.Entry<String, Integer> entry : m_alleleBits.get(x).entrySet()) {
+        if (accepts(allele, entry.getKey())) {
+          mask[x] |= 1L << entry.getValue();
+        }
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * Checks if the definition allele accepts the sample allele.
+   * This mirrors the regular expression built by {@link NamedAllele#getPermutations()}.
+   * <p>
+   * Only single-base alleles are treated as IUPAC codes.  Multi-base alleles are compared literally, so IUPAC codes
+   * inside them (e.g. the {@code N} in {@code AN}) only match themselves, just like in the regular expression.  The one
+   * difference is that the regular expression would treat characters such as {@code (}, {@code )} or {@code .} in a
+   * multi-base allele as regex syntax, while this compares them literally.  No current allele definitions use them.
+   */
+  static boolean accepts(String definitionAllele, String sampleAllele) {
+    if (definitionAllele.length() == 1) {
+      Iupac iupac = Iupac.lookup(definitionAllele);
+      if (iupac == Iupac.DEL) {
+        return sampleAllele.equals("del");
+      }
+      return iupac.getBases().contains(sampleAllele);
+    }
+    return definitionAllele.equals(sampleAllele);
+  }
+
+
+  /**
+   * Gets the sequences that match the specified {@link NamedAllele}.
+   */
+  public List<String> match(NamedAllele haplotype) {
+    long[] mask = encode(haplotype);
+    List<String> matches = new ArrayList<>();
+    for (Map.Entry<String, long[]> entry : m_sequences.entrySet()) {
+      if (matches(mask, entry.getValue())) {
+        matches.add(entry.getKey());
+      }
+    }
+    return matches;
+  }
+
+  private static boolean matches(long[] mask, long[] bits) {
+    for (int x = 0; x < bits.length; x += 1) {
+      if ((mask[x] & bits[x]) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,133 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import com.google.common.base.Preconditions;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.model.DiplotypeMatch;
+
+
+/**
+ * A bounded, least-recently-used cache of {@link DiplotypeMatch}es, keyed by a gene's genotype signature.
+ * <p>
+ * In a large cohort, most samples share one of a small number of genotype patterns for any given gene.  Samples with
+ * the same signature (see {@link #buildKey(MatchData, boolean, boolean)}) will always get the same diplotypes, so
+ * they only need to be computed once.
+ * <p>
+ * This is safe to share between threads.
+ */
+public class DiplotypeMatchCache {
+  private final int m_maxSize;
+  private final Map<String, List<DiplotypeMatch>> m_cache;
+  private final AtomicLong m_hits = new AtomicLong();
+  private final AtomicLong m_misses = new AtomicLong();
+
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize the maximum number of entries to keep
+   */
+  public DiplotypeMatchCache(int maxSize) {
+    Preconditions.checkArgument(maxSize > 0, "Cache size must be greater than 0");
+    m_maxSize = maxSize;
+    m_cache = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, List<DiplotypeMatch>> eldest) {
+        return size() > m_maxSize;
+      }
+    };
+  }
+
+
+  /**
+   * Builds the key for a sample's data.
+   * <p>
+   * This captures everything {@link DiplotypeMatcher} depends on: the gene, missing positions (which determine the
+   * haplotypes available to match) and the alleles and phasing at each available position.
+   */
+  static String buildKey(MatchData data, boolean findCombinations, boolean topCandidateOnly) {
+    StringBuilder builder = new StringBuilder()
+        .append(data.getGene())
+        .append(findCombinations ? "|C" : "|-")
+        .append(topCandidateOnly ? "T" : "-")
+        .append("|");
+    for (VariantLocus vl : data.getMissingPositions()) {
+      builder.append(vl.getPosition())
+          .append(";");
+    }
+    builder.append("|");
+    for (VariantLocus vl : data.getPositions()) {
+      SampleAllele sa = data.getSampleAllele(vl.getPosition());
+      builder.append(vl.getPosition())
+          .append(":")
+          .append(sa.getComputedAllele1())
+          .append(sa.isEffectivelyPhased() ? "|" : "/")
+          .append(sa.getComputedAllele2())
+          .append(";");
+    }
+    return builder.toString();
+  }
+
+
+  /**
+   * Gets the diplotypes for the sample's data, computing them with {@code matcher} if they have not already been
+   * cached.
+   */
+  List<DiplotypeMatch> get(MatchData data, boolean findCombinations, boolean topCandidateOnly,
+      Supplier<List<DiplotypeMatch>> matcher) {
+
+    String key = buildKey(data, findCombinations, topCandidateOnly);
+    List<DiplotypeMatch> matches;
+    synchronized (m_cache) {
+      matches = m_cache.get(key);
+    }
+    if (matches != null) {
+      m_hits.incrementAndGet();
+      return matches.stream()
+          .map(dm -> new DiplotypeMatch(dm, data))
+          .toList();
+    }
+
+    m_misses.incrementAndGet();
+    matches = matcher.get();
+    synchronized (m_cache) {
+      m_cache.put(key, List.copyOf(matches));
+    }
+    return matches;
+  }
+
+
+  public int getMaxSize() {
+    return m_maxSize;
+  }
+
+  /**
+   * Gets the number of entries currently in the cache.
+   */
+  public int size() {
+    synchronized (m_cache) {
+      return m_cache.size();
+    }
+  }
+
+  public long getHits() {
+    return m_hits.get();
+  }
+
+  public long getMisses() {
+    return m_misses.get();
+  }
+
+
+  @Override
+  public String toString() {
+    long total = getHits() + getMisses();
+    return "Diplotype cache: " + getHits() + " hits, " + getMisses() + " misses" +
+        (total > 0 ? " (" + (getHits() * 100 / total) + "% hit rate)" : "") +
+        ", " + size() + "/" + m_maxSize + " entries";
+  }
+}
@@ -104,7 +104,7 @@ public List<DiplotypeMatch> compute(boolean findCombinations, boolean findPartia
     }
 
     List<DiplotypeMatch> pairs;
-    if (m_dataset.getPermutations().size() == 1) {
+    if (m_dataset.getNumPermutations() == 1) {
       pairs = determineHomozygousPairs(matches);
     } else {
       // find matched pairs
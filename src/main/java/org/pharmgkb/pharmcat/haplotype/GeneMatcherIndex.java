@@ -0,0 +1,248 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import com.google.common.base.Preconditions;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.DefinitionExemption;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+
+/**
+ * Everything {@link NamedAlleleMatcher} needs to build {@link MatchData} for a gene that does not depend on the sample.
+ * <p>
+ * This is built once per gene (see {@link DefinitionReader#getMatcherIndex(String)}) and shared by all samples.  It
+ * also caches the haplotypes derived by {@link MatchData#marshallHaplotypes} and
+ * {@link MatchData#defaultMissingAllelesToReference()}, which only depend on which positions the sample is missing.
+ * Samples from the same array or panel therefore only pay for this once.  The cache is a bounded, least-recently-used
+ * one, so samples with unusual patterns of missing positions do not make it grow without limit.
+ */
+public class GeneMatcherIndex {
+  /** Default maximum number of derived haplotype sets to cache. */
+  public static final int DEFAULT_MAX_DERIVED_HAPLOTYPE_SETS = 64;
+  private final String m_gene;
+  private final VariantLocus[] m_allPositions;
+  private final SortedSet<NamedAllele> m_haplotypes;
+  private final @Nullable SortedSet<VariantLocus> m_extraPositions;
+  private final @Nullable SortedSet<VariantLocus> m_unusedPositions;
+  private final int m_maxDerivedHaplotypeSets;
+  /** Map of missing position signature to derived haplotypes, in least-recently-used order. */
+  private final Map<String, SortedSet<NamedAllele>> m_derivedHaplotypes;
+
+
+  /**
+   * Constructor.
+   *
+   * @param allPositions all {@link VariantLocus} positions of interest for the gene
+   * @param haplotypes haplotypes to match against (should not include ignored alleles)
+   * @param extraPositions extra positions to track sample alleles for
+   * @param unusedPositions positions to ignore
+   */
+  public GeneMatcherIndex(String gene, VariantLocus[] allPositions, SortedSet<NamedAllele> haplotypes,
+      @Nullable SortedSet<VariantLocus> extraPositions, @Nullable SortedSet<VariantLocus> unusedPositions) {
+    this(gene, allPositions, haplotypes, extraPositions, unusedPositions, DEFAULT_MAX_DERIVED_HAPLOTYPE_SETS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param allPositions all {@link VariantLocus} positions of interest for the gene
+   * @param haplotypes haplotypes to match against (should not include ignored alleles)
+   * @param extraPositions extra positions to track sample alleles for
+   * @param unusedPositions positions to ignore
+   * @param maxDerivedHaplotypeSets the maximum number of derived haplotype sets to cache
+   */
+  public GeneMatcherIndex(String gene, VariantLocus[] allPositions, SortedSet<NamedAllele> haplotypes,
+      @Nullable SortedSet<VariantLocus> extraPositions, @Nullable SortedSet<VariantLocus> unusedPositions,
+      int maxDerivedHaplotypeSets) {
+    Preconditions.checkNotNull(gene);
+    Preconditions.checkNotNull(allPositions);
+    Preconditions.checkNotNull(haplotypes);
+    Preconditions.checkArgument(maxDerivedHaplotypeSets > 0, "Cache size must be greater than 0");
+    m_maxDerivedHaplotypeSets = maxDerivedHaplotypeSets;
+    m_derivedHaplotypes = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SortedSet<NamedAllele>> eldest) {
+        return size() > m_maxDerivedHaplotypeSets;
+      }
+    };
+    m_gene = gene;
+    m_allPositions = allPositions;
+    m_haplotypes = Collections.unmodifiableSortedSet(haplotypes);
+    m_extraPositions = extraPositions == null ? null : Collections.unmodifiableSortedSet(extraPositions);
+    m_unusedPositions = unusedPositions == null ? null : Collections.unmodifiableSortedSet(unusedPositions);
+  }
+
+
+  /**
+   * Builds the index for a gene using its definition and exemption.
+   */
+  public static GeneMatcherIndex build(DefinitionReader definitionReader, String gene) {
+
+    DefinitionExemption exemption = definitionReader.getExemption(gene);
+    SortedSet<VariantLocus> extraPositions = null;
+    SortedSet<NamedAllele> alleles = definitionReader.getHaplotypes(gene);
+    VariantLocus[] allPositions = definitionReader.getPositions(gene);
+    SortedSet<VariantLocus> unusedPositions = null;
+    if (exemption != null) {
+      extraPositions = exemption.getExtraPositions();
+      unusedPositions = findUnusedPositions(exemption, allPositions, alleles);
+      alleles = alleles.stream()
+          .filter(a -> !exemption.shouldIgnoreAllele(a.getName()))
+          .collect(Collectors.toCollection(TreeSet::new));
+    }
+    return new GeneMatcherIndex(gene, allPositions, alleles, extraPositions, unusedPositions);
+  }
+
+
+  /**
+   * Find positions that are only used by ignored alleles (and therefore should be eliminated from consideration).
+   */
+  private static SortedSet<VariantLocus> findUnusedPositions(DefinitionExemption exemption,
+      VariantLocus[] allPositions, SortedSet<NamedAllele> namedAlleles) {
+
+    SortedSet<VariantLocus> unusedPositions = new TreeSet<>();
+    if (exemption.getIgnoredAlleles().isEmpty()) {
+      return unusedPositions;
+    }
+
+    List<NamedAllele> allAlleles = new ArrayList<>(namedAlleles);
+    List<NamedAllele> variantNamedAlleles = allAlleles.subList(1, namedAlleles.size() - 1);
+    Set<VariantLocus> ignorablePositions = new HashSet<>();
+    for (NamedAllele namedAllele : variantNamedAlleles) {
+      if (exemption.shouldIgnoreAllele(namedAllele.getName())) {
+        ignorablePositions.addAll(findIgnorablePositions(allPositions, namedAllele));
+      }
+    }
+
+    for (VariantLocus vl : ignorablePositions) {
+      boolean isUnused = true;
+      for (NamedAllele namedAllele : variantNamedAlleles) {
+        if (!exemption.shouldIgnoreAllele(namedAllele.getName())) {
+          if (namedAllele.getAllele(vl) != null) {
+            isUnused = false;
+            break;
+          }
+        }
+      }
+      if (isUnused) {
+        unusedPositions.add(vl);
+      }
+    }
+    return unusedPositions;
+  }
+
+  /**
+   * Find positions that are used by ignored alleles (and are therefore potentially ignorable).
+   */
+  private static Set<VariantLocus> findIgnorablePositions(VariantLocus[] allPositions, NamedAllele namedAllele)  {
+    Set<VariantLocus> ignorablePositions = new HashSet<>();
+    int x = 0;
+    for (String allele : namedAllele.getAlleles()) {
+      if (allele != null) {
+        ignorablePositions.add(allPositions[x]);
+      }
+      x += 1;
+    }
+    return ignorablePositions;
+  }
+
+
+  public String getGene() {
+    return m_gene;
+  }
+
+  public VariantLocus[] getAllPositions() {
+    return m_allPositions;
+  }
+
+  /**
+   * Gets the haplotypes to match against.
+   */
+  public SortedSet<NamedAllele> getHaplotypes() {
+    return m_haplotypes;
+  }
+
+  public @Nullable SortedSet<VariantLocus> getExtraPositions() {
+    return m_extraPositions;
+  }
+
+  public @Nullable SortedSet<VariantLocus> getUnusedPositions() {
+    return m_unusedPositions;
+  }
+
+  /**
+   * Gets the number of derived haplotype sets that have been cached.
+   */
+  public int getNumDerivedHaplotypeSets() {
+    synchronized (m_derivedHaplotypes) {
+      return m_derivedHaplotypes.size();
+    }
+  }
+
+
+  /**
+   * Builds {@link MatchData} for a sample, ready for use by {@link DiplotypeMatcher}.
+   *
+   * @param alleleMap map of {@link SampleAllele}s from VCF
+   */
+  public MatchData initializeCallData(String sampleId, SortedMap<String, SampleAllele> alleleMap,
+      boolean assumeReference, boolean findCombinations) {
+
+    // grab SampleAlleles for all positions related to current gene
+    MatchData data = new MatchData(sampleId, m_gene, alleleMap, m_allPositions, m_extraPositions, m_unusedPositions);
+    if (data.getNumSampleAlleles() == 0) {
+      return data;
+    }
+
+    String key = buildSignature(data, assumeReference, findCombinations);
+    SortedSet<NamedAllele> haplotypes;
+    synchronized (m_derivedHaplotypes) {
+      haplotypes = m_derivedHaplotypes.get(key);
+    }
+    if (haplotypes == null) {
+      // handle missing positions (if any), outside the lock since this can be slow
+      data.marshallHaplotypes(m_gene, m_haplotypes, findCombinations);
+      if (assumeReference) {
+        data.defaultMissingAllelesToReference();
+      }
+      SortedSet<NamedAllele> derived = Collections.unmodifiableSortedSet(data.getHaplotypes());
+      synchronized (m_derivedHaplotypes) {
+        haplotypes = m_derivedHaplotypes.putIfAbsent(key, derived);
+      }
+      if (haplotypes == null) {
+        haplotypes = derived;
+      }
+    }
+    data.setHaplotypes(haplotypes);
+    return data;
+  }
+
+  /**
+   * Derived haplotypes only depend on which positions are missing (unused positions are fixed for this index) and how
+   * they are derived.
+   */
+  private String buildSignature(MatchData data, boolean assumeReference, boolean findCombinations) {
+    BitSet missing = new BitSet(m_allPositions.length);
+    if (!data.getMissingPositions().isEmpty()) {
+      for (int x = 0; x < m_allPositions.length; x += 1) {
+        if (data.getMissingPositions().contains(m_allPositions[x])) {
+          missing.set(x);
+        }
+      }
+    }
+    return (assumeReference ? "R" : "-") + (findCombinations ? "C" : "-") + missing;
+  }
+}
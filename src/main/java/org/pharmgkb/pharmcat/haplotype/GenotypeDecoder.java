@@ -0,0 +1,180 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.Arrays;
+
+
+/**
+ * Decodes VCF GT and AD fields into reusable scratch space, without regexes, boxing or intermediate collections.
+ * <p>
+ * Results match what splitting on {@code [|/]} (or {@code ,} for AD) with {@link String#split(String)} and parsing
+ * with {@link Integer#parseInt(String)} would produce, including which inputs are rejected.
+ * <p>
+ * A decoder is reused for every line in a file and is not thread-safe.
+ */
+class GenotypeDecoder {
+  private int[] m_alleles = new int[4];
+  private int m_numAlleles;
+  private int m_numFields;
+  private boolean m_isUnphased;
+
+
+  /**
+   * Checks if GT is a no-call (i.e. only consists of {@code .}, {@code |} and {@code /}).
+   */
+  static boolean isNoCall(CharSequence gt) {
+    if (gt.isEmpty()) {
+      return false;
+    }
+    for (int x = 0; x < gt.length(); x += 1) {
+      char c = gt.charAt(x);
+      if (c != '.' && c != '|' && c != '/') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isGtDelimiter(char c) {
+    return c == '|' || c == '/';
+  }
+
+
+  /**
+   * Decodes a GT field.  Missing alleles ({@code .}) are skipped.
+   *
+   * @throws NumberFormatException if GT has an allele that is not a number
+   */
+  void decodeGt(CharSequence gt) {
+    m_numAlleles = 0;
+    m_numFields = 0;
+    m_isUnphased = false;
+    int length = gt.length();
+    for (int x = 0; x < length; x += 1) {
+      if (gt.charAt(x) == '/') {
+        m_isUnphased = true;
+        break;
+      }
+    }
+
+    // trailing empty fields are ignored
+    int limit = length;
+    while (limit > 0 && isGtDelimiter(gt.charAt(limit - 1))) {
+      limit -= 1;
+    }
+    if (length == 0) {
+      throw new NumberFormatException("Empty GT");
+    }
+    int start = 0;
+    for (int x = 0; x <= limit && limit > 0; x += 1) {
+      if (x == limit || isGtDelimiter(gt.charAt(x))) {
+        m_numFields += 1;
+        if (x - start != 1 || gt.charAt(start) != '.') {
+          addAllele(Integer.parseInt(gt, start, x, 10));
+        }
+        start = x + 1;
+      }
+    }
+  }
+
+  private void addAllele(int allele) {
+    if (m_numAlleles == m_alleles.length) {
+      m_alleles = Arrays.copyOf(m_alleles, m_alleles.length * 2);
+    }
+    m_alleles[m_numAlleles] = allele;
+    m_numAlleles += 1;
+  }
+
+
+  /**
+   * Gets the number of (non-missing) alleles in the last decoded GT.
+   */
+  int getNumAlleles() {
+    return m_numAlleles;
+  }
+
+  /**
+   * Gets the allele index at the specified position in the last decoded GT (skipping missing alleles).
+   */
+  int getAllele(int idx) {
+    return m_alleles[idx];
+  }
+
+  /**
+   * Checks if the last decoded GT includes the specified allele index.
+   */
+  boolean contains(int allele) {
+    for (int x = 0; x < m_numAlleles; x += 1) {
+      if (m_alleles[x] == allele) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the number of distinct alleles in the last decoded GT.
+   */
+  int getNumDistinctAlleles() {
+    int count = 0;
+    for (int x = 0; x < m_numAlleles; x += 1) {
+      boolean seen = false;
+      for (int y = 0; y < x; y += 1) {
+        if (m_alleles[y] == m_alleles[x]) {
+          seen = true;
+          break;
+        }
+      }
+      if (!seen) {
+        count += 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Checks if the last decoded GT only has a single field (including missing alleles).
+   */
+  boolean isHaploid() {
+    return m_numFields == 1;
+  }
+
+  /**
+   * Checks if the last decoded GT uses the unphased ({@code /}) delimiter.
+   */
+  boolean isUnphased() {
+    return m_isUnphased;
+  }
+
+
+  /**
+   * Counts the number of alleles with reads in an AD field.  Missing depths ({@code .}) are skipped.
+   *
+   * @return number of depths greater than 0, or -1 if AD has a depth that is not a number
+   */
+  static int countPositiveDepths(CharSequence ad) {
+    int limit = ad.length();
+    while (limit > 0 && ad.charAt(limit - 1) == ',') {
+      limit -= 1;
+    }
+    if (ad.isEmpty()) {
+      return -1;
+    }
+    int count = 0;
+    int start = 0;
+    for (int x = 0; x <= limit && limit > 0; x += 1) {
+      if (x == limit || ad.charAt(x) == ',') {
+        if (x - start != 1 || ad.charAt(start) != '.') {
+          try {
+            if (Integer.parseInt(ad, start, x, 10) > 0) {
+              count += 1;
+            }
+          } catch (NumberFormatException ex) {
+            return -1;
+          }
+        }
+        start = x + 1;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,234 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.common.comparator.ChromosomePositionComparator;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+
+/**
+ * Compact, columnar store of {@link SampleAllele} data for multiple samples.
+ * <p>
+ * Positions are indexed by their order in {@code DefinitionReader.getLocationsOfInterest()}.  For each position, the
+ * VCF alleles are stored once and each sample's genotype is packed into a few bytes (allele indices and phasing).
+ * {@link SampleAllele}s that cannot be represented this way (e.g. those with undocumented variations) are stored
+ * as-is.
+ * <p>
+ * The matrix is filled in by the single thread reading the VCF file, before any of the per-sample {@link VcfReader}s
+ * that share it are handed out.  Nothing is written after that, so those readers can be used from different threads in
+ * batch mode without locking.
+ */
+public class GenotypeMatrix {
+  private static final byte sf_missingAllele = -1;
+  private static final byte sf_noCallAllele = -2;
+  private static final byte sf_hasData = 1;
+  private static final byte sf_phased = 1 << 1;
+  private static final byte sf_effectivelyPhased = 1 << 2;
+  private final String[] m_chrPositions;
+  private final VariantLocus[] m_positions;
+  private final Map<String, Integer> m_positionIndex;
+  private final int m_numSamples;
+  /** VCF alleles (REF and ALTs) for each position, as they are in the VCF file. */
+  private final List<?>[] m_vcfAlleles;
+  /** VCF alleles for each position, normalized to upper case like {@link SampleAllele} alleles are. */
+  private final String[][] m_alleles;
+  private final byte[] m_allele1;
+  private final byte[] m_allele2;
+  private final byte[] m_flags;
+  /** {@link SampleAllele}s that cannot be packed, keyed to matrix index. */
+  private final Map<Integer, SampleAllele> m_unpacked = new HashMap<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param locationsOfInterest map of {@code <chr:position>} to {@link VariantLocus}, as provided by
+   * {@code DefinitionReader}
+   * @param numSamples number of samples to track
+   */
+  public GenotypeMatrix(ImmutableMap<String, VariantLocus> locationsOfInterest, int numSamples) {
+    Preconditions.checkNotNull(locationsOfInterest);
+    Preconditions.checkArgument(numSamples > 0, "No samples");
+    long size = (long)locationsOfInterest.size() * numSamples;
+    Preconditions.checkArgument(size < Integer.MAX_VALUE, "Too many samples (%s)", numSamples);
+
+    m_chrPositions = locationsOfInterest.keySet().toArray(new String[0]);
+    m_positions = locationsOfInterest.values().toArray(new VariantLocus[0]);
+    ImmutableMap.Builder<String, Integer> indexBuilder = ImmutableMap.builder();
+    int x = 0;
+    for (String chrPos : locationsOfInterest.keySet()) {
+      indexBuilder.put(chrPos, x);
+      x += 1;
+    }
+    m_positionIndex = indexBuilder.build();
+    m_numSamples = numSamples;
+    m_vcfAlleles = new List<?>[m_positions.length];
+    m_alleles = new String[m_positions.length][];
+    m_allele1 = new byte[(int)size];
+    m_allele2 = new byte[(int)size];
+    m_flags = new byte[(int)size];
+  }
+
+
+  public int getNumSamples() {
+    return m_numSamples;
+  }
+
+  public int getNumPositions() {
+    return m_positions.length;
+  }
+
+  /**
+   * Gets the index of the specified position.
+   *
+   * @param chrPos chromosomal position (e.g. "chr10:94942290")
+   * @return the index of the position, or -1 if it is not a position of interest
+   */
+  public int getPositionIndex(String chrPos) {
+    Integer idx = m_positionIndex.get(chrPos);
+    if (idx == null) {
+      return -1;
+    }
+    return idx;
+  }
+
+
+  private int index(int sampleIdx, int positionIdx) {
+    return positionIdx * m_numSamples + sampleIdx;
+  }
+
+
+  /**
+   * Checks if sample has data at the specified position.
+   */
+  public boolean hasData(int sampleIdx, int positionIdx) {
+    return (m_flags[index(sampleIdx, positionIdx)] & sf_hasData) != 0;
+  }
+
+
+  /**
+   * Stores a {@link SampleAllele} for the specified sample.
+   */
+  public void set(int sampleIdx, String chrPos, SampleAllele sampleAllele) {
+    int positionIdx = getPositionIndex(chrPos);
+    Preconditions.checkArgument(positionIdx != -1, "%s is not a position of interest", chrPos);
+    int idx = index(sampleIdx, positionIdx);
+
+    if (m_vcfAlleles[positionIdx] == null) {
+      m_vcfAlleles[positionIdx] = sampleAllele.getVcfAlleles();
+      m_alleles[positionIdx] = sampleAllele.getVcfAlleles().stream()
+          .map(String::toUpperCase)
+          .toArray(String[]::new);
+    }
+    String[] alleles = m_alleles[positionIdx];
+    byte a1 = sampleAllele.getUndocumentedVariations().isEmpty() &&
+        m_vcfAlleles[positionIdx].equals(sampleAllele.getVcfAlleles()) ?
+        lookupAllele(alleles, sampleAllele.getAllele1()) : sf_missingAllele;
+    byte a2 = lookupAllele(alleles, sampleAllele.getAllele2());
+    if (a1 == sf_missingAllele || (a2 == sf_missingAllele && sampleAllele.getAllele2() != null)) {
+      m_unpacked.put(idx, sampleAllele);
+    } else {
+      m_allele1[idx] = a1;
+      m_allele2[idx] = a2;
+    }
+    byte flags = sf_hasData;
+    if (sampleAllele.isPhased()) {
+      flags |= sf_phased;
+    }
+    if (sampleAllele.isEffectivelyPhased()) {
+      flags |= sf_effectivelyPhased;
+    }
+    m_flags[idx] = flags;
+  }
+
+  private byte lookupAllele(String[] alleles, @Nullable String allele) {
+    if (allele == null) {
+      return sf_missingAllele;
+    }
+    if (allele.equals(".")) {
+      return sf_noCallAllele;
+    }
+    for (int x = 0; x < alleles.length && x <= Byte.MAX_VALUE; x += 1) {
+      if (allele.equals(alleles[x])) {
+        return (byte)x;
+      }
+    }
+    return sf_missingAllele;
+  }
+
+
+  /**
+   * Gets the {@link SampleAllele} for the specified sample and position.
+   */
+  public @Nullable SampleAllele get(int sampleIdx, int positionIdx) {
+    int idx = index(sampleIdx, positionIdx);
+    if ((m_flags[idx] & sf_hasData) == 0) {
+      return null;
+    }
+    SampleAllele sampleAllele = m_unpacked.get(idx);
+    if (sampleAllele != null) {
+      return sampleAllele;
+    }
+
+    //noinspection unchecked
+    List<String> vcfAlleles = (List<String>)m_vcfAlleles[positionIdx];
+    String[] alleles = m_alleles[positionIdx];
+    String a1 = alleles[m_allele1[idx]];
+    String a2 = switch (m_allele2[idx]) {
+      case sf_missingAllele -> null;
+      case sf_noCallAllele -> ".";
+      default -> alleles[m_allele2[idx]];
+    };
+    VariantLocus vl = m_positions[positionIdx];
+    return new SampleAllele(vl.getChromosome(), vl.getPosition(), a1, a2, (m_flags[idx] & sf_phased) != 0,
+        (m_flags[idx] & sf_effectivelyPhased) != 0, vcfAlleles, null, false);
+  }
+
+
+  /**
+   * Counts the positions where the specified sample has data that is not effectively phased, straight from the packed
+   * flags.
+   *
+   * @param groups map of {@code <chr:position>} to the group to count it under (e.g. gene); positions that are not in
+   * this map are not counted
+   * @return map of group to count
+   */
+  public Map<String, Integer> countUnphased(int sampleIdx, Map<String, String> groups) {
+    Preconditions.checkElementIndex(sampleIdx, m_numSamples);
+    Map<String, Integer> counts = new HashMap<>();
+    for (int x = 0; x < m_positions.length; x += 1) {
+      byte flags = m_flags[index(sampleIdx, x)];
+      if ((flags & sf_hasData) != 0 && (flags & sf_effectivelyPhased) == 0) {
+        String group = groups.get(m_chrPositions[x]);
+        if (group != null) {
+          counts.merge(group, 1, Integer::sum);
+        }
+      }
+    }
+    return counts;
+  }
+
+
+  /**
+   * Gets all {@link SampleAllele}s for the specified sample.
+   *
+   * @return map of {@code <chr:position, SampleAllele>}
+   */
+  public SortedMap<String, SampleAllele> getAlleleMap(int sampleIdx) {
+    Preconditions.checkElementIndex(sampleIdx, m_numSamples);
+    SortedMap<String, SampleAllele> alleleMap = new TreeMap<>(ChromosomePositionComparator.getComparator());
+    for (int x = 0; x < m_positions.length; x += 1) {
+      SampleAllele sampleAllele = get(sampleIdx, x);
+      if (sampleAllele != null) {
+        alleleMap.put(m_chrPositions[x], sampleAllele);
+      }
+    }
+    return alleleMap;
+  }
+}
@@ -42,6 +42,7 @@ public class MatchData {
   @SerializedName("treatUndocumentedVariationsAsReference")
   private boolean m_treatUndocumentedVariationsAsReference;
   private SortedSet<NamedAllele> m_haplotypes;
+  private PermutationSearch m_permutationSearch;
   private Set<String> m_permutations;
   @Expose
   @SerializedName("phased")
@@ -53,6 +54,7 @@ public class MatchData {
   @SerializedName("effectivelyPhased")
   private boolean m_isEffectivelyPhased;
   private final Map<String, Map<Object, Object>> m_sequenceAlleleCache = new HashMap<>();
+  private boolean m_useRegexMatching;
 
 
   /**
@@ -220,6 +222,19 @@ void defaultMissingAllelesToReference() {
   }
 
 
+  /**
+   * Uses haplotypes that have already been prepared by {@link #marshallHaplotypes} (and
+   * {@link #defaultMissingAllelesToReference()}) for a sample missing the same positions.
+   */
+  void setHaplotypes(SortedSet<NamedAllele> haplotypes) {
+    m_haplotypes = haplotypes;
+  }
+
+
+  public String getGene() {
+    return m_gene;
+  }
+
   public int getNumSampleAlleles() {
     return m_sampleMap.size();
   }
@@ -239,25 +254,45 @@ public boolean isHaploid() {
 
   /**
    * Gets all permutations of sample alleles at positions of interest.
+   * <p>
+   * Permutations are generated on first use.  Prefer {@link #getNumPermutations()} if only the count is needed.
    */
   public Set<String> getPermutations() {
-    if (m_permutations == null) {
+    if (m_permutationSearch == null) {
       throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
     }
+    if (m_permutations == null) {
+      m_permutations = m_permutationSearch.getPermutations();
+    }
     return m_permutations;
   }
 
   /**
-   * Generate all permutations of sample alleles at positions of interest.
+   * Gets the number of permutations of sample alleles at positions of interest.
+   */
+  public long getNumPermutations() {
+    if (m_permutationSearch == null) {
+      throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
+    }
+    if (m_permutations != null) {
+      return m_permutations.size();
+    }
+    return m_permutationSearch.size();
+  }
+
+  /**
+   * Prepares permutations of sample alleles at positions of interest.
+   * Permutations are not actually generated until they are needed.
    */
   void generateSamplePermutations() {
 
-    m_permutations = CombinationUtil.generatePermutations(
+    m_permutationSearch = new PermutationSearch(m_positions,
         m_sampleMap.values().stream()
             .sorted()
             .toList()
     );
-    m_isEffectivelyPhased = m_permutations.size() <= 2;
+    m_permutations = null;
+    m_isEffectivelyPhased = m_permutationSearch.size() <= 2;
   }
 
   /**
@@ -349,6 +384,15 @@ public String getAllele(String sequence, int idx) {
   }
 
 
+  /**
+   * Sets whether {@link #comparePermutations()} should use {@link NamedAllele#getPermutations()} regular expressions
+   * instead of {@link BitmaskMatcher}.  Both produce the same results.
+   */
+  void setUseRegexMatching(boolean useRegexMatching) {
+    m_useRegexMatching = useRegexMatching;
+  }
+
+
   /**
    * Compares a sample's allele permutations to haplotype definitions and return matches.
    */
@@ -356,10 +400,27 @@ protected SortedSet<HaplotypeMatch> comparePermutations() {
     Set<HaplotypeMatch> haplotypeMatches = getHaplotypes().stream()
         .map(HaplotypeMatch::new)
         .collect(Collectors.toSet());
-    for (String p : getPermutations()) {
+    if (m_useRegexMatching) {
+      for (String p : getPermutations()) {
+        for (HaplotypeMatch hm : haplotypeMatches) {
+          hm.match(p);
+        }
+      }
+    } else if (m_permutations != null) {
+      // permutations have already been generated
+      BitmaskMatcher matcher = new BitmaskMatcher(m_positions, m_permutations);
       for (HaplotypeMatch hm : haplotypeMatches) {
-        hm.match(p);
+        matcher.match(hm.getHaplotype())
+            .forEach(hm::addSequence);
+      }
+    } else {
+      if (m_permutationSearch == null) {
+        throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
       }
+      List<HaplotypeMatch> matchList = new ArrayList<>(haplotypeMatches);
+      m_permutationSearch.search(matchList.stream().map(HaplotypeMatch::getHaplotype).toList(),
+          (seq, matched) -> matched.stream()
+              .forEach(x -> matchList.get(x).addSequence(seq)));
     }
     return haplotypeMatches.stream()
         .filter(h -> !h.getSequences().isEmpty())
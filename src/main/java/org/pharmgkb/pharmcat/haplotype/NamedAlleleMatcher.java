@@ -34,6 +34,7 @@
 import org.pharmgkb.pharmcat.reporter.TextConstants;
 import org.pharmgkb.pharmcat.util.CliUtils;
 import org.pharmgkb.pharmcat.util.DataManager;
+import org.pharmgkb.pharmcat.util.Metrics;
 
 
 /**
@@ -53,12 +54,19 @@ public class NamedAlleleMatcher {
       "TPMT"
   );
 
+  /** Key for the {@link GeneMatcherIndex} used to call DPYD without HapB3. */
+  private static final String DPYD_WITHOUT_HAPB3 = "DPYD-without-HapB3";
+
   private final Env m_env;
   private final DefinitionReader m_definitionReader;
   private final boolean m_findCombinations;
   private final boolean m_topCandidateOnly;
   private final boolean m_callCyp2d6;
   private boolean m_printWarnings;
+  private boolean m_useRegexMatching;
+  private @Nullable DiplotypeMatchCache m_diplotypeMatchCache;
+  private boolean m_callGenesConcurrently;
+  private @Nullable Metrics m_metrics;
 
 
   /**
@@ -92,6 +100,43 @@ public NamedAlleleMatcher printWarnings() {
     return this;
   }
 
+  /**
+   * Match haplotypes using regular expressions instead of bitmasks.
+   * Results are the same; this is primarily for comparison.
+   */
+  public NamedAlleleMatcher useRegexMatching() {
+    m_useRegexMatching = true;
+    return this;
+  }
+
+  /**
+   * Reuse diplotypes computed for samples with the same genotypes.
+   * The cache should only be shared by {@link NamedAlleleMatcher}s using the same {@link DefinitionReader}.
+   */
+  public NamedAlleleMatcher useDiplotypeMatchCache(@Nullable DiplotypeMatchCache cache) {
+    m_diplotypeMatchCache = cache;
+    return this;
+  }
+
+  /**
+   * Call genes concurrently (using the common fork-join pool).
+   * This speeds up calling a single sample but is not useful if samples are already being run concurrently.
+   * Results are the same, in the same order.
+   */
+  public NamedAlleleMatcher callGenesConcurrently() {
+    m_callGenesConcurrently = true;
+    return this;
+  }
+
+  /**
+   * Record how long reading the VCF file and calling each gene takes, along with how many permutations and matches
+   * are evaluated for each gene.
+   */
+  public NamedAlleleMatcher useMetrics(@Nullable Metrics metrics) {
+    m_metrics = metrics;
+    return this;
+  }
+
 
   public static void main(String[] args) {
 
@@ -158,7 +203,18 @@ public static void main(String[] args) {
 
 
   public void saveResults(Result result, @Nullable Path jsonFile, @Nullable Path htmlFile) throws IOException {
-    ResultSerializer resultSerializer = new ResultSerializer();
+    saveResults(result, jsonFile, htmlFile, false);
+  }
+
+  /**
+   * Saves results.
+   *
+   * @param compactJson true to write JSON without pretty printing
+   */
+  public void saveResults(Result result, @Nullable Path jsonFile, @Nullable Path htmlFile, boolean compactJson)
+      throws IOException {
+    ResultSerializer resultSerializer = new ResultSerializer()
+        .compactJson(compactJson);
     if (jsonFile != null) {
       resultSerializer.toJson(result, jsonFile);
     }
@@ -182,7 +238,11 @@ private boolean getTopCandidateOnly(String gene) {
    * Calls diplotypes for the given VCF file for all genes for which a definition exists.
    */
   public Result call(VcfFile vcfFile, @Nullable String sampleId) throws IOException {
+    long start = System.nanoTime();
     VcfReader vcfReader = vcfFile.getReader(m_definitionReader, sampleId, m_findCombinations);
+    if (m_metrics != null) {
+      m_metrics.recordStage(start, "vcf");
+    }
     SortedMap<String, SampleAllele> alleleMap = vcfReader.getAlleleMap();
     ResultBuilder resultBuilder = new ResultBuilder(m_definitionReader, m_topCandidateOnly, m_findCombinations, m_callCyp2d6)
         .forFile(vcfFile, vcfReader.getWarnings().asMap());
@@ -195,19 +255,48 @@ public Result call(VcfFile vcfFile, @Nullable String sampleId) throws IOExceptio
           });
     }
     // call haplotypes
-    for (String gene : m_definitionReader.getGenes()) {
-      if (!m_callCyp2d6 && gene.equals("CYP2D6")) {
-        continue;
-      }
-      if (gene.equals("DPYD")) {
-        callDpyd(vcfReader.getSampleId(), alleleMap, resultBuilder);
-      } else {
-        callAssumingReference(vcfReader.getSampleId(), alleleMap, gene, resultBuilder);
+    List<String> genes = m_definitionReader.getGenes().stream()
+        .filter(gene -> m_callCyp2d6 || !gene.equals("CYP2D6"))
+        .toList();
+    if (m_callGenesConcurrently) {
+      genes.parallelStream()
+          .forEach(gene -> callGene(vcfReader.getSampleId(), alleleMap, gene, resultBuilder));
+    } else {
+      for (String gene : genes) {
+        callGene(vcfReader.getSampleId(), alleleMap, gene, resultBuilder);
       }
     }
     return resultBuilder.build();
   }
 
+  private void callGene(String sampleId, SortedMap<String, SampleAllele> alleleMap, String gene,
+      ResultBuilder resultBuilder) {
+    long start = System.nanoTime();
+    if (gene.equals("DPYD")) {
+      callDpyd(sampleId, alleleMap, resultBuilder);
+      recordGene(start, gene, "callDpyd");
+    } else {
+      callAssumingReference(sampleId, alleleMap, gene, resultBuilder);
+      recordGene(start, gene, "callAssumingReference");
+    }
+  }
+
+  private void recordGene(long start, String gene, String call) {
+    if (m_metrics != null) {
+      m_metrics.recordSince(start, Metrics.MATCHER_GENE_SECONDS, "gene", gene, "call", call);
+    }
+  }
+
+  /**
+   * Counts the possible sample allele permutations and the diplotype matches returned for a gene.
+   */
+  private void countMatches(MatchData data, int numMatches) {
+    if (m_metrics != null) {
+      m_metrics.count(data.getNumPermutations(), Metrics.MATCHER_SAMPLE_PERMUTATIONS, "gene", data.getGene());
+      m_metrics.count(numMatches, Metrics.MATCHER_DIPLOTYPES, "gene", data.getGene());
+    }
+  }
+
   private void callAssumingReference(String sampleId, SortedMap<String, SampleAllele> alleleMap, String gene,
       ResultBuilder resultBuilder) {
 
@@ -217,13 +306,15 @@ private void callAssumingReference(String sampleId, SortedMap<String, SampleAlle
       return;
     }
 
-    List<DiplotypeMatch> matches = new DiplotypeMatcher(data)
-        .compute(false, getTopCandidateOnly(gene));
+    List<DiplotypeMatch> matches = computeDiplotypes(data, false);
+    countMatches(data, matches.size());
     if (matches.isEmpty()) {
       if (!m_findCombinations) {
         resultBuilder.diplotypes(gene, data, matches);
       } else {
+        long start = System.nanoTime();
         callCombination(sampleId, alleleMap, gene, resultBuilder);
+        recordGene(start, gene, "callCombination");
       }
       return;
     }
@@ -239,11 +330,24 @@ private void callCombination(String sampleId, SortedMap<String, SampleAllele> al
       return;
     }
 
-    List<DiplotypeMatch> matches = new DiplotypeMatcher(data)
-        .compute(true, getTopCandidateOnly(gene));
+    List<DiplotypeMatch> matches = computeDiplotypes(data, true);
+    countMatches(data, matches.size());
     resultBuilder.diplotypes(gene, data, matches);
   }
 
+  /**
+   * Computes diplotypes, using the {@link DiplotypeMatchCache} if available.
+   */
+  private List<DiplotypeMatch> computeDiplotypes(MatchData data, boolean findCombinations) {
+    boolean topCandidateOnly = getTopCandidateOnly(data.getGene());
+    if (m_diplotypeMatchCache == null) {
+      return new DiplotypeMatcher(data)
+          .compute(findCombinations, topCandidateOnly);
+    }
+    return m_diplotypeMatchCache.get(data, findCombinations, topCandidateOnly,
+        () -> new DiplotypeMatcher(data).compute(findCombinations, topCandidateOnly));
+  }
+
 
   /**
    * For DPYD, only attempt exact diplotype match if phased.
@@ -273,6 +377,7 @@ private void callDpyd(String sampleId, SortedMap<String, SampleAllele> alleleMap
      // first look for exact matches (use topCandidateOnly = false because looking for exact match)
       List<DiplotypeMatch> diplotypeMatches = new DiplotypeMatcher(workingData)
           .compute(false, false);
+      countMatches(workingData, diplotypeMatches.size());
       if (diplotypeMatches.size() == 1) {
         if (!dpydHapB3Matcher.isMissingHapB3Positions()) {
           MatchData mergerData = initializeCallData(sampleId, alleleMap, gene, false, false);
@@ -287,6 +392,7 @@ private void callDpyd(String sampleId, SortedMap<String, SampleAllele> alleleMap
       comboData = initializeDpydCallData(sampleId, alleleMap, false, true);
       diplotypeMatches = new DiplotypeMatcher(comboData)
           .compute(true, false, false, true);
+      countMatches(comboData, diplotypeMatches.size());
       if (!diplotypeMatches.isEmpty()) {
         DiplotypeMatch[] matches = diplotypeMatches.toArray(new DiplotypeMatch[0]);
         for (int x = 0; x < matches.length; x += 1) {
@@ -325,6 +431,7 @@ private void callDpyd(String sampleId, SortedMap<String, SampleAllele> alleleMap
     // have to compute diplotypes so that we can check for homozygous and partials
     List<DiplotypeMatch> matches = new DiplotypeMatcher(comboData)
         .compute(true, getTopCandidateOnly(gene));
+    countMatches(comboData, matches.size());
     Set<String> homozygous = new HashSet<>();
     int numPartials = 0;
     for (DiplotypeMatch dm : matches) {
@@ -428,104 +535,43 @@ private Set<String> getNames(@Nullable BaseMatch bm) {
    */
   private MatchData initializeCallData(String sampleId, SortedMap<String, SampleAllele> alleleMap, String gene,
       boolean assumeReference, boolean findCombinations) {
+    return initializeCallData(m_definitionReader.getMatcherIndex(gene), sampleId, alleleMap, assumeReference,
+        findCombinations);
+  }
 
-    DefinitionExemption exemption = m_definitionReader.getExemption(gene);
-    SortedSet<VariantLocus> extraPositions = null;
-    SortedSet<NamedAllele> alleles = m_definitionReader.getHaplotypes(gene);
-    VariantLocus[] allPositions = m_definitionReader.getPositions(gene);
-    SortedSet<VariantLocus> unusedPositions = null;
-    if (exemption != null) {
-      extraPositions = exemption.getExtraPositions();
-      unusedPositions = findUnusedPositions(exemption, allPositions, alleles);
-    }
+  private MatchData initializeDpydCallData(String sampleId, SortedMap<String, SampleAllele> alleleMap,
+      boolean assumeReference, boolean findCombinations) {
+    GeneMatcherIndex index = m_definitionReader.getMatcherIndex(DPYD_WITHOUT_HAPB3,
+        NamedAlleleMatcher::buildDpydIndex);
+    return initializeCallData(index, sampleId, alleleMap, assumeReference, findCombinations);
+  }
 
-    // grab SampleAlleles for all positions related to current gene
-    MatchData data = new MatchData(sampleId, gene, alleleMap, allPositions, extraPositions, unusedPositions);
+  private MatchData initializeCallData(GeneMatcherIndex index, String sampleId,
+      SortedMap<String, SampleAllele> alleleMap, boolean assumeReference, boolean findCombinations) {
+
+    MatchData data = index.initializeCallData(sampleId, alleleMap, assumeReference, findCombinations);
+    data.setUseRegexMatching(m_useRegexMatching);
     if (data.getNumSampleAlleles() == 0) {
       return data;
     }
-
-    if (exemption != null) {
-      alleles = alleles.stream()
-          .filter(a -> !exemption.shouldIgnoreAllele(a.getName()))
-          .collect(Collectors.toCollection(TreeSet::new));
-    }
-    // handle missing positions (if any)
-    data.marshallHaplotypes(gene, alleles, findCombinations);
-
-    if (assumeReference) {
-      data.defaultMissingAllelesToReference();
-    }
-
     data.generateSamplePermutations();
     return data;
   }
 
 
   /**
-   * Find positions that are only used by ignored alleles (and therefore should be eliminated from consideration).
-   */
-  private SortedSet<VariantLocus> findUnusedPositions(DefinitionExemption exemption, VariantLocus[] allPositions,
-      SortedSet<NamedAllele> namedAlleles) {
-
-    SortedSet<VariantLocus> unusedPositions = new TreeSet<>();
-    if (exemption.getIgnoredAlleles().isEmpty()) {
-      return unusedPositions;
-    }
-
-    List<NamedAllele> allAlleles = new ArrayList<>(namedAlleles);
-    List<NamedAllele> variantNamedAlleles = allAlleles.subList(1, namedAlleles.size() - 1);
-    Set<VariantLocus> ignorablePositions = new HashSet<>();
-    for (NamedAllele namedAllele : variantNamedAlleles) {
-      if (exemption.shouldIgnoreAllele(namedAllele.getName())) {
-        ignorablePositions.addAll(findIgnorablePositions(allPositions, namedAllele));
-      }
-    }
-
-    for (VariantLocus vl : ignorablePositions) {
-      boolean isUnused = true;
-      for (NamedAllele namedAllele : variantNamedAlleles) {
-        if (!exemption.shouldIgnoreAllele(namedAllele.getName())) {
-          if (namedAllele.getAllele(vl) != null) {
-            isUnused = false;
-            break;
-          }
-        }
-      }
-      if (isUnused) {
-        unusedPositions.add(vl);
-      }
-    }
-    return unusedPositions;
-  }
-
-  /**
-   * Find positions that are used by ignored alleles (and are therefore potentially ignorable).
+   * Builds the {@link GeneMatcherIndex} for DPYD without HapB3, which is handled by {@link DpydHapB3Matcher}.
    */
-  private Set<VariantLocus> findIgnorablePositions(VariantLocus[] allPositions, NamedAllele namedAllele)  {
-    Set<VariantLocus> ignorablePositions = new HashSet<>();
-    int x = 0;
-    for (String allele : namedAllele.getAlleles()) {
-      if (allele != null) {
-        ignorablePositions.add(allPositions[x]);
-      }
-      x += 1;
-    }
-    return ignorablePositions;
-  }
-
-
-  private MatchData initializeDpydCallData(String sampleId, SortedMap<String, SampleAllele> alleleMap,
-      boolean assumeReference, boolean findCombinations) {
+  private static GeneMatcherIndex buildDpydIndex(DefinitionReader definitionReader) {
 
     String gene = "DPYD";
-    DefinitionExemption exemption = m_definitionReader.getExemption(gene);
+    DefinitionExemption exemption = definitionReader.getExemption(gene);
     SortedSet<VariantLocus> extraPositions = null;
     // remove HapB3
-    SortedSet<NamedAllele> alleles = m_definitionReader.getHaplotypes(gene).stream()
+    SortedSet<NamedAllele> alleles = definitionReader.getHaplotypes(gene).stream()
         .filter(a -> !a.getName().equals(DpydHapB3Matcher.HAPB3_ALLELE))
         .collect(Collectors.toCollection(TreeSet::new));
-    VariantLocus[] allPositions = m_definitionReader.getPositions(gene);
+    VariantLocus[] allPositions = definitionReader.getPositions(gene);
     SortedSet<VariantLocus> unusedPositions = new TreeSet<>();
     // add HapB3 positions to ignore
     for (VariantLocus vl : allPositions) {
@@ -539,21 +585,6 @@ private MatchData initializeDpydCallData(String sampleId, SortedMap<String, Samp
         throw new IllegalStateException("Not expecting DPYD to have ignored alleles");
       }
     }
-
-    // grab SampleAlleles for all positions related to current gene
-    MatchData data = new MatchData(sampleId, gene, alleleMap, allPositions, extraPositions, unusedPositions);
-    if (data.getNumSampleAlleles() == 0) {
-      return data;
-    }
-
-    // handle missing positions (if any)
-    data.marshallHaplotypes(gene, alleles, findCombinations);
-
-    if (assumeReference) {
-      data.defaultMissingAllelesToReference();
-    }
-
-    data.generateSamplePermutations();
-    return data;
+    return new GeneMatcherIndex(gene, allPositions, alleles, extraPositions, unusedPositions);
   }
 }
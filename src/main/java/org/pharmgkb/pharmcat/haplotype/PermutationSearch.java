@@ -0,0 +1,230 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import com.google.common.base.Preconditions;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+
+/**
+ * Searches the permutations of a sample's alleles for sequences that match {@link NamedAllele}s, without generating
+ * every permutation up front.
+ * <p>
+ * Permutations are the same as those generated by {@link CombinationUtil#generatePermutations(List)}.  The search
+ * walks positions in order, tracking which {@link NamedAllele}s are still compatible with the partial sequence, and
+ * abandons any partial sequence that can no longer match a {@link NamedAllele}.
+ */
+public class PermutationSearch {
+  private final List<SampleAllele> m_alleles;
+  private final VariantLocus[] m_positions;
+  /** Possible alleles at each position for the first strand. */
+  private final String[][] m_strand1;
+  /** Possible alleles at each position for the second strand (only used when effectively phased). */
+  private final String[] @Nullable [] m_strand2;
+
+
+  /**
+   * Constructor.
+   *
+   * @param positions the {@link VariantLocus} for each of the sample's alleles
+   * @param alleles sample alleles, sorted
+   */
+  public PermutationSearch(VariantLocus[] positions, List<SampleAllele> alleles) {
+    Preconditions.checkNotNull(positions);
+    Preconditions.checkNotNull(alleles);
+    Preconditions.checkArgument(alleles.size() > 0, "No alleles to generate permutations for");
+
+    Map<Long, VariantLocus> positionMap = new HashMap<>();
+    for (VariantLocus vl : positions) {
+      positionMap.put(vl.getPosition(), vl);
+    }
+    m_alleles = alleles;
+    m_positions = new VariantLocus[alleles.size()];
+    m_strand1 = new String[alleles.size()][];
+
+    boolean isHaploid = alleles.stream().allMatch(sa -> sa.getAllele2() == null);
+    if (alleles.get(0).isEffectivelyPhased() && !isHaploid) {
+      m_strand2 = new String[alleles.size()][];
+    } else {
+      m_strand2 = null;
+    }
+    for (int x = 0; x < alleles.size(); x += 1) {
+      SampleAllele sa = alleles.get(x);
+      m_positions[x] = positionMap.get((long)sa.getPosition());
+      Preconditions.checkArgument(m_positions[x] != null, "No position for %s", sa.getChrPosition());
+      // computed alleles are appended as-is (null included) by CombinationUtil
+      String a1 = String.valueOf(sa.getComputedAllele1());
+      String a2 = String.valueOf(sa.getComputedAllele2());
+      if (sa.isEffectivelyPhased() || isHaploid) {
+        m_strand1[x] = new String[] { a1 };
+      } else {
+        m_strand1[x] = choices(a1, a2);
+      }
+      if (m_strand2 != null) {
+        if (sa.isEffectivelyPhased()) {
+          m_strand2[x] = new String[] { a2 };
+        } else {
+          m_strand2[x] = choices(a1, a2);
+        }
+      }
+    }
+  }
+
+  private static String[] choices(String a1, String a2) {
+    if (a1.equals(a2)) {
+      return new String[] { a1 };
+    }
+    return new String[] { a1, a2 };
+  }
+
+
+  /**
+   * Gets the number of permutations, without generating them.
+   */
+  public long size() {
+    long size = product(m_strand1, null);
+    if (m_strand2 != null) {
+      size = saturatedAdd(size, product(m_strand2, null));
+      // permutations from both strands are only counted once
+      size -= product(m_strand1, m_strand2);
+    }
+    return size;
+  }
+
+  /**
+   * Counts the permutations of {@code strand}, only including those also in {@code otherStrand} if specified.
+   */
+  private long product(String[][] strand, String[] @Nullable [] otherStrand) {
+    long product = 1;
+    for (int x = 0; x < strand.length; x += 1) {
+      long count = strand[x].length;
+      if (otherStrand != null) {
+        count = 0;
+        for (String allele : strand[x]) {
+          if (contains(otherStrand[x], allele)) {
+            count += 1;
+          }
+        }
+      }
+      if (count == 0) {
+        return 0;
+      }
+      product = count > Long.MAX_VALUE / product ? Long.MAX_VALUE : product * count;
+    }
+    return product;
+  }
+
+  private static long saturatedAdd(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  private static boolean contains(String[] alleles, String allele) {
+    for (String a : alleles) {
+      if (a.equals(allele)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Generates all permutations.
+   * Only use this if all permutations are really needed.
+   */
+  public Set<String> getPermutations() {
+    return CombinationUtil.generatePermutations(m_alleles);
+  }
+
+
+  /**
+   * Searches for permutations that match the specified haplotypes.
+   * Each matching permutation is passed to {@code consumer} along with the indices of the haplotypes it matches as soon
+   * as it is found.
+   */
+  public void search(List<NamedAllele> haplotypes, BiConsumer<String, BitSet> consumer) {
+    Preconditions.checkNotNull(haplotypes);
+    Preconditions.checkNotNull(consumer);
+    if (haplotypes.isEmpty()) {
+      return;
+    }
+
+    // haplotypes that accept each allele, per position
+    List<Map<String, BitSet>> accepted = new ArrayList<>(m_positions.length);
+    for (int x = 0; x < m_positions.length; x += 1) {
+      Map<String, BitSet> alleleMap = new HashMap<>();
+      addAccepted(alleleMap, m_positions[x], m_strand1[x], haplotypes);
+      if (m_strand2 != null) {
+        addAccepted(alleleMap, m_positions[x], m_strand2[x], haplotypes);
+      }
+      accepted.add(alleleMap);
+    }
+
+    BitSet candidates = new BitSet(haplotypes.size());
+    candidates.set(0, haplotypes.size());
+    StringBuilder builder = new StringBuilder();
+    search(0, m_strand1, null, false, accepted, candidates, builder, consumer);
+    if (m_strand2 != null) {
+      search(0, m_strand2, m_strand1, true, accepted, candidates, builder, consumer);
+    }
+  }
+
+  private void addAccepted(Map<String, BitSet> alleleMap, VariantLocus position, String[] alleles,
+      List<NamedAllele> haplotypes) {
+    for (String allele : alleles) {
+      if (alleleMap.containsKey(allele)) {
+        continue;
+      }
+      BitSet bitSet = new BitSet(haplotypes.size());
+      for (int x = 0; x < haplotypes.size(); x += 1) {
+        String hapAllele = haplotypes.get(x).getAllele(position);
+        if (hapAllele == null || BitmaskMatcher.accepts(hapAllele, allele)) {
+          bitSet.set(x);
+        }
+      }
+      alleleMap.put(allele, bitSet);
+    }
+  }
+
+  /**
+   * Depth-first search through permutations of {@code strand}.
+   *
+   * @param otherStrand if specified, permutations that can also be generated from this strand are skipped
+   * @param inOtherStrand true if sequence so far can also be generated from {@code otherStrand}
+   */
+  private void search(int idx, String[][] strand, String[] @Nullable [] otherStrand, boolean inOtherStrand,
+      List<Map<String, BitSet>> accepted, BitSet candidates, StringBuilder builder,
+      BiConsumer<String, BitSet> consumer) {
+
+    if (idx == strand.length) {
+      if (!inOtherStrand) {
+        consumer.accept(builder.toString(), candidates);
+      }
+      return;
+    }
+    int length = builder.length();
+    for (String allele : strand[idx]) {
+      BitSet remaining = (BitSet)candidates.clone();
+      remaining.and(accepted.get(idx).get(allele));
+      if (remaining.isEmpty()) {
+        // no haplotype can match
+        continue;
+      }
+      builder.append(m_alleles.get(idx).getPosition())
+          .append(":")
+          .append(allele)
+          .append(";");
+      search(idx + 1, strand, otherStrand, inOtherStrand && contains(otherStrand[idx], allele), accepted,
+          remaining, builder, consumer);
+      builder.setLength(length);
+    }
+  }
+}
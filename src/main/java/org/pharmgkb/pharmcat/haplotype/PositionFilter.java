@@ -0,0 +1,102 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+
+/**
+ * Quickly checks if a VCF data line is at a position of interest by only looking at its CHROM and POS columns.
+ * <p>
+ * This lets {@link VcfReader} skip irrelevant lines in VCF files that have not been preprocessed (e.g. exome or whole
+ * genome VCFs) without tokenizing them.
+ * <p>
+ * This is not thread-safe.
+ */
+class PositionFilter {
+  private final String[] m_contigs;
+  /** Sorted positions for each contig in {@link #m_contigs}. */
+  private final long[][] m_positions;
+  /** Index of the contig that matched last, since VCF lines are grouped by contig. */
+  private int m_lastContig;
+
+
+  PositionFilter(Collection<VariantLocus> locations) {
+    Map<String, List<Long>> positionMap = new TreeMap<>();
+    for (VariantLocus vl : locations) {
+      positionMap.computeIfAbsent(vl.getChromosome(), c -> new ArrayList<>())
+          .add(vl.getPosition());
+    }
+    m_contigs = new String[positionMap.size()];
+    m_positions = new long[positionMap.size()][];
+    int x = 0;
+    for (Map.Entry<String, List<Long>> entry : positionMap.entrySet()) {
+      m_contigs[x] = entry.getKey();
+      m_positions[x] = entry.getValue().stream()
+          .mapToLong(Long::longValue)
+          .sorted()
+          .distinct()
+          .toArray();
+      x += 1;
+    }
+  }
+
+
+  /**
+   * Checks if the line might be at a position of interest.
+   * Lines with an unparseable POS are accepted so that they can be reported by the parser.
+   */
+  boolean accept(String line) {
+    int contig = findContig(line);
+    if (contig == -1) {
+      return false;
+    }
+    int start = m_contigs[contig].length() + 1;
+    long pos = 0;
+    int x = start;
+    for (; x < line.length(); x += 1) {
+      char c = line.charAt(x);
+      if (c == '\t') {
+        break;
+      }
+      if (c < '0' || c > '9' || x - start > 18) {
+        return true;
+      }
+      pos = pos * 10 + (c - '0');
+    }
+    if (x == start || x == line.length()) {
+      return true;
+    }
+    return Arrays.binarySearch(m_positions[contig], pos) >= 0;
+  }
+
+  /**
+   * Finds the index of the contig in the CHROM column of the line.
+   *
+   * @return -1 if the contig is not of interest
+   */
+  private int findContig(String line) {
+    if (matchesContig(line, m_lastContig)) {
+      return m_lastContig;
+    }
+    for (int x = 0; x < m_contigs.length; x += 1) {
+      if (x != m_lastContig && matchesContig(line, x)) {
+        m_lastContig = x;
+        return x;
+      }
+    }
+    return -1;
+  }
+
+  private boolean matchesContig(String line, int idx) {
+    if (idx >= m_contigs.length) {
+      return false;
+    }
+    String contig = m_contigs[idx];
+    return line.length() > contig.length() && line.charAt(contig.length()) == '\t' && line.startsWith(contig);
+  }
+}
@@ -6,6 +6,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import com.google.common.base.Preconditions;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -27,12 +28,16 @@
 
 /**
  * This class collects results for the {@link NamedAlleleMatcher}.
+ * <p>
+ * Results for different genes can be added concurrently.  Gene calls are always returned in the same order as
+ * {@link DefinitionReader#getGenes()}, regardless of the order in which they were added.
  *
  * @author Mark Woon
  */
 public class ResultBuilder {
   private final DefinitionReader m_definitionReader;
   private final Result m_result = new Result();
+  private final Map<String, GeneCall> m_geneCalls = new ConcurrentHashMap<>();
   private final boolean m_topCandidatesOnly;
   private final boolean m_findCombinations;
   private final boolean m_callCyp2d6;
@@ -48,6 +53,13 @@ public ResultBuilder(DefinitionReader definitionReader, boolean topCandidatesOnl
   }
 
   public Result build() {
+    m_result.getGeneCalls().clear();
+    for (String gene : m_definitionReader.getGenes()) {
+      GeneCall geneCall = m_geneCalls.get(gene);
+      if (geneCall != null) {
+        m_result.addGeneCall(geneCall);
+      }
+    }
     return m_result;
   }
 
@@ -69,7 +81,7 @@ public ResultBuilder forFile(VcfFile vcfFile, Map<String, Collection<String>> wa
    */
   protected ResultBuilder gene(String gene, MatchData matchData) {
     Preconditions.checkNotNull(gene);
-    m_result.addGeneCall(initGeneCall(gene, matchData, null));
+    addGeneCall(gene, initGeneCall(gene, matchData, null));
     return this;
   }
 
@@ -95,7 +107,7 @@ protected ResultBuilder diplotypes(String gene, MatchData matchData, List<Diplot
       geneCall.addDiplotype(dm);
     }
 
-    m_result.addGeneCall(geneCall);
+    addGeneCall(gene, geneCall);
     return this;
   }
 
@@ -123,11 +135,17 @@ protected ResultBuilder haplotypes(String gene, MatchData matchData, List<Haplot
       geneCall.addHaplotypeMatches(matches);
     }
 
-    m_result.addGeneCall(geneCall);
+    addGeneCall(gene, geneCall);
     return this;
   }
 
 
+  private void addGeneCall(String gene, GeneCall geneCall) {
+    if (m_geneCalls.putIfAbsent(gene, geneCall) != null) {
+      throw new IllegalStateException("Already have results for " + gene);
+    }
+  }
+
   private GeneCall initGeneCall(String gene, MatchData matchData, @Nullable List<MessageAnnotation> warnings) {
     Set<String> matchableHaps = matchData.getHaplotypes().stream()
         .map(NamedAllele::getName)
@@ -1,7 +1,6 @@
 package org.pharmgkb.pharmcat.haplotype;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
@@ -40,6 +39,7 @@
  */
 public class ResultSerializer {
   private boolean m_alwaysShowUnmatchedHaplotypes;
+  private boolean m_compactJson;
   private final SimpleDateFormat m_dateFormat = new SimpleDateFormat("MM/dd/yy");
   private String m_htmlTemplate;
 
@@ -54,6 +54,15 @@ public ResultSerializer alwaysShowUnmatchedHaplotypes(boolean alwaysShowUnmatche
   }
 
 
+  /**
+   * Write JSON without pretty printing.
+   */
+  public ResultSerializer compactJson(boolean compactJson) {
+    m_compactJson = compactJson;
+    return this;
+  }
+
+
   private String getHtmlTemplate() throws IOException {
     if (m_htmlTemplate == null) {
       try (BufferedReader reader = Files.newBufferedReader(PathUtils.getPathToResource(getClass(), "template.html"))) {
@@ -67,27 +76,49 @@ private String getHtmlTemplate() throws IOException {
   public ResultSerializer toJson(Result result, Path jsonFile) throws IOException {
     Preconditions.checkNotNull(result);
     Preconditions.checkNotNull(jsonFile);
-    Preconditions.checkArgument(jsonFile.toString().endsWith(".json"), "Output JSON file needs to end in '.json'");
+    Preconditions.checkArgument(DataSerializer.isJsonFile(jsonFile),
+        "Output JSON file needs to end in '.json' or '.json.gz'");
 
-    try (BufferedWriter writer = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
-      writer.write(DataSerializer.GSON.toJson(result));
-    }
+    DataSerializer.toJson(result, jsonFile, m_compactJson);
     return this;
   }
 
 
   public Result fromJson(Path jsonFile) throws IOException {
     Preconditions.checkNotNull(jsonFile);
-    Preconditions.checkArgument(jsonFile.toString().endsWith(".json"));
+    Preconditions.checkArgument(DataSerializer.isJsonFile(jsonFile));
     Preconditions.checkArgument(Files.isRegularFile(jsonFile));
 
-    try (BufferedReader reader = Files.newBufferedReader(jsonFile, StandardCharsets.UTF_8)) {
+    try (BufferedReader reader = DataSerializer.newJsonReader(jsonFile)) {
       return DataSerializer.GSON.fromJson(reader, Result.class);
     }
   }
 
 
 
+  /**
+   * Writes {@link Result} in PharmCAT's binary format, which is faster to read back in than JSON.
+   */
+  public ResultSerializer toBinary(Result result, Path binFile) throws IOException {
+    Preconditions.checkNotNull(result);
+    Preconditions.checkNotNull(binFile);
+    Preconditions.checkArgument(DataSerializer.isBinaryFile(binFile),
+        "Output binary file needs to end in '" + DataSerializer.BINARY_EXTENSION + "'");
+
+    DataSerializer.toBinary(result, binFile);
+    return this;
+  }
+
+
+  public Result fromBinary(Path binFile) throws IOException {
+    Preconditions.checkNotNull(binFile);
+    Preconditions.checkArgument(DataSerializer.isBinaryFile(binFile));
+
+    return DataSerializer.fromBinary(binFile, Result.class);
+  }
+
+
+
   public ResultSerializer toHtml(Result result, Path htmlFile) throws IOException {
     Preconditions.checkNotNull(result);
     Preconditions.checkNotNull(htmlFile);
@@ -0,0 +1,313 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import com.google.common.base.Preconditions;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.parser.vcf.VcfFormatException;
+
+
+/**
+ * Tokenizes VCF data lines, only pulling out the fields that {@link VcfReader} needs.
+ * <p>
+ * Unlike {@link org.pharmgkb.parser.vcf.VcfParser}, this does not split every column or build property maps for
+ * every sample.  It picks out CHROM, POS, REF, ALT and FILTER, then skips straight to the requested sample columns and
+ * only extracts their GT and AD fields.  This makes a big difference on cohort VCFs with many samples.
+ * <p>
+ * It still validates data lines the way {@link org.pharmgkb.parser.vcf.VcfParser} does: the number of columns must
+ * match the header, POS must be a positive number, REF must only contain bases and ALT must not have empty alleles.
+ * Problems are reported with {@link VcfFormatException}.
+ * <p>
+ * A tokenizer is reused for every line in a file and is not thread-safe.
+ */
+class VcfLineTokenizer {
+  private final int m_numHeaderSamples;
+  /** Sorted indices of samples to extract data for. */
+  private final int[] m_sampleIdxs;
+  private final @Nullable String[] m_gt;
+  private final @Nullable String[] m_ad;
+  private String m_line;
+  private String m_chromosome;
+  private long m_position;
+  private String m_ref;
+  private final List<String> m_altBases = new ArrayList<>();
+  private final List<String> m_filters = new ArrayList<>();
+  private int m_numSamples;
+  /** Last FORMAT column seen, since this rarely changes from line to line. */
+  private @Nullable String m_format;
+  private int m_gtIdx = -1;
+  private int m_adIdx = -1;
+
+
+  /**
+   * Constructor.
+   *
+   * @param numHeaderSamples number of samples in the VCF header
+   * @param sampleIdxs indices of samples to extract data for
+   */
+  VcfLineTokenizer(int numHeaderSamples, Collection<Integer> sampleIdxs) {
+    m_numHeaderSamples = numHeaderSamples;
+    m_sampleIdxs = sampleIdxs.stream()
+        .mapToInt(Integer::intValue)
+        .filter(idx -> idx >= 0)
+        .sorted()
+        .distinct()
+        .toArray();
+    m_gt = new String[m_sampleIdxs.length];
+    m_ad = new String[m_sampleIdxs.length];
+  }
+
+
+  /**
+   * Tokenizes a line from a VCF file.
+   *
+   * @return false if the line has no data (i.e. is blank or is a header line)
+   */
+  boolean tokenize(String line) {
+    if (line.isBlank() || line.charAt(0) == '#') {
+      return false;
+    }
+    m_line = line;
+
+    int end = nextColumn(0, "CHROM");
+    m_chromosome = line.substring(0, end);
+    int start = end + 1;
+    end = nextColumn(start, "POS");
+    try {
+      m_position = Long.parseLong(line, start, end, 10);
+    } catch (NumberFormatException ex) {
+      throw new VcfFormatException("Invalid POS '" + line.substring(start, end) + "' on " + m_chromosome);
+    }
+    if (m_position < 1) {
+      throw new VcfFormatException("Invalid POS '" + line.substring(start, end) + "' on " + m_chromosome);
+    }
+    // skip ID
+    start = nextColumn(end + 1, "ID") + 1;
+    end = nextColumn(start, "REF");
+    m_ref = line.substring(start, end);
+    if (!isBases(m_ref)) {
+      throw new VcfFormatException("Invalid REF '" + m_ref + "' on " + m_chromosome + ":" + m_position);
+    }
+    start = end + 1;
+    end = nextColumn(start, "ALT");
+    split(start, end, ',', m_altBases);
+    for (String alt : m_altBases) {
+      if (alt.isEmpty()) {
+        throw new VcfFormatException("Invalid ALT '" + line.substring(start, end) + "' on " + m_chromosome + ":" +
+            m_position);
+      }
+    }
+    // skip QUAL
+    start = nextColumn(end + 1, "QUAL") + 1;
+    // INFO is required
+    end = nextColumn(start, "FILTER");
+    split(start, end, ';', m_filters);
+    m_filters.remove("PASS");
+
+    Arrays.fill(m_gt, null);
+    Arrays.fill(m_ad, null);
+    m_numSamples = 0;
+    // skip INFO
+    start = line.indexOf('\t', end + 1);
+    if (start == -1) {
+      return true;
+    }
+    start += 1;
+    end = line.indexOf('\t', start);
+    if (end == -1) {
+      // FORMAT but no samples
+      checkNumSamples(0);
+      return true;
+    }
+    updateFormat(start, end);
+    m_numSamples = m_numHeaderSamples;
+
+    int sampleIdx = 0;
+    start = end + 1;
+    for (int x = 0; x < m_sampleIdxs.length; x += 1) {
+      while (sampleIdx < m_sampleIdxs[x]) {
+        start = line.indexOf('\t', start);
+        if (start == -1) {
+          throw new VcfFormatException("Missing data for sample " + (m_sampleIdxs[x] + 1) + " on " +
+              m_chromosome + ":" + m_position);
+        }
+        start += 1;
+        sampleIdx += 1;
+      }
+      end = line.indexOf('\t', start);
+      if (end == -1) {
+        end = line.length();
+      }
+      m_gt[x] = getSubfield(start, end, m_gtIdx);
+      m_ad[x] = getSubfield(start, end, m_adIdx);
+    }
+    // count the rest of the sample columns
+    int numSamples = sampleIdx + 1;
+    for (int x = line.indexOf('\t', start); x != -1; x = line.indexOf('\t', x + 1)) {
+      numSamples += 1;
+    }
+    checkNumSamples(numSamples);
+    return true;
+  }
+
+
+  private void checkNumSamples(int numSamples) {
+    if (numSamples != m_numHeaderSamples) {
+      throw new VcfFormatException("Expected " + m_numHeaderSamples + " samples but found " + numSamples + " on " +
+          m_chromosome + ":" + m_position);
+    }
+  }
+
+  private static boolean isBases(String allele) {
+    if (allele.isEmpty()) {
+      return false;
+    }
+    for (int x = 0; x < allele.length(); x += 1) {
+      switch (allele.charAt(x)) {
+        case 'A', 'C', 'G', 'T', 'N', 'a', 'c', 'g', 't', 'n' -> {
+        }
+        default -> {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Gets the end of the column starting at {@code start}, which must not be the last column.
+   */
+  private int nextColumn(int start, String column) {
+    int end = m_line.indexOf('\t', start);
+    if (end == -1) {
+      throw new VcfFormatException("Missing columns after " + column + " in line: " + m_line);
+    }
+    return end;
+  }
+
+  /**
+   * Splits a column into {@code values}, treating "." as empty.
+   */
+  private void split(int start, int end, char delimiter, List<String> values) {
+    values.clear();
+    if (end - start == 1 && m_line.charAt(start) == '.') {
+      return;
+    }
+    int valueStart = start;
+    for (int x = start; x <= end; x += 1) {
+      if (x == end || m_line.charAt(x) == delimiter) {
+        values.add(m_line.substring(valueStart, x));
+        valueStart = x + 1;
+      }
+    }
+  }
+
+  private void updateFormat(int start, int end) {
+    if (m_format != null && m_format.length() == end - start && m_line.startsWith(m_format, start)) {
+      return;
+    }
+    m_format = m_line.substring(start, end);
+    m_gtIdx = -1;
+    m_adIdx = -1;
+    int idx = 0;
+    int keyStart = 0;
+    for (int x = 0; x <= m_format.length(); x += 1) {
+      if (x == m_format.length() || m_format.charAt(x) == ':') {
+        int length = x - keyStart;
+        if (length == 2 && m_format.startsWith("GT", keyStart)) {
+          m_gtIdx = idx;
+        } else if (length == 2 && m_format.startsWith("AD", keyStart)) {
+          m_adIdx = idx;
+        }
+        idx += 1;
+        keyStart = x + 1;
+      }
+    }
+  }
+
+  /**
+   * Gets the {@code idx}-th colon-delimited field in a sample column.
+   */
+  private @Nullable String getSubfield(int start, int end, int idx) {
+    if (idx == -1) {
+      return null;
+    }
+    int fieldStart = start;
+    for (int x = 0; x < idx; x += 1) {
+      int colon = m_line.indexOf(':', fieldStart);
+      if (colon == -1 || colon >= end) {
+        return null;
+      }
+      fieldStart = colon + 1;
+    }
+    int fieldEnd = m_line.indexOf(':', fieldStart);
+    if (fieldEnd == -1 || fieldEnd > end) {
+      fieldEnd = end;
+    }
+    return m_line.substring(fieldStart, fieldEnd);
+  }
+
+
+  String getChromosome() {
+    return m_chromosome;
+  }
+
+  long getPosition() {
+    return m_position;
+  }
+
+  String getRef() {
+    return m_ref;
+  }
+
+  List<String> getAltBases() {
+    return m_altBases;
+  }
+
+  /**
+   * Gets allele by GT index (0 is REF, 1 is the first ALT, etc.).
+   */
+  String getAllele(int idx) {
+    if (idx == 0) {
+      return m_ref;
+    }
+    return m_altBases.get(idx - 1);
+  }
+
+  /**
+   * Gets filters, not including {@code PASS}.
+   */
+  List<String> getFilters() {
+    return m_filters;
+  }
+
+  /**
+   * Gets the number of samples on this line (0 if there are no sample columns).
+   */
+  int getNumSamples() {
+    return m_numSamples;
+  }
+
+  /**
+   * Gets the GT field for the specified sample, which must have been requested in the constructor.
+   */
+  @Nullable String getGt(int sampleIdx) {
+    return m_gt[slot(sampleIdx)];
+  }
+
+  /**
+   * Gets the AD field for the specified sample, which must have been requested in the constructor.
+   */
+  @Nullable String getAd(int sampleIdx) {
+    return m_ad[slot(sampleIdx)];
+  }
+
+  private int slot(int sampleIdx) {
+    int slot = Arrays.binarySearch(m_sampleIdxs, sampleIdx);
+    Preconditions.checkArgument(slot >= 0, "Sample %s was not requested", sampleIdx);
+    return slot;
+  }
+}
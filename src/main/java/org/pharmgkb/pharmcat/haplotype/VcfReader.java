@@ -7,11 +7,13 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -24,13 +26,10 @@
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.common.comparator.ChromosomePositionComparator;
 import org.pharmgkb.parser.vcf.VcfFormatException;
-import org.pharmgkb.parser.vcf.VcfLineParser;
 import org.pharmgkb.parser.vcf.VcfParser;
 import org.pharmgkb.parser.vcf.model.ContigMetadata;
 import org.pharmgkb.parser.vcf.model.FormatMetadata;
 import org.pharmgkb.parser.vcf.model.VcfMetadata;
-import org.pharmgkb.parser.vcf.model.VcfPosition;
-import org.pharmgkb.parser.vcf.model.VcfSample;
 import org.pharmgkb.pharmcat.VcfFile;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
 import org.pharmgkb.pharmcat.definition.model.VariantLocus;
@@ -44,11 +43,9 @@
  *
  * @author Mark Woon
  */
-public class VcfReader implements VcfLineParser {
+public class VcfReader {
   public static final String MSG_AD_FORMAT_MISSING = "AD format is not defined.  Assuming AD field is valid.";
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-  private static final Pattern sf_gtDelimiter = Pattern.compile("[|/]");
-  private static final Pattern sf_noCallPattern = Pattern.compile("^[.|/]+$");
   private static final Pattern sf_allelePattern = Pattern.compile("^[AaCcGgTt]+$");
   private static final String sf_filterCodeRef = "PCATxREF";
   private static final String sf_filterCodeAlt = "PCATxALT";
@@ -67,6 +64,16 @@ public class VcfReader implements VcfLineParser {
   private final SortedMap<String, SampleAllele> m_alleleMap = new TreeMap<>(ChromosomePositionComparator.getComparator());
   // <chr:position, warning>
   private final SortedSetMultimap<String, String> m_warnings = TreeMultimap.create();
+  /** Scratch space for parsing lines. */
+  private final GenotypeDecoder m_genotypeDecoder = new GenotypeDecoder();
+  private final Set<String> m_undocumentedVariations = new HashSet<>();
+  /** Per-sample readers, only used when reading multiple samples in a single pass. */
+  private final @Nullable List<VcfReader> m_sampleReaders;
+  /** Error encountered while reading data for this sample (only tracked when reading multiple samples). */
+  private RuntimeException m_readException;
+  /** Compact storage for sample data, only used when reading multiple samples in a single pass. */
+  private @Nullable GenotypeMatrix m_genotypeMatrix;
+  private int m_genotypeMatrixIdx = -1;
 
 
   /**
@@ -80,6 +87,7 @@ public VcfReader(DefinitionReader definitionReader, BufferedReader vcfReader, @N
     m_sampleId = sampleId;
     m_useSpecificSample = m_sampleId != null;
     m_findCombinations = findCombinations;
+    m_sampleReaders = null;
     read(vcfReader);
   }
 
@@ -94,6 +102,7 @@ public VcfReader(DefinitionReader definitionReader, Path vcfFile) throws IOExcep
     m_sampleId = null;
     m_useSpecificSample = false;
     m_findCombinations = false;
+    m_sampleReaders = null;
     read(vcfFile);
   }
 
@@ -107,9 +116,70 @@ public VcfReader(DefinitionReader definitionReader, Path vcfFile) throws IOExcep
     m_sampleId = null;
     m_useSpecificSample = false;
     m_findCombinations = false;
+    m_sampleReaders = null;
     read(vcfFile);
   }
 
+  /**
+   * Constructor for reading multiple samples in a single pass.
+   * This reader only dispatches VCF lines to per-sample readers.
+   */
+  private VcfReader(DefinitionReader definitionReader, Collection<String> sampleIds, boolean findCombinations) {
+    m_locationsOfInterest = definitionReader.getLocationsOfInterest();
+    m_locationsByGene = definitionReader.getLocationsByGene();
+    m_sampleId = null;
+    m_useSpecificSample = true;
+    m_findCombinations = findCombinations;
+    m_genotypeMatrix = new GenotypeMatrix(m_locationsOfInterest, sampleIds.size());
+    List<VcfReader> sampleReaders = new ArrayList<>();
+    for (String sampleId : sampleIds) {
+      sampleReaders.add(new VcfReader(this, sampleId, sampleReaders.size()));
+    }
+    m_sampleReaders = sampleReaders;
+  }
+
+  /**
+   * Constructor for a single sample when reading multiple samples in a single pass.
+   */
+  private VcfReader(VcfReader parent, String sampleId, int genotypeMatrixIdx) {
+    m_locationsOfInterest = parent.m_locationsOfInterest;
+    m_locationsByGene = parent.m_locationsByGene;
+    m_sampleId = sampleId;
+    m_useSpecificSample = true;
+    m_findCombinations = parent.m_findCombinations;
+    m_sampleReaders = null;
+    m_genotypeMatrix = parent.m_genotypeMatrix;
+    m_genotypeMatrixIdx = genotypeMatrixIdx;
+  }
+
+
+  /**
+   * Reads VCF data via reader and pulls alleles for positions of interest for all specified samples.
+   * Each line of the VCF is only parsed once, no matter how many samples are requested.
+   * <p>
+   * Samples that run into errors while being read are not included in the results.  Reading such a sample on its own
+   * will reproduce the error.
+   *
+   * @return map of sample ID to {@link VcfReader} for that sample
+   */
+  public static Map<String, VcfReader> readSamples(DefinitionReader definitionReader, BufferedReader vcfReader,
+      Collection<String> sampleIds, boolean findCombinations) throws IOException {
+    Preconditions.checkNotNull(sampleIds);
+    Preconditions.checkArgument(!sampleIds.isEmpty(), "No samples specified");
+
+    VcfReader multiReader = new VcfReader(definitionReader, sampleIds, findCombinations);
+    multiReader.read(vcfReader);
+    Map<String, VcfReader> readers = new LinkedHashMap<>();
+    for (VcfReader reader : Objects.requireNonNull(multiReader.m_sampleReaders)) {
+      if (reader.m_readException != null) {
+        sf_logger.debug("Error reading sample {}", reader.getSampleId(), reader.m_readException);
+        continue;
+      }
+      readers.put(reader.getSampleId(), reader);
+    }
+    return readers;
+  }
+
 
   public @Nullable String getSampleId() {
     return m_sampleId;
@@ -136,9 +206,37 @@ public VcfMetadata getVcfMetadata() {
    * @return map of {@code <chr:position, SampleAllele>}
    */
   public SortedMap<String, SampleAllele> getAlleleMap() {
+    if (m_genotypeMatrix != null) {
+      m_alleleMap.putAll(m_genotypeMatrix.getAlleleMap(m_genotypeMatrixIdx));
+      m_genotypeMatrix = null;
+    }
     return m_alleleMap;
   }
 
+  /**
+   * Counts the positions where the sample has data that is not effectively phased.  Unlike {@link #getAlleleMap()}, this
+   * does not need to unpack the sample's data if it is in a {@link GenotypeMatrix}.
+   *
+   * @param groups map of {@code <chr:position>} to the group to count it under (e.g. gene); positions that are not in
+   * this map are not counted
+   * @return map of group to count
+   */
+  public Map<String, Integer> countUnphased(Map<String, String> groups) {
+    if (m_genotypeMatrix != null) {
+      return m_genotypeMatrix.countUnphased(m_genotypeMatrixIdx, groups);
+    }
+    Map<String, Integer> counts = new HashMap<>();
+    for (SampleAllele sampleAllele : m_alleleMap.values()) {
+      if (!sampleAllele.isEffectivelyPhased()) {
+        String group = groups.get(sampleAllele.getChrPosition());
+        if (group != null) {
+          counts.merge(group, 1, Integer::sum);
+        }
+      }
+    }
+    return counts;
+  }
+
 
   /**
    * Gets warnings from reading data, keyed to chromosomal position.
@@ -162,51 +260,94 @@ private void read(Path vcfFile) throws IOException {
 
   /**
    * Read VCF data via reader.
+   * <p>
+   * The header is parsed by {@link VcfParser}, but data lines are handled by {@link VcfLineTokenizer} so that only the
+   * columns for the samples we are reading get parsed.  Lines that are not at positions of interest are dropped by
+   * {@link PositionFilter} before that.
    */
   private void read(BufferedReader reader) throws IOException {
     // read VCF file
     try (VcfParser vcfParser = new VcfParser.Builder()
         .fromReader(reader)
-        .parseWith(this)
+        .parseWith((metadata, position, sampleData) -> {
+          // data lines are parsed by VcfLineTokenizer
+        })
         .build()) {
       m_vcfMetadata = vcfParser.parseMetadata();
-      FormatMetadata adFormat = m_vcfMetadata.getFormats().get("AD");
-      if (adFormat != null) {
-        m_adFormatDefined = true;
-        String number = adFormat.getPropertiesRaw().get("Number");
-        if (!"R".equals(number)) {
-          m_useAdFormat = false;
-          if (!".".equals(number)) {
-            addWarning("VCF", "INFO header for AD has unexpected number (" + number +
-                "). Expecting 'R'. Treating number as '.' and ignoring AD field.");
-          }
+      // AD is always read from the first sample
+      Set<Integer> sampleIdxs = new HashSet<>();
+      sampleIdxs.add(0);
+      if (m_sampleReaders != null) {
+        for (VcfReader sampleReader : m_sampleReaders) {
+          sampleReader.initialize(m_vcfMetadata);
+          sampleIdxs.add(sampleReader.m_sampleIdx);
         }
+      } else {
+        initialize(m_vcfMetadata);
+        sampleIdxs.add(m_sampleIdx);
       }
-      if (m_useSpecificSample) {
-        for (int x = 0; x < m_vcfMetadata.getNumSamples(); x += 1) {
-          if (m_sampleId.equals(m_vcfMetadata.getSampleName(x))) {
-            m_sampleIdx = x;
-            break;
-          }
+
+      VcfLineTokenizer tokenizer = new VcfLineTokenizer(m_vcfMetadata.getNumSamples(), sampleIdxs);
+      // skip lines that aren't at positions of interest without tokenizing them
+      PositionFilter filter = m_locationsOfInterest == null ? null :
+          new PositionFilter(m_locationsOfInterest.values());
+      long numSkipped = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (filter != null && !filter.accept(line)) {
+          numSkipped += 1;
+          continue;
         }
-        if (m_sampleIdx == -1) {
-          throw new IllegalStateException("Cannot find sample '" + m_sampleId + "'");
+        if (tokenizer.tokenize(line)) {
+          parseLine(tokenizer);
         }
-      } else {
-        m_sampleId = m_vcfMetadata.getSampleName(0);
-        m_sampleIdx = 0;
       }
-      for (ContigMetadata cm : m_vcfMetadata.getContigs().values()) {
-        if (cm.getAssembly() != null) {
-          if (m_genomeBuild == null) {
-            m_genomeBuild = cm.getAssembly();
-          } else if (!m_genomeBuild.equals(cm.getAssembly())) {
-            throw new IllegalStateException("VCF file uses different assemblies (" + m_genomeBuild + " vs " +
-                cm.getAssembly() + " for contig)");
-          }
+      if (numSkipped > 0) {
+        sf_logger.debug("Skipped {} lines that are not at positions of interest", numSkipped);
+      }
+    }
+  }
+
+  /**
+   * Initializes reader based on VCF metadata.
+   */
+  private void initialize(VcfMetadata vcfMetadata) {
+    m_vcfMetadata = vcfMetadata;
+    FormatMetadata adFormat = m_vcfMetadata.getFormats().get("AD");
+    if (adFormat != null) {
+      m_adFormatDefined = true;
+      String number = adFormat.getPropertiesRaw().get("Number");
+      if (!"R".equals(number)) {
+        m_useAdFormat = false;
+        if (!".".equals(number)) {
+          addWarning("VCF", "INFO header for AD has unexpected number (" + number +
+              "). Expecting 'R'. Treating number as '.' and ignoring AD field.");
+        }
+      }
+    }
+    if (m_useSpecificSample) {
+      for (int x = 0; x < m_vcfMetadata.getNumSamples(); x += 1) {
+        if (m_sampleId.equals(m_vcfMetadata.getSampleName(x))) {
+          m_sampleIdx = x;
+          break;
+        }
+      }
+      if (m_sampleIdx == -1) {
+        throw new IllegalStateException("Cannot find sample '" + m_sampleId + "'");
+      }
+    } else {
+      m_sampleId = m_vcfMetadata.getSampleName(0);
+      m_sampleIdx = 0;
+    }
+    for (ContigMetadata cm : m_vcfMetadata.getContigs().values()) {
+      if (cm.getAssembly() != null) {
+        if (m_genomeBuild == null) {
+          m_genomeBuild = cm.getAssembly();
+        } else if (!m_genomeBuild.equals(cm.getAssembly())) {
+          throw new IllegalStateException("VCF file uses different assemblies (" + m_genomeBuild + " vs " +
+              cm.getAssembly() + " for contig)");
         }
       }
-      vcfParser.parse();
     }
   }
 
@@ -216,19 +357,49 @@ private void addWarning(String chrPos, String msg) {
   }
 
 
-  @Override
-  public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample> sampleData) {
+  private void parseLine(VcfLineTokenizer position) {
 
     String chrPos = position.getChromosome() + ":" + position.getPosition();
 
-    if (sampleData.isEmpty()) {
+    if (m_sampleReaders != null) {
+      if (position.getNumSamples() > 0 && m_locationsOfInterest != null &&
+          !m_locationsOfInterest.containsKey(chrPos)) {
+        sf_logger.warn("Ignoring {}", chrPos);
+        return;
+      }
+      for (VcfReader sampleReader : m_sampleReaders) {
+        if (sampleReader.m_readException != null) {
+          continue;
+        }
+        try {
+          sampleReader.parseSample(position, chrPos);
+        } catch (RuntimeException ex) {
+          // don't let one bad sample prevent other samples from being read
+          sampleReader.m_readException = ex;
+        }
+      }
+      return;
+    }
+    parseSample(position, chrPos);
+  }
+
+  /**
+   * Parses data for this reader's sample from the current line.
+   */
+  private void parseSample(VcfLineTokenizer position, String chrPos) {
+
+    if (position.getNumSamples() == 0) {
       sf_logger.warn("Missing sample data on {}", chrPos);
       return;
     }
 
-    String gt = sampleData.get(m_sampleIdx).getProperty("GT");
+    String gt = position.getGt(m_sampleIdx);
+    boolean isNoCall = gt == null || GenotypeDecoder.isNoCall(gt);
+    GenotypeDecoder genotype = m_genotypeDecoder;
+    boolean isDecoded = false;
     VariantLocus varLoc;
-    Set<String> undocumentedVariations = new HashSet<>();
+    Set<String> undocumentedVariations = m_undocumentedVariations;
+    undocumentedVariations.clear();
     if (m_locationsOfInterest != null) {
       varLoc = m_locationsOfInterest.get(chrPos);
       if (varLoc == null) {
@@ -244,22 +415,29 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
             ") but this does not match current data.  Was the VCF preprocessed with a different version of PharmCAT?");
       }
 
-      Set<Integer> gtCalls = new HashSet<>();
-      if (gt != null && !sf_noCallPattern.matcher(gt).matches()) {
-        Arrays.stream(sf_gtDelimiter.split(gt))
-            .filter(a -> !a.equals("."))
-            .map(Integer::parseInt)
-            .forEach(gtCalls::add);
+      if (!isNoCall) {
+        genotype.decodeGt(gt);
+        isDecoded = true;
       }
 
-      // strip out structural alts (e.g. <*>)
-      List<String> altBases = position.getAltBases().stream()
-          .filter(a -> !a.startsWith("<"))
-          .toList();
-      boolean expectMultiBase = varLoc.getAlts().stream().anyMatch(a -> a.length() > 1);
-      boolean hasMultiBase = altBases.stream().anyMatch(a -> a.length() > 1);
+      // ignore structural alts (e.g. <*>)
+      int numAltBases = 0;
+      boolean hasMultiBase = false;
+      for (String alt : position.getAltBases()) {
+        if (!alt.startsWith("<")) {
+          numAltBases += 1;
+          hasMultiBase = hasMultiBase || alt.length() > 1;
+        }
+      }
+      boolean expectMultiBase = false;
+      for (String alt : varLoc.getAlts()) {
+        if (alt.length() > 1) {
+          expectMultiBase = true;
+          break;
+        }
+      }
       if (expectMultiBase && !hasMultiBase) {
-        if (altBases.isEmpty()) {
+        if (numAltBases == 0) {
           addWarning(chrPos, "Genotype at this position has no ALT allele and an indel or repeat is expected. " +
               "PharmCAT cannot validate this position");
         } else {
@@ -268,12 +446,14 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
               String.join("/", varLoc.getAlts()) + ")");
         }
       } else {
-        for (int x = 0; x < altBases.size(); x += 1) {
-          if (gtCalls.contains(x + 1)) {
-            String alt = altBases.get(x);
-            if (!varLoc.getAlts().contains(alt)) {
-              undocumentedVariations.add(alt);
-            }
+        int altIdx = 0;
+        for (String alt : position.getAltBases()) {
+          if (alt.startsWith("<")) {
+            continue;
+          }
+          altIdx += 1;
+          if (isDecoded && genotype.contains(altIdx) && !varLoc.getAlts().contains(alt)) {
+            undocumentedVariations.add(alt);
           }
         }
         if (!undocumentedVariations.isEmpty()) {
@@ -288,7 +468,7 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
             msgBuilder.append(".  Undocumented variations will be replaced with reference.");
           }
           addWarning(chrPos, msgBuilder.toString());
-        } else if (position.getFilters().contains(sf_filterCodeAlt) && sampleData.size() == 1) {
+        } else if (position.getFilters().contains(sf_filterCodeAlt) && position.getNumSamples() == 1) {
           addWarning(chrPos, "PharmCAT preprocessor detected ALT mismatch (filter " + sf_filterCodeAlt +
               ") but this does not match current data (expected " + String.join("/", varLoc.getAlts()) +
               " and got " + String.join("/", position.getAltBases()) +
@@ -310,12 +490,12 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
         addWarning(chrPos, "Genotype at this position uses unexpected format for INDEL");
       }
     }
-    if (m_alleleMap.containsKey(chrPos)) {
+    if (hasSampleAllele(chrPos)) {
       addWarning(chrPos, "Duplicate entry: first valid position wins");
       return;
     }
 
-    if (sampleData.size() > 1 && !m_useSpecificSample) {
+    if (position.getNumSamples() > 1 && !m_useSpecificSample) {
       addWarning(chrPos, "Multiple samples found, only using first entry.");
     }
 
@@ -323,17 +503,15 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
       addWarning(chrPos, "Ignoring: no genotype");
       return;
     }
-    if (sf_noCallPattern.matcher(gt).matches()) {
+    if (isNoCall) {
       addWarning(chrPos, "Ignoring: no call (" + gt + ")");
       return;
     }
     // already filtered out no-calls, guaranteed to have at least 1 GT here
-    String[] gtArray = sf_gtDelimiter.split(gt);
-    int[] alleleIndices = Arrays.stream(gtArray)
-        .filter(a -> !a.equals("."))
-        .mapToInt(Integer::parseInt)
-        .toArray();
-    boolean isHaploid = gtArray.length == 1;
+    if (!isDecoded) {
+      genotype.decodeGt(gt);
+    }
+    boolean isHaploid = genotype.isHaploid();
 
     // normalize alleles to use the same syntax as haplotype definition
     List<String> alleles = new ArrayList<>();
@@ -348,10 +526,9 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
 
     } else {
       String gt1 = position.getAllele(0);
-      List<Integer> selected = Arrays.stream(alleleIndices).boxed().toList();
       for (int x = 1; x <= position.getAltBases().size(); x += 1) {
         String gt2 = position.getAllele(x);
-        boolean isSelected = selected.contains(x);
+        boolean isSelected = genotype.contains(x);
         if (!validateAlleles(chrPos, gt1, gt2, isSelected)) {
           return;
         }
@@ -374,7 +551,7 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
 
     if (m_useAdFormat) {
       // reference: https://gatk.broadinstitute.org/hc/en-us/articles/360035531692-VCF-Variant-Call-Format
-      String allelicDepth = sampleData.get(0).getProperty("AD");
+      String allelicDepth = position.getAd(0);
       if (allelicDepth != null) {
         if (!m_adFormatDefined) {
           addWarning("VCF", MSG_AD_FORMAT_MISSING);
@@ -383,45 +560,38 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
           // try to catch reference overlap style VCF where
           // VCF always specifies heterozygous GT and uses AD field to determine actual alleles
           // see https://github.com/PharmGKB/PharmCAT/issues/90 for example
-          try {
-            List<Integer> depths = Arrays.stream(allelicDepth.split(","))
-                .filter(a -> !a.equals("."))
-                .map(Integer::parseInt)
-                .toList();
-            Map<Integer, Integer> genotype = new HashMap<>();
-            Arrays.stream(alleleIndices)
-                .forEach(g -> genotype.merge(g, 1, Integer::sum));
-            // GT is het, but AD is not (only one side has any reads)
-            if (genotype.size() != 1 && depths.stream().filter(d -> d > 0).count() == 1) {
-              addWarning(chrPos, "Discarding genotype at this position because GT field indicates heterozygous (" +
-                  gt + ") but AD field indicates homozygous (" + allelicDepth + ")");
-              return;
-            }
-          } catch (NumberFormatException ex) {
+          int numDepths = GenotypeDecoder.countPositiveDepths(allelicDepth);
+          if (numDepths == -1) {
             addWarning(chrPos, "Invalid allelic depth (AD) field: " + allelicDepth);
+          } else if (genotype.getNumDistinctAlleles() != 1 && numDepths == 1) {
+            // GT is het, but AD is not (only one side has any reads)
+            addWarning(chrPos, "Discarding genotype at this position because GT field indicates heterozygous (" +
+                gt + ") but AD field indicates homozygous (" + allelicDepth + ")");
+            return;
           }
         }
       }
     }
 
-    for (int alleleIdx : alleleIndices) {
+    for (int x = 0; x < genotype.getNumAlleles(); x += 1) {
+      int alleleIdx = genotype.getAllele(x);
       if (alleleIdx >= alleles.size()) {
         throw new VcfFormatException("Invalid GT allele value (" + alleleIdx + ") for " + chrPos +
             " (only " + (alleles.size() - 1) + " ALT allele" + (alleles.size() > 1 ? "s" : "") + " specified)");
       }
     }
 
-    String a1 = alleles.get(alleleIndices[0]);
+    String a1 = alleles.get(genotype.getAllele(0));
     String a2 = isHaploid ? null : ".";
-    if (alleleIndices.length > 1) {
-      a2 = alleles.get(alleleIndices[1]);
-      if (alleleIndices.length > 2) {
-        addWarning(chrPos, alleleIndices.length + " genotypes found.  Only using first 2 genotypes.");
+    if (genotype.getNumAlleles() > 1) {
+      a2 = alleles.get(genotype.getAllele(1));
+      if (genotype.getNumAlleles() > 2) {
+        addWarning(chrPos, genotype.getNumAlleles() + " genotypes found.  Only using first 2 genotypes.");
       }
     } else if (!position.getChromosome().equals("chrM") &&
         !position.getChromosome().equals("chrY") &&
         !position.getChromosome().equals("chrX")) {
-      if (alleleIndices[0] == 0) {
+      if (genotype.getAllele(0) == 0) {
         // treating "./0" like any other missing position
         addWarning(chrPos, "Ignoring: only a single genotype found.  " +
             "Since it's reference, treating this as a missing position.");
@@ -434,7 +604,7 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
     // genotype divided by "|" if phased and "/" if unphased
     boolean isPhased = true;
     boolean isEffectivelyPhased = true;
-    if (gt.contains("/")) {
+    if (genotype.isUnphased()) {
       isPhased = false;
       // we'll also treat homozygous as phased
        if (a2 != null && !a1.equalsIgnoreCase(a2)) {
@@ -449,7 +619,18 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
     boolean treatUndocumentedAsReference = m_locationsByGene != null && treatAsReference(chrPos);
     SampleAllele sampleAllele = new SampleAllele(position.getChromosome(), position.getPosition(), a1, a2, isPhased,
         isEffectivelyPhased, vcfAlleles, undocumentedVariations, treatUndocumentedAsReference);
-    m_alleleMap.put(chrPos, sampleAllele);
+    if (m_genotypeMatrix != null) {
+      m_genotypeMatrix.set(m_genotypeMatrixIdx, chrPos, sampleAllele);
+    } else {
+      m_alleleMap.put(chrPos, sampleAllele);
+    }
+  }
+
+  private boolean hasSampleAllele(String chrPos) {
+    if (m_genotypeMatrix != null) {
+      return m_genotypeMatrix.hasData(m_genotypeMatrixIdx, m_genotypeMatrix.getPositionIndex(chrPos));
+    }
+    return m_alleleMap.containsKey(chrPos);
   }
 
 
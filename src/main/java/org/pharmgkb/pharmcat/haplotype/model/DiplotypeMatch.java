@@ -52,6 +52,18 @@ public DiplotypeMatch(BaseMatch hm1, @Nullable BaseMatch hm2, MatchData dataset)
     m_dataset = dataset;
   }
 
+  /**
+   * Copy constructor, for reusing a match with another sample that has the same genotypes.
+   */
+  public DiplotypeMatch(DiplotypeMatch match, MatchData dataset) {
+    m_haplotype1 = match.getHaplotype1();
+    m_haplotype2 = match.getHaplotype2();
+    m_name = match.getName();
+    m_score = match.getScore();
+    m_sequences.addAll(match.getSequences());
+    m_dataset = dataset;
+  }
+
   public String getName() {
     return m_name;
   }
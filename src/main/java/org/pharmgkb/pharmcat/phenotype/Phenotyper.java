@@ -1,10 +1,8 @@
 package org.pharmgkb.pharmcat.phenotype;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -143,19 +141,43 @@ public Optional<GeneReport> findGeneReport(DataSource source, String geneSymbol)
    * @throws IOException can occur from writing the file to the filesystem
    */
   public void write(Path outputPath) throws IOException {
-    try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
-      writer.write(DataSerializer.GSON.toJson(this));
-      sf_logger.info("Writing Phenotyper JSON to " + outputPath);
-    }
+    write(outputPath, false);
   }
 
   /**
-   * Read in {@link Phenotyper} data.
+   * Writes out {@link Phenotyper} data.
+   *
+   * @param outputPath the path to write a JSON file of data to (gzip-compressed if it ends with {@code .gz})
+   * @param compact true to write JSON without pretty printing
+   * @throws IOException can occur from writing the file to the filesystem
+   */
+  public void write(Path outputPath, boolean compact) throws IOException {
+    sf_logger.info("Writing Phenotyper JSON to " + outputPath);
+    DataSerializer.toJson(this, outputPath, compact);
+  }
+
+  /**
+   * Writes out {@link Phenotyper} data in PharmCAT's binary format, which is faster to read back in than JSON.
+   *
+   * @param outputPath the path to write the binary file to
+   * @throws IOException can occur from writing the file to the filesystem
+   */
+  public void writeBinary(Path outputPath) throws IOException {
+    sf_logger.info("Writing Phenotyper binary to " + outputPath);
+    DataSerializer.toBinary(this, outputPath);
+  }
+
+  /**
+   * Read in {@link Phenotyper} data from JSON, or from PharmCAT's binary format if the file name ends with
+   * {@link DataSerializer#BINARY_EXTENSION}.
    */
   public static Phenotyper read(Path filePath) throws IOException {
     Preconditions.checkNotNull(filePath);
     Preconditions.checkArgument(Files.isRegularFile(filePath));
-    try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+    if (DataSerializer.isBinaryFile(filePath)) {
+      return DataSerializer.fromBinary(filePath, Phenotyper.class);
+    }
+    try (BufferedReader reader = DataSerializer.newJsonReader(filePath)) {
       return DataSerializer.GSON.fromJson(reader, Phenotyper.class);
     }
   }
@@ -0,0 +1,106 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.common.base.Preconditions;
+import org.pharmgkb.pharmcat.reporter.model.DataSource;
+import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
+
+
+/**
+ * A cache of {@link Haplotype}s, keyed by source, gene and allele name.
+ * <p>
+ * Lookups of haplotypes that have already been made do not lock, so this can be shared by all the pipelines in a
+ * batch run.  Each haplotype is only ever made once.
+ * <p>
+ * This also keeps track of how often it had to make a haplotype and how often threads raced to make the same one, to
+ * make contention easy to spot.
+ */
+public class HaplotypeCache {
+  private final ConcurrentMap<Key, Haplotype> m_cache = new ConcurrentHashMap<>();
+  private final Factory m_factory;
+  private final LongAdder m_hits = new LongAdder();
+  private final LongAdder m_misses = new LongAdder();
+  private final LongAdder m_races = new LongAdder();
+
+
+  /**
+   * Makes new {@link Haplotype}s for the cache.
+   */
+  @FunctionalInterface
+  public interface Factory {
+    Haplotype make(String gene, String name, DataSource source);
+  }
+
+  private record Key(DataSource source, String gene, String name) {
+  }
+
+
+  public HaplotypeCache(Factory factory) {
+    Preconditions.checkNotNull(factory);
+    m_factory = factory;
+  }
+
+
+  /**
+   * Gets the cached {@link Haplotype}, making it if necessary.
+   */
+  public Haplotype get(String gene, String name, DataSource source) {
+    Key key = new Key(source, gene, name);
+    Haplotype haplotype = m_cache.get(key);
+    if (haplotype != null) {
+      m_hits.increment();
+      return haplotype;
+    }
+    boolean[] made = new boolean[1];
+    haplotype = m_cache.computeIfAbsent(key, k -> {
+      made[0] = true;
+      return m_factory.make(k.gene(), k.name(), k.source());
+    });
+    if (made[0]) {
+      m_misses.increment();
+    } else {
+      // another thread made it after our first lookup
+      m_races.increment();
+    }
+    return haplotype;
+  }
+
+
+  /**
+   * Gets the number of haplotypes in the cache.
+   */
+  public int size() {
+    return m_cache.size();
+  }
+
+  /**
+   * Gets the number of lookups that found a haplotype without locking.
+   */
+  public long getHits() {
+    return m_hits.sum();
+  }
+
+  /**
+   * Gets the number of haplotypes that had to be made.
+   */
+  public long getMisses() {
+    return m_misses.sum();
+  }
+
+  /**
+   * Gets the number of lookups that missed but found the haplotype had been made by another thread by the time they
+   * tried to make it.
+   */
+  public long getRaces() {
+    return m_races.sum();
+  }
+
+
+  @Override
+  public String toString() {
+    return "Haplotype cache: " + getHits() + " hits, " + getMisses() + " misses, " + getRaces() + " races, " +
+        size() + " entries";
+  }
+}
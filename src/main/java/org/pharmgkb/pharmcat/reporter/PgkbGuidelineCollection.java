@@ -5,11 +5,17 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -28,7 +34,14 @@ public class PgkbGuidelineCollection {
 
   private final List<GuidelinePackage> f_guidelinePackages = new ArrayList<>();
   private final SortedSetMultimap<String,GuidelinePackage> f_guidelineMap = TreeMultimap.create(String::compareToIgnoreCase, Comparator.naturalOrder());
-  private SortedSet<String> m_genes;
+  // lookup tables, built once on load because they are used for every sample
+  private final Map<DataSource, Set<GuidelinePackage>> f_guidelinesBySource = new EnumMap<>(DataSource.class);
+  private final Map<DataSource, Set<String>> f_chemicalsBySource = new EnumMap<>(DataSource.class);
+  private final Map<DataSource, SortedSet<String>> f_genesBySource = new EnumMap<>(DataSource.class);
+  private final Map<DataSource, Set<String>> f_geneLookupBySource = new EnumMap<>(DataSource.class);
+  private final Map<DataSource, SortedMap<String, List<GuidelinePackage>>> f_chemicalGuidelinesBySource =
+      new EnumMap<>(DataSource.class);
+  private final SortedSet<String> f_genesWithRecommendations;
 
 
   public PgkbGuidelineCollection() throws IOException {
@@ -48,12 +61,52 @@ public PgkbGuidelineCollection(Path dir) throws IOException {
     for (Path guidelineFile : annotationFiles) {
       try (BufferedReader br = Files.newBufferedReader(guidelineFile)) {
         GuidelinePackage guidelinePackage = DataSerializer.GSON.fromJson(br, GuidelinePackage.class);
+        // build the index up front so that reports don't have to scan recommendations
+        guidelinePackage.getRecommendationIndex();
         f_guidelinePackages.add(guidelinePackage);
         for (AccessionObject chemical : guidelinePackage.getGuideline().getRelatedChemicals()) {
           f_guidelineMap.put(chemical.getName(), guidelinePackage);
         }
       }
     }
+
+    for (DataSource source : DataSource.values()) {
+      Set<GuidelinePackage> guidelines = f_guidelineMap.values().stream()
+          .filter(g -> g.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
+          .collect(Collectors.toCollection(LinkedHashSet::new));
+      f_guidelinesBySource.put(source, Collections.unmodifiableSet(guidelines));
+
+      f_chemicalsBySource.put(source, guidelines.stream()
+          .flatMap(g -> g.getGuideline().getRelatedChemicals().stream())
+          .map(AccessionObject::getName)
+          .collect(Collectors.toUnmodifiableSet()));
+
+      SortedSet<String> genes = f_guidelinePackages.stream()
+          .filter(p -> p.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
+          .flatMap(p -> p.getGenes().stream())
+          .filter(Objects::nonNull)
+          .collect(Collectors.toCollection(TreeSet::new));
+      f_genesBySource.put(source, Collections.unmodifiableSortedSet(genes));
+      f_geneLookupBySource.put(source, Set.copyOf(genes));
+
+      SortedMap<String, List<GuidelinePackage>> chemicalGuidelines = new TreeMap<>(String::compareToIgnoreCase);
+      for (String chemical : f_guidelineMap.keySet()) {
+        List<GuidelinePackage> packages = f_guidelineMap.get(chemical).stream()
+            .filter(guidelines::contains)
+            .toList();
+        if (!packages.isEmpty()) {
+          chemicalGuidelines.put(chemical, packages);
+        }
+      }
+      f_chemicalGuidelinesBySource.put(source, Collections.unmodifiableSortedMap(chemicalGuidelines));
+    }
+
+    f_genesWithRecommendations = Collections.unmodifiableSortedSet(f_guidelinePackages.stream()
+        .flatMap(p -> p.getRecommendations().stream())
+        .filter(Objects::nonNull)
+        .filter(r -> r.getLookupKey() != null)
+        .flatMap(r -> r.getLookupKey().keySet().stream())
+        .collect(Collectors.toCollection(TreeSet::new)));
   }
 
   public List<GuidelinePackage> getGuidelinePackages() {
@@ -61,9 +114,15 @@ public List<GuidelinePackage> getGuidelinePackages() {
   }
 
   public List<GuidelinePackage> findGuidelinePackages(String chemicalName, DataSource source) {
-    return f_guidelineMap.get(chemicalName).stream()
-        .filter(p -> p.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
-        .collect(Collectors.toList());
+    return f_chemicalGuidelinesBySource.get(source).getOrDefault(chemicalName, Collections.emptyList());
+  }
+
+  /**
+   * Gets the guidelines from the specified source, keyed by chemical name (case-insensitive).
+   * A guideline will show up under each of its chemicals.
+   */
+  public SortedMap<String, List<GuidelinePackage>> getGuidelinesByChemical(DataSource source) {
+    return f_chemicalGuidelinesBySource.get(source);
   }
 
   public SortedSetMultimap<String,GuidelinePackage> getGuidelineMap() {
@@ -71,36 +130,25 @@ public SortedSetMultimap<String,GuidelinePackage> getGuidelineMap() {
   }
 
   public Set<GuidelinePackage> getGuidelinesFromSource(DataSource dataSource) {
-    return f_guidelineMap.values().stream()
-        .filter(g -> g.getGuideline().getSource().equalsIgnoreCase(dataSource.getPharmgkbName()))
-        .collect(Collectors.toSet());
+    return f_guidelinesBySource.get(dataSource);
   }
 
   public Set<String> getChemicalsUsedInSource(DataSource source) {
-    return f_guidelineMap.values().stream()
-        .map(GuidelinePackage::getGuideline)
-        .filter(g -> g.getSource().equalsIgnoreCase(source.getPharmgkbName()))
-        .flatMap(g -> g.getRelatedChemicals().stream())
-        .map(AccessionObject::getName)
-        .collect(Collectors.toSet());
+    return f_chemicalsBySource.get(source);
   }
 
   public SortedSet<String> getGenesWithRecommendations() {
-    if (m_genes == null) {
-      m_genes = f_guidelinePackages.stream()
-          .flatMap(p -> p.getRecommendations().stream())
-          .filter(Objects::nonNull)
-          .flatMap(r -> r.getLookupKey().keySet().stream())
-          .collect(Collectors.toCollection(TreeSet::new));
-    }
-    return m_genes;
+    return f_genesWithRecommendations;
   }
 
   public SortedSet<String> getGenesUsedInSource(DataSource source) {
-    return f_guidelinePackages.stream()
-        .filter(p -> p.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
-        .flatMap(p -> p.getGenes().stream())
-        .filter(Objects::nonNull)
-        .collect(Collectors.toCollection(TreeSet::new));
+    return f_genesBySource.get(source);
+  }
+
+  /**
+   * Checks if the gene is used in any guideline from the specified source.
+   */
+  public boolean isGeneUsedInSource(DataSource source, String gene) {
+    return f_geneLookupBySource.get(source).contains(gene);
   }
 }
@@ -0,0 +1,98 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.pharmgkb.pharmcat.reporter.model.pgkb.AccessionObject;
+import org.pharmgkb.pharmcat.reporter.model.pgkb.RecommendationAnnotation;
+import org.pharmgkb.pharmcat.reporter.model.result.Genotype;
+
+
+/**
+ * Index of {@link RecommendationAnnotation}s by drug and lookup key, so that finding the recommendations that match a
+ * {@link Genotype} is a few hash lookups instead of a scan over all recommendations.
+ * <p>
+ * Each recommendation is indexed under one (gene, lookup value) entry of its lookup key.  Any lookup key that contains
+ * the recommendation's lookup key must also contain that entry, so probing the index with every entry of a genotype's
+ * lookup keys finds all candidates.  Candidates are then checked with
+ * {@link RecommendationAnnotation#matchesGenotype(Genotype)}'s rules.
+ * <p>
+ * This is immutable and thread-safe once built.
+ */
+public class RecommendationIndex {
+  /** Drug name (lower case) to gene to lookup value to recommendations. */
+  private final Map<String, Map<String, Map<Object, List<RecommendationAnnotation>>>> m_index = new HashMap<>();
+
+
+  public RecommendationIndex(Collection<RecommendationAnnotation> recommendations) {
+    for (RecommendationAnnotation rec : recommendations) {
+      if (rec == null || rec.getRelatedChemicals() == null || rec.getLookupKey() == null ||
+          rec.getLookupKey().isEmpty()) {
+        continue;
+      }
+      // anchor on the first gene, to keep this deterministic
+      String gene = Collections.min(rec.getLookupKey().keySet());
+      Object value = rec.getLookupKey().get(gene);
+      Set<String> drugs = new LinkedHashSet<>();
+      for (AccessionObject chemical : rec.getRelatedChemicals()) {
+        drugs.add(normalizeDrugName(chemical.getName()));
+      }
+      for (String drug : drugs) {
+        m_index.computeIfAbsent(drug, d -> new HashMap<>())
+            .computeIfAbsent(gene, g -> new HashMap<>())
+            .computeIfAbsent(value, v -> new ArrayList<>())
+            .add(rec);
+      }
+    }
+  }
+
+  private static String normalizeDrugName(String drugName) {
+    return drugName.toLowerCase(Locale.ROOT);
+  }
+
+
+  /**
+   * Finds recommendations for the specified drug that match the genotype.
+   */
+  public Set<RecommendationAnnotation> findMatches(String drugName, Genotype genotype) {
+    if (genotype.getLookupKeys() == null) {
+      return Collections.emptySet();
+    }
+    return findMatches(drugName, genotype.getLookupKeys());
+  }
+
+  /**
+   * Finds recommendations for the specified drug that match any of the lookup keys.
+   */
+  public Set<RecommendationAnnotation> findMatches(String drugName, Collection<Map<String, Object>> lookupKeys) {
+    Map<String, Map<Object, List<RecommendationAnnotation>>> geneMap = m_index.get(normalizeDrugName(drugName));
+    if (geneMap == null) {
+      return Collections.emptySet();
+    }
+    Set<RecommendationAnnotation> matches = new LinkedHashSet<>();
+    for (Map<String, Object> lookupKey : lookupKeys) {
+      for (Map.Entry<String, Object> entry : lookupKey.entrySet()) {
+        Map<Object, List<RecommendationAnnotation>> valueMap = geneMap.get(entry.getKey());
+        if (valueMap == null) {
+          continue;
+        }
+        List<RecommendationAnnotation> candidates = valueMap.get(entry.getValue());
+        if (candidates == null) {
+          continue;
+        }
+        for (RecommendationAnnotation rec : candidates) {
+          if (RecommendationUtils.mapContains(lookupKey, rec.getLookupKey())) {
+            matches.add(rec);
+          }
+        }
+      }
+    }
+    return matches;
+  }
+}
@@ -73,12 +73,11 @@ public ReportContext(Env env, SortedMap<DataSource, SortedMap<String, GeneReport
     for (DataSource dataSource : DRUG_REPORT_SOURCES) {
       Map<String, DrugReport> drugReports = m_drugReports.computeIfAbsent(dataSource, (s) -> new TreeMap<>());
       // go through all drugs, we iterate this way because one guideline may have multiple chemicals/drugs
-      for (String drugName : env.getDrugs().getGuidelineMap().keys()) {
-        List<GuidelinePackage> guidelinePackages = env.getDrugs().findGuidelinePackages(drugName, dataSource);
-        if (guidelinePackages != null && guidelinePackages.size() > 0) {
-          DrugReport newDrugReport = new DrugReport(drugName, guidelinePackages, this);
-          drugReports.put(drugName.toLowerCase(), newDrugReport);
-        }
+      for (Map.Entry<String, List<GuidelinePackage>> entry :
+          env.getDrugs().getGuidelinesByChemical(dataSource).entrySet()) {
+        String drugName = entry.getKey();
+        DrugReport newDrugReport = new DrugReport(drugName, entry.getValue(), this);
+        drugReports.put(drugName.toLowerCase(), newDrugReport);
       }
     }
 
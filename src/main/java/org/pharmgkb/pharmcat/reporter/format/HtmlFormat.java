@@ -2,6 +2,7 @@
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -16,6 +17,7 @@
 import java.util.TreeMap;
 import java.util.TreeSet;
 import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Template;
 import com.github.jknack.handlebars.helper.StringHelpers;
 import com.github.jknack.handlebars.io.ClassPathTemplateLoader;
 import com.google.common.collect.HashMultimap;
@@ -76,18 +78,37 @@ public HtmlFormat compact(boolean compact) {
   }
 
 
-  public void write(ReportContext reportContext) throws IOException {
-    Map<String, Object> reportData = compile(reportContext);
-
+  /**
+   * Compiles the Handlebars template for the report.
+   * <p>
+   * This is expensive, so use {@link Env#getReportTemplate()} to get the compiled template instead of calling this
+   * directly.
+   */
+  public static Template compileTemplate() throws IOException {
     Handlebars handlebars = new Handlebars(new ClassPathTemplateLoader(sf_templatePrefix));
     StringHelpers.register(handlebars);
     handlebars.registerHelpers(ReportHelpers.class);
+    return handlebars.compile(sf_handlebarTemplateName);
+  }
+
 
+  public void write(ReportContext reportContext) throws IOException {
+    // compile before opening the file so that a failure does not leave an existing report truncated
+    Map<String, Object> reportData = compile(reportContext);
+    Template template = getEnv().getReportTemplate();
     try (BufferedWriter writer = Files.newBufferedWriter(getOutputPath(), StandardCharsets.UTF_8)) {
-      writer.write(handlebars.compile(sf_handlebarTemplateName).apply(reportData));
+      template.apply(reportData, writer);
     }
   }
 
+  /**
+   * Write the {@link ReportContext} data out to {@code writer} instead of the path from the constructor.
+   */
+  public void write(ReportContext reportContext, Writer writer) throws IOException {
+    Map<String, Object> reportData = compile(reportContext);
+    getEnv().getReportTemplate().apply(reportData, writer);
+  }
+
   /**
    * Make a Map of data that will be used in the final report. This map will be serialized and then applied to the
    * Handlebars template.
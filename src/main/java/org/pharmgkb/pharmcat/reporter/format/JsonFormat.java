@@ -1,9 +1,7 @@
 package org.pharmgkb.pharmcat.reporter.format;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.Writer;
 import java.nio.file.Path;
 import org.pharmgkb.pharmcat.Env;
 import org.pharmgkb.pharmcat.reporter.ReportContext;
@@ -12,17 +10,34 @@
 
 /**
  * A JSON-formatted version of {@link ReportContext} data.
+ * <p>
+ * Output is gzip-compressed if the output path ends with {@code .gz}.
  */
 public class JsonFormat extends AbstractFormat {
+  private boolean m_compact;
 
   public JsonFormat(Path outputPath, Env env) {
     super(outputPath, env);
   }
 
+  /**
+   * Write JSON without pretty printing.
+   */
+  public JsonFormat compact(boolean compact) {
+    m_compact = compact;
+    return this;
+  }
+
   @Override
   public void write(ReportContext reportContext) throws IOException {
-    try (BufferedWriter writer = Files.newBufferedWriter(getOutputPath(), StandardCharsets.UTF_8)) {
-      writer.write(DataSerializer.GSON.toJson(reportContext));
-    }
+    DataSerializer.toJson(reportContext, getOutputPath(), m_compact);
+  }
+
+  /**
+   * Write the {@link ReportContext} data out to {@code writer} instead of the path from the constructor.
+   */
+  public void write(ReportContext reportContext, Writer writer) throws IOException {
+    (m_compact ? DataSerializer.GSON_COMPACT : DataSerializer.GSON).toJson(reportContext, writer);
+    writer.flush();
   }
 }
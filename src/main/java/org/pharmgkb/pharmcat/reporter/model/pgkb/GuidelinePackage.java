@@ -6,6 +6,8 @@
 import java.util.stream.Collectors;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.reporter.RecommendationIndex;
 import org.pharmgkb.pharmcat.reporter.model.cpic.Publication;
 
 
@@ -27,6 +29,7 @@ public class GuidelinePackage implements Comparable<GuidelinePackage> {
   @Expose
   @SerializedName("version")
   private String m_version;
+  private transient volatile @Nullable RecommendationIndex m_recommendationIndex;
 
 
   /**
@@ -45,6 +48,23 @@ public List<RecommendationAnnotation> getRecommendations() {
     return recommendations;
   }
 
+  /**
+   * Gets an index of {@link #getRecommendations()} for quickly finding the recommendations that match a genotype.
+   */
+  public RecommendationIndex getRecommendationIndex() {
+    RecommendationIndex index = m_recommendationIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = m_recommendationIndex;
+        if (index == null) {
+          index = new RecommendationIndex(recommendations);
+          m_recommendationIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
   public boolean hasRecommendations() {
     return guideline.isRecommendation() && recommendations != null && recommendations.size() > 0;
   }
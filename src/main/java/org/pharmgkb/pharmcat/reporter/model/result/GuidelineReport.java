@@ -2,7 +2,6 @@
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Objects;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import com.google.common.collect.HashMultimap;
@@ -10,6 +9,7 @@
 import com.google.gson.annotations.SerializedName;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.pharmgkb.common.util.ComparisonChain;
+import org.pharmgkb.pharmcat.reporter.RecommendationIndex;
 import org.pharmgkb.pharmcat.reporter.ReportContext;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.pgkb.GuidelinePackage;
@@ -140,11 +140,9 @@ public SortedSet<String> getHomozygousComponentHaplotypes() {
 
   private void matchAnnotations(GuidelinePackage guidelinePackage, String drugName) {
     HashMultimap<RecommendationAnnotation, Genotype> matchedGenotypes = HashMultimap.create();
+    RecommendationIndex index = guidelinePackage.getRecommendationIndex();
     for (Genotype genotype : m_recommendationGenotypes) {
-      guidelinePackage.getRecommendations().stream()
-          .filter(Objects::nonNull)
-          .filter(rec -> rec.appliesToDrug(drugName))
-          .filter(rec -> rec.matchesGenotype(genotype))
+      index.findMatches(drugName, genotype)
           .forEach(rec -> matchedGenotypes.put(rec, genotype));
     }
     if (drugName.equals("warfarin") && m_source == DataSource.CPIC) {
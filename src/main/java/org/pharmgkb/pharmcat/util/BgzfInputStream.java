@@ -0,0 +1,197 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import com.google.common.base.Preconditions;
+
+
+/**
+ * An {@link InputStream} that decompresses a BGZF stream (the blocked gzip format written by {@code bgzip}),
+ * inflating blocks in parallel.
+ * <p>
+ * Compressed blocks are read sequentially, but up to {@code readAhead} blocks are inflated concurrently.  Data is
+ * always returned in order.
+ * <p>
+ * This is not thread-safe.
+ */
+public class BgzfInputStream extends InputStream {
+  private static final byte[] sf_empty = new byte[0];
+  private static final ThreadLocal<Inflater> sf_inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+  private final InputStream m_in;
+  private final Executor m_executor;
+  private final int m_readAhead;
+  private final Deque<CompletableFuture<byte[]>> m_pending = new ArrayDeque<>();
+  private final byte[] m_header = new byte[BgzfReader.sf_fixedHeaderSize];
+  private long m_address;
+  private boolean m_eof;
+  private byte[] m_block = sf_empty;
+  private int m_blockOffset;
+
+
+  /**
+   * Constructor that uses the common {@link ForkJoinPool} to inflate blocks.
+   */
+  public BgzfInputStream(InputStream in) {
+    this(in, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism() * 2);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param executor executor to inflate blocks with
+   * @param readAhead maximum number of blocks to inflate ahead of the current read position
+   */
+  public BgzfInputStream(InputStream in, Executor executor, int readAhead) {
+    Preconditions.checkNotNull(in);
+    Preconditions.checkNotNull(executor);
+    m_in = in;
+    m_executor = executor;
+    m_readAhead = Math.max(1, readAhead);
+  }
+
+
+  /**
+   * Reads compressed blocks and queues them for inflation until we have {@code readAhead} blocks pending.
+   */
+  private void fill() throws IOException {
+    while (!m_eof && m_pending.size() < m_readAhead) {
+      int n = m_in.readNBytes(m_header, 0, m_header.length);
+      if (n == 0) {
+        m_eof = true;
+        break;
+      }
+      long address = m_address;
+      if (n < m_header.length) {
+        throw new EOFException("Unexpected end of BGZF stream at " + address);
+      }
+      ByteBuffer header = ByteBuffer.wrap(m_header).order(ByteOrder.LITTLE_ENDIAN);
+      BgzfReader.checkHeader(header, address);
+      int xlen = header.getShort(10) & 0xffff;
+      ByteBuffer extra = ByteBuffer.wrap(readFully(xlen, address)).order(ByteOrder.LITTLE_ENDIAN);
+      int blockSize = BgzfReader.parseBlockSize(extra, address);
+      int dataSize = BgzfReader.getDataSize(blockSize, xlen, address);
+      byte[] data = readFully(dataSize + 8, address);
+      m_address += blockSize;
+      m_pending.add(CompletableFuture.supplyAsync(() -> inflate(data, dataSize, address), m_executor));
+    }
+  }
+
+  private byte[] readFully(int length, long address) throws IOException {
+    byte[] data = m_in.readNBytes(length);
+    if (data.length < length) {
+      throw new EOFException("Unexpected end of BGZF stream at " + address);
+    }
+    return data;
+  }
+
+  private static byte[] inflate(byte[] data, int dataSize, long address) {
+    ByteBuffer trailer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    int crc = trailer.getInt(dataSize);
+    byte[] block = new byte[trailer.getInt(dataSize + 4)];
+    try {
+      BgzfReader.inflate(sf_inflaters.get(), data, dataSize, block, block.length, address);
+    } catch (IOException ex) {
+      throw new BgzfException(ex);
+    }
+    CRC32 crc32 = new CRC32();
+    crc32.update(block);
+    if ((int)crc32.getValue() != crc) {
+      throw new BgzfException(new IOException("CRC mismatch in BGZF block at " + address));
+    }
+    return block;
+  }
+
+
+  /**
+   * Makes sure there is data available in the current block, moving to the next block if necessary.
+   *
+   * @return false if at end of stream
+   */
+  private boolean ensureData() throws IOException {
+    while (m_blockOffset >= m_block.length) {
+      fill();
+      CompletableFuture<byte[]> next = m_pending.poll();
+      if (next == null) {
+        return false;
+      }
+      try {
+        m_block = next.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while inflating BGZF block", ex);
+      } catch (ExecutionException ex) {
+        if (ex.getCause() instanceof BgzfException bex) {
+          throw bex.getCause();
+        }
+        throw new IOException("Error inflating BGZF block", ex.getCause());
+      }
+      m_blockOffset = 0;
+    }
+    return true;
+  }
+
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureData()) {
+      return -1;
+    }
+    return m_block[m_blockOffset++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!ensureData()) {
+      return -1;
+    }
+    int n = Math.min(length, m_block.length - m_blockOffset);
+    System.arraycopy(m_block, m_blockOffset, buffer, offset, n);
+    m_blockOffset += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return m_block.length - m_blockOffset;
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    for (CompletableFuture<byte[]> future : m_pending) {
+      future.cancel(false);
+    }
+    m_pending.clear();
+    m_in.close();
+  }
+
+
+  /**
+   * Wraps {@link IOException}s thrown while inflating blocks on other threads.
+   */
+  private static class BgzfException extends RuntimeException {
+
+    BgzfException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException)super.getCause();
+    }
+  }
+}
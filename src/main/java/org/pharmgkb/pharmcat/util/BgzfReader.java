@@ -0,0 +1,407 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * Reader for BGZF files (the blocked gzip format written by {@code bgzip}).
+ * <p>
+ * Positions in a BGZF file are virtual offsets: the file offset of the start of a compressed block in the upper 48
+ * bits and the offset into the uncompressed block in the lower 16 bits.  These are what tabix and CSI indexes point
+ * to (see {@link TabixIndex}).
+ * <p>
+ * This is not thread-safe.
+ */
+public class BgzfReader implements Closeable {
+  static final int sf_maxBlockSize = 65536;
+  static final int sf_fixedHeaderSize = 12;
+  private final SeekableByteChannel m_channel;
+  private final Inflater m_inflater = new Inflater(true);
+  private final ByteBuffer m_header = ByteBuffer.allocate(sf_fixedHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+  private final byte[] m_compressed = new byte[sf_maxBlockSize];
+  private final byte[] m_block = new byte[sf_maxBlockSize];
+  private boolean m_blockLoaded;
+  private long m_blockAddress;
+  private long m_nextBlockAddress;
+  private int m_blockLength;
+  private int m_blockOffset;
+
+
+  public BgzfReader(Path file) throws IOException {
+    this(FileChannel.open(file, StandardOpenOption.READ));
+  }
+
+  public BgzfReader(SeekableByteChannel channel) {
+    m_channel = channel;
+  }
+
+
+  /**
+   * Checks if file starts with a BGZF block header.
+   */
+  public static boolean isBgzf(Path file) throws IOException {
+    byte[] header = new byte[16];
+    try (InputStream in = Files.newInputStream(file)) {
+      if (in.readNBytes(header, 0, header.length) < header.length) {
+        return false;
+      }
+    }
+    return (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139 && header[2] == 8 && (header[3] & 4) != 0 &&
+        header[12] == 'B' && header[13] == 'C';
+  }
+
+
+  /**
+   * Gets the virtual offset of the next byte to be read.
+   */
+  public long getVirtualOffset() {
+    return (m_blockAddress << 16) | m_blockOffset;
+  }
+
+  /**
+   * Moves to the specified virtual offset.
+   */
+  public void seek(long virtualOffset) throws IOException {
+    long address = virtualOffset >>> 16;
+    int offset = (int)(virtualOffset & 0xffff);
+    if (!m_blockLoaded || address != m_blockAddress) {
+      if (!readBlock(address)) {
+        throw new EOFException("Cannot seek to " + address + " in BGZF file");
+      }
+    }
+    if (offset > m_blockLength) {
+      throw new IOException("Invalid virtual offset " + virtualOffset + " (block at " + address + " only has " +
+          m_blockLength + " bytes)");
+    }
+    m_blockOffset = offset;
+  }
+
+
+  /**
+   * Makes sure there is data available in the current block, moving to the next block if necessary.
+   *
+   * @return false if at end of file
+   */
+  private boolean ensureData() throws IOException {
+    if (!m_blockLoaded) {
+      if (!readBlock(m_blockAddress)) {
+        return false;
+      }
+    }
+    while (m_blockOffset >= m_blockLength) {
+      if (!readBlock(m_nextBlockAddress)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads and decompresses the block at the specified file offset.
+   *
+   * @return false if there is no block at the offset (i.e. end of file)
+   */
+  private boolean readBlock(long address) throws IOException {
+    m_channel.position(address);
+    m_header.clear();
+    if (!readFully(m_header, true)) {
+      return false;
+    }
+    checkHeader(m_header, address);
+    int xlen = m_header.getShort(10) & 0xffff;
+    ByteBuffer extra = ByteBuffer.allocate(xlen).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(extra, false);
+    int blockSize = parseBlockSize(extra, address);
+    int dataSize = getDataSize(blockSize, xlen, address);
+    ByteBuffer data = ByteBuffer.wrap(m_compressed, 0, dataSize + 8).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(data, false);
+    int uncompressedSize = data.getInt(dataSize + 4);
+    inflate(m_inflater, m_compressed, dataSize, m_block, uncompressedSize, address);
+
+    m_blockLoaded = true;
+    m_blockAddress = address;
+    m_nextBlockAddress = address + blockSize;
+    m_blockLength = uncompressedSize;
+    m_blockOffset = 0;
+    return true;
+  }
+
+  /**
+   * Checks the fixed part of a BGZF block header.
+   */
+  static void checkHeader(ByteBuffer header, long address) throws IOException {
+    if ((header.get(0) & 0xff) != 31 || (header.get(1) & 0xff) != 139 || header.get(2) != 8 ||
+        (header.get(3) & 4) == 0) {
+      throw new IOException("Invalid BGZF block header at " + address);
+    }
+  }
+
+  /**
+   * Gets the total size of a BGZF block from the extra subfields in its header.
+   */
+  static int parseBlockSize(ByteBuffer extra, long address) throws IOException {
+    for (int x = 0; x + 4 <= extra.limit(); ) {
+      int subfieldLength = extra.getShort(x + 2) & 0xffff;
+      if (extra.get(x) == 'B' && extra.get(x + 1) == 'C' && subfieldLength == 2) {
+        return (extra.getShort(x + 4) & 0xffff) + 1;
+      }
+      x += 4 + subfieldLength;
+    }
+    throw new IOException("Missing BGZF block size at " + address);
+  }
+
+  /**
+   * Gets the size of the compressed data in a BGZF block.
+   * The compressed data is followed by CRC32 and ISIZE.
+   */
+  static int getDataSize(int blockSize, int xlen, long address) throws IOException {
+    int dataSize = blockSize - sf_fixedHeaderSize - xlen - 8;
+    if (dataSize < 0) {
+      throw new IOException("Invalid BGZF block size at " + address);
+    }
+    return dataSize;
+  }
+
+  /**
+   * Inflates the compressed data of a BGZF block.
+   */
+  static void inflate(Inflater inflater, byte[] src, int srcLength, byte[] dest, int destLength, long address)
+      throws IOException {
+    if (destLength < 0 || destLength > dest.length) {
+      throw new IOException("Invalid BGZF block size at " + address);
+    }
+    inflater.reset();
+    inflater.setInput(src, 0, srcLength);
+    try {
+      int length = 0;
+      while (length < destLength && !inflater.finished()) {
+        int n = inflater.inflate(dest, length, destLength - length);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += n;
+      }
+      if (length != destLength) {
+        throw new IOException("BGZF block at " + address + " is truncated");
+      }
+    } catch (DataFormatException ex) {
+      throw new IOException("Invalid BGZF block at " + address, ex);
+    }
+  }
+
+  private boolean readFully(ByteBuffer buffer, boolean eofOk) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (m_channel.read(buffer) == -1) {
+        if (eofOk && buffer.position() == 0) {
+          return false;
+        }
+        throw new EOFException("Unexpected end of BGZF file");
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Reads a single byte.
+   *
+   * @return the byte, or -1 if at end of file
+   */
+  public int read() throws IOException {
+    if (!ensureData()) {
+      return -1;
+    }
+    return m_block[m_blockOffset++] & 0xff;
+  }
+
+  /**
+   * Reads up to {@code length} bytes.
+   *
+   * @return the number of bytes read, or -1 if at end of file
+   */
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!ensureData()) {
+      return -1;
+    }
+    int n = Math.min(length, m_blockLength - m_blockOffset);
+    System.arraycopy(m_block, m_blockOffset, buffer, offset, n);
+    m_blockOffset += n;
+    return n;
+  }
+
+  /**
+   * Reads a line of text, without the line terminator.
+   *
+   * @return the line, or null if at end of file
+   */
+  public @Nullable String readLine() throws IOException {
+    ByteArrayOutputStream line = null;
+    while (ensureData()) {
+      int start = m_blockOffset;
+      int end = start;
+      while (end < m_blockLength && m_block[end] != '\n') {
+        end += 1;
+      }
+      if (line == null) {
+        line = new ByteArrayOutputStream(Math.max(end - start, 128));
+      }
+      line.write(m_block, start, end - start);
+      if (end < m_blockLength) {
+        m_blockOffset = end + 1;
+        return toLine(line);
+      }
+      m_blockOffset = end;
+    }
+    return line == null ? null : toLine(line);
+  }
+
+  private static String toLine(ByteArrayOutputStream line) {
+    String str = line.toString(StandardCharsets.UTF_8);
+    if (str.endsWith("\r")) {
+      return str.substring(0, str.length() - 1);
+    }
+    return str;
+  }
+
+
+  /**
+   * Gets an {@link InputStream} over the header (all lines starting with {@code #} at the start of the file) followed
+   * by the data in the specified chunks.
+   * <p>
+   * Chunks are pairs of virtual offsets ({@code [start, end)}) and must be sorted and non-overlapping, as returned by
+   * {@link TabixIndex#getChunks}.  Closing the stream closes this reader.
+   */
+  public InputStream openRegions(List<long[]> chunks) throws IOException {
+    seek(0);
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    long offset = getVirtualOffset();
+    while (true) {
+      int b = read();
+      if (b != '#') {
+        break;
+      }
+      header.write(b);
+      do {
+        b = read();
+        if (b != -1) {
+          header.write(b);
+        }
+      } while (b != '\n' && b != -1);
+      offset = getVirtualOffset();
+    }
+    seek(offset);
+    return new ChunkInputStream(header.toByteArray(), chunks);
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    m_inflater.end();
+    m_channel.close();
+  }
+
+
+  /**
+   * Streams a header followed by the contents of a list of chunks.
+   */
+  private class ChunkInputStream extends InputStream {
+    private final byte[] m_headerBytes;
+    private final List<long[]> m_chunks;
+    private int m_headerOffset;
+    private int m_chunkIdx = -1;
+    private long m_chunkEnd;
+
+    ChunkInputStream(byte[] header, List<long[]> chunks) {
+      m_headerBytes = header;
+      m_chunks = chunks;
+    }
+
+    /**
+     * Makes sure we are positioned within a chunk.
+     *
+     * @return false if there are no more chunks
+     */
+    private boolean nextChunk() throws IOException {
+      while (m_chunkIdx == -1 || Long.compareUnsigned(normalizedOffset(), m_chunkEnd) >= 0) {
+        m_chunkIdx += 1;
+        if (m_chunkIdx >= m_chunks.size()) {
+          return false;
+        }
+        long[] chunk = m_chunks.get(m_chunkIdx);
+        m_chunkEnd = chunk[1];
+        if (Long.compareUnsigned(chunk[0], normalizedOffset()) > 0 || m_chunkIdx == 0) {
+          seek(chunk[0]);
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Gets the current virtual offset, moving to the start of the next block if at the end of the current one so that
+     * it can be compared to chunk boundaries.
+     */
+    private long normalizedOffset() throws IOException {
+      if (m_blockLoaded && m_blockOffset >= m_blockLength) {
+        ensureData();
+      }
+      return getVirtualOffset();
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (m_headerOffset < m_headerBytes.length) {
+        return m_headerBytes[m_headerOffset++] & 0xff;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      return BgzfReader.this.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (m_headerOffset < m_headerBytes.length) {
+        int n = Math.min(length, m_headerBytes.length - m_headerOffset);
+        System.arraycopy(m_headerBytes, m_headerOffset, buffer, offset, n);
+        m_headerOffset += n;
+        return n;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      long end = m_chunkEnd;
+      if ((end >>> 16) == m_blockAddress) {
+        // chunk ends in this block
+        length = Math.min(length, (int)(end & 0xffff) - m_blockOffset);
+      }
+      return BgzfReader.this.read(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      BgzfReader.this.close();
+    }
+  }
+}
@@ -0,0 +1,371 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import static org.pharmgkb.pharmcat.util.BinaryJsonWriter.*;
+
+
+/**
+ * A {@link JsonReader} that reads the binary encoding written by {@link BinaryJsonWriter}.
+ * <p>
+ * Gson reads maps with internal hooks that only work on its own readers, so this must be used with a {@code Gson}
+ * instance that has {@link StringKeyMapTypeAdapterFactory} registered.
+ */
+class BinaryJsonReader extends JsonReader {
+  private static final Reader sf_unreadableReader = new Reader() {
+    @Override
+    public int read(char[] buffer, int offset, int count) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      throw new UnsupportedOperationException();
+    }
+  };
+  private static final int sf_none = -1;
+  private static final int sf_endOfDocument = 0;
+
+  private final InputStream m_in;
+  private final byte[] m_buffer = new byte[8192];
+  private int m_pos;
+  private int m_limit;
+  private final List<String> m_stringTable = new ArrayList<>();
+  /** Tag of the next token, or {@link #sf_none} if it has not been read yet. */
+  private int m_peeked = sf_none;
+
+
+  /**
+   * Constructor.  Reads and checks the header straight away.
+   *
+   * @param pharmcatVersion the version of PharmCAT that must have written the file
+   * @throws IOException if input is not in the binary format or is from an unsupported version
+   */
+  BinaryJsonReader(InputStream in, String pharmcatVersion) throws IOException {
+    super(sf_unreadableReader);
+    m_in = in;
+    int version = readVersion(in);
+    if (version == -1) {
+      throw new IOException("Not a PharmCAT binary file");
+    }
+    if (version != VERSION) {
+      throw new IOException("Unsupported PharmCAT binary file version: " + version);
+    }
+    String writtenBy = readPharmcatVersion(in);
+    if (!pharmcatVersion.equals(writtenBy)) {
+      throw new IOException("PharmCAT binary file was written by PharmCAT " + writtenBy + " and can only be read by " +
+          "that version (this is " + pharmcatVersion + ")");
+    }
+  }
+
+
+  /**
+   * Gets the version of the binary format at the start of {@code in}, or -1 if it is not in the binary format.
+   */
+  static int readVersion(InputStream in) throws IOException {
+    byte[] magic = in.readNBytes(MAGIC.length);
+    if (!Arrays.equals(magic, MAGIC)) {
+      return -1;
+    }
+    return in.read();
+  }
+
+  /**
+   * Gets the version of PharmCAT that wrote the file.  Must be called right after {@link #readVersion(InputStream)}.
+   */
+  static String readPharmcatVersion(InputStream in) throws IOException {
+    long length = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException();
+      }
+      length |= (long)(b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      }
+      if (shift > 28) {
+        throw new IOException("Invalid header");
+      }
+    }
+    if (length > 1024) {
+      throw new IOException("Invalid header");
+    }
+    byte[] bytes = in.readNBytes((int)length);
+    if (bytes.length != length) {
+      throw new EOFException();
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+
+  private int peekTag() throws IOException {
+    if (m_peeked == sf_none) {
+      m_peeked = m_pos < m_limit || fill() ? m_buffer[m_pos++] : sf_endOfDocument;
+    }
+    return m_peeked;
+  }
+
+  /**
+   * Consumes the next tag, which must be one of the {@code expected} tags.
+   */
+  private int consume(JsonToken token, int... expected) throws IOException {
+    int tag = peekTag();
+    for (int e : expected) {
+      if (tag == e) {
+        m_peeked = sf_none;
+        return tag;
+      }
+    }
+    throw new IllegalStateException("Expected " + token + " but was " + peek());
+  }
+
+
+  @Override
+  public JsonToken peek() throws IOException {
+    int tag = peekTag();
+    return switch (tag) {
+      case sf_endOfDocument -> JsonToken.END_DOCUMENT;
+      case BEGIN_OBJECT -> JsonToken.BEGIN_OBJECT;
+      case END_OBJECT -> JsonToken.END_OBJECT;
+      case BEGIN_ARRAY -> JsonToken.BEGIN_ARRAY;
+      case END_ARRAY -> JsonToken.END_ARRAY;
+      case NAME -> JsonToken.NAME;
+      case STRING -> JsonToken.STRING;
+      case NULL -> JsonToken.NULL;
+      case TRUE, FALSE -> JsonToken.BOOLEAN;
+      case LONG, DOUBLE, NUMBER -> JsonToken.NUMBER;
+      default -> throw new IOException("Unknown tag: " + tag);
+    };
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    int tag = peekTag();
+    return tag != END_OBJECT && tag != END_ARRAY && tag != sf_endOfDocument;
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    consume(JsonToken.BEGIN_OBJECT, BEGIN_OBJECT);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    consume(JsonToken.END_OBJECT, END_OBJECT);
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    consume(JsonToken.BEGIN_ARRAY, BEGIN_ARRAY);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    consume(JsonToken.END_ARRAY, END_ARRAY);
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    consume(JsonToken.NAME, NAME);
+    return readString();
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    int tag = consume(JsonToken.STRING, STRING, NUMBER, LONG, DOUBLE);
+    return switch (tag) {
+      case LONG -> Long.toString(readLong());
+      case DOUBLE -> Double.toString(readDouble());
+      default -> readString();
+    };
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    return consume(JsonToken.BOOLEAN, TRUE, FALSE) == TRUE;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    consume(JsonToken.NULL, NULL);
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    int tag = consume(JsonToken.NUMBER, DOUBLE, LONG, NUMBER, STRING);
+    return switch (tag) {
+      case DOUBLE -> readDouble();
+      case LONG -> readLong();
+      default -> Double.parseDouble(readString());
+    };
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    int tag = consume(JsonToken.NUMBER, LONG, DOUBLE, NUMBER, STRING);
+    return switch (tag) {
+      case LONG -> readLong();
+      case DOUBLE -> toLong(readDouble());
+      default -> {
+        String value = readString();
+        try {
+          yield Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+          yield toLong(Double.parseDouble(value));
+        }
+      }
+    };
+  }
+
+  private static long toLong(double value) {
+    long result = (long)value;
+    if (result != value) {
+      throw new NumberFormatException("Expected a long but was " + value);
+    }
+    return result;
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    long value = nextLong();
+    if ((int)value != value) {
+      throw new NumberFormatException("Expected an int but was " + value);
+    }
+    return (int)value;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    int depth = 0;
+    do {
+      int tag = peekTag();
+      m_peeked = sf_none;
+      switch (tag) {
+        case sf_endOfDocument -> {
+          return;
+        }
+        case BEGIN_OBJECT, BEGIN_ARRAY -> depth += 1;
+        case END_OBJECT, END_ARRAY -> {
+          if (depth == 0) {
+            // nothing to skip
+            m_peeked = tag;
+            return;
+          }
+          depth -= 1;
+        }
+        // strings still need to be read because they might add to the string table
+        case NAME, STRING, NUMBER -> readString();
+        case LONG -> readLong();
+        case DOUBLE -> readDouble();
+        case NULL, TRUE, FALSE -> {
+        }
+        default -> throw new IOException("Unknown tag: " + tag);
+      }
+    } while (depth > 0);
+  }
+
+
+  /**
+   * Refills the buffer.
+   *
+   * @return false if there is no more data
+   */
+  private boolean fill() throws IOException {
+    int count = m_in.read(m_buffer);
+    if (count <= 0) {
+      m_pos = 0;
+      m_limit = 0;
+      return false;
+    }
+    m_pos = 0;
+    m_limit = count;
+    return true;
+  }
+
+  private int readByte() throws IOException {
+    if (m_pos == m_limit && !fill()) {
+      throw new EOFException("Unexpected end of file");
+    }
+    return m_buffer[m_pos++] & 0xFF;
+  }
+
+  private double readDouble() throws IOException {
+    long bits = 0;
+    for (int x = 0; x < 8; x += 1) {
+      bits = (bits << 8) | readByte();
+    }
+    return Double.longBitsToDouble(bits);
+  }
+
+  private String readString() throws IOException {
+    long ref = readVarLong();
+    if (ref != 0) {
+      if (ref > m_stringTable.size()) {
+        throw new IOException("Invalid string reference: " + ref);
+      }
+      return m_stringTable.get((int)ref - 1);
+    }
+    int length = (int)readVarLong();
+    String value;
+    if (length <= m_limit - m_pos) {
+      value = new String(m_buffer, m_pos, length, StandardCharsets.UTF_8);
+      m_pos += length;
+    } else {
+      byte[] bytes = new byte[length];
+      int read = Math.min(length, m_limit - m_pos);
+      System.arraycopy(m_buffer, m_pos, bytes, 0, read);
+      m_pos += read;
+      while (read < length) {
+        if (!fill()) {
+          throw new EOFException("Unexpected end of file");
+        }
+        int count = Math.min(length - read, m_limit);
+        System.arraycopy(m_buffer, 0, bytes, read, count);
+        m_pos = count;
+        read += count;
+      }
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    m_stringTable.add(value);
+    return value;
+  }
+
+  private long readLong() throws IOException {
+    long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      value |= (long)(b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    m_peeked = sf_none;
+    m_in.close();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+}
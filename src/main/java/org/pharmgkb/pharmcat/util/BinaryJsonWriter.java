@@ -0,0 +1,261 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import com.google.common.base.Preconditions;
+import com.google.gson.stream.JsonWriter;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * A {@link JsonWriter} that writes PharmCAT's binary encoding of JSON instead of text.
+ * <p>
+ * Because this plugs into Gson as a {@link JsonWriter}, anything Gson can serialize can be written in this format, with
+ * exactly the same structure as the JSON would have.  See {@link BinaryJsonReader} for reading it back in.
+ * <p>
+ * The format is a header ({@link #MAGIC}, a {@link #VERSION} byte, and the version of PharmCAT that wrote the file as a
+ * varint length and UTF-8 bytes) and then a stream of tokens.  The data model changes between releases, so files are
+ * only read by the same version of PharmCAT that wrote them.  Each token is a single tag byte, optionally followed by
+ * a payload:
+ * <ul>
+ *   <li>strings (names, string values and non-integral numbers) are references into a string table: a varint of 0 is
+ *   followed by a new string (varint length and UTF-8 bytes) that is added to the table, otherwise it is the 1-based
+ *   index of a string that has already been seen</li>
+ *   <li>integers are zigzag-encoded varints</li>
+ *   <li>doubles are 8 bytes</li>
+ * </ul>
+ * Field names and most values (gene names, allele names, sources, etc.) repeat many times in PharmCAT's output, so the
+ * string table keeps the encoding small and lets the reader skip decoding most of the strings entirely.
+ */
+class BinaryJsonWriter extends JsonWriter {
+  static final byte[] MAGIC = "PCATBIN".getBytes(StandardCharsets.US_ASCII);
+  static final int VERSION = 2;
+
+  static final int BEGIN_OBJECT = 1;
+  static final int END_OBJECT = 2;
+  static final int BEGIN_ARRAY = 3;
+  static final int END_ARRAY = 4;
+  static final int NAME = 5;
+  static final int STRING = 6;
+  static final int NULL = 7;
+  static final int TRUE = 8;
+  static final int FALSE = 9;
+  static final int LONG = 10;
+  static final int DOUBLE = 11;
+  static final int NUMBER = 12;
+
+  private static final Writer sf_unwritableWriter = new Writer() {
+    @Override
+    public void write(char[] buffer, int offset, int counter) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  private final DataOutputStream m_out;
+  private final Map<String, Integer> m_stringTable = new HashMap<>();
+  private @Nullable String m_deferredName;
+  private int m_depth;
+
+
+  /**
+   * Constructor.  Writes the header straight away.
+   *
+   * @param pharmcatVersion the version of PharmCAT writing the file
+   */
+  BinaryJsonWriter(OutputStream out, String pharmcatVersion) throws IOException {
+    super(sf_unwritableWriter);
+    Preconditions.checkNotNull(pharmcatVersion);
+    m_out = new DataOutputStream(out);
+    m_out.write(MAGIC);
+    m_out.writeByte(VERSION);
+    byte[] bytes = pharmcatVersion.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(bytes.length);
+    m_out.write(bytes);
+  }
+
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    beforeValue();
+    m_out.writeByte(BEGIN_OBJECT);
+    m_depth += 1;
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    Preconditions.checkState(m_deferredName == null, "Dangling name: %s", m_deferredName);
+    m_out.writeByte(END_OBJECT);
+    m_depth -= 1;
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    beforeValue();
+    m_out.writeByte(BEGIN_ARRAY);
+    m_depth += 1;
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    m_out.writeByte(END_ARRAY);
+    m_depth -= 1;
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkState(m_deferredName == null, "Already have a name: %s", m_deferredName);
+    Preconditions.checkState(m_depth > 0, "Name outside of object");
+    m_deferredName = name;
+    return this;
+  }
+
+  /**
+   * Writes out the deferred name, if any.
+   */
+  private void beforeValue() throws IOException {
+    if (m_deferredName != null) {
+      m_out.writeByte(NAME);
+      writeString(m_deferredName);
+      m_deferredName = null;
+    }
+  }
+
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    m_out.writeByte(STRING);
+    writeString(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter jsonValue(String value) {
+    throw new UnsupportedOperationException("Raw JSON values are not supported");
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    if (m_deferredName != null && !getSerializeNulls()) {
+      // skip the name and the value
+      m_deferredName = null;
+      return this;
+    }
+    beforeValue();
+    m_out.writeByte(NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    m_out.writeByte(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Boolean value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    return value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(float value) throws IOException {
+    // written as text so that it reads back the same way it would from JSON
+    return value((Number)value);
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    beforeValue();
+    m_out.writeByte(DOUBLE);
+    m_out.writeDouble(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    beforeValue();
+    m_out.writeByte(LONG);
+    writeVarLong((value << 1) ^ (value >> 63));
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return value(value.longValue());
+    }
+    if (value instanceof Double) {
+      return value(value.doubleValue());
+    }
+    beforeValue();
+    m_out.writeByte(NUMBER);
+    writeString(value.toString());
+    return this;
+  }
+
+
+  private void writeString(String value) throws IOException {
+    Integer idx = m_stringTable.get(value);
+    if (idx != null) {
+      writeVarLong(idx);
+      return;
+    }
+    m_stringTable.put(value, m_stringTable.size() + 1);
+    writeVarLong(0);
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(bytes.length);
+    m_out.write(bytes);
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      m_out.writeByte((int)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    m_out.writeByte((int)value);
+  }
+
+
+  @Override
+  public void flush() throws IOException {
+    m_out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    m_out.close();
+    if (m_depth > 0) {
+      throw new IOException("Incomplete document");
+    }
+  }
+}
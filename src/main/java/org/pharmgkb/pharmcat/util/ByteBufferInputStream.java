@@ -0,0 +1,121 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * An {@link InputStream} over a sequence of {@link ByteBuffer}s, such as the segments of a memory-mapped file (see
+ * {@link #map(Path)}).
+ * <p>
+ * This stream works on read-only views of the buffers, so many streams can read the same buffers at the same time.
+ */
+public class ByteBufferInputStream extends InputStream {
+  /** Largest segment that can be mapped into a single {@link MappedByteBuffer}. */
+  private static final long sf_maxSegmentSize = Integer.MAX_VALUE;
+  private final ByteBuffer[] m_buffers;
+  private int m_bufferIdx;
+
+
+  public ByteBufferInputStream(List<? extends ByteBuffer> buffers) {
+    m_buffers = new ByteBuffer[buffers.size()];
+    for (int x = 0; x < m_buffers.length; x += 1) {
+      m_buffers[x] = buffers.get(x).asReadOnlyBuffer();
+    }
+  }
+
+
+  /**
+   * Maps a file into memory, read-only.
+   * Files larger than 2GB are mapped as multiple segments.
+   */
+  public static List<MappedByteBuffer> map(Path file) throws IOException {
+    List<MappedByteBuffer> segments = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      for (long offset = 0; offset < size; offset += sf_maxSegmentSize) {
+        segments.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(sf_maxSegmentSize, size - offset)));
+      }
+    }
+    return segments;
+  }
+
+
+  /**
+   * Gets the current buffer, moving to the next buffer if necessary.
+   *
+   * @return null if at end of stream
+   */
+  private @Nullable ByteBuffer currentBuffer() {
+    while (m_bufferIdx < m_buffers.length) {
+      if (m_buffers[m_bufferIdx].hasRemaining()) {
+        return m_buffers[m_bufferIdx];
+      }
+      m_bufferIdx += 1;
+    }
+    return null;
+  }
+
+
+  @Override
+  public int read() {
+    ByteBuffer buffer = currentBuffer();
+    if (buffer == null) {
+      return -1;
+    }
+    return buffer.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    ByteBuffer buffer = currentBuffer();
+    if (buffer == null) {
+      return -1;
+    }
+    int n = Math.min(length, buffer.remaining());
+    buffer.get(bytes, offset, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) {
+    long skipped = 0;
+    ByteBuffer buffer;
+    while (skipped < n && (buffer = currentBuffer()) != null) {
+      int step = (int)Math.min(n - skipped, buffer.remaining());
+      buffer.position(buffer.position() + step);
+      skipped += step;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    long available = 0;
+    for (int x = m_bufferIdx; x < m_buffers.length; x += 1) {
+      available += m_buffers[x].remaining();
+    }
+    return (int)Math.min(available, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Drops references to the buffers, so that mapped segments can be released as soon as nothing else uses them.
+   */
+  @Override
+  public void close() {
+    Arrays.fill(m_buffers, null);
+    m_bufferIdx = m_buffers.length;
+  }
+}
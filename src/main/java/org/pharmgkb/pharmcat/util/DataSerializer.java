@@ -1,8 +1,15 @@
 package org.pharmgkb.pharmcat.util;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -10,16 +17,21 @@
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import org.apache.commons.lang3.StringUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.pharmcat.definition.model.DefinitionExemption;
 import org.pharmgkb.pharmcat.definition.model.DefinitionFile;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
@@ -34,16 +46,160 @@
  * @author Mark Woon
  */
 public class DataSerializer {
-  public static final Gson GSON = new GsonBuilder()
-      .serializeNulls()
-      .disableHtmlEscaping()
-      .excludeFieldsWithoutExposeAnnotation()
-      .registerTypeAdapter(Date.class, new GsonDateAdapter())
+  /**
+   * File extension for PharmCAT's binary format (see {@link #toBinary(Object, Path)}).
+   */
+  public static final String BINARY_EXTENSION = ".bin";
+  public static final Gson GSON = newGsonBuilder()
       .setPrettyPrinting()
       .create();
+  /**
+   * Same as {@link #GSON} but without pretty printing, for when output size matters more than readability.
+   */
+  public static final Gson GSON_COMPACT = newGsonBuilder()
+      .create();
+  /**
+   * Gson for {@link BinaryJsonWriter}/{@link BinaryJsonReader}, which needs help reading maps.
+   */
+  private static final Gson sf_binaryGson = newGsonBuilder()
+      .registerTypeAdapterFactory(new StringKeyMapTypeAdapterFactory())
+      .create();
+  private static final int sf_bufferSize = 64 * 1024;
   private static final Pattern sf_rsidPattern = Pattern.compile("rs\\d+");
   private static final Splitter sf_commaSplitter = Splitter.on(",").trimResults().omitEmptyStrings();
+  /** Version of PharmCAT that binary files are written by and read with, looked up on first use. */
+  private static @Nullable String s_binaryVersion;
+
+
+
+  private static GsonBuilder newGsonBuilder() {
+    return new GsonBuilder()
+        .serializeNulls()
+        .disableHtmlEscaping()
+        .excludeFieldsWithoutExposeAnnotation()
+        .registerTypeAdapter(Date.class, new GsonDateAdapter());
+  }
+
+
+  /**
+   * Checks if file name ends with {@code .json} or {@code .json.gz}.
+   */
+  public static boolean isJsonFile(Path file) {
+    String name = file.getFileName().toString();
+    return name.endsWith(".json") || name.endsWith(".json.gz");
+  }
+
+  private static boolean isGzipped(Path file) {
+    return file.getFileName().toString().endsWith(".gz");
+  }
+
+
+  /**
+   * Streams {@code data} as JSON straight to {@code jsonFile}, without building the whole document in memory first.
+   * Output is gzip-compressed if the file name ends with {@code .gz}.
+   *
+   * @param compact true to skip pretty printing
+   */
+  public static void toJson(Object data, Path jsonFile, boolean compact) throws IOException {
+    Preconditions.checkNotNull(data);
+    Preconditions.checkNotNull(jsonFile);
+
+    Gson gson = compact ? GSON_COMPACT : GSON;
+    try (Writer writer = newWriter(jsonFile);
+         JsonWriter jsonWriter = gson.newJsonWriter(writer)) {
+      gson.toJson(data, data.getClass(), jsonWriter);
+    }
+  }
+
+  private static Writer newWriter(Path file) throws IOException {
+    if (isGzipped(file)) {
+      return new BufferedWriter(new OutputStreamWriter(
+          new GZIPOutputStream(Files.newOutputStream(file), sf_bufferSize), StandardCharsets.UTF_8), sf_bufferSize);
+    }
+    return Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Opens a JSON file for reading, decompressing it if the file name ends with {@code .gz}.
+   */
+  public static BufferedReader newJsonReader(Path jsonFile) throws IOException {
+    if (isGzipped(jsonFile)) {
+      return new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(Files.newInputStream(jsonFile), sf_bufferSize), StandardCharsets.UTF_8), sf_bufferSize);
+    }
+    return Files.newBufferedReader(jsonFile, StandardCharsets.UTF_8);
+  }
+
+
+  /**
+   * Checks if file name ends with {@link #BINARY_EXTENSION}.
+   */
+  public static boolean isBinaryFile(Path file) {
+    return file.getFileName().toString().endsWith(BINARY_EXTENSION);
+  }
+
+  /**
+   * Gets the version of PharmCAT to pin binary files to.
+   */
+  private static synchronized String getBinaryVersion() throws IOException {
+    if (s_binaryVersion == null) {
+      s_binaryVersion = Objects.requireNonNullElse(CliUtils.getVersion(), "unknown");
+    }
+    return s_binaryVersion;
+  }
+
+  /**
+   * Checks if file is in a version of the binary format that can be read, and was written by this version of PharmCAT.
+   */
+  public static boolean isReadableBinaryFile(Path file) throws IOException {
+    return isReadableBinaryFile(file, getBinaryVersion());
+  }
+
+  static boolean isReadableBinaryFile(Path file, String pharmcatVersion) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return false;
+    }
+    try (InputStream in = Files.newInputStream(file)) {
+      return BinaryJsonReader.readVersion(in) == BinaryJsonWriter.VERSION &&
+          pharmcatVersion.equals(BinaryJsonReader.readPharmcatVersion(in));
+    } catch (EOFException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Writes {@code data} to {@code file} in PharmCAT's binary format (see {@link BinaryJsonWriter}).
+   * <p>
+   * This holds exactly what the JSON would, but is a lot faster to read back in.  Unlike JSON, it can only be read by
+   * the same version of PharmCAT, which is recorded in the file.
+   */
+  public static void toBinary(Object data, Path file) throws IOException {
+    toBinary(data, file, getBinaryVersion());
+  }
+
+  static void toBinary(Object data, Path file, String pharmcatVersion) throws IOException {
+    Preconditions.checkNotNull(data);
+    Preconditions.checkNotNull(file);
 
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), sf_bufferSize);
+         BinaryJsonWriter writer = new BinaryJsonWriter(out, pharmcatVersion)) {
+      sf_binaryGson.toJson(data, data.getClass(), writer);
+    }
+  }
+
+  /**
+   * Reads data written by {@link #toBinary(Object, Path)}.
+   *
+   * @throws IOException if file is not in the binary format or was written by a different version of PharmCAT
+   */
+  public static <T> T fromBinary(Path file, Class<T> type) throws IOException {
+    Preconditions.checkNotNull(file);
+    Preconditions.checkArgument(Files.isRegularFile(file), "%s is not a file", file);
+
+    try (BinaryJsonReader reader = new BinaryJsonReader(Files.newInputStream(file), getBinaryVersion())) {
+      return sf_binaryGson.fromJson(reader, type);
+    }
+  }
 
 
   public void serializeToJson(Object data, Path jsonFile) throws IOException {
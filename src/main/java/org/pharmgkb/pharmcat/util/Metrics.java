@@ -0,0 +1,426 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.common.base.Preconditions;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+/**
+ * A registry of latency histograms and counters, used to find out where PharmCAT spends its time.
+ * <p>
+ * Metrics are identified by a name and an optional list of label name/value pairs (e.g.
+ * {@code histogram("pharmcat_stage_seconds", "stage", "phenotyper")}).  Everything is safe to update from multiple
+ * threads, so a single registry can be shared by all the pipelines in a batch run.
+ * <p>
+ * Results can be written out as JSON or in the Prometheus text format.  If enabled, each recorded latency is also
+ * emitted as a JFR event (see {@link MetricEvent}) so that it can be lined up with GC and allocation data in a flight
+ * recording.
+ */
+public class Metrics {
+  /** Latency for each pipeline stage, labeled by {@code stage}. */
+  public static final String STAGE_SECONDS = "pharmcat_stage_seconds";
+  /** Latency for calling a gene in the named allele matcher, labeled by {@code gene} and {@code call}. */
+  public static final String MATCHER_GENE_SECONDS = "pharmcat_matcher_gene_seconds";
+  /**
+   * Number of possible sample allele permutations for the genes called by the named allele matcher, labeled by
+   * {@code gene}.  This is the size of the search space (the product of the alleles at each position), not the number
+   * of permutations actually searched.
+   */
+  public static final String MATCHER_SAMPLE_PERMUTATIONS = "pharmcat_matcher_sample_permutations_total";
+  /** Number of diplotype matches returned by the named allele matcher, labeled by {@code gene}. */
+  public static final String MATCHER_DIPLOTYPES = "pharmcat_matcher_diplotypes_total";
+
+  /** Upper bounds of histogram buckets, in nanoseconds. */
+  private static final long[] sf_bucketBounds = Arrays.stream(new double[] {
+      0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+  }).mapToLong(s -> (long)(s * TimeUnit.SECONDS.toNanos(1)))
+      .toArray();
+  private static final Comparator<Key> sf_keyComparator = Comparator.comparing(Key::name)
+      .thenComparing(k -> String.join(",", k.labels()));
+
+  private final ConcurrentMap<Key, Histogram> m_histograms = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Key, LongAdder> m_counters = new ConcurrentHashMap<>();
+  private final boolean m_emitJfrEvents;
+
+
+  private record Key(String name, List<String> labels) {
+  }
+
+
+  public Metrics() {
+    this(false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param emitJfrEvents true if every recorded latency should also be emitted as a {@link MetricEvent}
+   */
+  public Metrics(boolean emitJfrEvents) {
+    m_emitJfrEvents = emitJfrEvents;
+  }
+
+
+  private static Key buildKey(String name, String... labels) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkArgument(labels.length % 2 == 0, "Labels must be name/value pairs");
+    return new Key(name, List.of(labels));
+  }
+
+
+  /**
+   * Gets the histogram with the given name and labels, creating it if necessary.
+   *
+   * @param labels label name/value pairs
+   */
+  public Histogram histogram(String name, String... labels) {
+    return m_histograms.computeIfAbsent(buildKey(name, labels), k -> new Histogram());
+  }
+
+  /**
+   * Gets the counter with the given name and labels, creating it if necessary.
+   *
+   * @param labels label name/value pairs
+   */
+  public LongAdder counter(String name, String... labels) {
+    return m_counters.computeIfAbsent(buildKey(name, labels), k -> new LongAdder());
+  }
+
+
+  /**
+   * Records how long something took.
+   *
+   * @param startNanos when it started, from {@link System#nanoTime()}
+   * @param labels label name/value pairs
+   */
+  public void recordSince(long startNanos, String name, String... labels) {
+    record(System.nanoTime() - startNanos, name, labels);
+  }
+
+  /**
+   * Records how long something took.
+   *
+   * @param nanos how long it took, in nanoseconds
+   * @param labels label name/value pairs
+   */
+  public void record(long nanos, String name, String... labels) {
+    histogram(name, labels).record(nanos);
+    if (m_emitJfrEvents) {
+      MetricEvent event = new MetricEvent();
+      if (event.shouldCommit()) {
+        event.metric = name;
+        event.labels = formatLabels(labels, "=", "");
+        event.latency = nanos;
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * Convenience method to record how long a pipeline stage took.
+   */
+  public void recordStage(long startNanos, String stage) {
+    recordSince(startNanos, STAGE_SECONDS, "stage", stage);
+  }
+
+  /**
+   * Adds to a counter.
+   *
+   * @param labels label name/value pairs
+   */
+  public void count(long amount, String name, String... labels) {
+    counter(name, labels).add(amount);
+  }
+
+
+  private static String formatLabels(List<String> labels, String separator, String quote) {
+    return formatLabels(labels.toArray(new String[0]), separator, quote);
+  }
+
+  private static String formatLabels(String[] labels, String separator, String quote) {
+    StringBuilder builder = new StringBuilder();
+    for (int x = 0; x < labels.length; x += 2) {
+      if (!builder.isEmpty()) {
+        builder.append(",");
+      }
+      builder.append(labels[x])
+          .append(separator)
+          .append(quote)
+          .append(quote.isEmpty() ? labels[x + 1] : escapePrometheus(labels[x + 1]))
+          .append(quote);
+    }
+    return builder.toString();
+  }
+
+  private static String escapePrometheus(String value) {
+    return value.replace("\\", "\\\\")
+        .replace("\"", "\\\"")
+        .replace("\n", "\\n");
+  }
+
+  private static double toSeconds(long nanos) {
+    return nanos / (double)TimeUnit.SECONDS.toNanos(1);
+  }
+
+  private static double toMillis(long nanos) {
+    return Math.round(nanos / 1_000.0) / 1_000.0;
+  }
+
+
+  private <T> List<Map.Entry<Key, T>> sorted(Map<Key, T> map) {
+    List<Map.Entry<Key, T>> entries = new ArrayList<>(map.entrySet());
+    entries.sort(Map.Entry.comparingByKey(sf_keyComparator));
+    return entries;
+  }
+
+
+  /**
+   * Writes metrics to a file, in Prometheus text format if the file name ends with {@code .prom} or {@code .txt},
+   * otherwise as JSON.
+   */
+  public void write(Path file) throws IOException {
+    String filename = file.getFileName().toString().toLowerCase();
+    try (Writer writer = Files.newBufferedWriter(file)) {
+      if (filename.endsWith(".prom") || filename.endsWith(".txt")) {
+        writePrometheus(writer);
+      } else {
+        writeJson(writer);
+      }
+    }
+  }
+
+  /**
+   * Writes metrics as JSON.  Times are in milliseconds.
+   */
+  public void writeJson(Writer writer) {
+    List<Map<String, Object>> histograms = new ArrayList<>();
+    for (Map.Entry<Key, Histogram> entry : sorted(m_histograms)) {
+      Histogram histogram = entry.getValue();
+      Map<String, Object> data = jsonMetric(entry.getKey());
+      data.put("count", histogram.getCount());
+      data.put("sum", toMillis(histogram.getSum()));
+      data.put("mean", toMillis(histogram.getMean()));
+      data.put("p50", toMillis(histogram.getPercentile(0.5)));
+      data.put("p95", toMillis(histogram.getPercentile(0.95)));
+      data.put("p99", toMillis(histogram.getPercentile(0.99)));
+      data.put("max", toMillis(histogram.getMax()));
+      histograms.add(data);
+    }
+    List<Map<String, Object>> counters = new ArrayList<>();
+    for (Map.Entry<Key, LongAdder> entry : sorted(m_counters)) {
+      Map<String, Object> data = jsonMetric(entry.getKey());
+      data.put("value", entry.getValue().sum());
+      counters.add(data);
+    }
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("histograms", histograms);
+    json.put("counters", counters);
+    DataSerializer.GSON.toJson(json, writer);
+  }
+
+  private static Map<String, Object> jsonMetric(Key key) {
+    Map<String, Object> data = new LinkedHashMap<>();
+    data.put("name", key.name());
+    if (!key.labels().isEmpty()) {
+      Map<String, String> labels = new LinkedHashMap<>();
+      for (int x = 0; x < key.labels().size(); x += 2) {
+        labels.put(key.labels().get(x), key.labels().get(x + 1));
+      }
+      data.put("labels", labels);
+    }
+    return data;
+  }
+
+  /**
+   * Writes metrics in the Prometheus text exposition format.
+   */
+  public void writePrometheus(Writer writer) throws IOException {
+    String lastName = null;
+    for (Map.Entry<Key, Histogram> entry : sorted(m_histograms)) {
+      Key key = entry.getKey();
+      if (!key.name().equals(lastName)) {
+        writer.write("# TYPE " + key.name() + " histogram\n");
+        lastName = key.name();
+      }
+      Histogram histogram = entry.getValue();
+      String labels = formatLabels(key.labels(), "=", "\"");
+      String prefix = labels.isEmpty() ? "" : labels + ",";
+      long cumulative = 0;
+      for (int x = 0; x < sf_bucketBounds.length; x += 1) {
+        cumulative += histogram.m_buckets.get(x);
+        writer.write(key.name() + "_bucket{" + prefix + "le=\"" + formatDouble(toSeconds(sf_bucketBounds[x])) +
+            "\"} " + cumulative + "\n");
+      }
+      writer.write(key.name() + "_bucket{" + prefix + "le=\"+Inf\"} " + histogram.getCount() + "\n");
+      String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+      writer.write(key.name() + "_sum" + suffix + " " + formatDouble(toSeconds(histogram.getSum())) + "\n");
+      writer.write(key.name() + "_count" + suffix + " " + histogram.getCount() + "\n");
+    }
+    lastName = null;
+    for (Map.Entry<Key, LongAdder> entry : sorted(m_counters)) {
+      Key key = entry.getKey();
+      if (!key.name().equals(lastName)) {
+        writer.write("# TYPE " + key.name() + " counter\n");
+        lastName = key.name();
+      }
+      String labels = formatLabels(key.labels(), "=", "\"");
+      writer.write(key.name() + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + entry.getValue().sum() + "\n");
+    }
+    writer.flush();
+  }
+
+  private static String formatDouble(double value) {
+    String str = String.format(Locale.ROOT, "%.6f", value);
+    // strip trailing zeros
+    str = str.replaceAll("0+$", "");
+    if (str.endsWith(".")) {
+      str = str.substring(0, str.length() - 1);
+    }
+    return str;
+  }
+
+
+  /**
+   * Summarizes the histograms, one per line.
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<Key, Histogram> entry : sorted(m_histograms)) {
+      Key key = entry.getKey();
+      Histogram histogram = entry.getValue();
+      if (!builder.isEmpty()) {
+        builder.append(System.lineSeparator());
+      }
+      builder.append(key.name());
+      if (!key.labels().isEmpty()) {
+        builder.append("{")
+            .append(formatLabels(key.labels(), "=", ""))
+            .append("}");
+      }
+      builder.append(": ")
+          .append(histogram);
+    }
+    return builder.toString();
+  }
+
+
+  /**
+   * A latency histogram with fixed buckets, from 100 microseconds to 1 minute.
+   */
+  public static class Histogram {
+    private final AtomicLongArray m_buckets = new AtomicLongArray(sf_bucketBounds.length + 1);
+    private final LongAdder m_count = new LongAdder();
+    private final LongAdder m_sum = new LongAdder();
+    private final LongAccumulator m_max = new LongAccumulator(Math::max, 0);
+
+
+    /**
+     * Records a latency, in nanoseconds.
+     */
+    public void record(long nanos) {
+      int idx = Arrays.binarySearch(sf_bucketBounds, nanos);
+      if (idx < 0) {
+        idx = -idx - 1;
+      }
+      m_buckets.incrementAndGet(idx);
+      m_count.increment();
+      m_sum.add(nanos);
+      m_max.accumulate(nanos);
+    }
+
+    public long getCount() {
+      return m_count.sum();
+    }
+
+    /**
+     * Gets the total of all recorded latencies, in nanoseconds.
+     */
+    public long getSum() {
+      return m_sum.sum();
+    }
+
+    /**
+     * Gets the mean latency, in nanoseconds.
+     */
+    public long getMean() {
+      long count = getCount();
+      return count == 0 ? 0 : getSum() / count;
+    }
+
+    /**
+     * Gets the largest recorded latency, in nanoseconds.
+     */
+    public long getMax() {
+      return m_max.get();
+    }
+
+    /**
+     * Gets an estimate of the given percentile, in nanoseconds.  This is the upper bound of the bucket the percentile
+     * falls in (or the max, if that is smaller).
+     *
+     * @param quantile a number between 0 and 1
+     */
+    public long getPercentile(double quantile) {
+      Preconditions.checkArgument(quantile >= 0 && quantile <= 1, "Quantile must be between 0 and 1");
+      long count = getCount();
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long)Math.ceil(quantile * count));
+      long cumulative = 0;
+      for (int x = 0; x < sf_bucketBounds.length; x += 1) {
+        cumulative += m_buckets.get(x);
+        if (cumulative >= rank) {
+          return Math.min(sf_bucketBounds[x], getMax());
+        }
+      }
+      return getMax();
+    }
+
+    @Override
+    public String toString() {
+      return getCount() + " calls, mean " + toMillis(getMean()) + " ms, p95 " + toMillis(getPercentile(0.95)) +
+          " ms, max " + toMillis(getMax()) + " ms, total " + toMillis(getSum()) + " ms";
+    }
+  }
+
+
+  /**
+   * JFR event for a recorded latency.
+   */
+  @Name("org.pharmgkb.pharmcat.Metric")
+  @Label("PharmCAT Metric")
+  @Category("PharmCAT")
+  @Description("Latency recorded by PharmCAT's metrics registry")
+  public static class MetricEvent extends Event {
+    @Label("Metric")
+    String metric;
+    @Label("Labels")
+    String labels;
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+  }
+}
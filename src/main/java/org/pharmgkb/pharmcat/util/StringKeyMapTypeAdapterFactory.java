@@ -0,0 +1,115 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * Reads {@link Map}s (serialized as JSON objects) using only the public {@link JsonReader} API.
+ * <p>
+ * Gson's own map adapter relies on internal access to its own {@link JsonReader} implementations to read keys, so it
+ * cannot be used with {@link BinaryJsonReader}.  Writing is left to Gson.
+ */
+class StringKeyMapTypeAdapterFactory implements TypeAdapterFactory {
+
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    if (!Map.class.isAssignableFrom(type.getRawType()) || !(type.getType() instanceof ParameterizedType pt) ||
+        pt.getActualTypeArguments().length != 2) {
+      return null;
+    }
+    Type[] typeArgs = pt.getActualTypeArguments();
+    TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+    TypeAdapter<?> keyAdapter = gson.getAdapter(TypeToken.get(typeArgs[0]));
+    TypeAdapter<?> valueAdapter = gson.getAdapter(TypeToken.get(typeArgs[1]));
+    return new Adapter<>(delegate, typeArgs[0] == String.class ? null : keyAdapter, valueAdapter);
+  }
+
+
+  private static class Adapter<T, K, V> extends TypeAdapter<T> {
+    private final TypeAdapter<T> m_delegate;
+    /** Adapter to convert keys with, or null if keys are strings. */
+    private final @Nullable TypeAdapter<K> m_keyAdapter;
+    private final TypeAdapter<V> m_valueAdapter;
+    private volatile @Nullable Constructor<T> m_constructor;
+    private volatile boolean m_checkedConstructor;
+
+    @SuppressWarnings("unchecked")
+    Adapter(TypeAdapter<T> delegate, @Nullable TypeAdapter<?> keyAdapter, TypeAdapter<?> valueAdapter) {
+      m_delegate = delegate;
+      m_keyAdapter = (TypeAdapter<K>)keyAdapter;
+      m_valueAdapter = (TypeAdapter<V>)valueAdapter;
+    }
+
+    /**
+     * Creates an empty map of the implementation that Gson picks for the declared type.
+     */
+    private T newMap() {
+      if (m_constructor != null) {
+        try {
+          return m_constructor.newInstance();
+        } catch (ReflectiveOperationException ex) {
+          throw new JsonIOException("Cannot create " + m_constructor.getDeclaringClass(), ex);
+        }
+      }
+      // this is slow, so remember the implementation if it can be created directly
+      T value = m_delegate.fromJsonTree(new JsonObject());
+      if (!m_checkedConstructor) {
+        m_checkedConstructor = true;
+        if (Modifier.isPublic(value.getClass().getModifiers())) {
+          try {
+            @SuppressWarnings("unchecked")
+            Constructor<T> constructor = (Constructor<T>)value.getClass().getConstructor();
+            m_constructor = constructor;
+          } catch (NoSuchMethodException ex) {
+            // no way to create it directly (e.g. EnumMap)
+          }
+        }
+      }
+      return value;
+    }
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+      m_delegate.write(out, value);
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      T value = newMap();
+      @SuppressWarnings("unchecked")
+      Map<K, V> map = (Map<K, V>)value;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        @SuppressWarnings("unchecked")
+        K key = m_keyAdapter == null ? (K)name : m_keyAdapter.fromJsonTree(new JsonPrimitive(name));
+        if (map.put(key, m_valueAdapter.read(in)) != null) {
+          throw new JsonSyntaxException("duplicate key: " + key);
+        }
+      }
+      in.endObject();
+      return value;
+    }
+  }
+}
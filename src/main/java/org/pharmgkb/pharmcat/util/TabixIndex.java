@@ -0,0 +1,280 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * Tabix ({@code .tbi}) or CSI ({@code .csi}) index for a BGZF-compressed VCF file.
+ * <p>
+ * This is used to find the chunks of the VCF file (as pairs of BGZF virtual offsets, see {@link BgzfReader}) that
+ * may contain records overlapping a region.  Chunks may contain records outside the region, so callers still need to
+ * filter records.
+ * <p>
+ * See the <a href="https://samtools.github.io/hts-specs/tabix.pdf">tabix</a> and
+ * <a href="https://samtools.github.io/hts-specs/CSIv1.pdf">CSI</a> specifications for details.
+ */
+public class TabixIndex {
+  private static final int sf_tbiMinShift = 14;
+  private static final int sf_tbiDepth = 5;
+  private final int m_minShift;
+  private final int m_depth;
+  private final Map<String, Integer> m_refIds = new HashMap<>();
+  private final List<Map<Integer, Bin>> m_bins = new ArrayList<>();
+  /** Linear index (only available for tabix indexes). */
+  private final List<long[]> m_linearIndex = new ArrayList<>();
+
+
+  private TabixIndex(int minShift, int depth) {
+    m_minShift = minShift;
+    m_depth = depth;
+  }
+
+
+  /**
+   * Gets the index file for the specified VCF file, if one exists.
+   */
+  public static @Nullable Path findIndex(Path vcfFile) {
+    for (String ext : new String[] { ".tbi", ".csi" }) {
+      Path indexFile = vcfFile.resolveSibling(vcfFile.getFileName() + ext);
+      if (Files.isRegularFile(indexFile)) {
+        return indexFile;
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Reads a tabix or CSI index.
+   */
+  public static TabixIndex read(Path indexFile) throws IOException {
+    byte[] data;
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(indexFile))) {
+      data = in.readAllBytes();
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      byte[] magic = new byte[4];
+      buffer.get(magic);
+      String magicStr = new String(magic, StandardCharsets.US_ASCII);
+      if (magicStr.equals("TBI\1")) {
+        return readTbi(buffer);
+      } else if (magicStr.equals("CSI\1")) {
+        return readCsi(buffer);
+      }
+      throw new IOException(indexFile + " is not a tabix or CSI index");
+    } catch (BufferUnderflowException ex) {
+      throw new IOException(indexFile + " is truncated", ex);
+    }
+  }
+
+  private static TabixIndex readTbi(ByteBuffer buffer) throws IOException {
+    TabixIndex index = new TabixIndex(sf_tbiMinShift, sf_tbiDepth);
+    int numRefs = buffer.getInt();
+    index.readNames(buffer);
+    for (int x = 0; x < numRefs; x += 1) {
+      Map<Integer, Bin> bins = new HashMap<>();
+      int numBins = buffer.getInt();
+      for (int y = 0; y < numBins; y += 1) {
+        int binId = buffer.getInt();
+        bins.put(binId, new Bin(0, readChunks(buffer)));
+      }
+      long[] linearIndex = new long[buffer.getInt()];
+      for (int y = 0; y < linearIndex.length; y += 1) {
+        linearIndex[y] = buffer.getLong();
+      }
+      index.m_bins.add(bins);
+      index.m_linearIndex.add(linearIndex);
+    }
+    return index;
+  }
+
+  private static TabixIndex readCsi(ByteBuffer buffer) throws IOException {
+    TabixIndex index = new TabixIndex(buffer.getInt(), buffer.getInt());
+    int auxLength = buffer.getInt();
+    if (auxLength < 28) {
+      // bcftools writes CSI indexes for VCF files without sequence names
+      throw new IOException("CSI index does not have sequence names");
+    }
+    int auxEnd = buffer.position() + auxLength;
+    index.readNames(buffer);
+    buffer.position(auxEnd);
+    int numRefs = buffer.getInt();
+    for (int x = 0; x < numRefs; x += 1) {
+      Map<Integer, Bin> bins = new HashMap<>();
+      int numBins = buffer.getInt();
+      for (int y = 0; y < numBins; y += 1) {
+        int binId = buffer.getInt();
+        long minOffset = buffer.getLong();
+        bins.put(binId, new Bin(minOffset, readChunks(buffer)));
+      }
+      index.m_bins.add(bins);
+    }
+    return index;
+  }
+
+  /**
+   * Reads the tabix header and sequence names.
+   */
+  private void readNames(ByteBuffer buffer) throws IOException {
+    int format = buffer.getInt();
+    if ((format & 0xffff) != 2) {
+      throw new IOException("Index is not for a VCF file");
+    }
+    // skip col_seq, col_beg, col_end, meta, skip
+    buffer.position(buffer.position() + 20);
+    byte[] names = new byte[buffer.getInt()];
+    buffer.get(names);
+    int start = 0;
+    for (int x = 0; x < names.length; x += 1) {
+      if (names[x] == 0) {
+        m_refIds.put(new String(names, start, x - start, StandardCharsets.UTF_8), m_refIds.size());
+        start = x + 1;
+      }
+    }
+  }
+
+  private static long[] readChunks(ByteBuffer buffer) {
+    long[] chunks = new long[buffer.getInt() * 2];
+    for (int x = 0; x < chunks.length; x += 1) {
+      chunks[x] = buffer.getLong();
+    }
+    return chunks;
+  }
+
+
+  /**
+   * Gets the ID of a contig, allowing for differences in use of the {@code chr} prefix.
+   */
+  private @Nullable Integer lookupRefId(String contig) {
+    Integer refId = m_refIds.get(contig);
+    if (refId == null) {
+      if (contig.startsWith("chr")) {
+        refId = m_refIds.get(contig.substring(3));
+      } else {
+        refId = m_refIds.get("chr" + contig);
+      }
+    }
+    return refId;
+  }
+
+  /**
+   * Checks if index has any data for the specified contig.
+   */
+  public boolean hasContig(String contig) {
+    return lookupRefId(contig) != null;
+  }
+
+
+  /**
+   * Gets the chunks that may contain records overlapping the specified region.
+   *
+   * @param start 1-based start position (inclusive)
+   * @param end 1-based end position (inclusive)
+   * @return chunks as pairs of virtual offsets ({@code [start, end)}), sorted and merged
+   */
+  public List<long[]> getChunks(String contig, long start, long end) {
+    Integer refId = lookupRefId(contig);
+    if (refId == null) {
+      return new ArrayList<>();
+    }
+    long beg = Math.max(0, start - 1);
+    Map<Integer, Bin> bins = m_bins.get(refId);
+
+    List<long[]> chunks = new ArrayList<>();
+    long minOffset = getMinOffset(refId, beg);
+    int binOffset = 0;
+    for (int level = 0, shift = m_minShift + m_depth * 3; level <= m_depth; level += 1, shift -= 3) {
+      long firstBin = binOffset + (beg >> shift);
+      long lastBin = binOffset + ((end - 1) >> shift);
+      for (long binId = firstBin; binId <= lastBin; binId += 1) {
+        Bin bin = bins.get((int)binId);
+        if (bin == null) {
+          continue;
+        }
+        for (int x = 0; x < bin.m_chunks.length; x += 2) {
+          if (Long.compareUnsigned(bin.m_chunks[x + 1], minOffset) > 0) {
+            chunks.add(new long[] { bin.m_chunks[x], bin.m_chunks[x + 1] });
+          }
+        }
+      }
+      binOffset += 1 << (level * 3);
+    }
+    return mergeChunks(chunks);
+  }
+
+  /**
+   * Gets the smallest virtual offset that a record overlapping {@code beg} (0-based) can be at.
+   */
+  private long getMinOffset(int refId, long beg) {
+    if (m_linearIndex.isEmpty()) {
+      // CSI: use the offset recorded on the lowest-level bin that exists
+      Map<Integer, Bin> bins = m_bins.get(refId);
+      int binOffset = ((1 << (m_depth * 3)) - 1) / 7;
+      for (int level = m_depth, shift = m_minShift; level >= 0; level -= 1, shift += 3) {
+        Bin bin = bins.get((int)(binOffset + (beg >> shift)));
+        if (bin != null) {
+          return bin.m_minOffset;
+        }
+        if (level > 0) {
+          binOffset -= 1 << ((level - 1) * 3);
+        }
+      }
+      return 0;
+    }
+    long[] linearIndex = m_linearIndex.get(refId);
+    if (linearIndex.length == 0) {
+      return 0;
+    }
+    int window = (int)Math.min(beg >> sf_tbiMinShift, linearIndex.length - 1);
+    return linearIndex[window];
+  }
+
+
+  /**
+   * Sorts chunks and merges any that overlap or abut.
+   */
+  public static List<long[]> mergeChunks(Collection<long[]> chunks) {
+    List<long[]> sorted = new ArrayList<>(chunks);
+    sorted.sort(Comparator.comparing((long[] c) -> c[0], Long::compareUnsigned));
+    List<long[]> merged = new ArrayList<>();
+    long[] current = null;
+    for (long[] chunk : sorted) {
+      if (current != null && Long.compareUnsigned(chunk[0], current[1]) <= 0) {
+        if (Long.compareUnsigned(chunk[1], current[1]) > 0) {
+          current[1] = chunk[1];
+        }
+      } else {
+        current = new long[] { chunk[0], chunk[1] };
+        merged.add(current);
+      }
+    }
+    return merged;
+  }
+
+
+  private static class Bin {
+    private final long m_minOffset;
+    private final long[] m_chunks;
+
+    Bin(long minOffset, long[] chunks) {
+      m_minOffset = minOffset;
+      m_chunks = chunks;
+    }
+  }
+}
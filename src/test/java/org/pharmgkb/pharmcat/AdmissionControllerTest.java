@@ -0,0 +1,202 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * This is a JUnit test for {@link AdmissionController}.
+ */
+class AdmissionControllerTest {
+  private static final long MB = 1024 * 1024;
+
+
+  @Test
+  void testBudget() {
+    // budget is 80% of 1000 MB, less 200 MB baseline = 600 MB
+    AdmissionController controller = new AdmissionController(8, 1000 * MB, 200 * MB);
+    assertTrue(controller.tryAdmit(250 * MB));
+    assertTrue(controller.tryAdmit(250 * MB));
+    assertFalse(controller.tryAdmit(250 * MB));
+    assertTrue(controller.tryAdmit(100 * MB));
+    assertEquals(3, controller.getInFlight());
+
+    controller.release(250 * MB);
+    controller.release(250 * MB);
+    controller.release(100 * MB);
+    assertEquals(0, controller.getInFlight());
+    // always admit if nothing else is running
+    assertTrue(controller.tryAdmit(5000 * MB));
+    assertFalse(controller.tryAdmit(1));
+  }
+
+  @Test
+  void testLimit() {
+    AdmissionController controller = new AdmissionController(4, 1000 * MB, 0);
+    for (int x = 0; x < 4; x += 1) {
+      assertTrue(controller.tryAdmit(MB));
+    }
+    assertFalse(controller.tryAdmit(MB));
+
+    // heap pressure cuts the limit in half
+    controller.onHeapUsage(900 * MB);
+    assertEquals(2, controller.getLimit());
+    controller.release(MB);
+    controller.release(MB);
+    assertFalse(controller.tryAdmit(MB));
+    controller.onHeapUsage(900 * MB);
+    assertEquals(1, controller.getLimit());
+    controller.onHeapUsage(900 * MB);
+    assertEquals(1, controller.getLimit());
+
+    // lots of free heap, and the limit is holding tasks back, so it can grow
+    controller.release(MB);
+    controller.onHeapUsage(100 * MB);
+    assertEquals(2, controller.getLimit());
+    assertTrue(controller.tryAdmit(MB));
+    controller.onHeapUsage(100 * MB);
+    assertEquals(3, controller.getLimit());
+    controller.release(MB);
+    // no longer held back, so stays put
+    controller.onHeapUsage(100 * MB);
+    assertEquals(3, controller.getLimit());
+    assertTrue(controller.toString().contains("2 throttles"), controller.toString());
+  }
+
+  @Test
+  void testMinorGc() {
+    AdmissionController controller = new AdmissionController(4, 1000 * MB, 100 * MB);
+    for (int x = 0; x < 4; x += 1) {
+      assertTrue(controller.tryAdmit(MB));
+    }
+    // young collections leave old generation garbage behind, so they must not throttle or calibrate
+    controller.onHeapUsage(900 * MB, false);
+    assertEquals(4, controller.getLimit());
+    assertEquals(1.0, controller.getCostScale());
+    assertTrue(controller.toString().contains("0 throttles"), controller.toString());
+
+    controller.onHeapUsage(900 * MB, true);
+    assertEquals(2, controller.getLimit());
+    controller.release(MB);
+    controller.release(MB);
+    // but they can raise the limit
+    controller.onHeapUsage(100 * MB, false);
+    assertEquals(3, controller.getLimit());
+  }
+
+  @Test
+  void testInitialLimit() {
+    AdmissionController controller = new AdmissionController(2, 4, 1000 * MB, 0);
+    assertTrue(controller.tryAdmit(MB));
+    assertTrue(controller.tryAdmit(MB));
+    assertFalse(controller.tryAdmit(MB));
+
+    // can grow past the initial limit, up to the max number of processes
+    for (int x = 3; x <= 4; x += 1) {
+      controller.onHeapUsage(100 * MB, false);
+      assertEquals(x, controller.getLimit());
+      assertTrue(controller.tryAdmit(MB));
+    }
+    controller.onHeapUsage(100 * MB, false);
+    assertEquals(4, controller.getLimit());
+    assertFalse(controller.tryAdmit(MB));
+    assertTrue(controller.toString().contains("2 expansions"), controller.toString());
+
+    assertThrows(IllegalArgumentException.class, () -> new AdmissionController(4, 2, 1000 * MB, 0));
+  }
+
+  @Test
+  void testCollectedOldGen() {
+    Set<String> oldGenPools = Set.of("G1 Old Gen");
+    assertTrue(AdmissionController.isOldGenPool("G1 Old Gen"));
+    assertTrue(AdmissionController.isOldGenPool("PS Old Gen"));
+    assertTrue(AdmissionController.isOldGenPool("Tenured Gen"));
+    assertFalse(AdmissionController.isOldGenPool("G1 Eden Space"));
+    assertFalse(AdmissionController.isOldGenPool("G1 Survivor Space"));
+    assertFalse(AdmissionController.isOldGenPool("ZGC Young Generation"));
+
+    Map<String, MemoryUsage> before = Map.of(
+        "G1 Eden Space", usage(300 * MB),
+        "G1 Old Gen", usage(500 * MB));
+    // young collection only promotes into the old generation
+    Map<String, MemoryUsage> afterYoung = Map.of(
+        "G1 Eden Space", usage(0),
+        "G1 Old Gen", usage(520 * MB));
+    // mixed collection also cleans up part of the old generation
+    Map<String, MemoryUsage> afterMixed = Map.of(
+        "G1 Eden Space", usage(0),
+        "G1 Old Gen", usage(400 * MB));
+    assertFalse(AdmissionController.collectedOldGen("end of minor GC", before, afterYoung, oldGenPools));
+    assertTrue(AdmissionController.collectedOldGen("end of minor GC", before, afterMixed, oldGenPools));
+    assertTrue(AdmissionController.collectedOldGen("end of major GC", before, afterYoung, oldGenPools));
+  }
+
+  private static MemoryUsage usage(long used) {
+    return new MemoryUsage(0, used, used, -1);
+  }
+
+  @Test
+  void testCostScale() {
+    AdmissionController controller = new AdmissionController(8, 1000 * MB, 0);
+    assertTrue(controller.tryAdmit(10 * MB));
+    assertTrue(controller.tryAdmit(10 * MB));
+    // tasks are using much more than estimated
+    for (int x = 0; x < 20; x += 1) {
+      controller.onHeapUsage(200 * MB);
+    }
+    assertTrue(controller.getCostScale() > 3.5, "Cost scale is " + controller.getCostScale());
+    // 20 MB reserved + 200 MB new, scaled by ~4 is over 800 MB budget
+    assertFalse(controller.tryAdmit(200 * MB));
+    assertTrue(controller.tryAdmit(10 * MB));
+  }
+
+
+  @Test
+  void testScheduler() throws Exception {
+    AdmissionController controller = new AdmissionController(4, 1000 * MB, 0);
+    AtomicInteger maxInFlight = new AtomicInteger();
+    BatchScheduler scheduler = new BatchScheduler(4, 4)
+        .progressTo(new PrintStream(new ByteArrayOutputStream()))
+        // each task is estimated to need 300 MB, so only 2 fit in the 800 MB budget
+        .admissionController(controller, (idx) -> 300 * MB);
+    scheduler.run(10,
+        (idx) -> () -> {
+          maxInFlight.accumulateAndGet(controller.getInFlight(), Math::max);
+          Thread.sleep(5);
+          return new PipelineResult(PipelineResult.Status.SUCCESS, "sample" + idx, null);
+        },
+        (rez) -> {});
+    assertEquals(10, scheduler.getDone());
+    assertEquals(2, maxInFlight.get());
+    assertEquals(0, controller.getInFlight());
+  }
+
+  @Test
+  void testSchedulerExpands() throws Exception {
+    // starts with 1 task at a time, but the pool is sized to the max of 4
+    AdmissionController controller = new AdmissionController(1, 4, 1000 * MB, 0);
+    AtomicInteger maxInFlight = new AtomicInteger();
+    BatchScheduler scheduler = new BatchScheduler(4, 4)
+        .progressTo(new PrintStream(new ByteArrayOutputStream()))
+        .admissionController(controller, (idx) -> MB);
+    scheduler.run(10,
+        (idx) -> () -> {
+          maxInFlight.accumulateAndGet(controller.getInFlight(), Math::max);
+          // plenty of free heap after GC, and tasks are being held back
+          controller.onHeapUsage(100 * MB, false);
+          Thread.sleep(20);
+          return new PipelineResult(PipelineResult.Status.SUCCESS, "sample" + idx, null);
+        },
+        (rez) -> {});
+    assertEquals(10, scheduler.getDone());
+    assertEquals(4, controller.getLimit());
+    assertTrue(maxInFlight.get() > 1, "Max in flight was " + maxInFlight.get());
+  }
+}
@@ -4,6 +4,7 @@
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -316,6 +317,33 @@ void singleSampleIgnoreUnrelated(TestInfo testInfo) throws Exception {
   }
 
 
+  /**
+   * A malformed line in a multi-sample VCF should only fail the samples in it, not stop the batch.
+   */
+  @Test
+  void malformedMultisampleVcf(TestInfo testInfo) throws Exception {
+    Path tmpDir = TestUtils.getTestOutputDir(testInfo, true);
+    Path vcfFile = tmpDir.resolve("malformed.vcf");
+    Files.copy(PathUtils.getPathToResource(
+        "org/pharmgkb/pharmcat/haplotype/NamedAlleleMatcher-unknownAltMultisample.vcf"), vcfFile);
+    // missing data for the second sample
+    Files.writeString(vcfFile, "chr19\t38444211\trs118192161\tC\tT\t.\tPASS\tPX=RYR1\tGT\t0/1\n",
+        StandardOpenOption.APPEND);
+
+    String systemOut = tapSystemOut(() -> BatchPharmCAT.main(new String[] {
+        "-vcf", vcfFile.toString(),
+        "-o", tmpDir.toString(),
+        "-cp", "2"
+    }));
+    System.out.println(systemOut);
+    assertThat(systemOut, containsString("in a single pass"));
+    assertThat(systemOut, containsString("FAILED Sample_1 in malformed"));
+    assertThat(systemOut, containsString("FAILED Sample_2 in malformed"));
+    assertThat(systemOut, containsString("Done."));
+    assertThat(systemOut, containsString("2 processed, 2 failed."));
+  }
+
+
   private void copyFiles(Path targetDir, Path... srcFiles) throws IOException {
     for (Path file : srcFiles) {
       Files.copy(file, targetDir.resolve(FilenameUtils.getName(file.toString())));
@@ -0,0 +1,103 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * This is a JUnit test for {@link BatchScheduler}.
+ */
+class BatchSchedulerTest {
+
+  @Test
+  void testRun() throws Exception {
+    AtomicInteger built = new AtomicInteger();
+    AtomicInteger finished = new AtomicInteger();
+    AtomicInteger maxOutstanding = new AtomicInteger();
+    List<String> results = new ArrayList<>();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    BatchScheduler scheduler = new BatchScheduler(2, 3)
+        .progressTo(new PrintStream(baos, true, StandardCharsets.UTF_8));
+    scheduler.run(20,
+        (idx) -> {
+          // tasks that have been built but not finished must never exceed processes + queue size
+          maxOutstanding.accumulateAndGet(built.incrementAndGet() - finished.get(), Math::max);
+          return () -> {
+            Thread.sleep(5);
+            finished.incrementAndGet();
+            return new PipelineResult(idx % 5 == 0 ? PipelineResult.Status.FAILURE : PipelineResult.Status.SUCCESS,
+                "sample" + idx, null);
+          };
+        },
+        (rez) -> results.add(rez.getBasename()));
+
+    assertEquals(20, built.get());
+    assertEquals(20, results.size());
+    assertTrue(maxOutstanding.get() <= 5, "Had " + maxOutstanding.get() + " outstanding tasks");
+    assertEquals(20, scheduler.getDone());
+    assertEquals(4, scheduler.getFailed());
+    String output = baos.toString(StandardCharsets.UTF_8);
+    assertTrue(output.startsWith("Progress: 20/20 done (100.0%), 4 failed"), output);
+  }
+
+  @Test
+  void testException() throws Exception {
+    List<PipelineResult> results = new ArrayList<>();
+    BatchScheduler scheduler = new BatchScheduler(2, 0)
+        .progressTo(new PrintStream(new ByteArrayOutputStream()));
+    scheduler.run(5,
+        (idx) -> () -> {
+          if (idx == 2) {
+            throw new IllegalStateException("boom");
+          }
+          return new PipelineResult(PipelineResult.Status.SUCCESS, "sample" + idx, null);
+        },
+        results::add);
+
+    // the rest of the batch still runs
+    assertEquals(5, results.size());
+    assertEquals(5, scheduler.getDone());
+    assertEquals(1, scheduler.getFailed());
+    List<PipelineResult> errors = results.stream()
+        .filter(r -> r.getError() != null)
+        .toList();
+    assertEquals(1, errors.size());
+    assertEquals(PipelineResult.Status.FAILURE, errors.get(0).getStatus());
+    assertEquals("task 3", errors.get(0).getBasename());
+    assertTrue(errors.get(0).getError() instanceof IllegalStateException);
+    assertEquals("boom", errors.get(0).getError().getMessage());
+  }
+
+  @Test
+  void testNoProgressForSingleTask() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    BatchScheduler scheduler = new BatchScheduler(2, 0)
+        .progressInterval(Duration.ZERO)
+        .progressTo(new PrintStream(baos, true, StandardCharsets.UTF_8));
+    scheduler.run(1,
+        (idx) -> () -> new PipelineResult(PipelineResult.Status.SUCCESS, "sample" + idx, null),
+        (rez) -> {});
+    assertEquals(1, scheduler.getDone());
+    assertEquals("", baos.toString(StandardCharsets.UTF_8));
+  }
+
+
+  @Test
+  void testFormatProgress() {
+    assertEquals("Progress: 0/10 done (0.0%), 0 failed, elapsed 0s",
+        BatchScheduler.formatProgress(0, 0, 10, Duration.ZERO));
+    assertEquals("Progress: 25/100 done (25.0%), 1 failed, 0.50/s, ETA 2m 30s, elapsed 50s",
+        BatchScheduler.formatProgress(25, 1, 100, Duration.ofSeconds(50)));
+    assertEquals("Progress: 100/100 done (100.0%), 0 failed, 0.02/s, elapsed 1h 23m 20s",
+        BatchScheduler.formatProgress(100, 0, 100, Duration.ofSeconds(5000)));
+  }
+}
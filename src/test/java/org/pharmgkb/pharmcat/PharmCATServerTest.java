@@ -0,0 +1,163 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.util.DataSerializer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link PharmCATServer}.
+ */
+class PharmCATServerTest {
+  private static PharmCATServer s_server;
+  private static HttpClient s_client;
+
+
+  @BeforeAll
+  static void prepare() throws Exception {
+    s_server = new PharmCATServer(new Env(), new InetSocketAddress("127.0.0.1", 0), 2);
+    s_server.start();
+    s_client = HttpClient.newHttpClient();
+  }
+
+  @AfterAll
+  static void teardown() {
+    s_server.stop();
+  }
+
+
+  private static URI uri(String path) {
+    return URI.create("http://127.0.0.1:" + s_server.getPort() + path);
+  }
+
+  private static HttpResponse<String> post(String path, String contentType, HttpRequest.BodyPublisher body)
+      throws IOException, InterruptedException {
+    HttpRequest request = HttpRequest.newBuilder(uri(path))
+        .header("Content-Type", contentType)
+        .POST(body)
+        .build();
+    return s_client.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+
+  @Test
+  void testVcf() throws Exception {
+    Path vcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/Sample_1.preprocessed.vcf");
+    HttpResponse<String> response = post(PharmCATServer.REPORT_PATH + "?format=json&title=Test", "text/plain",
+        HttpRequest.BodyPublishers.ofFile(vcfFile));
+    assertEquals(200, response.statusCode(), response.body());
+    assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith("application/json"));
+    String timing = response.headers().firstValue("Server-Timing").orElseThrow();
+    assertTrue(timing.contains("matcher;dur="), timing);
+    assertTrue(timing.contains("phenotyper;dur="), timing);
+    assertTrue(timing.contains("reporter;dur="), timing);
+    assertTrue(timing.contains("total;dur="), timing);
+
+    JsonObject report = DataSerializer.GSON.fromJson(response.body(), JsonObject.class);
+    assertEquals("Test", report.get("title").getAsString());
+    assertTrue(report.has("genes"));
+  }
+
+  @Test
+  void testJsonRequest() throws Exception {
+    Path outsideCallFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/PharmCATTest-cyp2d6.tsv");
+    String outsideCalls = Files.readString(outsideCallFile);
+    String body = DataSerializer.GSON.toJson(Map.of("outsideCalls", outsideCalls, "format", "json"));
+    HttpResponse<String> response = post(PharmCATServer.REPORT_PATH, "application/json",
+        HttpRequest.BodyPublishers.ofString(body));
+    assertEquals(200, response.statusCode(), response.body());
+    assertTrue(response.body().contains("CYP2D6*3"));
+    // no VCF, so the matcher should not have run
+    assertFalse(response.headers().firstValue("Server-Timing").orElseThrow().contains("matcher"));
+
+    // defaults to HTML
+    body = DataSerializer.GSON.toJson(Map.of("outsideCalls", outsideCalls));
+    response = post(PharmCATServer.REPORT_PATH, "application/json", HttpRequest.BodyPublishers.ofString(body));
+    assertEquals(200, response.statusCode(), response.body());
+    assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith("text/html"));
+  }
+
+  @Test
+  void testOutsideCallWarnings() throws Exception {
+    String body = DataSerializer.GSON.toJson(Map.of("outsideCalls", "CYP2D6\t*1/*3\nFOO\t*1/*2\n", "format", "json"));
+    HttpResponse<String> response = post(PharmCATServer.REPORT_PATH, "application/json",
+        HttpRequest.BodyPublishers.ofString(body));
+    assertEquals(200, response.statusCode(), response.body());
+    List<String> warnings = response.headers().allValues("X-PharmCAT-Warning");
+    assertEquals(1, warnings.size(), warnings.toString());
+    assertTrue(warnings.get(0).contains("Discarded outside call for FOO"), warnings.get(0));
+  }
+
+  @Test
+  void testTooLarge() throws Exception {
+    // rejected based on Content-Length, without sending (or reading) the body
+    try (Socket socket = new Socket("127.0.0.1", s_server.getPort())) {
+      OutputStream out = socket.getOutputStream();
+      out.write(("POST " + PharmCATServer.REPORT_PATH + " HTTP/1.1\r\n" +
+          "Host: 127.0.0.1\r\n" +
+          "Content-Type: text/plain\r\n" +
+          "Content-Length: " + (1L << 40) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      String statusLine = in.readLine();
+      assertTrue(statusLine.contains(" 413 "), statusLine);
+    }
+  }
+
+  @Test
+  void testBadRequests() throws Exception {
+    HttpResponse<String> response = post(PharmCATServer.REPORT_PATH, "application/json",
+        HttpRequest.BodyPublishers.ofString("{}"));
+    assertEquals(400, response.statusCode());
+    assertTrue(response.body().contains("Missing VCF"));
+
+    response = post(PharmCATServer.REPORT_PATH + "?format=pdf", "text/plain",
+        HttpRequest.BodyPublishers.ofString("##fileformat=VCFv4.2"));
+    assertEquals(400, response.statusCode());
+    assertTrue(response.body().contains("Unknown format"));
+
+    response = s_client.send(HttpRequest.newBuilder(uri(PharmCATServer.REPORT_PATH)).GET().build(),
+        HttpResponse.BodyHandlers.ofString());
+    assertEquals(405, response.statusCode());
+  }
+
+  @Test
+  void testStatus() throws Exception {
+    HttpResponse<String> response = s_client.send(HttpRequest.newBuilder(uri(PharmCATServer.STATUS_PATH)).build(),
+        HttpResponse.BodyHandlers.ofString());
+    assertEquals(200, response.statusCode());
+    JsonObject status = DataSerializer.GSON.fromJson(response.body(), JsonObject.class);
+    assertEquals(2, status.get("maxConcurrent").getAsInt());
+    assertEquals(0, status.get("running").getAsInt());
+  }
+
+
+  @Test
+  void testServerTiming() {
+    Map<String, Long> timings = new LinkedHashMap<>();
+    timings.put("matcher", 1_500_000L);
+    timings.put("total", 12_345_678L);
+    assertEquals("matcher;dur=1.5, total;dur=12.3", PharmCATServer.toServerTiming(timings));
+  }
+}
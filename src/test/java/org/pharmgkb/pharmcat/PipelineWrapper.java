@@ -113,10 +113,10 @@ TestVcfBuilder getVcfBuilder() {
     }
     Pipeline pcat = new Pipeline(m_env,
         runMatcher, vcfFileObj, null, true,
-        m_topCandidatesOnly, m_callCyp2d6, m_findCombinations, true,
+        m_topCandidatesOnly, m_callCyp2d6, m_findCombinations, true, false,
         true, null, outsideCallPath,
         true, null, null, m_sources, m_compactReport, true, true,
-        m_outputPath, null, m_compactReport,
+        m_outputPath, null, m_compactReport, false, false, false,
         Pipeline.Mode.TEST, null, false
     );
     pcat.call();
@@ -0,0 +1,106 @@
+package org.pharmgkb.pharmcat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * This is a JUnit test for {@link RunManifest}.
+ */
+class RunManifestTest {
+
+  @Test
+  void testResume(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+    Path vcfFile = Files.writeString(dir.resolve("test.vcf"), "##fileformat=VCFv4.2\n");
+    String inputs = RunManifest.fingerprint(List.of(vcfFile));
+    Path matcherFile = Files.writeString(dir.resolve("test.S1.match.json"), "{}");
+    Path phenotyperFile = Files.writeString(dir.resolve("test.S2.phenotype.json"), "{}");
+    Path reporterFile = Files.writeString(dir.resolve("test.S3.report.html"), "<html></html>");
+
+    try (RunManifest manifest = new RunManifest(dir, "1.0", "sig")) {
+      assertFalse(manifest.check("test:S1", inputs).skip());
+      // S1 died after the matcher
+      manifest.recordStage("test:S1", inputs, "test.S1", RunManifest.STAGE_MATCHER, matcherFile);
+      // S2 died after the phenotyper
+      manifest.recordStage("test:S2", inputs, "test.S2", RunManifest.STAGE_MATCHER,
+          dir.resolve("test.S2.match.json"));
+      manifest.recordStage("test:S2", inputs, "test.S2", RunManifest.STAGE_PHENOTYPER, phenotyperFile);
+      // S3 finished
+      manifest.recordDone("test:S3", inputs, PipelineResult.Status.SUCCESS, List.of(reporterFile));
+      // S4 failed
+      manifest.recordDone("test:S4", inputs, PipelineResult.Status.FAILURE, List.of());
+    }
+    // a partially written line from a run that died
+    Files.writeString(dir.resolve(RunManifest.FILENAME), "{\"type\":\"done\",\"key\":\"te",
+        StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+    try (RunManifest manifest = new RunManifest(dir, "1.0", "sig")) {
+      RunManifest.Resume resume = manifest.check("test:S1", inputs);
+      assertFalse(resume.skip());
+      assertEquals(RunManifest.STAGE_MATCHER, resume.resumeStage());
+      assertEquals(matcherFile.toAbsolutePath(), resume.resumeFile());
+      assertEquals("test.S1", resume.basename());
+
+      // latest stage wins, and matcher output was never written
+      resume = manifest.check("test:S2", inputs);
+      assertFalse(resume.skip());
+      assertEquals(RunManifest.STAGE_PHENOTYPER, resume.resumeStage());
+
+      assertTrue(manifest.check("test:S3", inputs).skip());
+
+      resume = manifest.check("test:S4", inputs);
+      assertFalse(resume.skip());
+      assertNull(resume.resumeStage());
+
+      assertFalse(manifest.check("test:S5", inputs).skip());
+    }
+
+    // different options or versions ignore everything
+    try (RunManifest manifest = new RunManifest(dir, "1.0", "other")) {
+      assertFalse(manifest.check("test:S3", inputs).skip());
+      assertNull(manifest.check("test:S1", inputs).resumeStage());
+    }
+    try (RunManifest manifest = new RunManifest(dir, "2.0", "sig")) {
+      assertFalse(manifest.check("test:S3", inputs).skip());
+    }
+
+    // changed outputs
+    Files.delete(reporterFile);
+    Files.setLastModifiedTime(matcherFile, FileTime.fromMillis(0));
+    try (RunManifest manifest = new RunManifest(dir, "1.0", "sig")) {
+      assertFalse(manifest.check("test:S3", inputs).skip());
+      assertNull(manifest.check("test:S1", inputs).resumeStage());
+    }
+
+    // changed inputs
+    Files.writeString(vcfFile, "##fileformat=VCFv4.3\n##source=test\n");
+    String newInputs = RunManifest.fingerprint(List.of(vcfFile));
+    assertNotEquals(inputs, newInputs);
+    try (RunManifest manifest = new RunManifest(dir, "1.0", "sig")) {
+      assertNull(manifest.check("test:S2", newInputs).resumeStage());
+    }
+  }
+
+  @Test
+  void testWriteError(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+    try (RunManifest manifest = new RunManifest(dir, "1.0", "sig")) {
+      // can't write to a directory
+      Files.createDirectory(manifest.getFile());
+      assertFalse(manifest.isDisabled());
+      // must not fail the task
+      manifest.recordDone("test:S1", "inputs", PipelineResult.Status.SUCCESS, List.of());
+      assertTrue(manifest.isDisabled());
+      manifest.recordDone("test:S2", "inputs", PipelineResult.Status.SUCCESS, List.of());
+    }
+  }
+}
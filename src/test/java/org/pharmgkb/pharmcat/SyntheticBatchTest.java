@@ -560,10 +560,10 @@ private void makeReport(String key, String[] testVcfs, Path outsideCallPath) thr
     Path sampleVcf = writeVcf(testDir.resolve(key + ".vcf"), testVcfs);
     new Pipeline(new Env(),
         true, new VcfFile(sampleVcf), null, true,
-        true, false, false, true,
+        true, false, false, true, false,
         true, null, outsideCallPath,
         true, null, null, m_sources, m_compact, false, true,
-        testDir, null, m_compact,
+        testDir, null, m_compact, false, false, false,
         Pipeline.Mode.TEST, null, false
     ).call();
   }
@@ -0,0 +1,104 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link BitmaskMatcher}.
+ */
+class BitmaskMatcherTest {
+
+
+  @Test
+  void testAccepts() {
+    assertTrue(BitmaskMatcher.accepts("A", "A"));
+    assertFalse(BitmaskMatcher.accepts("A", "G"));
+    assertTrue(BitmaskMatcher.accepts("R", "A"));
+    assertTrue(BitmaskMatcher.accepts("R", "G"));
+    assertFalse(BitmaskMatcher.accepts("R", "C"));
+    assertFalse(BitmaskMatcher.accepts("N", "."));
+    assertTrue(BitmaskMatcher.accepts("-", "del"));
+    assertFalse(BitmaskMatcher.accepts("-", "-"));
+    assertTrue(BitmaskMatcher.accepts("CAT", "CAT"));
+    assertFalse(BitmaskMatcher.accepts("CAT", "C"));
+  }
+
+
+  /**
+   * Multi-base alleles are compared literally, without expanding IUPAC codes.
+   */
+  @Test
+  void testMultiBaseAlleles() {
+    assertTrue(BitmaskMatcher.accepts("AN", "AN"));
+    assertFalse(BitmaskMatcher.accepts("AN", "AG"));
+    assertFalse(BitmaskMatcher.accepts("RT", "AT"));
+    assertTrue(BitmaskMatcher.accepts("delC", "delC"));
+    assertFalse(BitmaskMatcher.accepts("delC", "del"));
+    // same as the regular expression
+    for (String seq : new String[] { "AN", "AG", "AT", "GT" }) {
+      assertEquals(Pattern.compile("AN").matcher(seq).matches(), BitmaskMatcher.accepts("AN", seq), seq);
+      assertEquals(Pattern.compile("RT").matcher(seq).matches(), BitmaskMatcher.accepts("RT", seq), seq);
+    }
+    // except that regex syntax is not interpreted
+    assertTrue(BitmaskMatcher.accepts("A(TA)7TAA", "A(TA)7TAA"));
+    assertFalse(BitmaskMatcher.accepts("A(TA)7TAA", "ATA7TAA"));
+    assertFalse(BitmaskMatcher.accepts("A.", "AG"));
+  }
+
+
+  @Test
+  void testMatchesRegex() {
+
+    VariantLocus var1 = new VariantLocus("chr1", 1, "g.1T>A");
+    VariantLocus var2 = new VariantLocus("chr1", 2, "g.2T>A");
+    VariantLocus var3 = new VariantLocus("chr1", 3, "g.3T>A");
+    VariantLocus var4 = new VariantLocus("chr1", 4, "g.4T>A");
+    VariantLocus[] variants = new VariantLocus[] { var1, var2, var3, var4 };
+
+    String[] alleles = new String[] { "T", "A", "C", "C" };
+    NamedAllele hap1 = new NamedAllele("*1", "*1", alleles, alleles, true);
+    hap1.initialize(variants);
+
+    alleles = new String[] { null, "T", "C", null };
+    NamedAllele hap2 = new NamedAllele("*2", "*2", alleles, alleles, false);
+    hap2.initialize(variants);
+
+    alleles = new String[] { null, null, "CAT", "S" };
+    NamedAllele hap3 = new NamedAllele("*3", "*3", alleles, alleles, false);
+    hap3.initialize(variants);
+
+    List<String> sequences = List.of(
+        "1:T;2:A;3:C;4:C;",
+        "1:T;2:A;3:C;4:G;",
+        "1:T;2:T;3:C;4:C;",
+        "1:T;2:T;3:CAT;4:G;",
+        "1:T;2:T;3:CAT;4:T;"
+    );
+    BitmaskMatcher matcher = new BitmaskMatcher(variants, sequences);
+    for (NamedAllele hap : List.of(hap1, hap2, hap3)) {
+      List<String> expected = sequences.stream()
+          .filter(s -> hap.getPermutations().matcher(s).matches())
+          .toList();
+      assertEquals(expected, matcher.match(hap), hap.getName());
+    }
+    assertEquals(List.of("1:T;2:A;3:C;4:C;"), matcher.match(hap1));
+    assertEquals(List.of("1:T;2:T;3:CAT;4:G;"), matcher.match(hap3));
+  }
+
+
+  @Test
+  void testBadSequence() {
+    VariantLocus[] variants = new VariantLocus[] {
+        new VariantLocus("chr1", 1, "g.1T>A"),
+        new VariantLocus("chr1", 2, "g.2T>A"),
+    };
+    assertThrows(IllegalArgumentException.class, () -> new BitmaskMatcher(variants, List.of("1:T;")));
+    assertThrows(IllegalArgumentException.class, () -> new BitmaskMatcher(variants, List.of("1:T;3:A;")));
+  }
+}
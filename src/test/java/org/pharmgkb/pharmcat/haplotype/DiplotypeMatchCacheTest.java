@@ -0,0 +1,98 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.model.DiplotypeMatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link DiplotypeMatchCache}.
+ */
+class DiplotypeMatchCacheTest {
+  private static final String sf_gene = "CYP2C9";
+
+
+  /**
+   * Builds data with reference alleles at all positions except for an alt allele at {@code altIdx} (if not -1).
+   */
+  private static MatchData buildData(GeneMatcherIndex index, String sampleId, int altIdx) {
+    VariantLocus[] positions = index.getAllPositions();
+    SortedMap<String, SampleAllele> alleleMap = new TreeMap<>();
+    for (int x = 0; x < positions.length; x += 1) {
+      VariantLocus vl = positions[x];
+      List<String> vcfAlleles = new ArrayList<>();
+      vcfAlleles.add(vl.getRef());
+      vcfAlleles.addAll(vl.getAlts());
+      String a2 = x == altIdx ? vl.getAlts().get(0) : vl.getRef();
+      // unphased, but homozygous positions are effectively phased
+      alleleMap.put(vl.getVcfChrPosition(), new SampleAllele(vl.getChromosome(), vl.getPosition(), vl.getRef(), a2,
+          false, x != altIdx, vcfAlleles, null, false));
+    }
+    MatchData data = index.initializeCallData(sampleId, alleleMap, true, false);
+    data.generateSamplePermutations();
+    return data;
+  }
+
+
+  @Test
+  void testCache() throws Exception {
+    GeneMatcherIndex index = new DefinitionReader().getMatcherIndex(sf_gene);
+    DiplotypeMatchCache cache = new DiplotypeMatchCache(2);
+    AtomicInteger numComputed = new AtomicInteger();
+
+    List<MatchData> samples = List.of(
+        buildData(index, "s1", -1),
+        buildData(index, "s2", -1),
+        buildData(index, "s3", 1),
+        buildData(index, "s4", 2),
+        buildData(index, "s5", -1)
+    );
+    List<List<DiplotypeMatch>> results = new ArrayList<>();
+    for (MatchData data : samples) {
+      results.add(cache.get(data, false, true, () -> {
+        numComputed.incrementAndGet();
+        return new DiplotypeMatcher(data).compute(false, true);
+      }));
+    }
+
+    // s2 is a hit, s5 was evicted by s3 and s4
+    assertEquals(1, cache.getHits());
+    assertEquals(4, cache.getMisses());
+    assertEquals(4, numComputed.get());
+    assertEquals(2, cache.size());
+
+    for (int x = 0; x < samples.size(); x += 1) {
+      MatchData data = samples.get(x);
+      List<String> expected = new DiplotypeMatcher(data).compute(false, true).stream()
+          .map(DiplotypeMatch::getName)
+          .toList();
+      assertEquals(expected, results.get(x).stream().map(DiplotypeMatch::getName).toList(), data.toString());
+      for (DiplotypeMatch dm : results.get(x)) {
+        assertSame(data, dm.getDataset());
+      }
+    }
+    assertNotEquals(results.get(0).get(0).getName(), results.get(2).get(0).getName());
+  }
+
+
+  @Test
+  void testKey() throws Exception {
+    GeneMatcherIndex index = new DefinitionReader().getMatcherIndex(sf_gene);
+    MatchData data1 = buildData(index, "s1", 1);
+    MatchData data2 = buildData(index, "s2", 1);
+    MatchData data3 = buildData(index, "s3", 2);
+
+    assertEquals(DiplotypeMatchCache.buildKey(data1, false, true), DiplotypeMatchCache.buildKey(data2, false, true));
+    assertNotEquals(DiplotypeMatchCache.buildKey(data1, false, true), DiplotypeMatchCache.buildKey(data3, false, true));
+    assertNotEquals(DiplotypeMatchCache.buildKey(data1, false, true), DiplotypeMatchCache.buildKey(data1, true, true));
+    assertNotEquals(DiplotypeMatchCache.buildKey(data1, false, true), DiplotypeMatchCache.buildKey(data1, false, false));
+  }
+}
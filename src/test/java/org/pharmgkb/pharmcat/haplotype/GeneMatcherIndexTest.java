@@ -0,0 +1,118 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link GeneMatcherIndex}.
+ */
+class GeneMatcherIndexTest {
+  private static final String sf_gene = "CYP2C9";
+
+
+  /**
+   * Builds reference alleles for all positions except those at {@code skip}.
+   */
+  private static SortedMap<String, SampleAllele> buildAlleleMap(VariantLocus[] positions, int... skip) {
+    SortedMap<String, SampleAllele> alleleMap = new TreeMap<>();
+    for (int x = 0; x < positions.length; x += 1) {
+      final int idx = x;
+      if (Arrays.stream(skip).anyMatch(s -> s == idx)) {
+        continue;
+      }
+      VariantLocus vl = positions[x];
+      List<String> vcfAlleles = new ArrayList<>();
+      vcfAlleles.add(vl.getRef());
+      vcfAlleles.addAll(vl.getAlts());
+      alleleMap.put(vl.getVcfChrPosition(), new SampleAllele(vl.getChromosome(), vl.getPosition(), vl.getRef(),
+          vl.getRef(), false, vcfAlleles));
+    }
+    return alleleMap;
+  }
+
+
+  @Test
+  void testShared() throws Exception {
+    DefinitionReader definitionReader = new DefinitionReader();
+    GeneMatcherIndex index = definitionReader.getMatcherIndex(sf_gene);
+    assertSame(index, definitionReader.getMatcherIndex(sf_gene));
+    VariantLocus[] positions = index.getAllPositions();
+    assertTrue(positions.length > 3);
+
+    MatchData data1 = index.initializeCallData("s1", buildAlleleMap(positions, 1), true, false);
+    MatchData data2 = index.initializeCallData("s2", buildAlleleMap(positions, 1), true, false);
+    MatchData data3 = index.initializeCallData("s3", buildAlleleMap(positions, 2), true, false);
+    MatchData data4 = index.initializeCallData("s4", buildAlleleMap(positions, 1), false, false);
+
+    assertSame(data1.getHaplotypes(), data2.getHaplotypes());
+    assertNotSame(data1.getHaplotypes(), data3.getHaplotypes());
+    assertNotSame(data1.getHaplotypes(), data4.getHaplotypes());
+    assertEquals(3, index.getNumDerivedHaplotypeSets());
+  }
+
+
+  @Test
+  void testBounded() throws Exception {
+    DefinitionReader definitionReader = new DefinitionReader();
+    GeneMatcherIndex defaultIndex = definitionReader.getMatcherIndex(sf_gene);
+    GeneMatcherIndex index = new GeneMatcherIndex(sf_gene, defaultIndex.getAllPositions(),
+        new TreeSet<>(defaultIndex.getHaplotypes()), defaultIndex.getExtraPositions(),
+        defaultIndex.getUnusedPositions(), 2);
+    VariantLocus[] positions = index.getAllPositions();
+
+    MatchData data1 = index.initializeCallData("s1", buildAlleleMap(positions, 1), true, false);
+    index.initializeCallData("s2", buildAlleleMap(positions, 2), true, false);
+    // touch s1's entry so that s2's is the least recently used
+    assertSame(data1.getHaplotypes(),
+        index.initializeCallData("s1", buildAlleleMap(positions, 1), true, false).getHaplotypes());
+    index.initializeCallData("s3", buildAlleleMap(positions, 3), true, false);
+    assertEquals(2, index.getNumDerivedHaplotypeSets());
+
+    assertSame(data1.getHaplotypes(),
+        index.initializeCallData("s1", buildAlleleMap(positions, 1), true, false).getHaplotypes());
+  }
+
+
+  @Test
+  void testSameAsUncached() throws Exception {
+    DefinitionReader definitionReader = new DefinitionReader();
+    GeneMatcherIndex index = definitionReader.getMatcherIndex(sf_gene);
+    VariantLocus[] positions = index.getAllPositions();
+    SortedMap<String, SampleAllele> alleleMap = buildAlleleMap(positions, 0, 2);
+
+    // prime cache
+    index.initializeCallData("s1", alleleMap, true, false);
+    MatchData cached = index.initializeCallData("s2", alleleMap, true, false);
+
+    MatchData uncached = new MatchData("s2", sf_gene, alleleMap, positions, index.getExtraPositions(),
+        index.getUnusedPositions());
+    uncached.marshallHaplotypes(sf_gene, new TreeSet<>(index.getHaplotypes()), false);
+    uncached.defaultMissingAllelesToReference();
+
+    SortedSet<NamedAllele> expected = uncached.getHaplotypes();
+    SortedSet<NamedAllele> actual = cached.getHaplotypes();
+    assertEquals(expected.size(), actual.size());
+    for (NamedAllele hap : expected) {
+      NamedAllele match = actual.stream()
+          .filter(h -> h.getId().equals(hap.getId()))
+          .findFirst()
+          .orElseThrow();
+      assertArrayEquals(hap.getAlleles(), match.getAlleles(), hap.getName());
+      assertEquals(hap.getScore(), match.getScore(), hap.getName());
+      assertEquals(hap.getMissingPositions(), match.getMissingPositions(), hap.getName());
+    }
+    assertArrayEquals(uncached.getPositions(), cached.getPositions());
+  }
+}
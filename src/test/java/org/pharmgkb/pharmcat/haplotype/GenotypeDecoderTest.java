@@ -0,0 +1,76 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link GenotypeDecoder}.
+ */
+class GenotypeDecoderTest {
+  private static final Pattern sf_gtDelimiter = Pattern.compile("[|/]");
+  private static final Pattern sf_noCallPattern = Pattern.compile("^[.|/]+$");
+
+
+  @Test
+  void testGt() {
+    GenotypeDecoder decoder = new GenotypeDecoder();
+    List<String> gts = List.of("0/0", "0|1", "1/2", "./1", "0/.", "1", ".", "./.", ".|.", "0/1/2", "10|3", "0/",
+        "0//", "+1/0", "", "a/1", "/1", "0/1|", "|", "2/2");
+    for (String gt : gts) {
+      assertEquals(sf_noCallPattern.matcher(gt).matches(), GenotypeDecoder.isNoCall(gt), gt);
+      if (GenotypeDecoder.isNoCall(gt)) {
+        continue;
+      }
+
+      // reference implementation
+      int[] expected;
+      String[] gtArray;
+      try {
+        gtArray = sf_gtDelimiter.split(gt);
+        expected = Arrays.stream(gtArray)
+            .filter(a -> !a.equals("."))
+            .mapToInt(Integer::parseInt)
+            .toArray();
+      } catch (NumberFormatException ex) {
+        assertThrows(NumberFormatException.class, () -> decoder.decodeGt(gt), gt);
+        continue;
+      }
+
+      decoder.decodeGt(gt);
+      assertEquals(expected.length, decoder.getNumAlleles(), gt);
+      for (int x = 0; x < expected.length; x += 1) {
+        assertEquals(expected[x], decoder.getAllele(x), gt);
+        assertTrue(decoder.contains(expected[x]), gt);
+      }
+      assertFalse(decoder.contains(99), gt);
+      assertEquals(gtArray.length == 1, decoder.isHaploid(), gt);
+      assertEquals(gt.contains("/"), decoder.isUnphased(), gt);
+      assertEquals(Arrays.stream(expected).distinct().count(), decoder.getNumDistinctAlleles(), gt);
+    }
+  }
+
+
+  @Test
+  void testAd() {
+    List<String> ads = List.of("10,0", "5,5", "0,0", "0,3,0", ".,4", "3,", "", ",3", "a,1", "1,,2", "-1,2", "7");
+    for (String ad : ads) {
+      // reference implementation
+      int expected;
+      try {
+        expected = (int)Arrays.stream(ad.split(","))
+            .filter(a -> !a.equals("."))
+            .mapToInt(Integer::parseInt)
+            .filter(d -> d > 0)
+            .count();
+      } catch (NumberFormatException ex) {
+        expected = -1;
+      }
+      assertEquals(expected, GenotypeDecoder.countPositiveDepths(ad), ad);
+    }
+  }
+}
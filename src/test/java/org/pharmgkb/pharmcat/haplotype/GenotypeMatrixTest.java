@@ -0,0 +1,121 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link GenotypeMatrix}.
+ */
+class GenotypeMatrixTest {
+
+
+  private static ImmutableMap<String, VariantLocus> locations() {
+    return ImmutableMap.of(
+        "chr1:100", new VariantLocus("chr1", 100, "g.100A>G"),
+        "chr1:200", new VariantLocus("chr1", 200, "g.200C>T"),
+        "chrX:300", new VariantLocus("chrX", 300, "g.300G>A")
+    );
+  }
+
+
+  @Test
+  void testRoundTrip() {
+    GenotypeMatrix matrix = new GenotypeMatrix(locations(), 3);
+    assertEquals(3, matrix.getNumSamples());
+    assertEquals(3, matrix.getNumPositions());
+    assertEquals(1, matrix.getPositionIndex("chr1:200"));
+    assertEquals(-1, matrix.getPositionIndex("chr1:999"));
+
+    SampleAllele s0p0 = new SampleAllele("chr1", 100, "a", "G", true, true, List.of("A", "G"), null, false);
+    SampleAllele s0p1 = new SampleAllele("chr1", 200, "T", ".", false, false, List.of("C", "T"), null, false);
+    SampleAllele s1p0 = new SampleAllele("chr1", 100, "G", "G", false, true, List.of("A", "G"), null, false);
+    SampleAllele s1p2 = new SampleAllele("chrX", 300, "A", null, false, false, List.of("G", "A"), null, false);
+    // undocumented variation cannot be packed
+    SampleAllele s2p0 = new SampleAllele("chr1", 100, "A", "C", false, false, List.of("A", "C"), Set.of("C"), true);
+    matrix.set(0, "chr1:100", s0p0);
+    matrix.set(0, "chr1:200", s0p1);
+    matrix.set(1, "chr1:100", s1p0);
+    matrix.set(1, "chrX:300", s1p2);
+    matrix.set(2, "chr1:100", s2p0);
+
+    assertTrue(matrix.hasData(0, 1));
+    assertFalse(matrix.hasData(2, 1));
+    assertNull(matrix.get(2, 1));
+
+    SortedMap<String, SampleAllele> alleleMap = matrix.getAlleleMap(0);
+    assertEquals(List.of("chr1:100", "chr1:200"), List.copyOf(alleleMap.keySet()));
+    assertSameAllele(s0p0, alleleMap.get("chr1:100"));
+    assertSameAllele(s0p1, alleleMap.get("chr1:200"));
+
+    alleleMap = matrix.getAlleleMap(1);
+    assertEquals(List.of("chr1:100", "chrX:300"), List.copyOf(alleleMap.keySet()));
+    assertSameAllele(s1p0, alleleMap.get("chr1:100"));
+    assertSameAllele(s1p2, alleleMap.get("chrX:300"));
+
+    alleleMap = matrix.getAlleleMap(2);
+    assertEquals(1, alleleMap.size());
+    assertSame(s2p0, alleleMap.get("chr1:100"));
+  }
+
+
+  @Test
+  void testLowerCase() {
+    GenotypeMatrix matrix = new GenotypeMatrix(locations(), 2);
+    SampleAllele s0 = new SampleAllele("chr1", 100, "a", "g", false, false, List.of("a", "g"), null, false);
+    SampleAllele s1 = new SampleAllele("chr1", 100, "G", ".", false, false, List.of("a", "g"), null, false);
+    matrix.set(0, "chr1:100", s0);
+    matrix.set(1, "chr1:100", s1);
+
+    SampleAllele sampleAllele = matrix.get(0, 0);
+    assertNotNull(sampleAllele);
+    assertNotSame(s0, sampleAllele);
+    assertEquals("A", sampleAllele.getAllele1());
+    assertEquals("G", sampleAllele.getAllele2());
+    assertSameAllele(s0, sampleAllele);
+
+    sampleAllele = matrix.get(1, 0);
+    assertNotNull(sampleAllele);
+    assertNotSame(s1, sampleAllele);
+    assertSameAllele(s1, sampleAllele);
+  }
+
+
+  @Test
+  void testCountUnphased() {
+    GenotypeMatrix matrix = new GenotypeMatrix(locations(), 2);
+    matrix.set(0, "chr1:100", new SampleAllele("chr1", 100, "A", "G", false, false, List.of("A", "G"), null, false));
+    matrix.set(0, "chr1:200", new SampleAllele("chr1", 200, "C", "T", false, false, List.of("C", "T"), null, false));
+    // homozygous, so effectively phased
+    matrix.set(0, "chrX:300", new SampleAllele("chrX", 300, "G", "G", false, true, List.of("G", "A"), null, false));
+    matrix.set(1, "chr1:100", new SampleAllele("chr1", 100, "A", "G", true, true, List.of("A", "G"), null, false));
+    // cannot be packed
+    matrix.set(1, "chr1:200", new SampleAllele("chr1", 200, "C", "A", false, false, List.of("C", "A"), Set.of("A"),
+        true));
+
+    ImmutableMap<String, String> genes = ImmutableMap.of(
+        "chr1:100", "GENE1",
+        "chr1:200", "GENE1",
+        "chrX:300", "GENE2");
+    assertEquals(ImmutableMap.of("GENE1", 2), matrix.countUnphased(0, genes));
+    assertEquals(ImmutableMap.of("GENE1", 1), matrix.countUnphased(1, genes));
+    // positions without a group are not counted
+    assertEquals(ImmutableMap.of(), matrix.countUnphased(0, ImmutableMap.of("chrX:300", "GENE2")));
+  }
+
+
+  private void assertSameAllele(SampleAllele expected, SampleAllele actual) {
+    assertEquals(expected.getChrPosition(), actual.getChrPosition());
+    assertEquals(expected.getAllele1(), actual.getAllele1());
+    assertEquals(expected.getAllele2(), actual.getAllele2());
+    assertEquals(expected.isPhased(), actual.isPhased());
+    assertEquals(expected.isEffectivelyPhased(), actual.isEffectivelyPhased());
+    assertEquals(expected.getVcfAlleles(), actual.getVcfAlleles());
+  }
+}
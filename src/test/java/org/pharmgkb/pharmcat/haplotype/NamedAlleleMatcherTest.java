@@ -173,6 +173,30 @@ void testCall() throws Exception {
   }
 
 
+  @Test
+  void testCallGenesConcurrently() throws Exception {
+    Path vcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/Sample_1.preprocessed.vcf");
+    Env env = new Env();
+
+    Result expected = new NamedAlleleMatcher(env, env.getDefinitionReader(), false, true, true)
+        .call(new VcfFile(vcfFile), null);
+    Result actual = new NamedAlleleMatcher(env, env.getDefinitionReader(), false, true, true)
+        .callGenesConcurrently()
+        .call(new VcfFile(vcfFile), null);
+
+    assertEquals(expected.getGeneCalls().size(), actual.getGeneCalls().size());
+    for (int x = 0; x < expected.getGeneCalls().size(); x += 1) {
+      GeneCall expectedCall = expected.getGeneCalls().get(x);
+      GeneCall actualCall = actual.getGeneCalls().get(x);
+      assertEquals(expectedCall.getGene(), actualCall.getGene());
+      assertEquals(expectedCall.getDiplotypes().stream().map(DiplotypeMatch::getName).toList(),
+          actualCall.getDiplotypes().stream().map(DiplotypeMatch::getName).toList(), expectedCall.getGene());
+      assertEquals(expectedCall.getHaplotypes().stream().map(BaseMatch::getName).toList(),
+          actualCall.getHaplotypes().stream().map(BaseMatch::getName).toList(), expectedCall.getGene());
+    }
+  }
+
+
   /**
    * This breaks down the main code path that {@link #testCall()} runs to simplify testing smaller chunks at a time.
    */
@@ -0,0 +1,151 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link PermutationSearch}.
+ */
+class PermutationSearchTest {
+  private static final VariantLocus[] sf_positions = new VariantLocus[] {
+      new VariantLocus("chr1", 1, "g.1T>C"),
+      new VariantLocus("chr1", 2, "g.2A>T"),
+      new VariantLocus("chr1", 3, "g.3C>G"),
+      new VariantLocus("chr1", 4, "g.4C>G"),
+  };
+
+
+  /**
+   * Gets all permutations by searching with a haplotype that matches anything.
+   */
+  private static Set<String> searchAll(PermutationSearch search) {
+    String[] alleles = new String[sf_positions.length];
+    NamedAllele any = new NamedAllele("*X", "*X", alleles, alleles, false);
+    any.initialize(sf_positions);
+
+    Set<String> permutations = new HashSet<>();
+    search.search(List.of(any), (seq, matches) -> {
+      assertTrue(permutations.add(seq), "Duplicate permutation: " + seq);
+      assertEquals(1, matches.cardinality());
+    });
+    return permutations;
+  }
+
+
+  @Test
+  void testNotPhased() {
+    List<SampleAllele> alleles = List.of(
+        new SampleAllele("chr1", 1, "T", "T", false, Lists.newArrayList("T", "C")),
+        new SampleAllele("chr1", 2, "A", "T", false, Lists.newArrayList("A", "T")),
+        new SampleAllele("chr1", 3, "C", "C", false, Lists.newArrayList("C", "G")),
+        new SampleAllele("chr1", 4, "C", "G", false, Lists.newArrayList("C", "G"))
+    );
+    PermutationSearch search = new PermutationSearch(sf_positions, alleles);
+    Set<String> expected = CombinationUtil.generatePermutations(alleles);
+    assertEquals(expected, search.getPermutations());
+    assertEquals(expected.size(), search.size());
+    assertEquals(expected, searchAll(search));
+  }
+
+  @Test
+  void testPhased() {
+    List<SampleAllele> alleles = List.of(
+        new SampleAllele("chr1", 1, "T", "T", true, Lists.newArrayList("T", "C")),
+        new SampleAllele("chr1", 2, "A", "T", true, Lists.newArrayList("A", "T")),
+        new SampleAllele("chr1", 3, "C", "C", true, Lists.newArrayList("C", "G")),
+        new SampleAllele("chr1", 4, "C", "G", true, Lists.newArrayList("C", "G"))
+    );
+    PermutationSearch search = new PermutationSearch(sf_positions, alleles);
+    Set<String> expected = CombinationUtil.generatePermutations(alleles);
+    assertEquals(2, expected.size());
+    assertEquals(expected.size(), search.size());
+    assertEquals(expected, searchAll(search));
+  }
+
+  @Test
+  void testMixedPhasing() {
+    List<SampleAllele> alleles = List.of(
+        new SampleAllele("chr1", 1, "T", "C", true, Lists.newArrayList("T", "C")),
+        new SampleAllele("chr1", 2, "A", "T", false, Lists.newArrayList("A", "T")),
+        new SampleAllele("chr1", 3, "C", "C", true, Lists.newArrayList("C", "G")),
+        new SampleAllele("chr1", 4, "G", "C", false, Lists.newArrayList("C", "G"))
+    );
+    PermutationSearch search = new PermutationSearch(sf_positions, alleles);
+    Set<String> expected = CombinationUtil.generatePermutations(alleles);
+    assertEquals(expected.size(), search.size());
+    assertEquals(expected, searchAll(search));
+  }
+
+  @Test
+  void testHaploid() {
+    List<SampleAllele> alleles = List.of(
+        new SampleAllele("chr1", 1, "T", null, false, Lists.newArrayList("T", "C")),
+        new SampleAllele("chr1", 2, "T", null, false, Lists.newArrayList("A", "T")),
+        new SampleAllele("chr1", 3, "C", null, false, Lists.newArrayList("C", "G")),
+        new SampleAllele("chr1", 4, "G", null, false, Lists.newArrayList("C", "G"))
+    );
+    PermutationSearch search = new PermutationSearch(sf_positions, alleles);
+    Set<String> expected = CombinationUtil.generatePermutations(alleles);
+    assertEquals(1, search.size());
+    assertEquals(expected, searchAll(search));
+  }
+
+
+  @Test
+  void testPruning() {
+    List<SampleAllele> alleles = List.of(
+        new SampleAllele("chr1", 1, "T", "C", false, Lists.newArrayList("T", "C")),
+        new SampleAllele("chr1", 2, "A", "T", false, Lists.newArrayList("A", "T")),
+        new SampleAllele("chr1", 3, "C", "G", false, Lists.newArrayList("C", "G")),
+        new SampleAllele("chr1", 4, "C", "G", false, Lists.newArrayList("C", "G"))
+    );
+
+    String[] alleles1 = new String[] { "T", "A", "C", "C" };
+    NamedAllele hap1 = new NamedAllele("*1", "*1", alleles1, alleles1, true);
+    hap1.initialize(sf_positions);
+    String[] alleles2 = new String[] { "C", null, "S", null };
+    NamedAllele hap2 = new NamedAllele("*2", "*2", alleles2, alleles2, false);
+    hap2.initialize(sf_positions);
+    String[] alleles3 = new String[] { "G", null, null, null };
+    NamedAllele hap3 = new NamedAllele("*3", "*3", alleles3, alleles3, false);
+    hap3.initialize(sf_positions);
+    List<NamedAllele> haplotypes = List.of(hap1, hap2, hap3);
+
+    PermutationSearch search = new PermutationSearch(sf_positions, alleles);
+    assertEquals(16, search.size());
+
+    // must match what regex matching finds across all permutations
+    List<Set<String>> expected = haplotypes.stream()
+        .map(h -> {
+          Set<String> seqs = new HashSet<>();
+          for (String seq : search.getPermutations()) {
+            if (h.getPermutations().matcher(seq).matches()) {
+              seqs.add(seq);
+            }
+          }
+          return seqs;
+        })
+        .toList();
+    List<Set<String>> found = List.of(new HashSet<>(), new HashSet<>(), new HashSet<>());
+    Set<String> visited = new HashSet<>();
+    search.search(haplotypes, (seq, matches) -> {
+      assertTrue(visited.add(seq));
+      assertFalse(matches.isEmpty());
+      matches.stream().forEach(x -> found.get(x).add(seq));
+    });
+    assertEquals(expected, found);
+    assertEquals(Set.of("1:T;2:A;3:C;4:C;"), found.get(0));
+    assertEquals(8, found.get(1).size());
+    assertTrue(found.get(2).isEmpty());
+    // pruned sequences are never produced
+    assertEquals(9, visited.size());
+  }
+}
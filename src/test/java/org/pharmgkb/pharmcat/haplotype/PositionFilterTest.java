@@ -0,0 +1,42 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link PositionFilter}.
+ */
+class PositionFilterTest {
+
+
+  @Test
+  void testAccept() {
+    PositionFilter filter = new PositionFilter(List.of(
+        new VariantLocus("chr1", 97078987, "g.97078987G>T"),
+        new VariantLocus("chr1", 100, "g.100A>G"),
+        new VariantLocus("chr10", 94942205, "g.94942205del"),
+        new VariantLocus("chr1", 100, "g.100A>C")
+    ));
+
+    assertTrue(filter.accept("chr1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+    assertTrue(filter.accept("chr1\t97078987\t.\tG\tT\t.\tPASS\t.\tGT\t0/1"));
+    assertFalse(filter.accept("chr1\t101\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+    assertFalse(filter.accept("chr1\t10\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+    // contig prefixes must not match
+    assertTrue(filter.accept("chr10\t94942205\t.\tCA\tC\t.\tPASS\t.\tGT\t0/1"));
+    assertFalse(filter.accept("chr10\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+    assertFalse(filter.accept("chr2\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+    assertFalse(filter.accept("1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+    assertFalse(filter.accept(""));
+    assertFalse(filter.accept("chr1"));
+
+    // let the parser deal with bad lines
+    assertTrue(filter.accept("chr1\tX\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+    assertTrue(filter.accept("chr1\t100"));
+    assertTrue(filter.accept("chr1\t\t.\tA\tG\t.\tPASS\t.\tGT\t0/1"));
+  }
+}
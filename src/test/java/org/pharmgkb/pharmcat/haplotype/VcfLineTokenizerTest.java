@@ -0,0 +1,106 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.parser.vcf.VcfFormatException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link VcfLineTokenizer}.
+ */
+class VcfLineTokenizerTest {
+
+
+  @Test
+  void testTokenize() {
+    VcfLineTokenizer tokenizer = new VcfLineTokenizer(4, List.of(3, 0, 2));
+
+    assertFalse(tokenizer.tokenize("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\ts4"));
+    assertFalse(tokenizer.tokenize(""));
+
+    assertTrue(tokenizer.tokenize("chr1\t97078987\trs114096998\tG\tT,C\t.\tPASS\tPX=DPYD\tGT:AD\t0/0:10,0\t" +
+        "0/1:5,5\t1|2:0,3,4\t./."));
+    assertEquals("chr1", tokenizer.getChromosome());
+    assertEquals(97078987, tokenizer.getPosition());
+    assertEquals("G", tokenizer.getRef());
+    assertEquals(List.of("T", "C"), tokenizer.getAltBases());
+    assertEquals("C", tokenizer.getAllele(2));
+    assertTrue(tokenizer.getFilters().isEmpty());
+    assertEquals(4, tokenizer.getNumSamples());
+    assertEquals("0/0", tokenizer.getGt(0));
+    assertEquals("10,0", tokenizer.getAd(0));
+    assertEquals("1|2", tokenizer.getGt(2));
+    assertEquals("0,3,4", tokenizer.getAd(2));
+    // AD is missing
+    assertEquals("./.", tokenizer.getGt(3));
+    assertNull(tokenizer.getAd(3));
+    assertThrows(IllegalArgumentException.class, () -> tokenizer.getGt(1));
+
+    // different FORMAT order, no ALT, filters
+    assertTrue(tokenizer.tokenize("chr2\t100\t.\tA\t.\t50\tPCATxREF;q10\t.\tAD:DP:GT\t3:4:0/0\t.\t1:1:1/1\t2:2:0/0"));
+    assertTrue(tokenizer.getAltBases().isEmpty());
+    assertEquals(List.of("PCATxREF", "q10"), tokenizer.getFilters());
+    assertEquals("0/0", tokenizer.getGt(0));
+    assertEquals("3", tokenizer.getAd(0));
+    assertEquals("1/1", tokenizer.getGt(2));
+    assertEquals("2", tokenizer.getAd(3));
+
+    // no GT
+    assertTrue(tokenizer.tokenize("chr2\t101\t.\tA\tG\t.\t.\t.\tDP\t1\t2\t3\t4"));
+    assertNull(tokenizer.getGt(0));
+    assertNull(tokenizer.getAd(0));
+
+    // no sample columns
+    assertTrue(tokenizer.tokenize("chr2\t102\t.\tA\tG\t.\tPASS\t."));
+    assertEquals(0, tokenizer.getNumSamples());
+    assertNull(tokenizer.getGt(0));
+  }
+
+
+  @Test
+  void testBadLines() {
+    VcfLineTokenizer tokenizer = new VcfLineTokenizer(2, List.of(1));
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\t100\t.\tA"));
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\tX\t.\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/1"));
+    // missing second sample
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/0"));
+    // extra sample
+    assertThrows(VcfFormatException.class,
+        () -> tokenizer.tokenize("chr1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/1\t1/1"));
+    // FORMAT but no samples
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\t100\t.\tA\tG\t.\tPASS\t.\tGT"));
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\t0\t.\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/1"));
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\t100\t.\t\tG\t.\tPASS\t.\tGT\t0/0\t0/1"));
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\t100\t.\tA-\tG\t.\tPASS\t.\tGT\t0/0\t0/1"));
+    assertThrows(VcfFormatException.class, () -> tokenizer.tokenize("chr1\t100\t.\tA\tG,\t.\tPASS\t.\tGT\t0/0\t0/1"));
+  }
+
+
+  /**
+   * A line that was cut off part way through (e.g. a truncated file) should be reported, not misread.
+   */
+  @Test
+  void testTruncatedLine() {
+    String line = "chr1\t97078987\trs114096998\tG\tT\t.\tPASS\tPX=DPYD\tGT:AD\t0/0:10,0\t0/1:5,5\t1/1:0,3";
+    VcfLineTokenizer tokenizer = new VcfLineTokenizer(3, List.of(0));
+    assertTrue(tokenizer.tokenize(line));
+    int infoStart = line.indexOf("PX=");
+    int formatStart = line.indexOf("GT:");
+    int lastSampleStart = line.lastIndexOf('\t') + 1;
+    for (int x = 1; x < lastSampleStart; x += 1) {
+      if (x >= infoStart && x < formatStart) {
+        // cut off in INFO, which is indistinguishable from a line without FORMAT or sample columns
+        continue;
+      }
+      String truncated = line.substring(0, x);
+      try {
+        tokenizer.tokenize(truncated);
+        fail("Should have rejected: " + truncated);
+      } catch (VcfFormatException ex) {
+        // expected
+      }
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package org.pharmgkb.pharmcat.haplotype;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
@@ -31,6 +35,71 @@ void testCompressed() throws Exception {
   }
 
 
+  @Test
+  void testReadSamples() throws Exception {
+
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    VcfFile vcfFile = new VcfFile(PathUtils.getPathToResource("org/pharmgkb/pharmcat/multisample.vcf.bgz"), false);
+    List<String> samples = vcfFile.getSamples();
+    assertEquals(2, samples.size());
+
+    Map<String, VcfReader> readers;
+    try (BufferedReader bufferedReader = VcfReader.openVcfFile(vcfFile.getFile())) {
+      readers = VcfReader.readSamples(definitionReader, bufferedReader, samples, false);
+    }
+    assertEquals(samples, List.copyOf(readers.keySet()));
+
+    for (String sampleId : samples) {
+      VcfReader singleReader = vcfFile.getReader(definitionReader, sampleId, false);
+      VcfReader multiReader = readers.get(sampleId);
+      assertEquals(sampleId, multiReader.getSampleId());
+      assertEquals(singleReader.getAlleleMap().keySet(), multiReader.getAlleleMap().keySet());
+      for (String chrPos : singleReader.getAlleleMap().keySet()) {
+        SampleAllele sa1 = singleReader.getAlleleMap().get(chrPos);
+        SampleAllele sa2 = multiReader.getAlleleMap().get(chrPos);
+        assertEquals(0, sa1.compareTo(sa2));
+        assertEquals(sa1.isPhased(), sa2.isPhased());
+        assertEquals(sa1.getAllele2(), sa2.getAllele2());
+        assertEquals(sa1.getVcfAlleles(), sa2.getVcfAlleles());
+        assertEquals(sa1.getUndocumentedVariations(), sa2.getUndocumentedVariations());
+      }
+      assertEquals(singleReader.getWarnings(), multiReader.getWarnings());
+    }
+
+    // single pass data is used once, then released
+    vcfFile.readSamples(definitionReader, samples, false);
+    VcfReader r1 = vcfFile.getReader(definitionReader, "Sample_1", false);
+    VcfReader r2 = vcfFile.getReader(definitionReader, "Sample_1", false);
+    assertNotSame(r1, r2);
+    assertEquals(r1.getAlleleMap().keySet(), r2.getAlleleMap().keySet());
+  }
+
+
+  @Test
+  void testIndexed(TestInfo testInfo) throws Exception {
+
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    Path indexedFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/util/TabixIndexTest-tbi.vcf.bgz");
+    Path unindexedFile = TestUtils.createTestFile(testInfo, ".vcf.bgz");
+    Files.copy(indexedFile, unindexedFile, StandardCopyOption.REPLACE_EXISTING);
+
+    VcfReader indexedReader = new VcfFile(indexedFile).getReader(definitionReader, null, false);
+    VcfReader fullReader = new VcfFile(unindexedFile).getReader(definitionReader, null, false);
+    assertFalse(indexedReader.getAlleleMap().isEmpty());
+    assertEquals(fullReader.getAlleleMap().keySet(), indexedReader.getAlleleMap().keySet());
+    for (String chrPos : fullReader.getAlleleMap().keySet()) {
+      SampleAllele sa1 = fullReader.getAlleleMap().get(chrPos);
+      SampleAllele sa2 = indexedReader.getAlleleMap().get(chrPos);
+      assertEquals(0, sa1.compareTo(sa2));
+      assertEquals(sa1.getAllele1(), sa2.getAllele1());
+      assertEquals(sa1.getAllele2(), sa2.getAllele2());
+    }
+    assertEquals(fullReader.getWarnings(), indexedReader.getWarnings());
+    assertEquals(fullReader.getVcfMetadata().getContigs().keySet(),
+        indexedReader.getVcfMetadata().getContigs().keySet());
+  }
+
+
   @Test
   void testPhasing() throws Exception {
 
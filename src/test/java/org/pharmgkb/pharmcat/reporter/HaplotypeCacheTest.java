@@ -0,0 +1,88 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.reporter.model.DataSource;
+import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link HaplotypeCache}.
+ */
+class HaplotypeCacheTest {
+
+  @Test
+  void testGet() {
+    AtomicInteger made = new AtomicInteger();
+    HaplotypeCache cache = new HaplotypeCache((gene, name, source) -> {
+      made.incrementAndGet();
+      return new Haplotype(gene, name);
+    });
+
+    Haplotype cpic = cache.get("CYP2C19", "*2", DataSource.CPIC);
+    assertEquals("CYP2C19", cpic.getGene());
+    assertEquals("*2", cpic.getName());
+    assertSame(cpic, cache.get("CYP2C19", "*2", DataSource.CPIC));
+    // different source is a different haplotype
+    assertNotSame(cpic, cache.get("CYP2C19", "*2", DataSource.DPWG));
+    assertNotSame(cpic, cache.get("CYP2C19", "*3", DataSource.CPIC));
+
+    assertEquals(3, made.get());
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+    assertEquals(0, cache.getRaces());
+  }
+
+
+  @Test
+  void testConcurrentGet() throws Exception {
+    AtomicInteger made = new AtomicInteger();
+    HaplotypeCache cache = new HaplotypeCache((gene, name, source) -> {
+      made.incrementAndGet();
+      return new Haplotype(gene, name);
+    });
+
+    int numThreads = 8;
+    int numLookups = 10_000;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<List<Haplotype>>> futures = new ArrayList<>();
+      for (int x = 0; x < numThreads; x += 1) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          List<Haplotype> haplotypes = new ArrayList<>();
+          for (int y = 0; y < numLookups; y += 1) {
+            haplotypes.add(cache.get("CYP2D6", "*" + (y % 10), DataSource.CPIC));
+          }
+          return haplotypes;
+        }));
+      }
+      start.countDown();
+
+      List<Haplotype> first = futures.get(0).get();
+      for (Future<List<Haplotype>> future : futures) {
+        List<Haplotype> haplotypes = future.get();
+        for (int y = 0; y < numLookups; y += 1) {
+          assertSame(first.get(y), haplotypes.get(y));
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(10, made.get());
+    assertEquals(10, cache.size());
+    assertEquals(10, cache.getMisses());
+    assertEquals((long)numThreads * numLookups, cache.getHits() + cache.getMisses() + cache.getRaces());
+  }
+}
@@ -1,14 +1,20 @@
 package org.pharmgkb.pharmcat.reporter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.SortedSet;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.pharmgkb.pharmcat.Env;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.pgkb.GuidelinePackage;
+import org.pharmgkb.pharmcat.reporter.model.pgkb.RecommendationAnnotation;
 import org.pharmgkb.pharmcat.reporter.model.result.Diplotype;
 import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
 
@@ -37,5 +43,75 @@ void testLoad() throws IOException {
 
     SortedSet<String> dpwgGenes = pgkbGuidelineCollection.getGenesUsedInSource(DataSource.DPWG);
     assertFalse(dpwgGenes.contains("CACNA1S"));
+    assertFalse(pgkbGuidelineCollection.isGeneUsedInSource(DataSource.DPWG, "CACNA1S"));
+    assertTrue(pgkbGuidelineCollection.isGeneUsedInSource(DataSource.CPIC, "CACNA1S"));
+  }
+
+
+  /**
+   * Makes sure that the lookup tables built on load match what is in the guidelines.
+   */
+  @Test
+  void testSourceLookups() throws IOException {
+    PgkbGuidelineCollection pgkbGuidelineCollection = new PgkbGuidelineCollection();
+    for (DataSource source : DataSource.values()) {
+      Set<GuidelinePackage> guidelines = pgkbGuidelineCollection.getGuidelinePackages().stream()
+          .filter(p -> p.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
+          .collect(Collectors.toSet());
+      assertEquals(guidelines, pgkbGuidelineCollection.getGuidelinesFromSource(source));
+      assertEquals(guidelines.stream().flatMap(p -> p.getDrugs().stream()).collect(Collectors.toSet()),
+          pgkbGuidelineCollection.getChemicalsUsedInSource(source));
+
+      Set<String> genes = guidelines.stream().flatMap(p -> p.getGenes().stream()).collect(Collectors.toSet());
+      assertEquals(genes, pgkbGuidelineCollection.getGenesUsedInSource(source));
+      genes.forEach(g -> assertTrue(pgkbGuidelineCollection.isGeneUsedInSource(source, g)));
+
+      for (String drug : pgkbGuidelineCollection.getChemicalsUsedInSource(source)) {
+        List<GuidelinePackage> packages = pgkbGuidelineCollection.findGuidelinePackages(drug, source);
+        assertFalse(packages.isEmpty());
+        assertEquals(packages, pgkbGuidelineCollection.findGuidelinePackages(drug.toUpperCase(), source));
+        packages.forEach(p -> assertTrue(guidelines.contains(p)));
+      }
+      assertTrue(pgkbGuidelineCollection.findGuidelinePackages("not-a-drug", source).isEmpty());
+    }
+    assertThrows(UnsupportedOperationException.class,
+        () -> pgkbGuidelineCollection.getGenesUsedInSource(DataSource.CPIC).add("FAKE"));
+  }
+
+
+  /**
+   * Makes sure that the {@link RecommendationIndex} finds the same recommendations as scanning all of them.
+   */
+  @Test
+  void testRecommendationIndex() throws IOException {
+    PgkbGuidelineCollection pgkbGuidelineCollection = new PgkbGuidelineCollection();
+    int numChecked = 0;
+    for (GuidelinePackage guidelinePackage : pgkbGuidelineCollection.getGuidelinePackages()) {
+      RecommendationIndex index = guidelinePackage.getRecommendationIndex();
+      List<RecommendationAnnotation> recs = guidelinePackage.getRecommendations().stream()
+          .filter(Objects::nonNull)
+          .filter(r -> r.getLookupKey() != null)
+          .toList();
+      for (String drug : guidelinePackage.getDrugs()) {
+        for (RecommendationAnnotation rec : recs) {
+          // try the recommendation's own key, plus the same key with an extra gene
+          List<Map<String, Object>> lookupKeys = new ArrayList<>();
+          lookupKeys.add(rec.getLookupKey());
+          Map<String, Object> extended = new HashMap<>(rec.getLookupKey());
+          extended.put("FAKE", "1.0");
+          lookupKeys.add(extended);
+
+          Set<RecommendationAnnotation> expected = recs.stream()
+              .filter(r -> r.appliesToDrug(drug))
+              .filter(r -> lookupKeys.stream().anyMatch(k -> RecommendationUtils.mapContains(k, r.getLookupKey())))
+              .collect(Collectors.toSet());
+          assertEquals(expected, index.findMatches(drug, lookupKeys), rec.getName());
+          assertEquals(expected, index.findMatches(drug.toUpperCase(), lookupKeys), rec.getName());
+          numChecked += 1;
+        }
+      }
+      assertTrue(index.findMatches("not-a-drug", List.of(Map.of("FAKE", "1.0"))).isEmpty());
+    }
+    assertTrue(numChecked > 0);
   }
 }
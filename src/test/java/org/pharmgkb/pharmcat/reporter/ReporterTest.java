@@ -1,9 +1,15 @@
 package org.pharmgkb.pharmcat.reporter;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import com.github.jknack.handlebars.Template;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
 import org.pharmgkb.common.util.PathUtils;
 import org.pharmgkb.pharmcat.Env;
+import org.pharmgkb.pharmcat.TestUtils;
 import org.pharmgkb.pharmcat.phenotype.Phenotyper;
+import org.pharmgkb.pharmcat.reporter.format.HtmlFormat;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.result.DrugReport;
 import org.pharmgkb.pharmcat.reporter.model.result.GeneReport;
@@ -54,4 +60,28 @@ void testCypc2c9VariantPassthrough() throws Exception {
         .orElseThrow(() -> new RuntimeException("No desflurane drug report found"));
     assertEquals(1, desfluraneReport.getGuidelines().stream().filter(GuidelineReport::isMatched).count());
   }
+
+
+  @Test
+  void testHtmlTemplateReuse(TestInfo testInfo) throws Exception {
+    Env env = new Env();
+    Phenotyper phenotyper = Phenotyper.read(PathUtils.getPathToResource(PHENOTYPER_FILE_PATH));
+    ReportContext reportContext = new ReportContext(env, phenotyper.getGeneReports(), null);
+
+    Path htmlFile1 = TestUtils.createTestFile(testInfo, ".1.html");
+    Path htmlFile2 = TestUtils.createTestFile(testInfo, ".2.html");
+    try {
+      new HtmlFormat(htmlFile1, env, true).write(reportContext);
+      Template template = env.getReportTemplate();
+      new HtmlFormat(htmlFile2, env, true).write(reportContext);
+      assertSame(template, env.getReportTemplate());
+
+      String html = Files.readString(htmlFile1);
+      assertTrue(html.contains("</html>"));
+      assertEquals(html, Files.readString(htmlFile2));
+    } finally {
+      Files.deleteIfExists(htmlFile1);
+      Files.deleteIfExists(htmlFile2);
+    }
+  }
 }
@@ -0,0 +1,86 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link BgzfInputStream}.
+ */
+class BgzfInputStreamTest {
+
+
+  private static byte[] gunzip(byte[] data) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+      return in.readAllBytes();
+    }
+  }
+
+
+  @Test
+  void testRead() throws Exception {
+    for (String file : new String[] { "TabixIndexTest-tbi.vcf.bgz", "TabixIndexTest-csi.vcf.bgz" }) {
+      Path vcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/util/" + file);
+      byte[] data = Files.readAllBytes(vcfFile);
+      byte[] expected = gunzip(data);
+
+      try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(data))) {
+        assertArrayEquals(expected, in.readAllBytes(), file);
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+        for (int readAhead : new int[] { 1, 2, 16 }) {
+          try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(data), executor, readAhead)) {
+            // mix single byte and bulk reads
+            byte[] actual = new byte[expected.length];
+            actual[0] = (byte)in.read();
+            int offset = 1;
+            int n;
+            while ((n = in.read(actual, offset, Math.min(1000, actual.length - offset))) > 0) {
+              offset += n;
+            }
+            assertEquals(expected.length, offset);
+            assertEquals(-1, in.read());
+            assertArrayEquals(expected, actual, file + " with read ahead of " + readAhead);
+          }
+        }
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+
+  @Test
+  void testCorrupt() throws Exception {
+    Path vcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/util/TabixIndexTest-tbi.vcf.bgz");
+    byte[] data = Files.readAllBytes(vcfFile);
+
+    // truncated
+    byte[] truncated = new byte[data.length - 100];
+    System.arraycopy(data, 0, truncated, 0, truncated.length);
+    try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(truncated))) {
+      assertThrows(IOException.class, in::readAllBytes);
+    }
+
+    // bad CRC in first block
+    byte[] badCrc = data.clone();
+    int blockSize = ((badCrc[16] & 0xff) | ((badCrc[17] & 0xff) << 8)) + 1;
+    badCrc[blockSize - 8] ^= 0xff;
+    try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(badCrc))) {
+      IOException ex = assertThrows(IOException.class, in::read);
+      assertTrue(ex.getMessage().contains("CRC"));
+    }
+  }
+}
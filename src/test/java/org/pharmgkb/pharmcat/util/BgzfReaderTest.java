@@ -0,0 +1,73 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link BgzfReader}.
+ */
+class BgzfReaderTest {
+  private static final String sf_file = "org/pharmgkb/pharmcat/util/TabixIndexTest-tbi.vcf.bgz";
+
+
+  static List<String> readLines(Path file) throws Exception {
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+
+  @Test
+  void testIsBgzf() throws Exception {
+    assertTrue(BgzfReader.isBgzf(PathUtils.getPathToResource(sf_file)));
+    assertFalse(BgzfReader.isBgzf(PathUtils.getPathToResource("org/pharmgkb/pharmcat/Sample_1.preprocessed.vcf")));
+  }
+
+
+  @Test
+  void testReadLine() throws Exception {
+    Path file = PathUtils.getPathToResource(sf_file);
+    List<String> expected = readLines(file);
+
+    List<String> lines = new ArrayList<>();
+    List<Long> offsets = new ArrayList<>();
+    try (BgzfReader reader = new BgzfReader(file)) {
+      while (true) {
+        long offset = reader.getVirtualOffset();
+        String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+        offsets.add(offset);
+        lines.add(line);
+      }
+      assertEquals(expected, lines);
+
+      // lines span multiple blocks
+      assertNotEquals(offsets.get(0) >>> 16, offsets.get(offsets.size() - 1) >>> 16);
+
+      // seek back to lines in random order
+      for (int x = offsets.size() - 1; x >= 0; x -= 97) {
+        reader.seek(offsets.get(x));
+        assertEquals(expected.get(x), reader.readLine());
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link ByteBufferInputStream}.
+ */
+class ByteBufferInputStreamTest {
+
+
+  @Test
+  void testMultipleBuffers() throws Exception {
+    List<ByteBuffer> buffers = List.of(
+        ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8)),
+        ByteBuffer.allocate(0),
+        ByteBuffer.wrap("defgh".getBytes(StandardCharsets.UTF_8))
+    );
+    try (InputStream in = new ByteBufferInputStream(buffers)) {
+      assertEquals(8, in.available());
+      assertEquals('a', in.read());
+      assertEquals(3, in.skip(3));
+      byte[] bytes = new byte[10];
+      assertEquals(4, in.read(bytes, 0, bytes.length));
+      assertEquals("efgh", new String(bytes, 0, 4, StandardCharsets.UTF_8));
+      assertEquals(-1, in.read());
+      assertEquals(-1, in.read(bytes, 0, bytes.length));
+    }
+
+    // original buffers are untouched, so they can be read again
+    for (ByteBuffer buffer : buffers) {
+      assertEquals(0, buffer.position());
+    }
+    try (InputStream in = new ByteBufferInputStream(buffers)) {
+      assertEquals("abcdefgh", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+
+  @Test
+  void testMap() throws Exception {
+    Path file = PathUtils.getPathToResource("org/pharmgkb/pharmcat/Sample_1.preprocessed.vcf");
+    List<MappedByteBuffer> segments = ByteBufferInputStream.map(file);
+    assertEquals(1, segments.size());
+    byte[] expected = Files.readAllBytes(file);
+    try (InputStream in1 = new ByteBufferInputStream(segments);
+         InputStream in2 = new ByteBufferInputStream(segments)) {
+      assertEquals(expected[0], (byte)in1.read());
+      assertArrayEquals(expected, in2.readAllBytes());
+    }
+  }
+}
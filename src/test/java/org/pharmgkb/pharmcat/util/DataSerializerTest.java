@@ -1,17 +1,23 @@
 package org.pharmgkb.pharmcat.util;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.Set;
 import com.google.common.base.Charsets;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
 import org.pharmgkb.common.util.PathUtils;
 import org.pharmgkb.pharmcat.TestUtils;
 import org.pharmgkb.pharmcat.definition.model.DefinitionExemption;
+import org.pharmgkb.pharmcat.haplotype.ResultSerializer;
+import org.pharmgkb.pharmcat.haplotype.model.Result;
+import org.pharmgkb.pharmcat.phenotype.Phenotyper;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -119,4 +125,65 @@ void testValuedBooleanExemptions(TestInfo testInfo) throws Exception {
       Files.deleteIfExists(jsonFile);
     }
   }
+
+
+  @Test
+  void testStreamingJson(TestInfo testInfo) throws Exception {
+    Path refJsonFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/definition/exemptions.json");
+    Set<DefinitionExemption> exemptions = new DataSerializer().deserializeExemptionsFromJson(refJsonFile);
+
+    Path jsonFile = TestUtils.createTestFile(testInfo, ".json");
+    Path gzFile = TestUtils.createTestFile(testInfo, ".json.gz");
+    try {
+      DataSerializer.toJson(exemptions, jsonFile, false);
+      assertEquals(DataSerializer.GSON.toJson(exemptions), Files.readString(jsonFile));
+
+      DataSerializer.toJson(exemptions, jsonFile, true);
+      String compact = Files.readString(jsonFile);
+      assertEquals(DataSerializer.GSON_COMPACT.toJson(exemptions), compact);
+      assertFalse(compact.contains("\n"));
+
+      DataSerializer.toJson(exemptions, gzFile, true);
+      assertTrue(DataSerializer.isJsonFile(gzFile));
+      assertNotEquals(compact, new String(Files.readAllBytes(gzFile), StandardCharsets.UTF_8));
+      try (BufferedReader reader = DataSerializer.newJsonReader(gzFile)) {
+        assertEquals(compact, IOUtils.toString(reader));
+      }
+    } finally {
+      Files.deleteIfExists(jsonFile);
+      Files.deleteIfExists(gzFile);
+    }
+  }
+
+
+  @Test
+  void testBinary(TestInfo testInfo) throws Exception {
+    Path matchFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/Sample_1.match.json");
+    Path phenotyperFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/reporter/phenotyper_output.json");
+
+    Path binFile = TestUtils.createTestFile(testInfo, DataSerializer.BINARY_EXTENSION);
+    try {
+      ResultSerializer resultSerializer = new ResultSerializer();
+      Result result = resultSerializer.fromJson(matchFile);
+      resultSerializer.toBinary(result, binFile);
+      assertTrue(DataSerializer.isReadableBinaryFile(binFile));
+      assertTrue(Files.size(binFile) < Files.size(matchFile));
+      assertEquals(DataSerializer.GSON.toJson(result), DataSerializer.GSON.toJson(resultSerializer.fromBinary(binFile)));
+
+      Phenotyper phenotyper = Phenotyper.read(phenotyperFile);
+      phenotyper.writeBinary(binFile);
+      assertEquals(DataSerializer.GSON.toJson(phenotyper), DataSerializer.GSON.toJson(Phenotyper.read(binFile)));
+
+      assertFalse(DataSerializer.isReadableBinaryFile(matchFile));
+      assertThrows(IOException.class, () -> DataSerializer.fromBinary(matchFile, Result.class));
+
+      // written by a different version of PharmCAT
+      DataSerializer.toBinary(result, binFile, "0.0.0-other");
+      assertTrue(DataSerializer.isReadableBinaryFile(binFile, "0.0.0-other"));
+      assertFalse(DataSerializer.isReadableBinaryFile(binFile));
+      assertThrows(IOException.class, () -> DataSerializer.fromBinary(binFile, Result.class));
+    } finally {
+      Files.deleteIfExists(binFile);
+    }
+  }
 }
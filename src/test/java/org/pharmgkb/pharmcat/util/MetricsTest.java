@@ -0,0 +1,96 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.Env;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.haplotype.NamedAlleleMatcher;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * This is a JUnit test for {@link Metrics}.
+ */
+class MetricsTest {
+
+  @Test
+  void testHistogram() {
+    Metrics.Histogram histogram = new Metrics.Histogram();
+    assertEquals(0, histogram.getPercentile(0.5));
+
+    for (int x = 1; x <= 100; x += 1) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(x));
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5050), histogram.getSum());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMax());
+    // 50th value is 50ms, which falls in the (25ms, 50ms] bucket
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(50), histogram.getPercentile(0.5));
+    // 95th value is 95ms, which falls in the (50ms, 100ms] bucket
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getPercentile(0.95));
+  }
+
+
+  @Test
+  void testWrite() throws Exception {
+    Metrics metrics = new Metrics(true);
+    metrics.record(TimeUnit.MILLISECONDS.toNanos(3), Metrics.STAGE_SECONDS, "stage", "matcher");
+    metrics.record(TimeUnit.MILLISECONDS.toNanos(7), Metrics.STAGE_SECONDS, "stage", "matcher");
+    metrics.record(TimeUnit.SECONDS.toNanos(90), Metrics.STAGE_SECONDS, "stage", "reporter");
+    metrics.count(12, Metrics.MATCHER_SAMPLE_PERMUTATIONS, "gene", "CYP2C19");
+    assertThrows(IllegalArgumentException.class, () -> metrics.histogram("foo", "bar"));
+
+    StringWriter writer = new StringWriter();
+    metrics.writePrometheus(writer);
+    String prom = writer.toString();
+    assertTrue(prom.contains("# TYPE pharmcat_stage_seconds histogram\n"), prom);
+    assertEquals(1, prom.split("# TYPE pharmcat_stage_seconds").length - 1);
+    assertTrue(prom.contains("pharmcat_stage_seconds_bucket{stage=\"matcher\",le=\"0.0025\"} 0\n"), prom);
+    assertTrue(prom.contains("pharmcat_stage_seconds_bucket{stage=\"matcher\",le=\"0.005\"} 1\n"), prom);
+    assertTrue(prom.contains("pharmcat_stage_seconds_bucket{stage=\"matcher\",le=\"+Inf\"} 2\n"), prom);
+    assertTrue(prom.contains("pharmcat_stage_seconds_sum{stage=\"matcher\"} 0.01\n"), prom);
+    assertTrue(prom.contains("pharmcat_stage_seconds_count{stage=\"matcher\"} 2\n"), prom);
+    assertTrue(prom.contains("pharmcat_stage_seconds_bucket{stage=\"reporter\",le=\"60\"} 0\n"), prom);
+    assertTrue(prom.contains("pharmcat_stage_seconds_bucket{stage=\"reporter\",le=\"+Inf\"} 1\n"), prom);
+    assertTrue(prom.contains("# TYPE pharmcat_matcher_sample_permutations_total counter\n" +
+        "pharmcat_matcher_sample_permutations_total{gene=\"CYP2C19\"} 12\n"), prom);
+
+    writer = new StringWriter();
+    metrics.writeJson(writer);
+    JsonObject json = DataSerializer.GSON.fromJson(writer.toString(), JsonObject.class);
+    JsonArray histograms = json.getAsJsonArray("histograms");
+    assertEquals(2, histograms.size());
+    JsonObject matcher = histograms.get(0).getAsJsonObject();
+    assertEquals("matcher", matcher.getAsJsonObject("labels").get("stage").getAsString());
+    assertEquals(2, matcher.get("count").getAsInt());
+    assertEquals(10.0, matcher.get("sum").getAsDouble());
+    assertEquals(5.0, matcher.get("mean").getAsDouble());
+    assertEquals(7.0, matcher.get("max").getAsDouble());
+    assertEquals(12, json.getAsJsonArray("counters").get(0).getAsJsonObject().get("value").getAsInt());
+  }
+
+
+  @Test
+  void testMatcher() throws Exception {
+    Path vcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/Sample_1.preprocessed.vcf");
+    Env env = new Env();
+    Metrics metrics = new Metrics();
+    new NamedAlleleMatcher(env, env.getDefinitionReader())
+        .useMetrics(metrics)
+        .call(new VcfFile(vcfFile), null);
+
+    assertEquals(1, metrics.histogram(Metrics.STAGE_SECONDS, "stage", "vcf").getCount());
+    assertEquals(1, metrics.histogram(Metrics.MATCHER_GENE_SECONDS, "gene", "DPYD", "call", "callDpyd")
+        .getCount());
+    assertEquals(1, metrics.histogram(Metrics.MATCHER_GENE_SECONDS, "gene", "CYP2C19", "call",
+        "callAssumingReference").getCount());
+    assertEquals(2, metrics.counter(Metrics.MATCHER_SAMPLE_PERMUTATIONS, "gene", "UGT1A1").sum());
+    assertEquals(4, metrics.counter(Metrics.MATCHER_DIPLOTYPES, "gene", "UGT1A1").sum());
+  }
+}
@@ -0,0 +1,113 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link TabixIndex}.
+ */
+class TabixIndexTest {
+
+
+  /**
+   * Reads the regions covering all positions of interest and checks that no records in those regions are missed.
+   *
+   * @return the number of lines read
+   */
+  private int checkRegions(String file, String indexExt) throws Exception {
+    Path vcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/util/" + file);
+    Path indexFile = TabixIndex.findIndex(vcfFile);
+    assertNotNull(indexFile);
+    assertTrue(indexFile.toString().endsWith(indexExt));
+    TabixIndex index = TabixIndex.read(indexFile);
+
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    List<long[]> chunks = new ArrayList<>();
+    for (VariantLocus vl : definitionReader.getLocationsOfInterest().values()) {
+      chunks.addAll(index.getChunks(vl.getChromosome(), vl.getPosition(), vl.getPosition()));
+    }
+    chunks = TabixIndex.mergeChunks(chunks);
+
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new BgzfReader(vcfFile).openRegions(chunks), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    }
+
+    List<String> allLines = BgzfReaderTest.readLines(vcfFile);
+    List<String> expected = allLines.stream()
+        .filter(l -> {
+          if (l.startsWith("#")) {
+            return true;
+          }
+          String[] fields = l.split("\t");
+          return definitionReader.getLocationsOfInterest().containsKey(fields[0] + ":" + fields[1]);
+        })
+        .toList();
+    // everything we read is in the same order as in the file
+    List<String> subset = allLines.stream()
+        .filter(lines::contains)
+        .toList();
+    assertEquals(lines, subset);
+    for (String line : expected) {
+      assertTrue(lines.contains(line), "Missing " + line);
+    }
+    return lines.size();
+  }
+
+
+  @Test
+  void testTbi() throws Exception {
+    int numLines = checkRegions("TabixIndexTest-tbi.vcf.bgz", ".tbi");
+    // filler records should have been skipped
+    assertTrue(numLines < BgzfReaderTest.readLines(
+        PathUtils.getPathToResource("org/pharmgkb/pharmcat/util/TabixIndexTest-tbi.vcf.bgz")).size() - 2000);
+  }
+
+  @Test
+  void testCsi() throws Exception {
+    checkRegions("TabixIndexTest-csi.vcf.bgz", ".csi");
+  }
+
+
+  @Test
+  void testChrPrefix() throws Exception {
+    TabixIndex index = TabixIndex.read(PathUtils.getPathToResource(
+        "org/pharmgkb/pharmcat/util/TabixIndexTest-csi.vcf.bgz.csi"));
+    assertTrue(index.hasContig("chr1"));
+    assertTrue(index.hasContig("1"));
+    assertFalse(index.hasContig("chrFoo"));
+    assertFalse(index.getChunks("chr10", 94942205, 94942205).isEmpty());
+    assertEquals(index.getChunks("chr10", 94942205, 94942205).size(),
+        index.getChunks("10", 94942205, 94942205).size());
+    assertTrue(index.getChunks("chrFoo", 1, 100).isEmpty());
+  }
+
+
+  @Test
+  void testMergeChunks() {
+    List<long[]> merged = TabixIndex.mergeChunks(List.of(
+        new long[] { 30, 40 },
+        new long[] { 10, 20 },
+        new long[] { 15, 25 },
+        new long[] { 25, 28 }
+    ));
+    assertEquals(2, merged.size());
+    assertArrayEquals(new long[] { 10, 28 }, merged.get(0));
+    assertArrayEquals(new long[] { 30, 40 }, merged.get(1));
+  }
+}